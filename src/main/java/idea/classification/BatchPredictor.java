@@ -0,0 +1,268 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.7+
+ */
+package idea.classification;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import libsvm.*;
+
+/**
+ * 以多個 thread 批次預測.
+ * 資料分段後在 ForkJoinPool 上同時計算；串流模式由 source 逐筆讀取，
+ * 每 batch_size 筆交給 pool 計算，依原本順序輸出結果，不需要先把所有資料放進 svm_problem.
+ * 以 {@link SVMScorer} 計算 (linear model 只需一次內積)，Model 只讀不寫，可由多個 thread 共用.
+ *
+ * @author Miles Chen
+ */
+public class BatchPredictor {
+	/** 預設共用的 pool. */
+	protected static ForkJoinPool shared = null;
+
+	/** 預測使用的 model. */
+	protected final svm_model model;
+	/** 預測使用的 scorer, precomputed kernel 時為 null, 改用 svm.svm_predict. */
+	protected final SVMScorer scorer;
+	/** 執行的 pool. */
+	protected final ForkJoinPool pool;
+	/** 每個 task 至少處理的筆數. */
+	protected int batch_size = 1024;
+	/** 串流模式最多同時計算的 batch 數. */
+	protected int max_pending;
+
+	/**
+	 * Constructor. 使用共用的 pool.
+	 *
+	 * @param model 預測使用的 model
+	 */
+	public BatchPredictor(svm_model model) {
+		this(model, sharedPool());
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param model 預測使用的 model
+	 * @param pool  執行的 pool
+	 */
+	public BatchPredictor(svm_model model, ForkJoinPool pool) {
+		this.model = model;
+		this.scorer = (model.param.kernel_type != svm_parameter.PRECOMPUTED)? new SVMScorer(model) : null;
+		this.pool = pool;
+		this.max_pending = pool.getParallelism() * 2;
+	}
+
+	/**
+	 * Constructor. 使用共用的 pool 與已建立的 scorer, 例: {@link ModelRegistry#getScorer(String)}.
+	 *
+	 * @param scorer 預測使用的 scorer
+	 */
+	public BatchPredictor(SVMScorer scorer) {
+		this.model = null;
+		this.scorer = scorer;
+		this.pool = sharedPool();
+		this.max_pending = pool.getParallelism() * 2;
+	}
+
+	/**
+	 * 取得共用的 pool, 大小與 CPU 數相同.
+	 *
+	 * @return 共用的 pool
+	 */
+	protected static synchronized ForkJoinPool sharedPool() {
+		if (shared == null)
+			shared = new ForkJoinPool();
+		return shared;
+	}
+
+	/**
+	 * 設定分段大小.
+	 *
+	 * @param batch_size  每個 task 至少處理的筆數
+	 * @param max_pending 串流模式最多同時計算的 batch 數, 限制記憶體使用量
+	 */
+	public void setBatch(int batch_size, int max_pending) {
+		this.batch_size = Math.max(1, batch_size);
+		this.max_pending = Math.max(1, max_pending);
+	}
+
+	/**
+	 * 預測所有資料.
+	 *
+	 * @param x 資料
+	 * @return 預測的結果
+	 */
+	public double[] predict(svm_node[][] x) {
+		double[] pred = new double[x.length];
+		pool.invoke(new Prediction(x, pred, 0, x.length));
+		return pred;
+	}
+
+	/**
+	 * 預測 svm_problem 的所有資料.
+	 *
+	 * @param prob 資料
+	 * @return 預測的結果
+	 */
+	public double[] predict(svm_problem prob) {
+		svm_node[][] x = prob.x;
+		if (x.length != prob.l)
+			x = Arrays.copyOf(x, prob.l);
+		return predict(x);
+	}
+
+	/**
+	 * 預測 CSR 資料的所有資料, 不需轉成 svm_node.
+	 *
+	 * @param data CSR 資料
+	 * @return 預測的結果
+	 */
+	public double[] predict(SparseDataset data) {
+		double[] pred = new double[data.size()];
+		if (scorer == null) {		// precomputed kernel 只能交給 libsvm
+			for (int i = 0; i < pred.length; i++)
+				pred[i] = svm.svm_predict(model, data.row(i));
+			return pred;
+		}
+		pool.invoke(new DatasetPrediction(data, pred, 0, pred.length));
+		return pred;
+	}
+
+	/**
+	 * 預測 source 的所有資料, 依原本順序將結果交給 sink.
+	 * 讀取與輸出在呼叫的 thread, 預測在 pool 上同時計算.
+	 *
+	 * @param source 資料來源
+	 * @param sink   接收預測結果
+	 * @return 預測的筆數
+	 * @throws InterruptedException 等待時被中斷
+	 */
+	public long predict(Iterator<svm_node[]> source, Sink sink) throws InterruptedException {
+		Deque<Future<double[]>> pending = new ArrayDeque<Future<double[]>>();
+		long row = 0;
+		try {
+			while (source.hasNext()) {
+				final List<svm_node[]> batch = new ArrayList<svm_node[]>(batch_size);
+				while (batch.size() < batch_size && source.hasNext())
+					batch.add(source.next());
+
+				if (pending.size() >= max_pending)
+					row = emit(pending.removeFirst(), row, sink);
+				pending.addLast(pool.submit(new Callable<double[]>() {
+					public double[] call() {
+						double[] pred = new double[batch.size()];
+						for (int i = 0; i < pred.length; i++)
+							pred[i] = predict(batch.get(i));
+						return pred;
+					}
+				}));
+			}
+			while (!pending.isEmpty())
+				row = emit(pending.removeFirst(), row, sink);
+		} finally {
+			for (Future<double[]> f : pending)
+				f.cancel(false);
+		}
+		return row;
+	}
+
+	/**
+	 * 預測一筆資料.
+	 *
+	 * @param x 資料
+	 * @return 預測的結果
+	 */
+	protected double predict(svm_node[] x) {
+		return (scorer != null)? scorer.predict(x) : svm.svm_predict(model, x);
+	}
+
+	/**
+	 * 等待一個 batch 完成並輸出結果.
+	 *
+	 * @param f    batch
+	 * @param row  第一筆的編號
+	 * @param sink 接收預測結果
+	 * @return 下一筆的編號
+	 * @throws InterruptedException 等待時被中斷
+	 */
+	protected long emit(Future<double[]> f, long row, Sink sink) throws InterruptedException {
+		double[] pred;
+		try {
+			pred = f.get();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		for (double p : pred)
+			sink.accept(row++, p);
+		return row;
+	}
+
+	/** 接收串流預測的結果. */
+	public interface Sink {
+		/**
+		 * 一筆預測結果, 依 source 的順序呼叫.
+		 *
+		 * @param row  資料編號, 從 0 開始
+		 * @param pred 預測的結果
+		 */
+		void accept(long row, double pred);
+	}
+
+	/** 將資料分成兩半遞迴計算的 fork-join task. */
+	protected class Prediction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		protected final svm_node[][] x;
+		protected final double[] pred;
+		protected final int begin;
+		protected final int end;
+
+		protected Prediction(svm_node[][] x, double[] pred, int begin, int end) {
+			this.x = x;
+			this.pred = pred;
+			this.begin = begin;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - begin <= batch_size) {
+				for (int i = begin; i < end; i++)
+					pred[i] = predict(x[i]);
+				return;
+			}
+			int mid = (begin + end) >>> 1;
+			invokeAll(new Prediction(x, pred, begin, mid), new Prediction(x, pred, mid, end));
+		}
+	}
+
+	/** 將 CSR 資料分成兩半遞迴計算的 fork-join task. */
+	protected class DatasetPrediction extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		protected final SparseDataset data;
+		protected final double[] pred;
+		protected final int begin;
+		protected final int end;
+
+		protected DatasetPrediction(SparseDataset data, double[] pred, int begin, int end) {
+			this.data = data;
+			this.pred = pred;
+			this.begin = begin;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - begin <= batch_size) {
+				for (int i = begin; i < end; i++)
+					pred[i] = scorer.predict(data, i);
+				return;
+			}
+			int mid = (begin + end) >>> 1;
+			invokeAll(new DatasetPrediction(data, pred, begin, mid), new DatasetPrediction(data, pred, mid, end));
+		}
+	}
+}
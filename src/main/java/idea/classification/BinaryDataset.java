@@ -0,0 +1,299 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.7+
+ */
+package idea.classification;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+import libsvm.*;
+
+/**
+ * 以 memory-mapped file 讀取的 binary 資料檔.
+ * 格式 (little-endian):
+ * header 32 bytes (magic "IDSV", version, 筆數, 最大 feature index, 非零值個數, 保留),
+ * double[筆數] label, int[筆數 + 1] 各筆起點, int[非零值個數] feature index, 補齊 8 bytes 後 double[非零值個數] feature 值.
+ * 開啟時只建立 mapping，不解析也不複製，各 process 共用 OS 的 page cache; 數值以原本的 double 保存，不會失去精度.
+ *
+ * @author Miles Chen
+ */
+public class BinaryDataset implements Closeable {
+	/** 檔案開頭的 magic number ("IDSV"). */
+	public static final int MAGIC = 0x49445356;
+	public static final int VERSION = 1;
+	protected static final int HEADER = 32;
+
+	protected final FileChannel channel;
+	protected final int rows;
+	protected final int max_index;
+	protected final int nnz;
+
+	protected final DoubleBuffer labels;
+	protected final IntBuffer row_start;
+	protected final IntBuffer index;
+	protected final DoubleBuffer value;
+
+	/**
+	 * 開啟 binary 資料檔.
+	 *
+	 * @param filename 檔案名稱
+	 * @throws IOException 檔案讀取錯誤或格式錯誤
+	 */
+	public BinaryDataset(String filename) throws IOException {
+		channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		try {
+			ByteBuffer h = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			if (h.getInt(0) != MAGIC || h.getInt(4) != VERSION)
+				throw new IOException("不是 binary 資料檔: " + filename);
+			rows = h.getInt(8);
+			max_index = h.getInt(12);
+			long n = h.getLong(16);
+			if (n > Integer.MAX_VALUE)
+				throw new IOException("非零值個數超過上限: " + n);
+			nnz = (int) n;
+
+			long pos = HEADER;
+			labels = map(pos, 8L * rows).asDoubleBuffer();
+			pos += 8L * rows;
+			row_start = map(pos, 4L * (rows + 1)).asIntBuffer();
+			pos += 4L * (rows + 1);
+			index = map(pos, 4L * nnz).asIntBuffer();
+			pos = align(pos + 4L * nnz);
+			value = map(pos, 8L * nnz).asDoubleBuffer();
+			if (channel.size() < pos + 8L * nnz)
+				throw new IOException("檔案不完整: " + filename);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Map 檔案的一段.
+	 *
+	 * @param pos  起點
+	 * @param size 長度
+	 * @return little-endian 的 buffer
+	 * @throws IOException 超過單一 mapping 的上限或讀取錯誤
+	 */
+	protected ByteBuffer map(long pos, long size) throws IOException {
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("資料區段超過 2GB, 無法 map");
+		return channel.map(FileChannel.MapMode.READ_ONLY, pos, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * 補齊到 8 bytes.
+	 *
+	 * @param pos 位置
+	 * @return 補齊後的位置
+	 */
+	protected static long align(long pos) {
+		return (pos + 7) & ~7L;
+	}
+
+	/**
+	 * 將 CSR 資料存成 binary 資料檔.
+	 *
+	 * @param data     CSR 資料
+	 * @param filename 檔案名稱
+	 * @throws IOException 檔案寫入錯誤
+	 */
+	public static void write(SparseDataset data, String filename) throws IOException {
+		int rows = data.size(), nnz = data.nnz();
+		FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			buf.putInt(MAGIC).putInt(VERSION).putInt(rows).putInt(data.getMaxIndex()).putLong(nnz).putLong(0);
+
+			double[] labels = data.getLabels();
+			for (int i = 0; i < rows; i++)
+				buf = put(ch, buf, 8).putDouble(labels[i]);
+			int[] row_start = data.getRowStart();
+			for (int i = 0; i <= rows; i++)
+				buf = put(ch, buf, 4).putInt(row_start[i]);
+			int[] index = data.getIndex();
+			for (int k = 0; k < nnz; k++)
+				buf = put(ch, buf, 4).putInt(index[k]);
+			long pos = HEADER + 8L * rows + 4L * (rows + 1) + 4L * nnz;
+			for (long p = pos; p < align(pos); p++)
+				buf = put(ch, buf, 1).put((byte) 0);
+			double[] value = data.getValue();
+			for (int k = 0; k < nnz; k++)
+				buf = put(ch, buf, 8).putDouble(value[k]);
+
+			buf.flip();
+			while (buf.hasRemaining())
+				ch.write(buf);
+		} finally {
+			ch.close();
+		}
+	}
+
+	/**
+	 * 確保 buffer 還有空間, 不足時寫入檔案.
+	 *
+	 * @param ch   檔案
+	 * @param buf  buffer
+	 * @param need 需要的空間
+	 * @return buffer
+	 * @throws IOException 檔案寫入錯誤
+	 */
+	protected static ByteBuffer put(FileChannel ch, ByteBuffer buf, int need) throws IOException {
+		if (buf.remaining() < need) {
+			buf.flip();
+			while (buf.hasRemaining())
+				ch.write(buf);
+			buf.clear();
+		}
+		return buf;
+	}
+
+	/**
+	 * 將 LIBSVM 格式檔轉成 binary 資料檔.
+	 *
+	 * @param svm_file LIBSVM 格式檔
+	 * @param bin_file binary 資料檔
+	 * @throws IOException 檔案讀寫錯誤或格式錯誤
+	 */
+	public static void fromSVMFormat(String svm_file, String bin_file) throws IOException {
+		write(LibSVMReader.read(svm_file), bin_file);
+	}
+
+	/**
+	 * 將 binary 資料檔轉成 LIBSVM 格式檔, 數值以完整精度寫出.
+	 *
+	 * @param bin_file binary 資料檔
+	 * @param svm_file LIBSVM 格式檔
+	 * @throws IOException 檔案讀寫錯誤或格式錯誤
+	 */
+	public static void toSVMFormat(String bin_file, String svm_file) throws IOException {
+		BinaryDataset d = new BinaryDataset(bin_file);
+		BufferedWriter bw = new BufferedWriter(new FileWriter(svm_file), 1 << 16);
+		try {
+			for (int i = 0; i < d.rows; i++) {
+				bw.write(format(d.getLabel(i)));
+				for (int k = d.row_start.get(i), e = d.row_start.get(i + 1); k < e; k++) {
+					bw.write(' ');
+					bw.write(String.valueOf(d.index.get(k)));
+					bw.write(':');
+					bw.write(format(d.value.get(k)));
+				}
+				bw.newLine();
+			}
+		} finally {
+			bw.close();
+			d.close();
+		}
+	}
+
+	/**
+	 * 以完整精度輸出數值, 整數不輸出小數點.
+	 *
+	 * @param v 數值
+	 * @return 字串, 可由 Double.parseDouble 還原成相同的值
+	 */
+	public static String format(double v) {
+		if (v == Math.rint(v) && Math.abs(v) < 1e15)
+			return String.valueOf((long) v);
+		return String.valueOf(v);
+	}
+
+	/**
+	 * 取得資料筆數.
+	 *
+	 * @return 資料筆數
+	 */
+	public int size() {
+		return rows;
+	}
+
+	/**
+	 * 取得非零值個數.
+	 *
+	 * @return 非零值個數
+	 */
+	public int nnz() {
+		return nnz;
+	}
+
+	/**
+	 * 取得最大的 feature index.
+	 *
+	 * @return 最大的 feature index
+	 */
+	public int getMaxIndex() {
+		return max_index;
+	}
+
+	/**
+	 * 取得 label.
+	 *
+	 * @param i 資料編號
+	 * @return label
+	 */
+	public double getLabel(int i) {
+		return labels.get(i);
+	}
+
+	/**
+	 * 將一筆資料轉成 svm_node.
+	 *
+	 * @param i 資料編號
+	 * @return svm_node 陣列
+	 */
+	public svm_node[] row(int i) {
+		int b = row_start.get(i), e = row_start.get(i + 1);
+		svm_node[] x = new svm_node[e - b];
+		for (int k = b; k < e; k++) {
+			svm_node node = new svm_node();
+			node.index = index.get(k);
+			node.value = value.get(k);
+			x[k - b] = node;
+		}
+		return x;
+	}
+
+	/**
+	 * 複製成 heap 上的 CSR 資料 (bulk copy, 不需解析).
+	 *
+	 * @return CSR 資料
+	 */
+	public SparseDataset toSparseDataset() {
+		double[] l = new double[rows];
+		int[] rs = new int[rows + 1];
+		int[] idx = new int[nnz];
+		double[] val = new double[nnz];
+		labels.duplicate().get(l);
+		row_start.duplicate().get(rs);
+		index.duplicate().get(idx);
+		value.duplicate().get(val);
+		return new SparseDataset(l, rs, idx, val);
+	}
+
+	/**
+	 * 轉成 libsvm 使用的 svm_problem, 直接由 mapping 建立 svm_node.
+	 *
+	 * @return svm_problem
+	 */
+	public svm_problem toProblem() {
+		svm_problem prob = new svm_problem();
+		prob.l = rows;
+		prob.y = new double[rows];
+		labels.duplicate().get(prob.y);
+		prob.x = new svm_node[rows][];
+		for (int i = 0; i < rows; i++)
+			prob.x[i] = row(i);
+		return prob;
+	}
+
+	/** 關閉檔案. 已建立的 mapping 由 GC 回收. */
+	public void close() throws IOException {
+		channel.close();
+	}
+}
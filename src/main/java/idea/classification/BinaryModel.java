@@ -0,0 +1,320 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.7+
+ */
+package idea.classification;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+import libsvm.*;
+
+/**
+ * Binary 格式的 LibSVM model.
+ * svm_load_model 逐行解析文字並為每個非零值建立 svm_node，support vector 多時需要數秒;
+ * binary 格式以 memory-mapped file 直接讀入 primitive 陣列, support vector 以 CSR 保存.
+ * 格式 (little-endian): header 64 bytes, 接著所有 double 陣列 (rho, probA, probB, sv_coef, 非零值),
+ * 再接著所有 int 陣列 (label, nSV, 各 support vector 的起點, feature index).
+ * {@link SVMScorer} 可直接由此建立，不需轉成 svm_node.
+ *
+ * @author Miles Chen
+ */
+public class BinaryModel {
+	/** 檔案開頭的 magic number ("IDSM"). */
+	public static final int MAGIC = 0x4944534d;
+	public static final int VERSION = 1;
+	protected static final int HEADER = 64;
+
+	protected static final int HAS_LABEL = 1;
+	protected static final int HAS_NSV = 2;
+	protected static final int HAS_PROB_A = 4;
+	protected static final int HAS_PROB_B = 8;
+
+	protected int svm_type;
+	protected int kernel_type;
+	protected int degree;
+	protected double gamma;
+	protected double coef0;
+	protected int nr_class;
+	/** Support vector 數. */
+	protected int l;
+	protected int[] label;
+	protected int[] nSV;
+	protected double[] rho;
+	protected double[] probA;
+	protected double[] probB;
+	protected double[][] sv_coef;
+	/** CSR: 第 i 個 support vector 在 index, value 的 [sv_start[i], sv_start[i + 1]). */
+	protected int[] sv_start;
+	/** Feature index, 從 1 開始. */
+	protected int[] index;
+	protected double[] value;
+
+	protected BinaryModel() {
+	}
+
+	/**
+	 * 由 svm_model 建立.
+	 *
+	 * @param model svm_model
+	 */
+	public BinaryModel(svm_model model) {
+		svm_parameter p = model.param;
+		svm_type = p.svm_type;
+		kernel_type = p.kernel_type;
+		degree = p.degree;
+		gamma = p.gamma;
+		coef0 = p.coef0;
+		nr_class = model.nr_class;
+		l = model.l;
+		label = model.label;
+		nSV = model.nSV;
+		rho = model.rho;
+		probA = model.probA;
+		probB = model.probB;
+		sv_coef = model.sv_coef;
+
+		int nnz = 0;
+		for (int i = 0; i < l; i++)
+			nnz += SVMScorer.length(model.SV[i]);
+		sv_start = new int[l + 1];
+		index = new int[nnz];
+		value = new double[nnz];
+		for (int i = 0, k = 0; i < l; i++) {
+			svm_node[] sv = model.SV[i];
+			for (int j = 0, n = SVMScorer.length(sv); j < n; j++, k++) {
+				index[k] = sv[j].index;
+				value[k] = sv[j].value;
+			}
+			sv_start[i + 1] = k;
+		}
+	}
+
+	/**
+	 * 檔案是否為 binary model.
+	 *
+	 * @param filename 檔案名稱
+	 * @return 是否為 binary model
+	 * @throws IOException 檔案讀取錯誤
+	 */
+	public static boolean isBinary(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(filename));
+		try {
+			return Integer.reverseBytes(in.readInt()) == MAGIC;
+		} catch (EOFException e) {
+			return false;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * 從 binary model 檔載入.
+	 *
+	 * @param filename 檔案名稱
+	 * @return binary model
+	 * @throws IOException 檔案讀取錯誤或格式錯誤
+	 */
+	public static BinaryModel load(String filename) throws IOException {
+		FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		try {
+			long size = ch.size();
+			if (size < HEADER || size > Integer.MAX_VALUE)
+				throw new IOException("不是 binary model 檔: " + filename);
+			ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+			if (buf.getInt() != MAGIC || buf.getInt() != VERSION)
+				throw new IOException("不是 binary model 檔: " + filename);
+
+			BinaryModel m = new BinaryModel();
+			m.svm_type = buf.getInt();
+			m.kernel_type = buf.getInt();
+			m.degree = buf.getInt();
+			m.nr_class = buf.getInt();
+			m.l = buf.getInt();
+			int nnz = buf.getInt();
+			m.gamma = buf.getDouble();
+			m.coef0 = buf.getDouble();
+			int flags = buf.getInt();
+			int pairs = m.nr_class * (m.nr_class - 1) / 2;
+			long need = HEADER + 8L * (pairs * (1 + Integer.bitCount(flags & (HAS_PROB_A | HAS_PROB_B))) + (long) (m.nr_class - 1) * m.l + nnz)
+					+ 4L * (m.nr_class * Integer.bitCount(flags & (HAS_LABEL | HAS_NSV)) + m.l + 1 + nnz);
+			if (size < need)
+				throw new IOException("檔案不完整: " + filename);
+
+			buf.position(HEADER);
+			DoubleBuffer d = buf.asDoubleBuffer();
+			m.rho = doubles(d, pairs);
+			m.probA = ((flags & HAS_PROB_A) != 0)? doubles(d, pairs) : null;
+			m.probB = ((flags & HAS_PROB_B) != 0)? doubles(d, pairs) : null;
+			m.sv_coef = new double[m.nr_class - 1][];
+			for (int i = 0; i < m.nr_class - 1; i++)
+				m.sv_coef[i] = doubles(d, m.l);
+			m.value = doubles(d, nnz);
+
+			buf.position(buf.position() + 8 * d.position());
+			IntBuffer n = buf.asIntBuffer();
+			m.label = ((flags & HAS_LABEL) != 0)? ints(n, m.nr_class) : null;
+			m.nSV = ((flags & HAS_NSV) != 0)? ints(n, m.nr_class) : null;
+			m.sv_start = ints(n, m.l + 1);
+			m.index = ints(n, nnz);
+			return m;
+		} finally {
+			ch.close();
+		}
+	}
+
+	protected static double[] doubles(DoubleBuffer d, int n) {
+		double[] a = new double[n];
+		d.get(a);
+		return a;
+	}
+
+	protected static int[] ints(IntBuffer b, int n) {
+		int[] a = new int[n];
+		b.get(a);
+		return a;
+	}
+
+	/**
+	 * 存成 binary model 檔.
+	 *
+	 * @param filename 檔案名稱
+	 * @throws IOException 檔案寫入錯誤
+	 */
+	public void save(String filename) throws IOException {
+		int pairs = nr_class * (nr_class - 1) / 2;
+		int nnz = sv_start[l];
+		int flags = ((label != null)? HAS_LABEL : 0) | ((nSV != null)? HAS_NSV : 0)
+				| ((probA != null)? HAS_PROB_A : 0) | ((probB != null)? HAS_PROB_B : 0);
+		FileChannel ch = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			ByteBuffer buf = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+			buf.putInt(MAGIC).putInt(VERSION).putInt(svm_type).putInt(kernel_type).putInt(degree)
+					.putInt(nr_class).putInt(l).putInt(nnz).putDouble(gamma).putDouble(coef0).putInt(flags);
+			while (buf.position() < HEADER)
+				buf.put((byte) 0);
+
+			buf = put(ch, buf, rho, pairs);
+			if (probA != null)
+				buf = put(ch, buf, probA, pairs);
+			if (probB != null)
+				buf = put(ch, buf, probB, pairs);
+			for (int i = 0; i < nr_class - 1; i++)
+				buf = put(ch, buf, sv_coef[i], l);
+			buf = put(ch, buf, value, nnz);
+			if (label != null)
+				buf = put(ch, buf, label, nr_class);
+			if (nSV != null)
+				buf = put(ch, buf, nSV, nr_class);
+			buf = put(ch, buf, sv_start, l + 1);
+			buf = put(ch, buf, index, nnz);
+			flush(ch, buf);
+		} finally {
+			ch.close();
+		}
+	}
+
+	protected static ByteBuffer put(FileChannel ch, ByteBuffer buf, double[] a, int n) throws IOException {
+		for (int i = 0; i < n; i++) {
+			if (buf.remaining() < 8)
+				flush(ch, buf);
+			buf.putDouble(a[i]);
+		}
+		return buf;
+	}
+
+	protected static ByteBuffer put(FileChannel ch, ByteBuffer buf, int[] a, int n) throws IOException {
+		for (int i = 0; i < n; i++) {
+			if (buf.remaining() < 4)
+				flush(ch, buf);
+			buf.putInt(a[i]);
+		}
+		return buf;
+	}
+
+	/**
+	 * 將 buffer 的內容寫入檔案並清空.
+	 *
+	 * @param ch  檔案
+	 * @param buf buffer
+	 * @throws IOException 檔案寫入錯誤
+	 */
+	protected static void flush(FileChannel ch, ByteBuffer buf) throws IOException {
+		buf.flip();
+		while (buf.hasRemaining())
+			ch.write(buf);
+		buf.clear();
+	}
+
+	/**
+	 * 轉成 svm_model, 此時才建立 svm_node 物件.
+	 *
+	 * @return svm_model
+	 */
+	public svm_model toModel() {
+		svm_model m = new svm_model();
+		m.param = new svm_parameter();
+		m.param.svm_type = svm_type;
+		m.param.kernel_type = kernel_type;
+		m.param.degree = degree;
+		m.param.gamma = gamma;
+		m.param.coef0 = coef0;
+		m.nr_class = nr_class;
+		m.l = l;
+		m.label = label;
+		m.nSV = nSV;
+		m.rho = rho;
+		m.probA = probA;
+		m.probB = probB;
+		m.sv_coef = sv_coef;
+		m.SV = new svm_node[l][];
+		for (int i = 0; i < l; i++) {
+			int b = sv_start[i], e = sv_start[i + 1];
+			svm_node[] sv = new svm_node[e - b];
+			for (int k = b; k < e; k++) {
+				sv[k - b] = new svm_node();
+				sv[k - b].index = index[k];
+				sv[k - b].value = value[k];
+			}
+			m.SV[i] = sv;
+		}
+		return m;
+	}
+
+	/**
+	 * 將文字格式的 model 檔轉成 binary.
+	 *
+	 * @param text_file   文字格式的 model 檔
+	 * @param binary_file binary model 檔
+	 * @throws IOException 檔案讀寫錯誤
+	 */
+	public static void fromText(String text_file, String binary_file) throws IOException {
+		svm_model model = svm.svm_load_model(text_file);
+		if (model == null)
+			throw new IOException("model 讀取失敗: " + text_file);
+		new BinaryModel(model).save(binary_file);
+	}
+
+	/**
+	 * 將 binary model 檔轉成文字格式.
+	 *
+	 * @param binary_file binary model 檔
+	 * @param text_file   文字格式的 model 檔
+	 * @throws IOException 檔案讀寫錯誤
+	 */
+	public static void toText(String binary_file, String text_file) throws IOException {
+		svm.svm_save_model(text_file, load(binary_file).toModel());
+	}
+
+	public int getSupportVectorCount() {
+		return l;
+	}
+
+	public int getClassCount() {
+		return nr_class;
+	}
+}
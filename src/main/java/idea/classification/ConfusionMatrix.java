@@ -0,0 +1,399 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.7+
+ */
+package idea.classification;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+/**
+ * 多類別的 confusion matrix 與各項準確度.
+ * 只讀一次資料; 資料量大時分段在 ForkJoinPool 上同時計數再合併. 不輸出任何文字, 需要時使用 {@link #toString()}.
+ * 類別依 label 由小到大排列, matrix[i][j] 為實際類別 i 被預測為類別 j 的筆數.
+ *
+ * @author Miles Chen
+ */
+public class ConfusionMatrix {
+	/** 超過此筆數才平行計算. */
+	protected static final int PARALLEL_THRESHOLD = 1 << 16;
+
+	protected final double[] labels;
+	protected final long[][] matrix;
+	protected final long total;
+
+	/**
+	 * 由已知的計數建立.
+	 *
+	 * @param labels 各類別的 label, 由小到大
+	 * @param matrix matrix[i][j] 為實際類別 i 被預測為類別 j 的筆數
+	 */
+	public ConfusionMatrix(double[] labels, long[][] matrix) {
+		this.labels = labels;
+		this.matrix = matrix;
+		long n = 0;
+		for (long[] row : matrix)
+			for (long c : row)
+				n += c;
+		this.total = n;
+	}
+
+	/**
+	 * 計算 confusion matrix.
+	 *
+	 * @param actual 實際的 label
+	 * @param pred   預測的 label
+	 * @return confusion matrix
+	 */
+	public static ConfusionMatrix of(double[] actual, double[] pred) {
+		int n = Math.min(actual.length, pred.length);
+		Counts c;
+		if (n < PARALLEL_THRESHOLD)
+			c = new Counts().count(actual, pred, 0, n);
+		else if (ForkJoinTask.inForkJoinPool())
+			c = new Counting(actual, pred, 0, n).invoke();
+		else
+			c = BatchPredictor.sharedPool().invoke(new Counting(actual, pred, 0, n));
+		return c.toMatrix();
+	}
+
+	/**
+	 * 取得各類別的 label.
+	 *
+	 * @return label, 由小到大
+	 */
+	public double[] getLabels() {
+		return labels.clone();
+	}
+
+	/**
+	 * 取得類別編號.
+	 *
+	 * @param label label
+	 * @return 類別編號, 不存在時為 -1
+	 */
+	public int indexOf(double label) {
+		int k = Arrays.binarySearch(labels, label);
+		return (k >= 0)? k : -1;
+	}
+
+	/**
+	 * 取得筆數.
+	 *
+	 * @param actual 實際的類別編號
+	 * @param pred   預測的類別編號
+	 * @return 筆數
+	 */
+	public long getCount(int actual, int pred) {
+		return matrix[actual][pred];
+	}
+
+	public long getTotal() {
+		return total;
+	}
+
+	/**
+	 * 預測正確的筆數.
+	 *
+	 * @return 筆數
+	 */
+	public long getCorrect() {
+		long c = 0;
+		for (int k = 0; k < labels.length; k++)
+			c += matrix[k][k];
+		return c;
+	}
+
+	public double getAccuracy() {
+		return (total == 0)? 0 : (double) getCorrect() / total;
+	}
+
+	/**
+	 * 類別 k 的 true positive 數.
+	 *
+	 * @param k 類別編號
+	 * @return 筆數
+	 */
+	public long getTP(int k) {
+		return matrix[k][k];
+	}
+
+	/**
+	 * 類別 k 的 false positive 數 (其他類別被預測為 k).
+	 *
+	 * @param k 類別編號
+	 * @return 筆數
+	 */
+	public long getFP(int k) {
+		long c = 0;
+		for (int i = 0; i < labels.length; i++)
+			c += matrix[i][k];
+		return c - matrix[k][k];
+	}
+
+	/**
+	 * 類別 k 的 false negative 數 (類別 k 被預測為其他類別).
+	 *
+	 * @param k 類別編號
+	 * @return 筆數
+	 */
+	public long getFN(int k) {
+		long c = 0;
+		for (int j = 0; j < labels.length; j++)
+			c += matrix[k][j];
+		return c - matrix[k][k];
+	}
+
+	/**
+	 * 類別 k 的 true negative 數.
+	 *
+	 * @param k 類別編號
+	 * @return 筆數
+	 */
+	public long getTN(int k) {
+		return total - getTP(k) - getFP(k) - getFN(k);
+	}
+
+	/**
+	 * 類別 k 的 precision, 沒有預測為 k 的資料時為 0.
+	 *
+	 * @param k 類別編號
+	 * @return precision
+	 */
+	public double getPrecision(int k) {
+		return ratio(getTP(k), getTP(k) + getFP(k));
+	}
+
+	/**
+	 * 類別 k 的 recall (sensitivity), 沒有類別 k 的資料時為 0.
+	 *
+	 * @param k 類別編號
+	 * @return recall
+	 */
+	public double getRecall(int k) {
+		return ratio(getTP(k), getTP(k) + getFN(k));
+	}
+
+	/**
+	 * 類別 k 的 specificity.
+	 *
+	 * @param k 類別編號
+	 * @return specificity
+	 */
+	public double getSpecificity(int k) {
+		return ratio(getTN(k), getTN(k) + getFP(k));
+	}
+
+	/**
+	 * 類別 k 的 F-measure.
+	 *
+	 * @param k    類別編號
+	 * @param beta recall 相對於 precision 的權重
+	 * @return F-measure
+	 */
+	public double getFMeasure(int k, double beta) {
+		return fmeasure(getPrecision(k), getRecall(k), beta);
+	}
+
+	/**
+	 * 各類別 precision 的平均.
+	 *
+	 * @return macro precision
+	 */
+	public double getMacroPrecision() {
+		double s = 0;
+		for (int k = 0; k < labels.length; k++)
+			s += getPrecision(k);
+		return (labels.length == 0)? 0 : s / labels.length;
+	}
+
+	/**
+	 * 各類別 recall 的平均.
+	 *
+	 * @return macro recall
+	 */
+	public double getMacroRecall() {
+		double s = 0;
+		for (int k = 0; k < labels.length; k++)
+			s += getRecall(k);
+		return (labels.length == 0)? 0 : s / labels.length;
+	}
+
+	/**
+	 * 各類別 F-measure 的平均.
+	 *
+	 * @param beta recall 相對於 precision 的權重
+	 * @return macro F-measure
+	 */
+	public double getMacroFMeasure(double beta) {
+		double s = 0;
+		for (int k = 0; k < labels.length; k++)
+			s += getFMeasure(k, beta);
+		return (labels.length == 0)? 0 : s / labels.length;
+	}
+
+	/**
+	 * 所有類別的 TP, FP 加總後的 precision. 每筆資料只有一個 label 時與 accuracy 相同.
+	 *
+	 * @return micro precision
+	 */
+	public double getMicroPrecision() {
+		long tp = 0, fp = 0;
+		for (int k = 0; k < labels.length; k++) {
+			tp += getTP(k);
+			fp += getFP(k);
+		}
+		return ratio(tp, tp + fp);
+	}
+
+	/**
+	 * 所有類別的 TP, FN 加總後的 recall.
+	 *
+	 * @return micro recall
+	 */
+	public double getMicroRecall() {
+		long tp = 0, fn = 0;
+		for (int k = 0; k < labels.length; k++) {
+			tp += getTP(k);
+			fn += getFN(k);
+		}
+		return ratio(tp, tp + fn);
+	}
+
+	/**
+	 * Micro precision 與 micro recall 的 F-measure.
+	 *
+	 * @param beta recall 相對於 precision 的權重
+	 * @return micro F-measure
+	 */
+	public double getMicroFMeasure(double beta) {
+		return fmeasure(getMicroPrecision(), getMicroRecall(), beta);
+	}
+
+	protected static double ratio(long a, long b) {
+		return (b == 0)? 0 : (double) a / b;
+	}
+
+	protected static double fmeasure(double pre, double recall, double beta) {
+		if (pre == 0 && recall == 0)
+			return 0;
+		return (1 + beta * beta) * pre * recall / (beta * beta * pre + recall);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("Accuracy = %1.3f%% (%d/%d)%n", getAccuracy() * 100, getCorrect(), total));
+		sb.append(String.format("%12s", "actual\\pred"));
+		for (double l : labels)
+			sb.append(String.format("%10s", BinaryDataset.format(l)));
+		sb.append(String.format("%12s%12s%12s%n", "precision", "recall", "F1"));
+		for (int i = 0; i < labels.length; i++) {
+			sb.append(String.format("%12s", BinaryDataset.format(labels[i])));
+			for (int j = 0; j < labels.length; j++)
+				sb.append(String.format("%10d", matrix[i][j]));
+			sb.append(String.format("%11.3f%%%11.3f%%%11.3f%%%n", getPrecision(i) * 100, getRecall(i) * 100, getFMeasure(i, 1) * 100));
+		}
+		sb.append(String.format("Macro: precision = %1.3f%%, recall = %1.3f%%, F1 = %1.3f%%%n",
+				getMacroPrecision() * 100, getMacroRecall() * 100, getMacroFMeasure(1) * 100));
+		return sb.toString();
+	}
+
+	/** 一段資料的計數, 類別依出現順序. */
+	protected static class Counts {
+		protected double[] labels = new double[4];
+		protected int n = 0;
+		protected long[][] count = new long[4][4];
+		/** 上一筆的類別, 連續相同時不需搜尋. */
+		protected int last_a = -1, last_p = -1;
+
+		/**
+		 * 取得類別編號, 不存在時加入.
+		 *
+		 * @param label label
+		 * @return 類別編號
+		 */
+		protected int index(double label) {
+			for (int k = 0; k < n; k++)
+				if (labels[k] == label || (labels[k] != labels[k] && label != label))	// NaN 視為同一類
+					return k;
+			if (n == labels.length) {
+				labels = Arrays.copyOf(labels, n * 2);
+				long[][] c = new long[n * 2][n * 2];
+				for (int i = 0; i < n; i++)
+					System.arraycopy(count[i], 0, c[i], 0, n);
+				count = c;
+			}
+			labels[n] = label;
+			return n++;
+		}
+
+		protected Counts count(double[] actual, double[] pred, int begin, int end) {
+			for (int i = begin; i < end; i++) {
+				int a = (last_a >= 0 && labels[last_a] == actual[i])? last_a : index(actual[i]);
+				int p = (last_p >= 0 && labels[last_p] == pred[i])? last_p : index(pred[i]);
+				count[a][p]++;
+				last_a = a;
+				last_p = p;
+			}
+			return this;
+		}
+
+		protected Counts merge(Counts o) {
+			int[] map = new int[o.n];
+			for (int k = 0; k < o.n; k++)
+				map[k] = index(o.labels[k]);
+			for (int i = 0; i < o.n; i++)
+				for (int j = 0; j < o.n; j++)
+					count[map[i]][map[j]] += o.count[i][j];
+			return this;
+		}
+
+		/**
+		 * 依 label 由小到大排列.
+		 *
+		 * @return confusion matrix
+		 */
+		protected ConfusionMatrix toMatrix() {
+			double[] sorted = Arrays.copyOf(labels, n);
+			Arrays.sort(sorted);
+			int[] map = new int[n];
+			for (int k = 0; k < n; k++)
+				map[k] = Arrays.binarySearch(sorted, labels[k]);
+			long[][] m = new long[n][n];
+			for (int i = 0; i < n; i++)
+				for (int j = 0; j < n; j++)
+					m[map[i]][map[j]] = count[i][j];
+			return new ConfusionMatrix(sorted, m);
+		}
+	}
+
+	/** 將資料分成兩半遞迴計數的 fork-join task. */
+	protected static class Counting extends RecursiveTask<Counts> {
+		private static final long serialVersionUID = 1L;
+		protected final double[] actual;
+		protected final double[] pred;
+		protected final int begin;
+		protected final int end;
+
+		protected Counting(double[] actual, double[] pred, int begin, int end) {
+			this.actual = actual;
+			this.pred = pred;
+			this.begin = begin;
+			this.end = end;
+		}
+
+		@Override
+		protected Counts compute() {
+			if (end - begin <= PARALLEL_THRESHOLD)
+				return new Counts().count(actual, pred, begin, end);
+			int mid = (begin + end) >>> 1;
+			Counting left = new Counting(actual, pred, begin, mid);
+			left.fork();
+			Counts r = new Counting(actual, pred, mid, end).compute();
+			return left.join().merge(r);
+		}
+	}
+}
@@ -0,0 +1,451 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.7+
+ */
+package idea.classification;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import libsvm.*;
+
+/**
+ * 平行計算 n-fold cross validation.
+ * 各 fold 的 model 在 ForkJoinPool 上同時訓練；classification 時依類別分層 (stratified) 分 fold，
+ * 並以固定的 seed 分配，相同的 seed 得到相同的分法.
+ * 分 fold 只做一次，同一個 instance 可以用不同的參數重複計算.
+ * 分數越高越好: classification 為 accuracy, regression 為負的 mean squared error.
+ *
+ * @author Miles Chen
+ */
+public class CrossValidation {
+	/** 訓練資料. */
+	protected final svm_problem prob;
+	/** n-fold. */
+	protected final int fold;
+	/** 分 fold 的 random seed. */
+	protected final long seed;
+	/** 是否依類別分層. */
+	protected boolean stratified = true;
+	/** 執行的 pool, null 表示每次計算建立一個 pool. */
+	protected ForkJoinPool pool = null;
+
+	/** 各 fold 的訓練資料. */
+	protected svm_problem[] train = null;
+	/** 各 fold 的測試資料 index. */
+	protected int[][] test = null;
+
+	/**
+	 * Constructor. fold 大於資料筆數時與 svm_cross_validation 相同, 改為 leave-one-out.
+	 *
+	 * @param prob 訓練資料
+	 * @param fold n-fold
+	 * @param seed 分 fold 的 random seed
+	 * @throws IllegalArgumentException fold 小於 2
+	 */
+	public CrossValidation(svm_problem prob, int fold, long seed) {
+		if (fold < 2)
+			throw new IllegalArgumentException("fold 必須大於等於 2: " + fold);
+		this.prob = prob;
+		this.fold = Math.min(fold, prob.l);
+		this.seed = seed;
+	}
+
+	/**
+	 * 設定是否依類別分層. regression 時不分層.
+	 *
+	 * @param stratified 是否分層
+	 */
+	public synchronized void setStratified(boolean stratified) {
+		this.stratified = stratified;
+		train = null;
+		test = null;
+	}
+
+	/**
+	 * 設定執行的 pool. 從 ForkJoinPool 內呼叫時直接使用目前的 pool.
+	 *
+	 * @param pool ForkJoinPool, null 表示每次計算建立一個與 CPU 數相同大小的 pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * 計算 cross validation.
+	 *
+	 * @param param SVM 參數, 不會被修改
+	 * @return 各 fold 的結果與預測值
+	 * @throws IllegalArgumentException 參數錯誤
+	 */
+	public Result run(svm_parameter param) {
+		String error = svm.svm_check_parameter(prob, param);
+		if (error != null)
+			throw new IllegalArgumentException(error);
+
+		long start = System.nanoTime();
+		split(isRegression(param));
+
+		Result r = new Result(isRegression(param));
+		final List<FoldTask> tasks = new ArrayList<FoldTask>(fold);
+		for (int k = 0; k < fold; k++)
+			tasks.add(new FoldTask(k, param, r));
+
+		if (ForkJoinTask.inForkJoinPool())
+			ForkJoinTask.invokeAll(tasks);		// 例: 由 GridSearch 呼叫, 與其他參數點共用同一個 pool
+		else {
+			ForkJoinPool fj = (pool != null)? pool : new ForkJoinPool(Math.min(fold, Runtime.getRuntime().availableProcessors()));
+			try {
+				fj.invoke(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+
+					@Override
+					protected void compute() {
+						invokeAll(tasks);
+					}
+				});
+			} finally {
+				if (fj != pool)
+					fj.shutdown();
+			}
+		}
+
+		r.nanos = System.nanoTime() - start;
+		return r;
+	}
+
+	/**
+	 * 分數的下限, 計算中的分數上限低於此值時不再訓練尚未開始的 fold.
+	 * 預設不放棄, 需要時以 subclass 覆寫.
+	 *
+	 * @return 分數下限
+	 */
+	protected double minScore() {
+		return Double.NEGATIVE_INFINITY;
+	}
+
+	/**
+	 * 是否為 regression.
+	 *
+	 * @param param SVM 參數
+	 * @return 是否為 regression
+	 */
+	protected static boolean isRegression(svm_parameter param) {
+		return param.svm_type == svm_parameter.EPSILON_SVR || param.svm_type == svm_parameter.NU_SVR;
+	}
+
+	/**
+	 * 分 fold, 只在第一次呼叫時計算.
+	 *
+	 * @param regression 是否為 regression, regression 時不分層
+	 */
+	protected synchronized void split(boolean regression) {
+		if (test != null)
+			return;
+
+		Random rand = new Random(seed);
+		int[] order;
+		if (stratified && !regression) {
+			// 同一類別的資料放在一起, 類別內打亂後輪流分到各 fold
+			Map<Double, List<Integer>> classes = new TreeMap<Double, List<Integer>>();
+			for (int i = 0; i < prob.l; i++) {
+				List<Integer> list = classes.get(prob.y[i]);
+				if (list == null)
+					classes.put(prob.y[i], list = new ArrayList<Integer>());
+				list.add(i);
+			}
+			order = new int[prob.l];
+			int n = 0;
+			for (List<Integer> list : classes.values()) {
+				Collections.shuffle(list, rand);
+				for (int i : list)
+					order[n++] = i;
+			}
+		} else {
+			order = new int[prob.l];
+			for (int i = 0; i < order.length; i++)
+				order[i] = i;
+			for (int i = order.length - 1; i > 0; i--) {
+				int j = rand.nextInt(i + 1);
+				int t = order[i];
+				order[i] = order[j];
+				order[j] = t;
+			}
+		}
+
+		int[] assign = new int[prob.l];		// 各資料所屬的 fold
+		int[] count = new int[fold];
+		for (int i = 0; i < order.length; i++) {
+			assign[order[i]] = i % fold;
+			count[i % fold]++;
+		}
+
+		test = new int[fold][];
+		train = new svm_problem[fold];
+		for (int k = 0; k < fold; k++) {
+			test[k] = new int[count[k]];
+			svm_problem sub = new svm_problem();
+			sub.l = prob.l - count[k];
+			sub.x = new svm_node[sub.l][];
+			sub.y = new double[sub.l];
+			train[k] = sub;
+		}
+		int[] t = new int[fold];
+		int[] n = new int[fold];
+		for (int i = 0; i < prob.l; i++) {
+			int a = assign[i];
+			test[a][t[a]++] = i;
+			for (int k = 0; k < fold; k++)
+				if (k != a) {
+					train[k].x[n[k]] = prob.x[i];
+					train[k].y[n[k]] = prob.y[i];
+					n[k]++;
+				}
+		}
+	}
+
+	/** 訓練並測試單一 fold 的 task. */
+	protected class FoldTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		protected final int k;
+		protected final svm_parameter param;
+		protected final Result result;
+
+		protected FoldTask(int k, svm_parameter param, Result result) {
+			this.k = k;
+			this.param = (svm_parameter) param.clone();		// 每個 fold 使用自己的參數複本
+			this.result = result;
+		}
+
+		@Override
+		protected void compute() {
+			if (result.isAbandoned())
+				return;
+
+			Fold f = new Fold(k, test[k].length);
+			long start = System.nanoTime();
+			svm_model model = svm.svm_train(train[k], param);
+			f.train_nanos = System.nanoTime() - start;
+			f.sv = model.l;
+
+			start = System.nanoTime();
+			for (int i : test[k]) {
+				double pred = svm.svm_predict(model, prob.x[i]);
+				result.target[i] = pred;
+				if (result.regression)
+					f.loss += (pred - prob.y[i]) * (pred - prob.y[i]);
+				else if (pred != prob.y[i])
+					f.loss++;
+			}
+			f.predict_nanos = System.nanoTime() - start;
+
+			result.add(f, minScore());
+		}
+	}
+
+	/** 單一 fold 的結果. */
+	public static class Fold {
+		protected final int index;
+		/** 測試資料筆數. */
+		protected final int size;
+		/** 錯誤筆數, regression 時為 squared error 總和. */
+		protected double loss = 0;
+		/** Support vector 數. */
+		protected int sv = 0;
+		protected long train_nanos = 0;
+		protected long predict_nanos = 0;
+
+		protected Fold(int index, int size) {
+			this.index = index;
+			this.size = size;
+		}
+
+		/**
+		 * 取得 fold 編號.
+		 *
+		 * @return fold 編號, 從 0 開始
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * 取得測試資料筆數.
+		 *
+		 * @return 筆數
+		 */
+		public int getSize() {
+			return size;
+		}
+
+		/**
+		 * 取得錯誤筆數, regression 時為 squared error 總和.
+		 *
+		 * @return loss
+		 */
+		public double getLoss() {
+			return loss;
+		}
+
+		/**
+		 * 取得 classification 的 accuracy.
+		 *
+		 * @return accuracy
+		 */
+		public double getAccuracy() {
+			return (size > 0)? 1 - loss / size : 0;
+		}
+
+		/**
+		 * 取得 regression 的 mean squared error.
+		 *
+		 * @return mean squared error
+		 */
+		public double getMSE() {
+			return (size > 0)? loss / size : 0;
+		}
+
+		/**
+		 * 取得 support vector 數.
+		 *
+		 * @return support vector 數
+		 */
+		public int getSupportVectors() {
+			return sv;
+		}
+
+		/**
+		 * 取得訓練時間.
+		 *
+		 * @return 時間 in milliseconds
+		 */
+		public double getTrainMillis() {
+			return train_nanos / 1e6;
+		}
+
+		/**
+		 * 取得預測時間.
+		 *
+		 * @return 時間 in milliseconds
+		 */
+		public double getPredictMillis() {
+			return predict_nanos / 1e6;
+		}
+	}
+
+	/** Cross validation 的結果. */
+	public class Result {
+		protected final boolean regression;
+		/** 各資料的預測值, 與 svm_cross_validation 的 target 相同; 放棄時未計算的 fold 為 NaN. */
+		protected final double[] target;
+		/** 各 fold 的結果, 未計算的 fold 為 null. */
+		protected final Fold[] folds;
+		protected double loss = 0;
+		/** 已計算的資料筆數. */
+		protected int evaluated = 0;
+		protected volatile boolean abandoned = false;
+		/** 總時間 in nanoseconds. */
+		protected long nanos = 0;
+
+		protected Result(boolean regression) {
+			this.regression = regression;
+			this.target = new double[prob.l];
+			Arrays.fill(target, Double.NaN);
+			this.folds = new Fold[fold];
+		}
+
+		/**
+		 * 加入一個 fold 的結果, 分數上限低於下限時放棄.
+		 *
+		 * @param f         fold 的結果
+		 * @param min_score 分數下限
+		 */
+		protected synchronized void add(Fold f, double min_score) {
+			folds[f.index] = f;
+			loss += f.loss;
+			evaluated += f.size;
+			if (evaluated < prob.l && bound() < min_score)
+				abandoned = true;
+		}
+
+		/**
+		 * 剩下的資料全部預測正確時的分數上限.
+		 *
+		 * @return 分數上限
+		 */
+		protected double bound() {
+			return regression? -loss / prob.l : 1 - loss / prob.l;
+		}
+
+		/**
+		 * 取得各資料的預測值.
+		 *
+		 * @return 預測值, 放棄時未計算的資料為 NaN
+		 */
+		public double[] getTarget() {
+			return target;
+		}
+
+		/**
+		 * 取得各 fold 的結果.
+		 *
+		 * @return 各 fold 的結果, 放棄時未計算的 fold 為 null
+		 */
+		public Fold[] getFolds() {
+			return folds;
+		}
+
+		/**
+		 * 取得分數.
+		 *
+		 * @return accuracy 或負的 mean squared error, 放棄時為分數上限
+		 */
+		public synchronized double getScore() {
+			return bound();
+		}
+
+		/**
+		 * 是否提前放棄.
+		 *
+		 * @return 是否放棄
+		 */
+		public boolean isAbandoned() {
+			return abandoned;
+		}
+
+		/**
+		 * 取得實際經過的時間.
+		 *
+		 * @return 時間 in milliseconds
+		 */
+		public double getWallMillis() {
+			return nanos / 1e6;
+		}
+
+		/**
+		 * 取得所有 fold 訓練與預測時間的總和, 除以 {@link #getWallMillis()} 即為平行的加速倍數.
+		 *
+		 * @return 時間 in milliseconds
+		 */
+		public synchronized double getFoldMillis() {
+			double ms = 0;
+			for (Fold f : folds)
+				if (f != null)
+					ms += f.getTrainMillis() + f.getPredictMillis();
+			return ms;
+		}
+
+		@Override
+		public synchronized String toString() {
+			StringBuilder sb = new StringBuilder();
+			for (Fold f : folds)
+				if (f != null)
+					sb.append(String.format("fold %d: %s = %g, nSV = %d, train %.1f ms, predict %.1f ms%n", f.index,
+							regression? "MSE" : "accuracy", regression? f.getMSE() : f.getAccuracy(), f.sv, f.getTrainMillis(), f.getPredictMillis()));
+			sb.append(String.format("score = %g%s, wall %.1f ms, folds %.1f ms", getScore(), abandoned? " (abandoned)" : "", getWallMillis(), getFoldMillis()));
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,581 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.7+
+ */
+package idea.classification;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+import libsvm.*;
+
+/**
+ * Feature 正規化.
+ * 依 feature index (svm_node.index) 統計極小值、極大值、平均與標準差，沒有出現的 feature 視為 0.
+ * 資料分段後在 ForkJoinPool 上同時統計，各段以 Welford 方法累計，再以 Chan 的公式合併，只需讀一次資料.
+ * 正規化直接修改原本的值，極值相同 (或標準差為 0) 的 feature 不修改.
+ * Sparse 資料只能修改有出現的值，沒有出現的 0 不會被修改；因此部分資料沒有出現、且統計範圍包含 0 的 feature 必須把 0 對應到 0，
+ * 否則有出現的 0 與沒有出現的 0 會得到不同的值，正規化時丟出 IllegalArgumentException.
+ * 每筆資料都有出現的 feature (dense) 沒有這個問題，可以包含負值. 是否每筆都有出現依統計時的筆數判斷；
+ * 以極值建立 (不知道筆數) 時依要正規化的資料判斷，單筆資料則不檢查.
+ *
+ * @author Miles Chen
+ */
+public class FeatureScaler {
+	/** 以極值縮放到 [lower, upper]. */
+	public static final int MIN_MAX = 0;
+	/**
+	 * 減平均再除以標準差.
+	 * 平移會把 0 變成 -mean / std, sparse 資料沒有出現的 0 無法一起平移,
+	 * 所以只能用在每筆資料都有出現的 feature、不會出現 0 的 feature (極小值大於 0 或極大值小於 0) 或平均為 0 的 feature;
+	 * 其他 feature 在正規化時丟出 IllegalArgumentException, 請改用下限為 0 的 {@link #MIN_MAX}.
+	 */
+	public static final int Z_SCORE = 1;
+
+	/** Binary 檔開頭的 magic number ("IDFS"). */
+	public static final int MAGIC = 0x49444653;
+	/** 目前的 binary 檔版本, 版本 1 沒有各 feature 的筆數. */
+	public static final int VERSION = 2;
+
+	/** 正規化方式. */
+	protected int mode = MIN_MAX;
+	protected double lower = 0;
+	protected double upper = 1;
+	/** 每個 task 至少處理的筆數. */
+	protected int batch_size = 1024;
+	/** 執行的 pool, null 表示每次計算建立一個 pool. */
+	protected ForkJoinPool pool = null;
+
+	/** 統計的資料筆數. */
+	protected long rows = 0;
+	/** 各 feature 的統計值, [j] 為 feature index j + 1. */
+	protected double[] min = new double[0];
+	protected double[] max = new double[0];
+	protected double[] mean = new double[0];
+	protected double[] std = new double[0];
+	/** 各 feature 有出現的筆數, 等於 rows 時為 dense; null 表示不知道 (以極值建立). */
+	protected long[] count = null;
+	/** 是否已依 count 確認所有 feature 可以用在 sparse 資料, 改變設定或統計值時重新確認. */
+	protected boolean sparse_checked = false;
+
+	/** Constructor, 以 {@link #fit(svm_problem)} 統計. */
+	public FeatureScaler() {
+	}
+
+	/**
+	 * Constructor, 使用已知的極值 (例: {@link LibSVM#loadExtrema(String)}), 縮放到 [0, 1].
+	 *
+	 * @param min 各 feature 的極小值, [j] 為 feature index j + 1
+	 * @param max 各 feature 的極大值
+	 */
+	public FeatureScaler(double[] min, double[] max) {
+		this.min = min.clone();
+		this.max = max.clone();
+		this.mean = new double[min.length];
+		this.std = new double[min.length];
+	}
+
+	/**
+	 * 設定正規化方式.
+	 *
+	 * @param mode {@link #MIN_MAX} 或 {@link #Z_SCORE}
+	 */
+	public void setMode(int mode) {
+		if (mode != MIN_MAX && mode != Z_SCORE)
+			throw new IllegalArgumentException("未知的正規化方式: " + mode);
+		this.mode = mode;
+		sparse_checked = false;
+	}
+
+	/**
+	 * 設定 {@link #MIN_MAX} 的範圍.
+	 *
+	 * @param lower 下限
+	 * @param upper 上限
+	 */
+	public void setRange(double lower, double upper) {
+		if (!(lower < upper))
+			throw new IllegalArgumentException("lower 必須小於 upper");
+		this.lower = lower;
+		this.upper = upper;
+		sparse_checked = false;
+	}
+
+	/**
+	 * 設定執行的 pool. 從 ForkJoinPool 內呼叫時直接使用目前的 pool.
+	 *
+	 * @param pool ForkJoinPool, null 表示每次計算建立一個與 CPU 數相同大小的 pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * 統計 svm_problem 的所有資料.
+	 *
+	 * @param prob 資料
+	 */
+	public void fit(svm_problem prob) {
+		finish(run(new ProblemTask(prob, true, 0, prob.l)));
+	}
+
+	/**
+	 * 統計 CSR 資料的所有資料.
+	 *
+	 * @param data CSR 資料
+	 */
+	public void fit(SparseDataset data) {
+		finish(run(new DatasetTask(data, true, 0, data.size())));
+	}
+
+	/**
+	 * 正規化 svm_problem 的所有資料, 直接修改 svm_node 的值.
+	 *
+	 * @param prob 資料
+	 * @throws IllegalArgumentException 部分資料沒有出現且統計範圍包含 0 的 feature 不會把 0 對應到 0
+	 */
+	public void scale(svm_problem prob) {
+		if (count != null)
+			checkSparse();
+		else
+			checkSparse(run(new ProblemTask(prob, true, 0, prob.l)));
+		run(new ProblemTask(prob, false, 0, prob.l));
+	}
+
+	/**
+	 * 正規化 CSR 資料的所有資料, 直接修改 value 陣列.
+	 *
+	 * @param data CSR 資料
+	 * @throws IllegalArgumentException 部分資料沒有出現且統計範圍包含 0 的 feature 不會把 0 對應到 0
+	 */
+	public void scale(SparseDataset data) {
+		if (count != null)
+			checkSparse();
+		else
+			checkSparse(run(new DatasetTask(data, true, 0, data.size())));
+		run(new DatasetTask(data, false, 0, data.size()));
+	}
+
+	/**
+	 * 正規化一筆資料, 例: 預測前的資料. 不知道統計時各 feature 的筆數時不檢查.
+	 *
+	 * @param x 資料, 直接修改
+	 * @throws IllegalArgumentException 統計時部分資料沒有出現且範圍包含 0 的 feature 不會把 0 對應到 0
+	 */
+	public void scale(svm_node[] x) {
+		checkSparse();
+		for (svm_node node : x)
+			if (node.index != -1)
+				node.value = scale(node.index, node.value);
+	}
+
+	/**
+	 * 依統計時各 feature 的筆數確認有出現與沒有出現的 0 會得到相同的值, 不知道筆數時不檢查.
+	 *
+	 * @throws IllegalArgumentException 有 feature 會把 0 對應到其他值
+	 */
+	protected void checkSparse() {
+		if (sparse_checked || count == null)
+			return;
+		checkSparse(count, rows);
+		sparse_checked = true;
+	}
+
+	/**
+	 * 依要正規化的資料確認有出現與沒有出現的 0 會得到相同的值.
+	 *
+	 * @param acc 要正規化的資料的累計值
+	 * @throws IllegalArgumentException 有 feature 會把 0 對應到其他值
+	 */
+	protected void checkSparse(Accumulator acc) {
+		checkSparse(acc.count, acc.n);
+	}
+
+	/**
+	 * 確認有出現與沒有出現的 0 會得到相同的值.
+	 * 部分資料沒有出現、且範圍包含 0 的 feature 必須把 0 對應到 0;
+	 * 每筆資料都有出現的 feature 與不會出現 0 的 feature 不需確認.
+	 *
+	 * @param count 各 feature 有出現的筆數, [j] 為 feature index j + 1
+	 * @param rows  資料筆數
+	 * @throws IllegalArgumentException 有 feature 會把 0 對應到其他值
+	 */
+	protected void checkSparse(long[] count, long rows) {
+		for (int j = 0; j < min.length; j++) {
+			if (min[j] > 0 || max[j] < 0)
+				continue;
+			if (j < count.length && count[j] == rows)
+				continue;		// dense, 沒有未出現的 0
+			double zero = scale(j + 1, 0);
+			if (zero != 0)
+				throw new IllegalArgumentException("feature " + (j + 1) + " 的 0 會正規化為 " + zero
+						+ ", 部分資料沒有出現的 0 無法一起修改; " + ((mode == Z_SCORE)? "請改用 MIN_MAX" : "請將下限設為 0 且資料不含負值"));
+		}
+	}
+
+	/**
+	 * 正規化一個值.
+	 *
+	 * @param index feature index, 從 1 開始
+	 * @param v     值
+	 * @return 正規化的值, 沒有統計過或固定不變的 feature 傳回原值
+	 */
+	public double scale(int index, double v) {
+		int j = index - 1;
+		if (j < 0 || j >= min.length)
+			return v;
+		if (mode == Z_SCORE)
+			return (std[j] > 0)? (v - mean[j]) / std[j] : v;
+		return (max[j] > min[j])? lower + (upper - lower) * (v - min[j]) / (max[j] - min[j]) : v;
+	}
+
+	/**
+	 * 在 pool 上執行 task.
+	 *
+	 * @param task task
+	 * @return task 的結果
+	 */
+	protected Accumulator run(Task task) {
+		if (ForkJoinTask.inForkJoinPool())
+			return task.invoke();
+		ForkJoinPool fj = (pool != null)? pool : new ForkJoinPool();
+		try {
+			return fj.invoke(task);
+		} finally {
+			if (fj != pool)
+				fj.shutdown();
+		}
+	}
+
+	/**
+	 * 由累計值計算統計值, 沒有出現的值以 0 計入.
+	 *
+	 * @param acc 所有資料的累計值
+	 */
+	protected void finish(Accumulator acc) {
+		int dim = acc.count.length;
+		rows = acc.n;
+		min = new double[dim];
+		max = new double[dim];
+		mean = new double[dim];
+		std = new double[dim];
+		count = Arrays.copyOf(acc.count, dim);
+		sparse_checked = false;
+		for (int j = 0; j < dim; j++) {
+			long c = acc.count[j], z = rows - c;
+			if (c == 0)
+				continue;
+			min[j] = (z > 0)? Math.min(acc.min[j], 0) : acc.min[j];
+			max[j] = (z > 0)? Math.max(acc.max[j], 0) : acc.max[j];
+			// 與 z 個 0 合併: 平均為 0, 平方差和為 0
+			mean[j] = acc.mean[j] * c / rows;
+			double m2 = acc.m2[j] + acc.mean[j] * acc.mean[j] * c * z / rows;
+			std[j] = Math.sqrt(m2 / rows);
+		}
+	}
+
+	/**
+	 * 取得統計的資料筆數.
+	 *
+	 * @return 資料筆數
+	 */
+	public long getRows() {
+		return rows;
+	}
+
+	/**
+	 * 取得統計過的 feature 數.
+	 *
+	 * @return 最大的 feature index
+	 */
+	public int getDimension() {
+		return min.length;
+	}
+
+	/**
+	 * 取得各 feature 的極小值.
+	 *
+	 * @return 極小值, [j] 為 feature index j + 1
+	 */
+	public double[] getMin() {
+		return min.clone();
+	}
+
+	/**
+	 * 取得各 feature 的極大值.
+	 *
+	 * @return 極大值, [j] 為 feature index j + 1
+	 */
+	public double[] getMax() {
+		return max.clone();
+	}
+
+	/**
+	 * 取得各 feature 的平均.
+	 *
+	 * @return 平均, [j] 為 feature index j + 1
+	 */
+	public double[] getMean() {
+		return mean.clone();
+	}
+
+	/**
+	 * 取得各 feature 的標準差 (母體).
+	 *
+	 * @return 標準差, [j] 為 feature index j + 1
+	 */
+	public double[] getStd() {
+		return std.clone();
+	}
+
+	/**
+	 * 存成 binary 檔, 包含各 feature 的筆數 (有統計過時).
+	 *
+	 * @param filename 檔案名稱
+	 * @throws IOException 檔案寫入錯誤
+	 */
+	public void save(String filename) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(mode);
+			out.writeDouble(lower);
+			out.writeDouble(upper);
+			out.writeLong(rows);
+			out.writeInt(min.length);
+			for (double[] a : new double[][] { min, max, mean, std })
+				for (double v : a)
+					out.writeDouble(v);
+			out.writeBoolean(count != null);
+			if (count != null)
+				for (long c : count)
+					out.writeLong(c);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * 從 binary 檔載入.
+	 *
+	 * @param filename 檔案名稱
+	 * @return FeatureScaler
+	 * @throws IOException 檔案讀取錯誤或格式錯誤
+	 */
+	public static FeatureScaler load(String filename) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException("不是 FeatureScaler 檔: " + filename);
+			int version = in.readInt();
+			if (version < 1 || version > VERSION)
+				throw new IOException("不支援的 FeatureScaler 檔版本: " + version);
+			FeatureScaler s = new FeatureScaler();
+			s.mode = in.readInt();
+			s.lower = in.readDouble();
+			s.upper = in.readDouble();
+			s.rows = in.readLong();
+			int dim = in.readInt();
+			double[][] a = new double[4][dim];
+			for (int k = 0; k < 4; k++)
+				for (int j = 0; j < dim; j++)
+					a[k][j] = in.readDouble();
+			s.min = a[0];
+			s.max = a[1];
+			s.mean = a[2];
+			s.std = a[3];
+			if (version >= 2 && in.readBoolean()) {
+				s.count = new long[dim];
+				for (int j = 0; j < dim; j++)
+					s.count[j] = in.readLong();
+			}
+			return s;
+		} finally {
+			in.close();
+		}
+	}
+
+	/** 一段資料中各 feature 有出現的值的累計 (Welford), 可以合併. */
+	protected static class Accumulator {
+		/** 資料筆數. */
+		protected long n = 0;
+		protected long[] count = new long[0];
+		protected double[] mean = new double[0];
+		protected double[] m2 = new double[0];
+		protected double[] min = new double[0];
+		protected double[] max = new double[0];
+
+		/**
+		 * 確保陣列可以放入 feature.
+		 *
+		 * @param dim feature 數
+		 */
+		protected void ensure(int dim) {
+			if (dim <= count.length)
+				return;
+			int old = count.length;
+			int len = Math.max(dim, old * 2);
+			count = Arrays.copyOf(count, len);
+			mean = Arrays.copyOf(mean, len);
+			m2 = Arrays.copyOf(m2, len);
+			min = Arrays.copyOf(min, len);
+			max = Arrays.copyOf(max, len);
+			Arrays.fill(min, old, len, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, old, len, Double.NEGATIVE_INFINITY);
+		}
+
+		/**
+		 * 加入一個值.
+		 *
+		 * @param index feature index, 從 1 開始
+		 * @param v     值
+		 */
+		protected void add(int index, double v) {
+			int j = index - 1;
+			if (j >= count.length)
+				ensure(index);
+			long c = ++count[j];
+			double d = v - mean[j];
+			mean[j] += d / c;
+			m2[j] += d * (v - mean[j]);
+			if (v < min[j])
+				min[j] = v;
+			if (v > max[j])
+				max[j] = v;
+		}
+
+		/**
+		 * 合併另一段的累計值 (Chan et al.).
+		 *
+		 * @param o 另一段的累計值
+		 * @return 合併後的累計值
+		 */
+		protected Accumulator merge(Accumulator o) {
+			n += o.n;
+			ensure(o.count.length);
+			for (int j = 0; j < o.count.length; j++) {
+				long a = count[j], b = o.count[j];
+				if (b == 0)
+					continue;
+				double d = o.mean[j] - mean[j];
+				long c = a + b;
+				mean[j] += d * b / c;
+				m2[j] += o.m2[j] + d * d * ((double) a * b / c);
+				count[j] = c;
+				min[j] = Math.min(min[j], o.min[j]);
+				max[j] = Math.max(max[j], o.max[j]);
+			}
+			return this;
+		}
+	}
+
+	/** 將資料分成兩半遞迴統計或正規化的 fork-join task. */
+	protected abstract class Task extends RecursiveTask<Accumulator> {
+		private static final long serialVersionUID = 1L;
+		/** 統計 (true) 或正規化 (false). */
+		protected final boolean fit;
+		protected final int begin;
+		protected final int end;
+
+		protected Task(boolean fit, int begin, int end) {
+			this.fit = fit;
+			this.begin = begin;
+			this.end = end;
+		}
+
+		/**
+		 * 建立處理部分資料的 task.
+		 *
+		 * @param begin 起點
+		 * @param end   終點 (不含)
+		 * @return task
+		 */
+		protected abstract Task part(int begin, int end);
+
+		/**
+		 * 統計或正規化一筆資料.
+		 *
+		 * @param i   資料編號
+		 * @param acc 累計值, 正規化時為 null
+		 */
+		protected abstract void row(int i, Accumulator acc);
+
+		@Override
+		protected Accumulator compute() {
+			if (end - begin <= batch_size) {
+				Accumulator acc = fit? new Accumulator() : null;
+				for (int i = begin; i < end; i++)
+					row(i, acc);
+				if (fit)
+					acc.n = end - begin;
+				return acc;
+			}
+			int mid = (begin + end) >>> 1;
+			Task left = part(begin, mid);
+			left.fork();
+			Accumulator r = part(mid, end).compute();
+			Accumulator l = left.join();
+			return fit? l.merge(r) : null;
+		}
+	}
+
+	/** 處理 svm_problem 的 task. */
+	protected class ProblemTask extends Task {
+		private static final long serialVersionUID = 1L;
+		protected final svm_problem prob;
+
+		protected ProblemTask(svm_problem prob, boolean fit, int begin, int end) {
+			super(fit, begin, end);
+			this.prob = prob;
+		}
+
+		@Override
+		protected Task part(int begin, int end) {
+			return new ProblemTask(prob, fit, begin, end);
+		}
+
+		@Override
+		protected void row(int i, Accumulator acc) {
+			for (svm_node node : prob.x[i]) {
+				if (node.index == -1)
+					break;
+				if (acc != null)
+					acc.add(node.index, node.value);
+				else
+					node.value = scale(node.index, node.value);
+			}
+		}
+	}
+
+	/** 處理 CSR 資料的 task. */
+	protected class DatasetTask extends Task {
+		private static final long serialVersionUID = 1L;
+		protected final SparseDataset data;
+
+		protected DatasetTask(SparseDataset data, boolean fit, int begin, int end) {
+			super(fit, begin, end);
+			this.data = data;
+		}
+
+		@Override
+		protected Task part(int begin, int end) {
+			return new DatasetTask(data, fit, begin, end);
+		}
+
+		@Override
+		protected void row(int i, Accumulator acc) {
+			int[] row_start = data.getRowStart(), index = data.getIndex();
+			double[] value = data.getValue();
+			for (int k = row_start[i], e = row_start[i + 1]; k < e; k++) {
+				if (acc != null)
+					acc.add(index[k], value[k]);
+				else
+					value[k] = scale(index[k], value[k]);
+			}
+		}
+	}
+}
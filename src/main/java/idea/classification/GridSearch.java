@@ -0,0 +1,354 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.7+
+ */
+package idea.classification;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+import libsvm.*;
+
+/**
+ * 平行搜尋 SVM 的 (C, gamma) 參數.
+ * 每個參數點使用自己的 svm_parameter 複本，在 ForkJoinPool 上同時計算 {@link CrossValidation}，
+ * 參數點與各 fold 共用同一個 pool.
+ * 先以粗的格點搜尋，再於最好的幾個點附近以一半的間距細分 (coarse-to-fine).
+ * 每完成一個 fold 就累計錯誤，若剩下的資料全對也不可能接近目前最佳值，便不再訓練該點尚未開始的 fold.
+ * 分數越高越好: classification 為 accuracy, regression 為負的 mean squared error.
+ *
+ * @author Miles Chen
+ */
+public class GridSearch {
+	/** 訓練資料. */
+	protected final svm_problem prob;
+	/** 參數範本, 每個點複製一份後修改 C 與 gamma. */
+	protected final svm_parameter base;
+	/** n-fold cross validation. */
+	protected int fold = 5;
+	/** 分 fold 的 random seed, 所有參數點使用相同的分法. */
+	protected long seed = 0;
+	/** 細分次數, 0 表示只搜尋粗的格點. */
+	protected int refinements = 0;
+	/** 每次細分的點數. */
+	protected int top = 3;
+	/** 放棄的門檻: 分數上限低於 最佳值 - margin 時放棄. 負值表示不放棄. */
+	protected double margin = 0.05;
+	/** 執行的 pool, null 表示每次搜尋建立一個與 CPU 數相同大小的 pool. */
+	protected ForkJoinPool pool = null;
+
+	/** 目前最佳分數, 以 Double.doubleToLongBits 儲存. */
+	protected final AtomicLong best = new AtomicLong(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+	/** 所有參數點共用的 cross validation, 分 fold 只做一次. */
+	protected CrossValidation cv = null;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param prob  訓練資料
+	 * @param param 參數範本, 不會被修改
+	 */
+	public GridSearch(svm_problem prob, svm_parameter param) {
+		this.prob = prob;
+		this.base = (svm_parameter) param.clone();
+	}
+
+	/**
+	 * 設定 n-fold cross validation.
+	 *
+	 * @param fold n-fold
+	 * @param seed 分 fold 的 random seed
+	 */
+	public void setFold(int fold, long seed) {
+		this.fold = fold;
+		this.seed = seed;
+	}
+
+	/**
+	 * 設定 coarse-to-fine 細分.
+	 *
+	 * @param refinements 細分次數, 每次間距減半
+	 * @param top         每次在最好的幾個點附近細分
+	 */
+	public void setRefinement(int refinements, int top) {
+		this.refinements = refinements;
+		this.top = top;
+	}
+
+	/**
+	 * 設定放棄的門檻.
+	 * classification 時為 accuracy 的差距, regression 時為 mean squared error 的差距.
+	 *
+	 * @param margin 分數上限低於 最佳值 - margin 時放棄, 負值表示每個點都算完
+	 */
+	public void setAbandonMargin(double margin) {
+		this.margin = margin;
+	}
+
+	/**
+	 * 設定執行的 pool.
+	 *
+	 * @param pool ForkJoinPool, null 表示每次搜尋建立一個與 CPU 數相同大小的 pool
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * 搜尋參數. C = 2^c, gamma = 2^g, 範圍不包含 end.
+	 *
+	 * @param c_begin cost 參數起始值 (2^c_begin)
+	 * @param c_end   cost 參數最大值 (2^c_end)
+	 * @param c_step  cost 參數每次遞增值
+	 * @param g_begin gamma 參數起始值 (2^g_begin)
+	 * @param g_end   gamma 參數最大值 (2^g_end)
+	 * @param g_step  gamma 參數每次遞增值
+	 * @return 所有計算過的點, 依分數由高到低排序
+	 */
+	public List<Result> search(double c_begin, double c_end, double c_step, double g_begin, double g_end, double g_step) {
+		cv = new CrossValidation(prob, fold, seed) {
+			@Override
+			protected double minScore() {
+				return (margin >= 0)? bestScore() - margin : Double.NEGATIVE_INFINITY;
+			}
+		};
+		best.set(Double.doubleToLongBits(Double.NEGATIVE_INFINITY));
+
+		Map<String, Result> done = new LinkedHashMap<String, Result>();
+		List<Result> points = new ArrayList<Result>();
+		for (int i = 0; c_begin + i * c_step < c_end; i++)
+			for (int j = 0; g_begin + j * g_step < g_end; j++)
+				points.add(new Result(c_begin + i * c_step, g_begin + j * g_step));
+
+		ForkJoinPool fj = (pool != null)? pool : new ForkJoinPool();
+		try {
+			evaluate(fj, points, done);
+
+			for (int r = 0; r < refinements; r++) {
+				c_step /= 2;
+				g_step /= 2;
+				points = new ArrayList<Result>();
+				for (Result center : top(done.values())) {
+					for (int i = -1; i <= 1; i++)
+						for (int j = -1; j <= 1; j++) {
+							Result p = new Result(center.log2c + i * c_step, center.log2g + j * g_step);
+							if (!done.containsKey(p.key()))
+								points.add(p);
+						}
+				}
+				evaluate(fj, points, done);
+			}
+		} finally {
+			if (fj != pool)
+				fj.shutdown();
+		}
+
+		List<Result> results = new ArrayList<Result>(done.values());
+		Collections.sort(results);
+		return results;
+	}
+
+	/**
+	 * 平行計算各點並加入已完成的結果.
+	 *
+	 * @param pool   執行的 pool
+	 * @param points 要計算的點
+	 * @param done   已完成的結果
+	 */
+	protected void evaluate(ForkJoinPool pool, List<Result> points, Map<String, Result> done) {
+		List<Result> unique = new ArrayList<Result>();
+		for (Result p : points)
+			if (!done.containsKey(p.key())) {
+				done.put(p.key(), p);
+				unique.add(p);
+			}
+
+		pool.invoke(new Evaluation(unique, 0, unique.size()));
+	}
+
+	/**
+	 * 取得最好的幾個未放棄的點.
+	 *
+	 * @param results 已完成的結果
+	 * @return 最好的 top 個點
+	 */
+	protected List<Result> top(Collection<Result> results) {
+		List<Result> sorted = new ArrayList<Result>();
+		for (Result r : results)
+			if (!r.abandoned)
+				sorted.add(r);
+		Collections.sort(sorted);
+		return sorted.subList(0, Math.min(top, sorted.size()));
+	}
+
+	/**
+	 * 計算單一點的 cross validation 分數.
+	 *
+	 * @param r 要計算的點, 結果寫回此物件
+	 */
+	protected void evaluate(Result r) {
+		svm_parameter param = (svm_parameter) base.clone();
+		param.C = r.c;
+		param.gamma = r.g;
+
+		CrossValidation.Result cvr = cv.run(param);	// 各 fold 也在同一個 pool 上平行計算
+		r.score = cvr.getScore();
+		r.abandoned = cvr.isAbandoned();
+		for (CrossValidation.Fold f : cvr.getFolds())
+			if (f != null)
+				r.folds++;
+		r.nanos = (long) (cvr.getWallMillis() * 1e6);
+		if (!r.abandoned)
+			updateBest(r.score);
+	}
+
+	/**
+	 * 取得目前最佳分數.
+	 *
+	 * @return 最佳分數
+	 */
+	protected double bestScore() {
+		return Double.longBitsToDouble(best.get());
+	}
+
+	/**
+	 * 更新最佳分數.
+	 *
+	 * @param score 新的分數
+	 */
+	protected void updateBest(double score) {
+		long cur;
+		do {
+			cur = best.get();
+			if (score <= Double.longBitsToDouble(cur))
+				return;
+		} while (!best.compareAndSet(cur, Double.doubleToLongBits(score)));
+	}
+
+	/** 將點分成兩半遞迴計算的 fork-join task. */
+	protected class Evaluation extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		protected final List<Result> points;
+		protected final int begin;
+		protected final int end;
+
+		protected Evaluation(List<Result> points, int begin, int end) {
+			this.points = points;
+			this.begin = begin;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (end - begin <= 1) {
+				if (end > begin)
+					evaluate(points.get(begin));
+				return;
+			}
+			int mid = (begin + end) >>> 1;
+			invokeAll(new Evaluation(points, begin, mid), new Evaluation(points, mid, end));
+		}
+	}
+
+	/** 單一參數點的結果, 依分數由高到低排序. */
+	public static class Result implements Comparable<Result> {
+		/** log2(C). */
+		protected final double log2c;
+		/** log2(gamma). */
+		protected final double log2g;
+		protected final double c;
+		protected final double g;
+		/** Cross validation 分數, 放棄時為分數上限. */
+		protected double score = Double.NaN;
+		/** 是否提前放棄. */
+		protected boolean abandoned = false;
+		/** 計算過的 fold 數. */
+		protected int folds = 0;
+		/** 計算時間 in nanoseconds. */
+		protected long nanos = 0;
+
+		protected Result(double log2c, double log2g) {
+			this.log2c = log2c;
+			this.log2g = log2g;
+			this.c = Math.pow(2, log2c);
+			this.g = Math.pow(2, log2g);
+		}
+
+		/**
+		 * 點的 key, 用來避免重複計算.
+		 *
+		 * @return key
+		 */
+		protected String key() {
+			return log2c + " " + log2g;
+		}
+
+		/**
+		 * 取得 cost 參數.
+		 *
+		 * @return C
+		 */
+		public double getC() {
+			return c;
+		}
+
+		/**
+		 * 取得 gamma 參數.
+		 *
+		 * @return gamma
+		 */
+		public double getGamma() {
+			return g;
+		}
+
+		/**
+		 * 取得 cross validation 分數.
+		 *
+		 * @return accuracy 或負的 mean squared error, 放棄時為分數上限
+		 */
+		public double getScore() {
+			return score;
+		}
+
+		/**
+		 * 是否提前放棄.
+		 *
+		 * @return 是否放棄
+		 */
+		public boolean isAbandoned() {
+			return abandoned;
+		}
+
+		/**
+		 * 取得計算過的 fold 數.
+		 *
+		 * @return fold 數
+		 */
+		public int getFolds() {
+			return folds;
+		}
+
+		/**
+		 * 取得計算時間.
+		 *
+		 * @return 時間 in milliseconds
+		 */
+		public double getMillis() {
+			return nanos / 1e6;
+		}
+
+		public int compareTo(Result o) {
+			if (abandoned != o.abandoned)
+				return abandoned? 1 : -1;
+			return Double.compare(o.score, score);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%g %g %g%s", c, g, score, abandoned? " (abandoned)" : "");
+		}
+	}
+}
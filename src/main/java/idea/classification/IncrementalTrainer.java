@@ -0,0 +1,310 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.7+
+ */
+package idea.classification;
+
+import java.util.*;
+
+import libsvm.*;
+
+/**
+ * 以上一次的 model 增量訓練 classification model.
+ * libsvm 的 solver 無法從外部給定初始的 alpha，因此以上一次 model 的 support vectors 代表舊資料
+ * (非 support vector 的資料對 decision function 沒有影響)，加上新增與修改的資料重新訓練，
+ * 資料量通常只有完整資料的一小部分.
+ * 修改過的資料若原本是 support vector，以新的版本取代: support vector 是訓練資料的複本，
+ * 因此以修改前的資料 (replaced) 找出要移除的 support vector；只給新的版本時只有 feature 完全相同 (例: 只改 label) 才能取代.
+ * 上一次的 model 在新資料上的錯誤率超過門檻時視為資料分布已改變 (drift)，改用完整資料重新訓練；
+ * 沒有完整資料時仍為增量訓練，以 {@link Result#isDrifted()} 通知呼叫者.
+ * 只支援 C-SVC 與 nu-SVC (需要由 model 還原 support vector 的 label)，
+ * 且上一次的 model 必須由 svm_train 產生 ({@link LinearTrainer} 的 support vector 是 weight vector, 不是資料).
+ *
+ * @author Miles Chen
+ */
+public class IncrementalTrainer {
+	/** 參數, 不會被修改. */
+	protected final svm_parameter param;
+	/** 新資料的錯誤率超過此值時改用完整資料訓練. */
+	protected double drift_threshold = 0.2;
+	/** 是否同時以完整資料訓練, 比較時間. */
+	protected boolean compare_full = false;
+
+	/**
+	 * Constructor. 參數在此檢查 (不需資料的部分, 例: C、eps、cache_size), 不會等到第一次訓練才失敗.
+	 *
+	 * @param param 參數, 例: {@link LibSVM#setDefaultParam()} 的設定
+	 * @throws IllegalArgumentException 不支援的 SVM 類型或參數錯誤
+	 */
+	public IncrementalTrainer(svm_parameter param) {
+		if (param.svm_type != svm_parameter.C_SVC && param.svm_type != svm_parameter.NU_SVC)
+			throw new IllegalArgumentException("增量訓練只支援 C-SVC 與 nu-SVC");
+		svm_problem empty = new svm_problem();
+		empty.y = new double[0];
+		empty.x = new svm_node[0][];
+		String error = svm.svm_check_parameter(empty, param);
+		if (error != null)
+			throw new IllegalArgumentException("參數錯誤: " + error);
+		this.param = (svm_parameter) param.clone();
+	}
+
+	/**
+	 * 設定 drift 的門檻.
+	 *
+	 * @param drift_threshold 上一次的 model 在新資料上的錯誤率超過此值時改用完整資料訓練, 1 表示永遠不改用
+	 */
+	public void setDriftThreshold(double drift_threshold) {
+		this.drift_threshold = drift_threshold;
+	}
+
+	/**
+	 * 設定是否同時以完整資料訓練, 記錄完整訓練的時間以便比較. 傳回的仍是增量訓練的 model.
+	 *
+	 * @param compare_full 是否比較
+	 */
+	public void setCompareFull(boolean compare_full) {
+		this.compare_full = compare_full;
+	}
+
+	/**
+	 * 增量訓練. 修改過的資料只有 feature 完全相同時才能取代原本的 support vector,
+	 * feature 有修改時使用 {@link #train(svm_model, svm_problem, svm_node[][], svm_problem)}.
+	 *
+	 * @param previous 上一次的 model
+	 * @param changes  新增與修改的資料
+	 * @param full     完整的資料 (包含 changes), 發生 drift 或比較時間時使用, 可為 null
+	 * @return 結果
+	 * @throws IllegalArgumentException 參數錯誤
+	 */
+	public Result train(svm_model previous, svm_problem changes, svm_problem full) {
+		return train(previous, changes, null, full);
+	}
+
+	/**
+	 * 增量訓練.
+	 *
+	 * @param previous 上一次的 model
+	 * @param changes  新增與修改的資料
+	 * @param replaced 修改或刪除的資料在修改前的 feature, 與其相同的 support vector 不再使用, 可為 null
+	 * @param full     完整的資料 (包含 changes), 發生 drift 或比較時間時使用, 可為 null
+	 * @return 結果, 發生 drift 但沒有完整資料時 {@link Result#isDrifted()} 為 true
+	 * @throws IllegalArgumentException 參數錯誤
+	 */
+	public Result train(svm_model previous, svm_problem changes, svm_node[][] replaced, svm_problem full) {
+		Result r = new Result();
+		r.changes = changes.l;
+		r.full = (full != null)? full.l : -1;
+
+		long start = System.nanoTime();
+		r.drift = errorRate(previous, changes);
+		r.drifted = r.drift > drift_threshold;
+		if (r.drifted && full != null) {
+			r.model = train(full);
+			r.working_set = full.l;
+			r.incremental = false;
+			r.nanos = System.nanoTime() - start;
+			r.full_nanos = r.nanos;
+			return r;
+		}
+
+		svm_problem ws = workingSet(previous, changes, replaced);
+		r.model = train(ws);
+		r.working_set = ws.l;
+		r.incremental = true;
+		r.nanos = System.nanoTime() - start;
+
+		if (compare_full && full != null) {
+			start = System.nanoTime();
+			train(full);
+			r.full_nanos = System.nanoTime() - start;
+		}
+		return r;
+	}
+
+	/**
+	 * 訓練 model.
+	 *
+	 * @param prob 資料
+	 * @return model
+	 * @throws IllegalArgumentException 參數錯誤
+	 */
+	protected svm_model train(svm_problem prob) {
+		String error = svm.svm_check_parameter(prob, param);
+		if (error != null)
+			throw new IllegalArgumentException(error);
+		return svm.svm_train(prob, param);
+	}
+
+	/**
+	 * 上一次的 model 在新資料上的錯誤率.
+	 *
+	 * @param previous 上一次的 model
+	 * @param changes  新資料
+	 * @return 錯誤率, 沒有新資料時為 0
+	 */
+	protected static double errorRate(svm_model previous, svm_problem changes) {
+		if (changes.l == 0)
+			return 0;
+		BatchPredictor bp = new BatchPredictor(previous);
+		double[] pred = bp.predict(changes);
+		int error = 0;
+		for (int i = 0; i < changes.l; i++)
+			if (pred[i] != changes.y[i])
+				error++;
+		return (double) error / changes.l;
+	}
+
+	/**
+	 * 上一次的 support vectors 加上新資料. 與新資料或修改前的資料相同 feature 的 support vector 不再使用.
+	 *
+	 * @param previous 上一次的 model
+	 * @param changes  新增與修改的資料
+	 * @param replaced 修改或刪除的資料在修改前的 feature, 可為 null
+	 * @return 訓練資料
+	 */
+	protected static svm_problem workingSet(svm_model previous, svm_problem changes, svm_node[][] replaced) {
+		Set<Key> changed = new HashSet<Key>();
+		for (int i = 0; i < changes.l; i++)
+			changed.add(new Key(changes.x[i]));
+		if (replaced != null)
+			for (svm_node[] x : replaced)
+				changed.add(new Key(x));
+
+		List<svm_node[]> x = new ArrayList<svm_node[]>(previous.l + changes.l);
+		List<Double> y = new ArrayList<Double>(previous.l + changes.l);
+		for (int c = 0, k = 0; c < previous.nr_class; c++)		// support vectors 依類別排列
+			for (int n = 0; n < previous.nSV[c]; n++, k++)
+				if (!changed.contains(new Key(previous.SV[k]))) {
+					x.add(previous.SV[k]);
+					y.add((double) previous.label[c]);
+				}
+		for (int i = 0; i < changes.l; i++) {
+			x.add(changes.x[i]);
+			y.add(changes.y[i]);
+		}
+
+		svm_problem prob = new svm_problem();
+		prob.l = x.size();
+		prob.x = x.toArray(new svm_node[prob.l][]);
+		prob.y = new double[prob.l];
+		for (int i = 0; i < prob.l; i++)
+			prob.y[i] = y.get(i);
+		return prob;
+	}
+
+	/** 以 feature 比較資料是否相同. */
+	protected static class Key {
+		protected final svm_node[] x;
+		protected final int hash;
+
+		protected Key(svm_node[] x) {
+			this.x = x;
+			int h = 1;
+			for (svm_node n : x)
+				if (n.index != -1) {
+					long v = Double.doubleToLongBits(n.value);
+					h = 31 * (31 * h + n.index) + (int) (v ^ (v >>> 32));
+				}
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			svm_node[] a = x, b = ((Key) o).x;
+			int n = SVMScorer.length(a);
+			if (n != SVMScorer.length(b))
+				return false;
+			for (int k = 0; k < n; k++)
+				if (a[k].index != b[k].index || Double.compare(a[k].value, b[k].value) != 0)
+					return false;
+			return true;
+		}
+	}
+
+	/** 增量訓練的結果. */
+	public static class Result {
+		protected svm_model model;
+		/** 是否為增量訓練, false 表示發生 drift 而以完整資料訓練. */
+		protected boolean incremental;
+		/** 錯誤率是否超過 drift 的門檻. */
+		protected boolean drifted;
+		/** 上一次的 model 在新資料上的錯誤率. */
+		protected double drift;
+		protected int changes;
+		protected int working_set;
+		protected int full;
+		protected long nanos;
+		/** 完整訓練的時間, 沒有比較時為 -1. */
+		protected long full_nanos = -1;
+
+		public svm_model getModel() {
+			return model;
+		}
+
+		public boolean isIncremental() {
+			return incremental;
+		}
+
+		public double getDrift() {
+			return drift;
+		}
+
+		/**
+		 * 上一次的 model 在新資料上的錯誤率是否超過 drift 的門檻.
+		 * 有完整資料時已改用完整資料訓練 ({@link #isIncremental()} 為 false)；
+		 * 沒有時仍為增量訓練, model 可能已不適用, 需由呼叫者以完整資料重新訓練.
+		 *
+		 * @return 是否發生 drift
+		 */
+		public boolean isDrifted() {
+			return drifted;
+		}
+
+		/**
+		 * 取得實際訓練的資料筆數.
+		 *
+		 * @return 資料筆數
+		 */
+		public int getWorkingSetSize() {
+			return working_set;
+		}
+
+		public double getMillis() {
+			return nanos / 1e6;
+		}
+
+		/**
+		 * 取得完整訓練的時間.
+		 *
+		 * @return 毫秒, 沒有比較時為 NaN
+		 */
+		public double getFullMillis() {
+			return (full_nanos < 0)? Double.NaN : full_nanos / 1e6;
+		}
+
+		/**
+		 * 取得相對於完整訓練的加速倍數.
+		 *
+		 * @return 倍數, 沒有比較時為 NaN
+		 */
+		public double getSpeedup() {
+			return (full_nanos < 0)? Double.NaN : (double) full_nanos / nanos;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s changes=%d working_set=%d full=%d drift=%.4f%s time=%.1fms full_time=%.1fms speedup=%.2f",
+					incremental? "incremental" : "full", changes, working_set, full, drift,
+					(drifted && incremental)? " (drifted, no full data)" : "", getMillis(), getFullMillis(), getSpeedup());
+		}
+	}
+}
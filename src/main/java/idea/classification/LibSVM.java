@@ -2,11 +2,12 @@
  * Summary:
  * Copyright: (c) 2017. All rights reserved.
  * Licence: This software may be copied and used freely for any purpose.
- * Requires: JDK 1.6+
+ * Requires: JDK 1.7+
  */
 package idea.classification;
 
 import java.io.*;
+import java.util.List;
 import java.util.StringTokenizer;
 
 import idea.math.*;
@@ -19,21 +20,37 @@ import libsvm.*;
  * @author Miles Chen
  */
 public class LibSVM {
+	/** 預設的 kernel cache 大小 (MB), 與 libsvm 相同. */
+	public static final double DEFAULT_CACHE_MB = 100;
+
 	/** SVM 參數. */
 	protected svm_parameter param;
 	/** SVM 資料格式. */
 	protected svm_problem prob;
+	/** 從 LIBSVM 格式檔載入的 CSR 資料, 需要時才轉成 prob. */
+	protected SparseDataset data;
 	/** Model 檔名稱. */
 	protected String model_name;
+	/** Linear kernel 的 C-SVC 是否使用 {@link LinearTrainer} 訓練. */
+	protected boolean linear_trainer = false;
+	/** 是否自動決定 kernel cache 大小. */
+	protected boolean auto_cache = false;
+	/** 是否以 binary 格式 ({@link BinaryModel}) 存 model. */
+	protected boolean binary_model = false;
+	/** 記錄 libsvm 的訓練過程. */
+	protected TrainingProfiler profiler = new TrainingProfiler();
 
 	/** 各 feature 最大值. */
 	protected double[] max;
 	/** 各 feature 最小值. */
 	protected double[] min;
+	/** 正規化使用的 FeatureScaler. */
+	protected FeatureScaler scaler;
 
 	/** Constructor. */
 	public LibSVM() {
 		setDefaultParam();
+		profiler.setEcho(true);		// 保留 libsvm 原本的輸出
 	}
 
 	/** 設定 default SVM 參數. */
@@ -48,7 +65,7 @@ public class LibSVM {
 		param.C = 1;								// 0.0001 - 10000 (越大則對錯誤的懲罰越大，會 overfit)
 		param.nu = 0.5;
 		param.p = 0.1;
-		param.cache_size = 100;
+		param.cache_size = DEFAULT_CACHE_MB;
 		param.eps = 1e-3;
 		param.shrinking = 1;
 		param.probability = 0;						// 若要估計分到每個類的概率則設為 1
@@ -76,19 +93,125 @@ public class LibSVM {
 		param.p = 0.1;
 	}
 
+	/**
+	 * 設定 linear kernel 的 C-SVC 是否使用 {@link LinearTrainer} 訓練.
+	 * 資料量大時比 libsvm 快很多, 產生的 model 格式與 libsvm 相同.
+	 *
+	 * @param linear_trainer 是否使用
+	 */
+	public void setLinearTrainer(boolean linear_trainer) {
+		this.linear_trainer = linear_trainer;
+	}
+
 	/**
 	 * train model.
 	 *
 	 * @param model_name model 檔名稱
 	 * @throws IOException 檔案寫入錯誤
+	 * @throws IllegalArgumentException 參數錯誤
 	 */
 	public void train(String model_name) throws IOException {
 //		System.out.println("Training......");
 
 		this.model_name = model_name;
-		System.out.println(svm.svm_check_parameter(prob, param));	// 若參數沒問題，則 return null，否則 return error 描述
-		svm_model model = svm.svm_train(prob, param);
-		svm.svm_save_model(this.model_name, model);					// 將訓練好的 model 存檔
+		svm_problem prob = problem();
+		if (auto_cache)
+			param.cache_size = TrainingProfiler.autoCacheSize(prob);
+		svm_model model;
+		TrainingProfiler.Report report = null;
+		if (linear_trainer && param.kernel_type == svm_parameter.LINEAR && param.svm_type == svm_parameter.C_SVC) {
+			String error = svm.svm_check_parameter(prob, param);
+			if (error != null)
+				throw new IllegalArgumentException(error);
+			model = new LinearTrainer(param).train(prob);
+		} else {
+			model = profiler.train(prob, param);					// 參數錯誤時丟出 IllegalArgumentException
+			report = profiler.getReport();
+		}
+		long start = System.nanoTime();
+		saveModel(model);											// 將訓練好的 model 存檔
+		if (report != null)
+			report.save_nanos = System.nanoTime() - start;
+		ModelRegistry.getDefault().put(this.model_name, model);		// test 時不需重新載入
+	}
+
+	/**
+	 * 以上一次的 model 增量訓練, 只需上一次的 support vectors 與新增、修改的資料.
+	 * 上一次的 model 在新資料上的錯誤率過高時改用目前載入的完整資料訓練.
+	 * Feature 有修改的資料使用 {@link #trainIncremental(String, String, String, String)} 才能取代原本的 support vector.
+	 *
+	 * @param model_name     model 檔名稱
+	 * @param previous_model 上一次的 model 檔名稱
+	 * @param changes_file   新增與修改的資料 (LIBSVM 格式檔)
+	 * @return 結果, 包含訓練時間與是否發生 drift
+	 * @throws IOException 檔案讀寫錯誤
+	 * @throws IllegalArgumentException 參數錯誤或不支援的 SVM 類型
+	 */
+	public IncrementalTrainer.Result trainIncremental(String model_name, String previous_model, String changes_file) throws IOException {
+		return trainIncremental(model_name, previous_model, changes_file, null);
+	}
+
+	/**
+	 * 以上一次的 model 增量訓練, 只需上一次的 support vectors 與新增、修改的資料.
+	 * 上一次的 model 在新資料上的錯誤率過高時改用目前載入的完整資料訓練.
+	 *
+	 * @param model_name     model 檔名稱
+	 * @param previous_model 上一次的 model 檔名稱
+	 * @param changes_file   新增與修改的資料 (LIBSVM 格式檔)
+	 * @param replaced_file  修改或刪除的資料在修改前的內容 (LIBSVM 格式檔, 不使用 label), 可為 null
+	 * @return 結果, 包含訓練時間與是否發生 drift
+	 * @throws IOException 檔案讀寫錯誤
+	 * @throws IllegalArgumentException 參數錯誤或不支援的 SVM 類型
+	 */
+	public IncrementalTrainer.Result trainIncremental(String model_name, String previous_model, String changes_file, String replaced_file) throws IOException {
+		this.model_name = model_name;
+		svm_model previous = ModelRegistry.getDefault().get(previous_model);
+		svm_problem changes = LibSVMReader.read(changes_file).toProblem();
+		svm_node[][] replaced = (replaced_file != null)? LibSVMReader.read(replaced_file).toProblem().x : null;
+		IncrementalTrainer.Result r = new IncrementalTrainer(param).train(previous, changes, replaced, problem());
+		saveModel(r.getModel());
+		ModelRegistry.getDefault().put(this.model_name, r.getModel());
+		return r;
+	}
+
+	/**
+	 * 設定是否以 binary 格式存 model. 載入時自動判斷格式, 不需另外設定.
+	 *
+	 * @param binary_model 是否使用 binary 格式
+	 */
+	public void setBinaryModel(boolean binary_model) {
+		this.binary_model = binary_model;
+	}
+
+	/**
+	 * 將 model 存成 model_name.
+	 *
+	 * @param model model
+	 * @throws IOException 檔案寫入錯誤
+	 */
+	protected void saveModel(svm_model model) throws IOException {
+		if (binary_model)
+			new BinaryModel(model).save(this.model_name);
+		else
+			svm.svm_save_model(this.model_name, model);
+	}
+
+	/**
+	 * 設定是否依資料量與可用的 heap 自動決定 kernel cache 大小 (預設為固定 100MB).
+	 *
+	 * @param auto_cache 是否自動決定
+	 */
+	public void setAutoCacheSize(boolean auto_cache) {
+		this.auto_cache = auto_cache;
+	}
+
+	/**
+	 * 取得上次以 libsvm 訓練的記錄: iteration 數、support vector 數、cache 涵蓋率、各階段時間.
+	 *
+	 * @return 訓練記錄, 尚未訓練時為 null
+	 */
+	public TrainingProfiler.Report getTrainingReport() {
+		return profiler.getReport();
 	}
 
 	/**
@@ -102,22 +225,32 @@ public class LibSVM {
 	}*/
 
 	/**
-	 * n-fold cross validation.
+	 * n-fold cross validation. 各 fold 平行訓練，以固定的 seed 依類別分層分 fold.
 	 *
-	 * @param fold n-fold
+	 * @param fold n-fold, 大於資料筆數時為 leave-one-out
 	 * @return 預測的結果
+	 * @throws IllegalArgumentException 參數錯誤或 fold 小於 2
 	 */
 	public double[] crossValidation(int fold) {
-		System.out.println(svm.svm_check_parameter(prob, param));	// 若參數沒問題，則 return null，否則 return error 描述
-
-		double[] target = new double[prob.l];
-		svm.svm_cross_validation(prob, param, fold, target);
+		return crossValidation(fold, 0).getTarget();
+	}
 
-		return target;
+	/**
+	 * n-fold cross validation. 各 fold 平行訓練，以固定的 seed 依類別分層分 fold.
+	 *
+	 * @param fold n-fold, 大於資料筆數時為 leave-one-out
+	 * @param seed 分 fold 的 random seed
+	 * @return 各 fold 的結果、預測值與花費時間
+	 * @throws IllegalArgumentException 參數錯誤或 fold 小於 2
+	 */
+	public CrossValidation.Result crossValidation(int fold, long seed) {
+		return new CrossValidation(problem(), fold, seed).run(param);	// 參數錯誤時丟出 IllegalArgumentException
 	}
 
 	/**
 	 * test 訓練的結果.
+	 * Model 只在第一次使用 (或檔案修改後) 從硬碟載入，各筆資料以多個 thread 同時預測；
+	 * linear model 使用預先計算的 primal weight vector, precomputed kernel 使用 svm.svm_predict.
 	 *
 	 * @param model_name model 檔名稱
 	 * @return 預測的結果
@@ -127,37 +260,34 @@ public class LibSVM {
 //		System.out.println("Testing......");
 		this.model_name = model_name;
 
-		svm_model model = svm.svm_load_model(this.model_name);
-		double[] pred = new double[prob.l];		// 預測的結果
-
-		for (int i = 0; i < prob.l; i++)
-			pred[i] = svm.svm_predict(model, prob.x[i]);
+		BatchPredictor bp = ModelRegistry.getDefault().getPredictor(this.model_name);
+		if (prob == null && data != null)
+			return bp.predict(data);		// 不需轉成 svm_node
+		return bp.predict(prob);
+	}
 
-		return pred;
+	/**
+	 * 計算預測結果的 confusion matrix 與各項準確度, 不輸出文字.
+	 *
+	 * @param pred 預測結果
+	 * @return confusion matrix
+	 */
+	public ConfusionMatrix evaluate(double[] pred) {
+		double[] y = (prob == null && data != null)? data.getLabels() : prob.y;
+		return ConfusionMatrix.of(y, pred);		// data 的 label 陣列可能比資料筆數長, 只比較 pred.length 筆
 	}
 
 	/**
-	 * 計算預測結果的準確度.
-	 * 包含: accuracy, precision, sensitivity, specificity, F-measure.
+	 * 計算預測結果的準確度並輸出.
+	 * 包含: accuracy, 各類別的 precision, recall, F-measure 與 macro 平均.
 	 *
 	 * @param pred 預測結果
 	 * @return accuracy
 	 */
 	public double performance(double[] pred) {
-		int tp = 0, tn = 0, fp = 0, fn = 0;
-
-		for (int i = 0; i < prob.l; i++) {
-			if (pred[i] == prob.y[i] && pred[i] != 0)
-				tp++;
-			else if (pred[i] == prob.y[i] && pred[i] == 0)
-				tn++;
-			else if (pred[i] != prob.y[i] && pred[i] != 0)
-				fp++;
-			else if (pred[i] != prob.y[i] && pred[i] == 0)
-				fn++;
-		}
-
-		return performance(tp, tn, fp, fn);
+		ConfusionMatrix cm = evaluate(pred);
+		System.out.print(cm);
+		return cm.getAccuracy();
 	}
 
 	/**
@@ -186,13 +316,18 @@ public class LibSVM {
 		return acc;
 	}
 
-	/** 以預設值計算不同參數的準確率. */
-	public void grid() {
-		grid(-5, 15, 2, -15, 3, 2, 5);
+	/**
+	 * 以預設值計算不同參數的準確率.
+	 *
+	 * @return 各參數的結果, 依準確率由高到低排序
+	 */
+	public List<GridSearch.Result> grid() {
+		return grid(-5, 15, 2, -15, 3, 2, 5);
 	}
 
 	/**
 	 * 計算不同參數的準確率.
+	 * 各參數平行計算，不會修改目前的參數; 需要細分或調整放棄門檻時直接使用 {@link GridSearch}.
 	 *
 	 * @param c_begin cost 參數起始值 (2^c_begin)
 	 * @param c_end   cost 參數最大值 (2^c_end)
@@ -201,49 +336,80 @@ public class LibSVM {
 	 * @param g_end   gamma 參數最大值 (2^g_end)
 	 * @param g_step  gamma 參數每次遞增值 (g_begin += g_step)
 	 * @param fold    n-fold cross validation
+	 * @return 各參數的結果, 依準確率由高到低排序, 第一個為最佳參數
 	 */
-	public void grid(int c_begin, int c_end, int c_step, int g_begin, int g_end, int g_step, int fold) {
-		double c_best = 0;
-		double g_best = 0;
-		double acc_best = -1;
-
-		for (int c1 = c_begin; c1 < c_end; c1 += c_step) {
-			double c = Math.pow(2, c1);
-
-			for (int g1 = g_begin; g1 < g_end; g1 += g_step) {
-				double g = Math.pow(2, g1);
-
-				setParam(c, g);
-				double acc = performance(crossValidation(fold));
-				System.out.println(c + " " + g + " "+ acc);
-
-				if (acc > acc_best) {
-					acc_best = acc;
-					c_best = c;
-					g_best = g;
-				}
-			}
+	public List<GridSearch.Result> grid(int c_begin, int c_end, int c_step, int g_begin, int g_end, int g_step, int fold) {
+		GridSearch gs = new GridSearch(problem(), param);
+		gs.setFold(fold, 0);
+		return gs.search(c_begin, c_end, c_step, g_begin, g_end, g_step);
+	}
+
+	/**
+	 * 從 LIBSVM 格式檔載入資料.
+	 * 資料以 CSR 陣列保存, 只有 train、cross validation 等需要 svm_problem 時才轉換; test 直接使用 CSR 資料.
+	 *
+	 * @param filename 檔案名稱
+	 * @throws IOException 檔案讀取錯誤或格式錯誤
+	 */
+	public void loadSVMFormat(String filename) throws IOException {
+		data = LibSVMReader.read(filename);
+		prob = null;
+	}
+
+	/**
+	 * 取得 svm_problem, 從 LIBSVM 格式檔載入的資料在第一次使用時轉換.
+	 *
+	 * @return svm_problem
+	 */
+	protected svm_problem problem() {
+		if (prob == null && data != null)
+			prob = data.toProblem();
+		return prob;
+	}
+
+	/**
+	 * 從 binary 資料檔 ({@link BinaryDataset}) 載入資料, 不需解析文字.
+	 *
+	 * @param filename 檔案名稱
+	 * @throws IOException 檔案讀取錯誤或格式錯誤
+	 */
+	public void loadBinary(String filename) throws IOException {
+		BinaryDataset bd = new BinaryDataset(filename);
+		try {
+			data = bd.toSparseDataset();
+		} finally {
+			bd.close();
 		}
+		prob = null;
+	}
 
-		System.out.printf("%g %g %g\n", c_best, g_best, acc_best);
+	/**
+	 * 將資料存成 binary 資料檔 ({@link BinaryDataset}), 保留完整精度.
+	 *
+	 * @param filename 存檔名稱
+	 * @throws IOException 存檔錯誤
+	 */
+	public void saveBinary(String filename) throws IOException {
+		BinaryDataset.write((prob != null)? SparseDataset.fromProblem(prob) : data, filename);	// prob 可能已被 normalize 修改
 	}
 
 	/**
-	 * 將 svm_problem 裡的資料存成 SVM 格式檔.
+	 * 將 svm_problem 裡的資料存成 SVM 格式檔, 數值以完整精度寫出.
 	 *
 	 * @param filename 存檔名稱
 	 * @throws IOException 存檔錯誤
 	 */
 	public void saveSVMFormat(String filename) throws IOException {
+		svm_problem prob = problem();
 		BufferedWriter bw = new BufferedWriter(new FileWriter(filename));
 
 		for (int i = 0; i < prob.l; i++) {
-			bw.write(String.valueOf((int)prob.y[i]));
+			bw.write(BinaryDataset.format(prob.y[i]));
 			for (int j = 0; j < prob.x[i].length; j++) {
 				bw.write(' ');
 				bw.write(String.valueOf(prob.x[i][j].index));
 				bw.write(':');
-				bw.write(String.valueOf((int)prob.x[i][j].value));
+				bw.write(BinaryDataset.format(prob.x[i][j].value));
 			}
 			bw.newLine();
 		}
@@ -253,30 +419,54 @@ public class LibSVM {
 //		System.out.println("Data saved as SVM format.");
 	}
 
-	/** 計算各 feature 的極大值、極小值. */
+	/** 計算各 feature 的極大值、極小值, 以 feature index 對應 (min[j] 為 index j + 1). */
 	public void extrema() {
-		max = new double[prob.x[0].length];
-		min = new double[prob.x[0].length];
+		scaler = new FeatureScaler();
+		scaler.fit(problem());
+		max = scaler.getMax();
+		min = scaler.getMin();
+	}
 
-		for (int i = 0; i < min.length; i++) {
-			min[i] = 1000000000;
-			max[i] = -1000000000;
-		}
+	/**
+	 * 將 feature 正規化到 [0, 1], 極值相同的 feature 不修改.
+	 *
+	 * @throws IllegalArgumentException 部分資料沒有出現的 feature 包含負值, 沒有出現的 0 無法一起平移
+	 */
+	public void normalize() {
+		if (scaler == null)
+			scaler = new FeatureScaler(min, max);
+		scaler.scale(problem());
+	}
 
-		for (int i = 0; i < prob.l; i++)
-			for (int j = 0; j < prob.x[i].length; j++) {
-				if (prob.x[i][j].value > max[j])
-					max[j] = prob.x[i][j].value;
-				if (prob.x[i][j].value < min[j])
-					min[j] = prob.x[i][j].value;
-			}
+	/**
+	 * 取得正規化使用的 FeatureScaler, 例: 改用 z-score 或取得平均與標準差.
+	 *
+	 * @return FeatureScaler, 尚未計算時為 null
+	 */
+	public FeatureScaler getScaler() {
+		return scaler;
 	}
 
-	/** 將 feature 正規化. */
-	public void normalize() {
-		for (int i = 0; i < prob.l; i++)
-			for (int j = 0; j < prob.x[i].length; j++)
-				prob.x[i][j].value = (prob.x[i][j].value - min[j]) / (max[j] - min[j]);
+	/**
+	 * 將 FeatureScaler 存成 binary 檔, 保留平均與標準差.
+	 *
+	 * @param filename 檔案名稱
+	 * @throws IOException 檔案寫入錯誤
+	 */
+	public void saveScaler(String filename) throws IOException {
+		scaler.save(filename);
+	}
+
+	/**
+	 * 從 binary 檔載入 FeatureScaler.
+	 *
+	 * @param filename 檔案名稱
+	 * @throws IOException 檔案讀取錯誤或格式錯誤
+	 */
+	public void loadScaler(String filename) throws IOException {
+		scaler = FeatureScaler.load(filename);
+		max = scaler.getMax();
+		min = scaler.getMin();
 	}
 
 	/**
@@ -310,6 +500,7 @@ public class LibSVM {
 			max = new double[len];
 			min = new double[len];
 		}
+		scaler = null;
 
 		for (int i = 0; (line = br.readLine()) != null; i++) {
 			StringTokenizer st = new StringTokenizer(line);
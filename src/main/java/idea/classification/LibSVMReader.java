@@ -0,0 +1,404 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.classification;
+
+import java.io.*;
+import java.util.*;
+
+import libsvm.*;
+
+/**
+ * 逐行讀取 LIBSVM 格式檔 ("label index:value index:value ...").
+ * 直接解析 byte，不建立 String 與 StringTokenizer; 數字以 long 累計後一次換算，
+ * 15 位以內的有效數字 (一般的資料) 結果與 Double.parseDouble 完全相同，其他情況改用 Double.parseDouble.
+ * 一次讀取一筆資料，讀到的值放在重複使用的陣列中.
+ *
+ * @author Miles Chen
+ */
+public class LibSVMReader implements Closeable {
+	/** 10 的次方, 可以精確表示的範圍. */
+	protected static final double[] POW10 = new double[23];
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++)
+			POW10[i] = POW10[i - 1] * 10;
+	}
+
+	protected final InputStream in;
+	protected final byte[] buf;
+	protected int pos = 0;
+	protected int limit = 0;
+	/** 目前的行號. */
+	protected long line = 0;
+
+	/** 目前資料的 label. */
+	protected double label;
+	/** 目前資料的 feature 個數. */
+	protected int n = 0;
+	protected int[] idx = new int[64];
+	protected double[] val = new double[64];
+
+	/** 無法快速換算的數字, 交給 Double.parseDouble. */
+	protected char[] token = new char[64];
+	protected int token_len = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param in 資料來源
+	 */
+	public LibSVMReader(InputStream in) {
+		this.in = in;
+		this.buf = new byte[1 << 16];
+	}
+
+	/**
+	 * Constructor.
+	 *
+	 * @param filename 檔案名稱
+	 * @throws FileNotFoundException 檔案不存在
+	 */
+	public LibSVMReader(String filename) throws FileNotFoundException {
+		this(new FileInputStream(filename));
+	}
+
+	/**
+	 * 讀取整個檔案.
+	 *
+	 * @param filename 檔案名稱
+	 * @return CSR 資料
+	 * @throws IOException 檔案讀取錯誤或格式錯誤
+	 */
+	public static SparseDataset read(String filename) throws IOException {
+		LibSVMReader r = new LibSVMReader(filename);
+		try {
+			return r.readAll();
+		} finally {
+			r.close();
+		}
+	}
+
+	/**
+	 * 讀取剩下的所有資料.
+	 *
+	 * @return CSR 資料
+	 * @throws IOException 讀取錯誤或格式錯誤
+	 */
+	public SparseDataset readAll() throws IOException {
+		SparseDataset data = new SparseDataset();
+		while (next())
+			data.add(label, idx, val, n);
+		data.trim();
+		return data;
+	}
+
+	/**
+	 * 讀取下一筆資料, 略過空行.
+	 *
+	 * @return 是否還有資料
+	 * @throws IOException 讀取錯誤或格式錯誤
+	 */
+	public boolean next() throws IOException {
+		int c;
+		while (true) {
+			skipBlank();
+			c = peek();
+			if (c < 0)
+				return false;
+			if (c != '\n' && c != '\r')
+				break;
+			pos++;
+			if (c == '\n')
+				line++;
+		}
+
+		line++;
+		label = parseDouble();
+		n = 0;
+		while (true) {
+			skipBlank();
+			c = peek();
+			if (c < 0)
+				break;
+			if (c == '\n' || c == '\r') {
+				pos++;
+				if (c == '\r' && peek() == '\n')
+					pos++;
+				break;
+			}
+
+			int index = parseInt();
+			if (peek() != ':')
+				throw error();
+			pos++;
+			double value = parseDouble();
+			if (n == idx.length) {
+				idx = Arrays.copyOf(idx, n * 2);
+				val = Arrays.copyOf(val, n * 2);
+			}
+			idx[n] = index;
+			val[n] = value;
+			n++;
+		}
+		return true;
+	}
+
+	/**
+	 * 取得目前資料的 label.
+	 *
+	 * @return label
+	 */
+	public double getLabel() {
+		return label;
+	}
+
+	/**
+	 * 取得目前資料的 feature 個數.
+	 *
+	 * @return feature 個數
+	 */
+	public int getCount() {
+		return n;
+	}
+
+	/**
+	 * 取得目前資料的 feature index, 讀取下一筆時會被覆寫.
+	 *
+	 * @return feature index, 只有前 {@link #getCount()} 個有效
+	 */
+	public int[] getIndex() {
+		return idx;
+	}
+
+	/**
+	 * 取得目前資料的 feature 值, 讀取下一筆時會被覆寫.
+	 *
+	 * @return feature 值, 只有前 {@link #getCount()} 個有效
+	 */
+	public double[] getValue() {
+		return val;
+	}
+
+	/**
+	 * 將目前資料轉成 svm_node.
+	 *
+	 * @return svm_node 陣列
+	 */
+	public svm_node[] toNodes() {
+		svm_node[] x = new svm_node[n];
+		for (int k = 0; k < n; k++) {
+			x[k] = new svm_node();
+			x[k].index = idx[k];
+			x[k].value = val[k];
+		}
+		return x;
+	}
+
+	/**
+	 * 以 Iterator 逐筆取得資料, 例: 交給 {@link BatchPredictor} 串流預測.
+	 * 讀取錯誤以 RuntimeException 包裝.
+	 *
+	 * @return 各筆資料的 svm_node
+	 */
+	public Iterator<svm_node[]> rows() {
+		return new Iterator<svm_node[]>() {
+			protected Boolean has = null;
+
+			public boolean hasNext() {
+				if (has == null) {
+					try {
+						has = LibSVMReader.this.next();
+					} catch (IOException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				return has;
+			}
+
+			public svm_node[] next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				has = null;
+				return toNodes();
+			}
+
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * 取得目前的行號.
+	 *
+	 * @return 行號, 從 1 開始
+	 */
+	public long getLine() {
+		return line;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * 下一個 byte, 不移動位置.
+	 *
+	 * @return byte, 結束時為 -1
+	 * @throws IOException 讀取錯誤
+	 */
+	protected int peek() throws IOException {
+		if (pos == limit) {
+			limit = in.read(buf, 0, buf.length);
+			pos = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return buf[pos] & 0xff;
+	}
+
+	/**
+	 * 略過空白與 tab.
+	 *
+	 * @throws IOException 讀取錯誤
+	 */
+	protected void skipBlank() throws IOException {
+		int c;
+		while ((c = peek()) == ' ' || c == '\t')
+			pos++;
+	}
+
+	/**
+	 * 解析非負整數.
+	 *
+	 * @return 整數
+	 * @throws IOException 讀取錯誤或格式錯誤
+	 */
+	protected int parseInt() throws IOException {
+		int c = peek();
+		if (c < '0' || c > '9')
+			throw error();
+		long v = 0;
+		while ((c = peek()) >= '0' && c <= '9') {
+			v = v * 10 + (c - '0');
+			if (v > Integer.MAX_VALUE)
+				throw error();
+			pos++;
+		}
+		return (int) v;
+	}
+
+	/**
+	 * 解析浮點數.
+	 *
+	 * @return 浮點數
+	 * @throws IOException 讀取錯誤或格式錯誤
+	 */
+	protected double parseDouble() throws IOException {
+		token_len = 0;
+		boolean negative = false;
+		int c = peek();
+		if (c == '+' || c == '-') {
+			negative = (c == '-');
+			append(c);
+		}
+
+		long m = 0;			// 有效數字
+		int digits = 0;		// 有效數字的位數
+		int exp = 0;		// 10 的次方
+		boolean exact = true;
+		boolean any = false;
+		boolean point = false;
+		while (true) {
+			c = peek();
+			if (c >= '0' && c <= '9') {
+				any = true;
+				int d = c - '0';
+				if (m == 0 && d == 0) {
+					if (point)
+						exp--;
+				} else if (digits < 18) {
+					m = m * 10 + d;
+					digits++;
+					if (point)
+						exp--;
+				} else {
+					exact = false;
+					if (!point)
+						exp++;
+				}
+			} else if (c == '.' && !point)
+				point = true;
+			else
+				break;
+			append(c);
+		}
+
+		if (c == 'e' || c == 'E') {
+			if (!any)
+				throw error();
+			append(c);
+			c = peek();
+			boolean eneg = false;
+			if (c == '+' || c == '-') {
+				eneg = (c == '-');
+				append(c);
+				c = peek();
+			}
+			if (c < '0' || c > '9')
+				throw error();
+			int e = 0;
+			while ((c = peek()) >= '0' && c <= '9') {
+				if (e < 100000)
+					e = e * 10 + (c - '0');
+				append(c);
+			}
+			exp += eneg? -e : e;
+		} else if (!any) {
+			// nan, inf 等交給 Double.parseDouble
+			while ((c = peek()) >= 0 && c != ' ' && c != '\t' && c != '\n' && c != '\r' && c != ':')
+				append(c);
+			try {
+				return Double.parseDouble(new String(token, 0, token_len));
+			} catch (NumberFormatException ex) {
+				throw error();
+			}
+		}
+
+		double v;
+		if (m == 0)
+			v = 0;
+		else if (exact && digits <= 15 && exp >= -22 && exp <= 22)
+			v = (exp < 0)? m / POW10[-exp] : m * POW10[exp];	// 兩個數都可精確表示, 一次運算的結果為正確的 rounding
+		else
+			return Double.parseDouble(new String(token, 0, token_len));
+		return negative? -v : v;
+	}
+
+	/**
+	 * 將目前的 byte 加入 token 並移到下一個.
+	 *
+	 * @param c byte
+	 */
+	protected void append(int c) {
+		if (token_len == token.length)
+			token = Arrays.copyOf(token, token_len * 2);
+		token[token_len++] = (char) c;
+		pos++;
+	}
+
+	/**
+	 * 格式錯誤.
+	 *
+	 * @return exception
+	 */
+	protected IOException error() {
+		return new IOException("LIBSVM 格式錯誤, 第 " + line + " 行");
+	}
+}
@@ -0,0 +1,220 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.classification;
+
+import java.io.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+import libsvm.*;
+
+/**
+ * 已載入的 LibSVM model.
+ * 每個 model 檔只從硬碟載入一次，之後直接使用記憶體中的 model (自動判斷文字或 binary 格式)；
+ * 檔案修改時間改變時 (例如重新訓練) 自動重新載入. 可由多個 thread 共用.
+ *
+ * @author Miles Chen
+ */
+public class ModelRegistry {
+	/** 預設共用的 registry. */
+	protected static final ModelRegistry DEFAULT = new ModelRegistry();
+
+	/** 各 model 檔 (canonical path) 的 model. */
+	protected final ConcurrentHashMap<String, Entry> models = new ConcurrentHashMap<String, Entry>();
+	/** 是否檢查檔案修改時間. */
+	protected volatile boolean check_modified = true;
+
+	/**
+	 * 取得預設共用的 registry.
+	 *
+	 * @return 共用的 registry
+	 */
+	public static ModelRegistry getDefault() {
+		return DEFAULT;
+	}
+
+	/**
+	 * 設定是否檢查檔案修改時間. 不檢查時每個檔案永遠只載入一次.
+	 *
+	 * @param check_modified 是否檢查
+	 */
+	public void setCheckModified(boolean check_modified) {
+		this.check_modified = check_modified;
+	}
+
+	/**
+	 * 取得 model, 第一次使用或檔案修改後才從硬碟載入.
+	 *
+	 * @param model_name model 檔名稱
+	 * @return model
+	 * @throws IOException 檔案讀取錯誤
+	 */
+	public svm_model get(String model_name) throws IOException {
+		return entry(model_name).get();
+	}
+
+	/**
+	 * 取得 model 的 {@link SVMScorer}, 與 model 一起保存, model 重新載入時重建.
+	 * Linear model 的 primal weight vector 因此只計算一次.
+	 *
+	 * @param model_name model 檔名稱
+	 * @return scorer
+	 * @throws IOException              檔案讀取錯誤
+	 * @throws IllegalArgumentException precomputed kernel 的 model, 改用 {@link #getPredictor(String)}
+	 */
+	public SVMScorer getScorer(String model_name) throws IOException {
+		return entry(model_name).scorer();
+	}
+
+	/**
+	 * 取得 model 的 {@link BatchPredictor}. 一般 model 使用 {@link #getScorer(String)} 的 scorer；
+	 * precomputed kernel 的 model 無法建立 scorer, 改以記憶體中的 svm_model 交給 svm.svm_predict.
+	 *
+	 * @param model_name model 檔名稱
+	 * @return batch predictor, 使用共用的 pool
+	 * @throws IOException 檔案讀取錯誤
+	 */
+	public BatchPredictor getPredictor(String model_name) throws IOException {
+		Entry e = entry(model_name);
+		return e.isPrecomputed()? new BatchPredictor(e.get()) : new BatchPredictor(e.scorer());
+	}
+
+	/**
+	 * 取得 model 檔的 entry, 不存在時建立 (尚未載入).
+	 *
+	 * @param model_name model 檔名稱
+	 * @return entry
+	 * @throws IOException 檔名錯誤
+	 */
+	protected Entry entry(String model_name) throws IOException {
+		File file = new File(model_name).getCanonicalFile();
+		String key = file.getPath();
+		Entry e = models.get(key);
+		if (e == null) {
+			Entry created = new Entry(file);
+			e = models.putIfAbsent(key, created);
+			if (e == null)
+				e = created;
+		}
+		return e;
+	}
+
+	/**
+	 * 直接放入已在記憶體中的 model, 例如剛訓練完的 model.
+	 *
+	 * @param model_name model 檔名稱
+	 * @param model      model
+	 * @throws IOException 檔名錯誤
+	 */
+	public void put(String model_name, svm_model model) throws IOException {
+		File file = new File(model_name).getCanonicalFile();
+		Entry e = new Entry(file);
+		e.model = model;
+		e.modified = file.lastModified();
+		models.put(file.getPath(), e);
+	}
+
+	/**
+	 * 移除 model, 下次使用時重新載入.
+	 *
+	 * @param model_name model 檔名稱
+	 * @throws IOException 檔名錯誤
+	 */
+	public void evict(String model_name) throws IOException {
+		models.remove(new File(model_name).getCanonicalPath());
+	}
+
+	/** 移除所有 model. */
+	public void clear() {
+		models.clear();
+	}
+
+	/**
+	 * 取得已載入的 model 數.
+	 *
+	 * @return model 數
+	 */
+	public int size() {
+		return models.size();
+	}
+
+	/** 單一 model 檔, 同一檔案同時只有一個 thread 載入. 文字與 binary ({@link BinaryModel}) 格式皆可. */
+	protected class Entry {
+		protected final File file;
+		protected svm_model model = null;
+		/** Binary 格式的 model, 需要 svm_model 時才轉換. */
+		protected BinaryModel binary = null;
+		/** 由 model 建立的 scorer, 第一次使用時建立. */
+		protected SVMScorer scorer = null;
+		/** 載入時的檔案修改時間. */
+		protected long modified = 0;
+
+		protected Entry(File file) {
+			this.file = file;
+		}
+
+		/**
+		 * 第一次使用或檔案修改後載入.
+		 *
+		 * @throws IOException 檔案讀取錯誤
+		 */
+		protected void load() throws IOException {
+			if ((model == null && binary == null) || (check_modified && file.lastModified() != modified)) {
+				long m = file.lastModified();
+				if (BinaryModel.isBinary(file.getPath())) {
+					binary = BinaryModel.load(file.getPath());
+					model = null;
+				} else {
+					svm_model loaded = svm.svm_load_model(file.getPath());
+					if (loaded == null)
+						throw new IOException("model 讀取失敗: " + file);
+					model = loaded;
+					binary = null;
+				}
+				scorer = null;
+				modified = m;
+			}
+		}
+
+		/**
+		 * 取得 model, 需要時載入.
+		 *
+		 * @return model
+		 * @throws IOException 檔案讀取錯誤
+		 */
+		protected synchronized svm_model get() throws IOException {
+			load();
+			if (model == null)
+				model = binary.toModel();
+			return model;
+		}
+
+		/**
+		 * 是否為 precomputed kernel 的 model, 需要時載入 model.
+		 *
+		 * @return 是否為 precomputed kernel
+		 * @throws IOException 檔案讀取錯誤
+		 */
+		protected synchronized boolean isPrecomputed() throws IOException {
+			load();
+			int kernel_type = (binary != null)? binary.kernel_type : model.param.kernel_type;
+			return kernel_type == svm_parameter.PRECOMPUTED;
+		}
+
+		/**
+		 * 取得 scorer, 需要時載入 model. Binary model 直接建立, 不需轉成 svm_model.
+		 *
+		 * @return scorer
+		 * @throws IOException 檔案讀取錯誤
+		 */
+		protected synchronized SVMScorer scorer() throws IOException {
+			load();
+			if (scorer == null)
+				scorer = (binary != null)? new SVMScorer(binary) : new SVMScorer(model);
+			return scorer;
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.classification;
+
+import java.util.Arrays;
+
+/**
+ * 由 decision values 計算 ROC curve 與 AUC.
+ * 依分數由大到小排序後掃描一次，分數相同的資料視為同一個 threshold (AUC 以梯形計算, 與平均排名相同).
+ * 多類別時以 one-vs-rest 對每個類別分別計算.
+ *
+ * @author Miles Chen
+ */
+public class RocCurve {
+	/** 各 threshold 的 false positive rate, 從 0 開始到 1. */
+	protected final double[] fpr;
+	/** 各 threshold 的 true positive rate. */
+	protected final double[] tpr;
+	/** 各點的 threshold, 分數大於等於此值判定為 positive; 第一點為 +inf. */
+	protected final double[] thresholds;
+	protected final double auc;
+
+	/**
+	 * 計算 ROC curve.
+	 *
+	 * @param actual   實際的 label
+	 * @param score    decision value, 越大越可能是 positive
+	 * @param positive positive 類別的 label
+	 */
+	public RocCurve(double[] actual, double[] score, double positive) {
+		int n = Math.min(actual.length, score.length);
+		long pos = 0;
+		for (int i = 0; i < n; i++)
+			if (actual[i] == positive)
+				pos++;
+		long neg = n - pos;
+
+		int[] order = sort(score, n);
+
+		double[] f = new double[n + 1], t = new double[n + 1], th = new double[n + 1];
+		th[0] = Double.POSITIVE_INFINITY;
+		int m = 1;
+		long tp = 0, fp = 0;
+		double area = 0;
+		for (int k = 0; k < n; ) {
+			double s = score[order[k]];
+			long tp0 = tp, fp0 = fp;
+			for (; k < n && Double.compare(score[order[k]], s) == 0; k++) {
+				if (actual[order[k]] == positive)
+					tp++;
+				else
+					fp++;
+			}
+			area += (fp - fp0) * (tp + tp0) / 2.0;
+			f[m] = (neg == 0)? 0 : (double) fp / neg;
+			t[m] = (pos == 0)? 0 : (double) tp / pos;
+			th[m] = s;
+			m++;
+		}
+		fpr = Arrays.copyOf(f, m);
+		tpr = Arrays.copyOf(t, m);
+		thresholds = Arrays.copyOf(th, m);
+		auc = (pos == 0 || neg == 0)? Double.NaN : area / ((double) pos * neg);
+	}
+
+	/**
+	 * 依分數由大到小排序的資料編號, 不建立 Integer 物件.
+	 *
+	 * @param score 分數
+	 * @param n     資料筆數
+	 * @return 資料編號
+	 */
+	protected static int[] sort(double[] score, int n) {
+		// 高位為分數的排名、低位為編號, 以 primitive 陣列排序
+		long[] key = new long[n];
+		double[] s = Arrays.copyOf(score, n);
+		Arrays.sort(s);
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			key[i] = ((long) rank(s, score[i]) << 32) | i;
+		Arrays.sort(key);
+		for (int i = 0; i < n; i++)
+			order[n - 1 - i] = (int) key[i];
+		return order;
+	}
+
+	/**
+	 * 分數在排序後陣列中的位置.
+	 *
+	 * @param sorted 排序後的分數
+	 * @param v      分數
+	 * @return 位置
+	 */
+	protected static int rank(double[] sorted, double v) {
+		int k = Arrays.binarySearch(sorted, v);
+		return (k >= 0)? k : -k - 1;
+	}
+
+	/**
+	 * 取得 AUC.
+	 *
+	 * @return AUC, 只有一個類別時為 NaN
+	 */
+	public double getAUC() {
+		return auc;
+	}
+
+	public double[] getFPR() {
+		return fpr.clone();
+	}
+
+	public double[] getTPR() {
+		return tpr.clone();
+	}
+
+	public double[] getThresholds() {
+		return thresholds.clone();
+	}
+
+	/**
+	 * 計算 AUC.
+	 *
+	 * @param actual   實際的 label
+	 * @param score    decision value
+	 * @param positive positive 類別的 label
+	 * @return AUC
+	 */
+	public static double auc(double[] actual, double[] score, double positive) {
+		return new RocCurve(actual, score, positive).getAUC();
+	}
+}
@@ -0,0 +1,633 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.classification;
+
+import java.io.IOException;
+
+import libsvm.*;
+
+/**
+ * 常駐記憶體的 LibSVM model, 用於低延遲的線上預測.
+ * Support vectors 轉成 CSR (compressed sparse row) 陣列，自行計算 decision values，
+ * 每個 thread 的暫存陣列只建立一次 (由所有 scorer 共用, 不足時才加大)，預測時不配置記憶體. 可由多個 thread 同時使用.
+ * 暫存陣列不參考 scorer，model 重新載入後舊的 scorer 可以被回收.
+ * 接受 dense 的 double[] (第 i 個值為 feature index i + 1)、sparse 的 svm_node[] 或 {@link SparseDataset}.
+ * Linear kernel 時先合併成每個 decision value 一個 primal weight vector，預測只需一次內積.
+ * 結果與 svm.svm_predict 相同 (不支援 probability 與 precomputed kernel).
+ *
+ * @author Miles Chen
+ */
+public class SVMScorer {
+	protected final int svm_type;
+	protected final int kernel_type;
+	protected final int degree;
+	protected final double gamma;
+	protected final double coef0;
+
+	protected final int nr_class;
+	/** Support vector 數. */
+	protected final int l;
+	protected final int[] label;
+	/** 各類別第一個 support vector 的位置. */
+	protected final int[] start;
+	protected final int[] count;
+	protected final double[][] sv_coef;
+	protected final double[] rho;
+
+	/** CSR: 第 i 個 support vector 的值在 sv_value[sv_start[i] .. sv_start[i + 1]). */
+	protected final int[] sv_start;
+	/** Feature index 減 1, 對應 dense 輸入的位置. */
+	protected final int[] sv_index;
+	protected final double[] sv_value;
+	/** 最大的 feature index. */
+	protected final int dim;
+	/** Linear kernel 時各 decision value 的 primal weight vector, 其他 kernel 為 null. */
+	protected final double[][] weights;
+
+	/** 每個 thread 的暫存陣列, 所有 scorer 共用. */
+	protected static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param model LibSVM model
+	 */
+	public SVMScorer(svm_model model) {
+		svm_parameter param = model.param;
+		if (param.kernel_type == svm_parameter.PRECOMPUTED)
+			throw new IllegalArgumentException("不支援 precomputed kernel");
+		svm_type = param.svm_type;
+		kernel_type = param.kernel_type;
+		degree = param.degree;
+		gamma = param.gamma;
+		coef0 = param.coef0;
+
+		nr_class = model.nr_class;
+		l = model.l;
+		label = (model.label != null)? model.label.clone() : null;
+		sv_coef = model.sv_coef;
+		rho = model.rho;
+
+		count = new int[nr_class];
+		start = new int[nr_class];
+		if (model.nSV != null) {
+			for (int i = 0; i < nr_class; i++)
+				count[i] = model.nSV[i];
+			for (int i = 1; i < nr_class; i++)
+				start[i] = start[i - 1] + count[i - 1];
+		}
+
+		int nnz = 0;
+		for (int i = 0; i < l; i++)
+			nnz += length(model.SV[i]);
+		sv_start = new int[l + 1];
+		sv_index = new int[nnz];
+		sv_value = new double[nnz];
+		int k = 0, max = 0;
+		for (int i = 0; i < l; i++) {
+			sv_start[i] = k;
+			svm_node[] sv = model.SV[i];
+			for (int j = 0, n = length(sv); j < n; j++) {
+				sv_index[k] = sv[j].index - 1;
+				sv_value[k] = sv[j].value;
+				max = Math.max(max, sv[j].index);
+				k++;
+			}
+		}
+		sv_start[l] = k;
+		dim = max;
+		weights = (kernel_type == svm_parameter.LINEAR)? primal() : null;
+	}
+
+	/**
+	 * Constructor, 直接使用 binary model 的 CSR 陣列, 不需建立 svm_node.
+	 *
+	 * @param model binary model
+	 */
+	public SVMScorer(BinaryModel model) {
+		if (model.kernel_type == svm_parameter.PRECOMPUTED)
+			throw new IllegalArgumentException("不支援 precomputed kernel");
+		svm_type = model.svm_type;
+		kernel_type = model.kernel_type;
+		degree = model.degree;
+		gamma = model.gamma;
+		coef0 = model.coef0;
+
+		nr_class = model.nr_class;
+		l = model.l;
+		label = (model.label != null)? model.label.clone() : null;
+		sv_coef = model.sv_coef;
+		rho = model.rho;
+
+		count = new int[nr_class];
+		start = new int[nr_class];
+		if (model.nSV != null) {
+			for (int i = 0; i < nr_class; i++)
+				count[i] = model.nSV[i];
+			for (int i = 1; i < nr_class; i++)
+				start[i] = start[i - 1] + count[i - 1];
+		}
+
+		sv_start = model.sv_start;
+		sv_index = new int[model.index.length];
+		sv_value = model.value;
+		int max = 0;
+		for (int k = 0; k < sv_index.length; k++) {
+			sv_index[k] = model.index[k] - 1;
+			max = Math.max(max, model.index[k]);
+		}
+		dim = max;
+		weights = (kernel_type == svm_parameter.LINEAR)? primal() : null;
+	}
+
+	/**
+	 * 計算 linear kernel 的 primal weight vector.
+	 * Decision value 為 sum(coef * (sv · x)) = (sum(coef * sv)) · x, 預測時只需一次內積，與 support vector 數無關.
+	 *
+	 * @return 各 decision value 的 weight vector
+	 */
+	protected double[][] primal() {
+		if (!isClassification()) {
+			double[][] w = new double[1][dim];
+			for (int i = 0; i < l; i++)
+				axpy(sv_coef[0][i], i, w[0]);
+			return w;
+		}
+
+		double[][] w = new double[nr_class * (nr_class - 1) / 2][dim];
+		int p = 0;
+		for (int i = 0; i < nr_class; i++)
+			for (int j = i + 1; j < nr_class; j++) {
+				for (int k = start[i], e = start[i] + count[i]; k < e; k++)
+					axpy(sv_coef[j - 1][k], k, w[p]);
+				for (int k = start[j], e = start[j] + count[j]; k < e; k++)
+					axpy(sv_coef[i][k], k, w[p]);
+				p++;
+			}
+		return w;
+	}
+
+	/**
+	 * w += a * 第 i 個 support vector.
+	 *
+	 * @param a 係數
+	 * @param i support vector 編號
+	 * @param w weight vector
+	 */
+	protected void axpy(double a, int i, double[] w) {
+		for (int k = sv_start[i], e = sv_start[i + 1]; k < e; k++)
+			w[sv_index[k]] += a * sv_value[k];
+	}
+
+	/**
+	 * 是否為 classification (C-SVC 或 nu-SVC).
+	 *
+	 * @return 是否為 classification
+	 */
+	protected boolean isClassification() {
+		return svm_type == svm_parameter.C_SVC || svm_type == svm_parameter.NU_SVC;
+	}
+
+	/**
+	 * 是否使用 linear kernel 的 primal weight vector 預測.
+	 *
+	 * @return 是否為 linear
+	 */
+	public boolean isLinear() {
+		return weights != null;
+	}
+
+	/**
+	 * 從共用的 {@link ModelRegistry} 取得 model 並建立 scorer.
+	 *
+	 * @param model_name model 檔名稱
+	 * @return scorer
+	 * @throws IOException 檔案讀取錯誤
+	 */
+	public static SVMScorer load(String model_name) throws IOException {
+		return new SVMScorer(ModelRegistry.getDefault().get(model_name));
+	}
+
+	/**
+	 * svm_node[] 的有效長度, index = -1 表示結束 (與 LibSVM 相同).
+	 *
+	 * @param x 資料
+	 * @return 有效長度
+	 */
+	protected static int length(svm_node[] x) {
+		int n = 0;
+		while (n < x.length && x[n].index != -1)
+			n++;
+		return n;
+	}
+
+	/**
+	 * 預測 dense 資料.
+	 *
+	 * @param x 資料, x[i] 為 feature index i + 1 的值
+	 * @return 預測的結果
+	 */
+	public double predict(double[] x) {
+		return predictValues(x, scratch().dec);
+	}
+
+	/**
+	 * 預測 sparse 資料.
+	 *
+	 * @param x 資料
+	 * @return 預測的結果
+	 */
+	public double predict(svm_node[] x) {
+		return predictValues(x, scratch().dec);
+	}
+
+	/**
+	 * 預測 dense 資料並取得 decision values.
+	 *
+	 * @param x          資料, x[i] 為 feature index i + 1 的值
+	 * @param dec_values 存放 decision values, classification 長度為 nr_class * (nr_class - 1) / 2, 其他為 1
+	 * @return 預測的結果
+	 */
+	public double predictValues(double[] x, double[] dec_values) {
+		if (weights != null) {
+			int n = Math.min(x.length, dim);
+			for (int p = 0; p < weights.length; p++) {
+				double[] w = weights[p];
+				double sum = 0;
+				for (int i = 0; i < n; i++)
+					sum += w[i] * x[i];
+				dec_values[p] = sum - rho[p];
+			}
+			return decide(dec_values, scratch());
+		}
+		return decide(x, x.length, norm(x), scratch(), dec_values);
+	}
+
+	/**
+	 * 預測 sparse 資料並取得 decision values.
+	 *
+	 * @param x          資料
+	 * @param dec_values 存放 decision values, classification 長度為 nr_class * (nr_class - 1) / 2, 其他為 1
+	 * @return 預測的結果
+	 */
+	public double predictValues(svm_node[] x, double[] dec_values) {
+		Scratch s = scratch();
+		if (weights != null) {
+			for (int p = 0; p < weights.length; p++) {
+				double[] w = weights[p];
+				double sum = 0;
+				for (int i = 0; i < x.length && x[i].index != -1; i++) {
+					int idx = x[i].index - 1;
+					if (idx >= 0 && idx < dim)
+						sum += w[idx] * x[i].value;
+				}
+				dec_values[p] = sum - rho[p];
+			}
+			return decide(dec_values, s);
+		}
+
+		s.scatter(x, dim);
+		try {
+			return decide(s.dense, dim, norm(x), s, dec_values);
+		} finally {
+			s.clear(x, dim);
+		}
+	}
+
+	/**
+	 * 預測多筆 dense 資料.
+	 *
+	 * @param x    資料
+	 * @param pred 存放預測的結果, 長度至少為 x.length
+	 */
+	public void predict(double[][] x, double[] pred) {
+		for (int i = 0; i < x.length; i++)
+			pred[i] = predict(x[i]);
+	}
+
+	/**
+	 * 預測多筆 sparse 資料.
+	 *
+	 * @param x    資料
+	 * @param pred 存放預測的結果, 長度至少為 x.length
+	 */
+	public void predict(svm_node[][] x, double[] pred) {
+		for (int i = 0; i < x.length; i++)
+			pred[i] = predict(x[i]);
+	}
+
+	/**
+	 * 預測 CSR 資料的一筆, 不需轉成 svm_node.
+	 *
+	 * @param data CSR 資料
+	 * @param i    資料編號
+	 * @return 預測的結果
+	 */
+	public double predict(SparseDataset data, int i) {
+		return predictValues(data.index, data.value, data.row_start[i], data.row_start[i + 1], scratch().dec);
+	}
+
+	/**
+	 * 預測 CSR 形式的一筆資料並取得 decision values.
+	 *
+	 * @param index      feature index, 從 1 開始
+	 * @param value      feature 值
+	 * @param begin      起點
+	 * @param end        終點 (不包含)
+	 * @param dec_values 存放 decision values, classification 長度為 nr_class * (nr_class - 1) / 2, 其他為 1
+	 * @return 預測的結果
+	 */
+	public double predictValues(int[] index, double[] value, int begin, int end, double[] dec_values) {
+		Scratch s = scratch();
+		if (weights != null) {
+			for (int p = 0; p < weights.length; p++) {
+				double[] w = weights[p];
+				double sum = 0;
+				for (int k = begin; k < end; k++) {
+					int idx = index[k] - 1;
+					if (idx >= 0 && idx < dim)
+						sum += w[idx] * value[k];
+				}
+				dec_values[p] = sum - rho[p];
+			}
+			return decide(dec_values, s);
+		}
+
+		double xx = 0;
+		for (int k = begin; k < end; k++) {
+			int idx = index[k] - 1;
+			if (idx >= 0 && idx < dim)
+				s.dense[idx] = value[k];
+			if (kernel_type == svm_parameter.RBF)
+				xx += value[k] * value[k];
+		}
+		try {
+			return decide(s.dense, dim, xx, s, dec_values);
+		} finally {
+			for (int k = begin; k < end; k++) {
+				int idx = index[k] - 1;
+				if (idx >= 0 && idx < dim)
+					s.dense[idx] = 0;
+			}
+		}
+	}
+
+	/**
+	 * 以 support vectors 計算 decision values 並投票.
+	 *
+	 * @param x          dense 資料
+	 * @param n          x 的有效長度
+	 * @param xx         資料各值的平方和, 只在 RBF 使用
+	 * @param s          暫存陣列
+	 * @param dec_values 存放 decision values
+	 * @return 預測的結果
+	 */
+	protected double decide(double[] x, int n, double xx, Scratch s, double[] dec_values) {
+		double[] kvalue = s.kvalue;
+		for (int i = 0; i < l; i++)
+			kvalue[i] = kernel(x, n, xx, i);
+
+		if (!isClassification()) {
+			double[] coef = sv_coef[0];
+			double sum = 0;
+			for (int i = 0; i < l; i++)
+				sum += coef[i] * kvalue[i];
+			dec_values[0] = sum - rho[0];
+			return decide(dec_values, s);
+		}
+
+		int p = 0;
+		for (int i = 0; i < nr_class; i++)
+			for (int j = i + 1; j < nr_class; j++) {
+				double sum = 0;
+				double[] coef1 = sv_coef[j - 1];
+				double[] coef2 = sv_coef[i];
+				for (int k = start[i], e = start[i] + count[i]; k < e; k++)
+					sum += coef1[k] * kvalue[k];
+				for (int k = start[j], e = start[j] + count[j]; k < e; k++)
+					sum += coef2[k] * kvalue[k];
+				dec_values[p] = sum - rho[p];
+				p++;
+			}
+		return decide(dec_values, s);
+	}
+
+	/**
+	 * 由 decision values 決定預測結果, classification 時投票.
+	 *
+	 * @param dec_values decision values
+	 * @param s          暫存陣列
+	 * @return 預測的結果
+	 */
+	protected double decide(double[] dec_values, Scratch s) {
+		if (svm_type == svm_parameter.ONE_CLASS)
+			return (dec_values[0] > 0)? 1 : -1;
+		if (!isClassification())
+			return dec_values[0];
+
+		int[] vote = s.vote;
+		for (int i = 0; i < nr_class; i++)
+			vote[i] = 0;
+		int p = 0;
+		for (int i = 0; i < nr_class; i++)
+			for (int j = i + 1; j < nr_class; j++)
+				if (dec_values[p++] > 0)
+					vote[i]++;
+				else
+					vote[j]++;
+
+		int max = 0;
+		for (int i = 1; i < nr_class; i++)
+			if (vote[i] > vote[max])
+				max = i;
+		return label[max];
+	}
+
+	/**
+	 * 資料各值的平方和, 只有 RBF 需要.
+	 *
+	 * @param x dense 資料
+	 * @return 平方和, 不是 RBF 時為 0
+	 */
+	protected double norm(double[] x) {
+		double xx = 0;
+		if (kernel_type == svm_parameter.RBF)
+			for (int i = 0; i < x.length; i++)
+				xx += x[i] * x[i];
+		return xx;
+	}
+
+	/**
+	 * 資料各值的平方和, 只有 RBF 需要. 包含超過 support vectors 最大 index 的 feature.
+	 *
+	 * @param x sparse 資料
+	 * @return 平方和, 不是 RBF 時為 0
+	 */
+	protected double norm(svm_node[] x) {
+		double xx = 0;
+		if (kernel_type == svm_parameter.RBF)
+			for (int i = 0; i < x.length && x[i].index != -1; i++)
+				xx += x[i].value * x[i].value;
+		return xx;
+	}
+
+	/**
+	 * 計算資料與第 i 個 support vector 的 kernel 值.
+	 *
+	 * @param x  dense 資料
+	 * @param n  x 的有效長度
+	 * @param xx x 各值的平方和, 只在 RBF 使用
+	 * @param i  support vector 編號
+	 * @return kernel 值
+	 */
+	protected double kernel(double[] x, int n, double xx, int i) {
+		int b = sv_start[i], e = sv_start[i + 1];
+		switch (kernel_type) {
+			case svm_parameter.RBF: {
+				// |x - sv|^2 = sum(x^2) + sum over sv 的 feature ((x - v)^2 - x^2), 不需走過所有 feature
+				double d = xx;
+				for (int k = b; k < e; k++) {
+					int idx = sv_index[k];
+					double xv = (idx < n)? x[idx] : 0;
+					double diff = xv - sv_value[k];
+					d += diff * diff - xv * xv;
+				}
+				return Math.exp(-gamma * d);
+			}
+			case svm_parameter.POLY:
+				return powi(gamma * dot(x, n, b, e) + coef0, degree);
+			case svm_parameter.SIGMOID:
+				return Math.tanh(gamma * dot(x, n, b, e) + coef0);
+			default:
+				return dot(x, n, b, e);
+		}
+	}
+
+	/**
+	 * 資料與 support vector 的內積.
+	 *
+	 * @param x dense 資料
+	 * @param n x 的有效長度
+	 * @param b support vector 在 CSR 的起點
+	 * @param e support vector 在 CSR 的終點
+	 * @return 內積
+	 */
+	protected double dot(double[] x, int n, int b, int e) {
+		double sum = 0;
+		for (int k = b; k < e; k++) {
+			int idx = sv_index[k];
+			if (idx < n)
+				sum += x[idx] * sv_value[k];
+		}
+		return sum;
+	}
+
+	/**
+	 * 整數次方, 與 LibSVM 相同的計算方式.
+	 *
+	 * @param base 底數
+	 * @param times 次方
+	 * @return base^times
+	 */
+	protected static double powi(double base, int times) {
+		double tmp = base, ret = 1.0;
+		for (int t = times; t > 0; t /= 2) {
+			if (t % 2 == 1)
+				ret *= tmp;
+			tmp = tmp * tmp;
+		}
+		return ret;
+	}
+
+	/**
+	 * 取得類別.
+	 *
+	 * @return 類別, regression 與 one-class 時為 null
+	 */
+	public int[] getLabels() {
+		return (label != null)? label.clone() : null;
+	}
+
+	/**
+	 * 取得 decision values 的個數.
+	 *
+	 * @return classification 為 nr_class * (nr_class - 1) / 2, 其他為 1
+	 */
+	public int getDecisionValueCount() {
+		if (isClassification())
+			return nr_class * (nr_class - 1) / 2;
+		return 1;
+	}
+
+	/**
+	 * 取得目前 thread 的暫存陣列, 長度不足這個 model 使用時重新建立.
+	 *
+	 * @return 暫存陣列
+	 */
+	protected Scratch scratch() {
+		Scratch s = SCRATCH.get();
+		int decs = Math.max(1, nr_class * (nr_class - 1) / 2);
+		if (s == null || s.kvalue.length < l || s.vote.length < nr_class || s.dec.length < decs || s.dense.length < dim) {
+			s = (s == null)? new Scratch(l, nr_class, decs, dim)
+					: new Scratch(Math.max(l, s.kvalue.length), Math.max(nr_class, s.vote.length), Math.max(decs, s.dec.length), Math.max(dim, s.dense.length));
+			SCRATCH.set(s);
+		}
+		return s;
+	}
+
+	/** 單一 thread 使用的暫存陣列, 長度可能大於目前的 model, 只使用前面的部分. 不參考 scorer. */
+	protected static class Scratch {
+		protected final double[] kvalue;
+		protected final int[] vote;
+		protected final double[] dec;
+		/** Sparse 資料展開成 dense 的位置, 用完後歸零. */
+		protected final double[] dense;
+
+		/**
+		 * Constructor.
+		 *
+		 * @param l        support vector 數
+		 * @param nr_class 類別數
+		 * @param decs     decision value 數
+		 * @param dim      最大的 feature index
+		 */
+		protected Scratch(int l, int nr_class, int decs, int dim) {
+			kvalue = new double[l];
+			vote = new int[nr_class];
+			dec = new double[decs];
+			dense = new double[dim];
+		}
+
+		/**
+		 * 將 sparse 資料展開到 dense. 超過 support vectors 最大 index 的 feature 只影響 RBF 的平方和, 不需展開.
+		 *
+		 * @param x   sparse 資料
+		 * @param dim model 最大的 feature index
+		 */
+		protected void scatter(svm_node[] x, int dim) {
+			for (int i = 0; i < x.length && x[i].index != -1; i++) {
+				int idx = x[i].index - 1;
+				if (idx >= 0 && idx < dim)
+					dense[idx] = x[i].value;
+			}
+		}
+
+		/**
+		 * 將展開的位置歸零.
+		 *
+		 * @param x   sparse 資料
+		 * @param dim model 最大的 feature index
+		 */
+		protected void clear(svm_node[] x, int dim) {
+			for (int i = 0; i < x.length && x[i].index != -1; i++) {
+				int idx = x[i].index - 1;
+				if (idx >= 0 && idx < dim)
+					dense[idx] = 0;
+			}
+		}
+	}
+}
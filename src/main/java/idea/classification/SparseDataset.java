@@ -0,0 +1,263 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.classification;
+
+import java.util.Arrays;
+
+import libsvm.*;
+
+/**
+ * 以 CSR (compressed sparse row) 保存的 sparse 資料.
+ * 所有非零值放在同一組 int[] index 與 double[] value，每筆資料只記錄起點，
+ * 不需要每個非零值一個 svm_node 物件; 需要交給 libsvm 時才轉成 svm_node.
+ * 第 i 筆資料的 feature 在 index[row_start[i] .. row_start[i + 1]), index 從 1 開始 (與 LibSVM 相同).
+ *
+ * @author Miles Chen
+ */
+public class SparseDataset {
+	/** 資料筆數. */
+	protected int rows = 0;
+	/** 各筆資料的 label. */
+	protected double[] labels;
+	/** 各筆資料在 index, value 的起點, 長度為 rows + 1. */
+	protected int[] row_start;
+	/** Feature index. */
+	protected int[] index;
+	/** Feature 值. */
+	protected double[] value;
+	/** 最大的 feature index. */
+	protected int max_index = 0;
+
+	/** Constructor, 建立空的資料, 以 {@link #add(double, int[], double[], int)} 加入. */
+	public SparseDataset() {
+		this(16, 256);
+	}
+
+	/**
+	 * Constructor, 預先配置空間.
+	 *
+	 * @param rows 預計的資料筆數
+	 * @param nnz  預計的非零值個數
+	 */
+	public SparseDataset(int rows, int nnz) {
+		labels = new double[Math.max(1, rows)];
+		row_start = new int[Math.max(1, rows) + 1];
+		index = new int[Math.max(1, nnz)];
+		value = new double[Math.max(1, nnz)];
+	}
+
+	/**
+	 * 直接以陣列建立, 陣列不會被複製.
+	 *
+	 * @param labels    各筆資料的 label
+	 * @param row_start 各筆資料的起點, 長度為 labels.length + 1
+	 * @param index     feature index, 從 1 開始
+	 * @param value     feature 值
+	 */
+	public SparseDataset(double[] labels, int[] row_start, int[] index, double[] value) {
+		this.rows = labels.length;
+		this.labels = labels;
+		this.row_start = row_start;
+		this.index = index;
+		this.value = value;
+		for (int k = 0, n = row_start[rows]; k < n; k++)
+			max_index = Math.max(max_index, index[k]);
+	}
+
+	/**
+	 * 加入一筆資料.
+	 *
+	 * @param label 資料的 label
+	 * @param idx   feature index, 從 1 開始
+	 * @param val   feature 值
+	 * @param n     feature 個數
+	 */
+	public void add(double label, int[] idx, double[] val, int n) {
+		if (rows == labels.length) {
+			labels = Arrays.copyOf(labels, rows * 2);
+			row_start = Arrays.copyOf(row_start, rows * 2 + 1);
+		}
+		int nnz = row_start[rows];
+		if (nnz + n > index.length) {
+			int cap = Math.max(nnz + n, (int) Math.min(Integer.MAX_VALUE - 8, index.length * 2L));
+			index = Arrays.copyOf(index, cap);
+			value = Arrays.copyOf(value, cap);
+		}
+		System.arraycopy(idx, 0, index, nnz, n);
+		System.arraycopy(val, 0, value, nnz, n);
+		for (int k = 0; k < n; k++)
+			max_index = Math.max(max_index, idx[k]);
+		labels[rows] = label;
+		rows++;
+		row_start[rows] = nnz + n;
+	}
+
+	/** 釋放多配置的空間. */
+	public void trim() {
+		int nnz = row_start[rows];
+		labels = Arrays.copyOf(labels, rows);
+		row_start = Arrays.copyOf(row_start, rows + 1);
+		index = Arrays.copyOf(index, nnz);
+		value = Arrays.copyOf(value, nnz);
+	}
+
+	/**
+	 * 取得資料筆數.
+	 *
+	 * @return 資料筆數
+	 */
+	public int size() {
+		return rows;
+	}
+
+	/**
+	 * 取得非零值個數.
+	 *
+	 * @return 非零值個數
+	 */
+	public int nnz() {
+		return row_start[rows];
+	}
+
+	/**
+	 * 取得最大的 feature index.
+	 *
+	 * @return 最大的 feature index
+	 */
+	public int getMaxIndex() {
+		return max_index;
+	}
+
+	/**
+	 * 取得 label.
+	 *
+	 * @param i 資料編號
+	 * @return label
+	 */
+	public double getLabel(int i) {
+		return labels[i];
+	}
+
+	/**
+	 * 取得所有 label, 不複製.
+	 *
+	 * @return 各筆資料的 label, 長度可能大於 {@link #size()}
+	 */
+	public double[] getLabels() {
+		return labels;
+	}
+
+	/**
+	 * 取得各筆資料的起點, 不複製.
+	 *
+	 * @return 起點, 長度可能大於 size() + 1
+	 */
+	public int[] getRowStart() {
+		return row_start;
+	}
+
+	/**
+	 * 取得 feature index, 不複製.
+	 *
+	 * @return feature index
+	 */
+	public int[] getIndex() {
+		return index;
+	}
+
+	/**
+	 * 取得 feature 值, 不複製.
+	 *
+	 * @return feature 值
+	 */
+	public double[] getValue() {
+		return value;
+	}
+
+	/**
+	 * 估計佔用的記憶體 (不含物件 header).
+	 *
+	 * @return bytes
+	 */
+	public long getMemoryBytes() {
+		return 8L * labels.length + 4L * row_start.length + 12L * index.length;
+	}
+
+	/**
+	 * 將一筆資料轉成 svm_node.
+	 *
+	 * @param i 資料編號
+	 * @return svm_node 陣列
+	 */
+	public svm_node[] row(int i) {
+		int b = row_start[i], e = row_start[i + 1];
+		svm_node[] x = new svm_node[e - b];
+		for (int k = b; k < e; k++) {
+			svm_node node = new svm_node();
+			node.index = index[k];
+			node.value = value[k];
+			x[k - b] = node;
+		}
+		return x;
+	}
+
+	/**
+	 * 將一筆資料展開成 dense.
+	 *
+	 * @param i     資料編號
+	 * @param dense 存放結果, dense[j] 為 feature index j + 1 的值, 超過長度的 feature 略過
+	 */
+	public void toDense(int i, double[] dense) {
+		Arrays.fill(dense, 0);
+		for (int k = row_start[i], e = row_start[i + 1]; k < e; k++)
+			if (index[k] <= dense.length)
+				dense[index[k] - 1] = value[k];
+	}
+
+	/**
+	 * 轉成 libsvm 使用的 svm_problem, 此時才建立 svm_node 物件.
+	 *
+	 * @return svm_problem
+	 */
+	public svm_problem toProblem() {
+		svm_problem prob = new svm_problem();
+		prob.l = rows;
+		prob.y = Arrays.copyOf(labels, rows);
+		prob.x = new svm_node[rows][];
+		for (int i = 0; i < rows; i++)
+			prob.x[i] = row(i);
+		return prob;
+	}
+
+	/**
+	 * 由 svm_problem 建立.
+	 *
+	 * @param prob svm_problem
+	 * @return CSR 資料
+	 */
+	public static SparseDataset fromProblem(svm_problem prob) {
+		int nnz = 0;
+		for (int i = 0; i < prob.l; i++)
+			nnz += SVMScorer.length(prob.x[i]);
+		SparseDataset data = new SparseDataset(prob.l, nnz);
+		int[] idx = new int[16];
+		double[] val = new double[16];
+		for (int i = 0; i < prob.l; i++) {
+			int n = SVMScorer.length(prob.x[i]);
+			if (n > idx.length) {
+				idx = new int[n];
+				val = new double[n];
+			}
+			for (int k = 0; k < n; k++) {
+				idx[k] = prob.x[i][k].index;
+				val[k] = prob.x[i][k].value;
+			}
+			data.add(prob.y[i], idx, val, n);
+		}
+		return data;
+	}
+}
@@ -0,0 +1,418 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.classification;
+
+import java.util.*;
+import java.util.regex.*;
+
+import libsvm.*;
+
+/**
+ * 記錄 libsvm 訓練的過程.
+ * libsvm 不提供訓練的統計，只會輸出文字，因此以 svm_set_print_string_function 攔截輸出並解析:
+ * 每個子問題 (one-vs-one 的類別配對, probability 的內部 cross validation) 的 iteration 數、support vector 數、
+ * 所花的時間，以及 shrinking 後重新計算 gradient 的次數.
+ * libsvm 的 kernel cache 是 package-private, 無法取得實際的 hit rate, 改以 cache 可以放入的 kernel matrix 比例 (coverage)
+ * 與 kernel 計算次數的上限 (每個 iteration 兩個 column) 估計.
+ * 輸出函式是 libsvm 全域的設定, 記錄中改為依 thread 分派: svm_train 在呼叫的 thread 輸出,
+ * 記錄中的 thread 交給各自的 profiler, 其他 thread (例: {@link CrossValidation} 的各 fold) 交給原本的輸出函式,
+ * 因此多個訓練可以同時記錄, 也不會混入其他訓練的輸出. 沒有記錄中的訓練時還原原本的輸出函式.
+ * 原本的輸出函式需以 {@link #setPrintFunction(svm_print_interface)} 設定 (libsvm 無法取得目前的設定).
+ * 同一個 instance 同時只記錄一個訓練.
+ *
+ * @author Miles Chen
+ */
+public class TrainingProfiler {
+	/** 設定 libsvm 的輸出函式時使用, 只在開始與結束記錄時持有, 不包含訓練. */
+	protected static final Object LOCK = new Object();
+	/** 原本的輸出函式, null 表示 libsvm 預設的 System.out. */
+	protected static volatile svm_print_interface printer = null;
+	/** 記錄中的訓練數, 大於 0 時 libsvm 的輸出函式為 {@link #DISPATCH}. */
+	protected static int active = 0;
+	/** 各 thread 記錄中的 profiler. */
+	protected static final ThreadLocal<TrainingProfiler> CURRENT = new ThreadLocal<TrainingProfiler>();
+	/** 記錄中使用的輸出函式, 依 thread 交給記錄中的 profiler 或原本的輸出函式. */
+	protected static final svm_print_interface DISPATCH = new svm_print_interface() {
+		public void print(String s) {
+			TrainingProfiler p = CURRENT.get();
+			if (p != null)
+				p.output(s);
+			else
+				emit(s);
+		}
+	};
+	/** libsvm 的 kernel 值為 float. */
+	protected static final int QFLOAT_BYTES = 4;
+	/** 自動決定時的最小 cache 大小 (MB), 與 {@link LibSVM#setDefaultParam()} 相同, 不會比原本的設定小. */
+	public static final double MIN_CACHE_MB = LibSVM.DEFAULT_CACHE_MB;
+
+	protected static final Pattern ITER = Pattern.compile("optimization finished, #iter = (\\d+)");
+	protected static final Pattern OBJ = Pattern.compile("obj = (\\S+), rho = (\\S+)");
+	protected static final Pattern NSV = Pattern.compile("^nSV = (\\d+), nBSV = (\\d+)");
+	protected static final Pattern TOTAL = Pattern.compile("Total nSV = (\\d+)");
+
+	/** 是否同時輸出 libsvm 原本的文字. */
+	protected boolean echo = false;
+
+	/** 上次訓練的結果. */
+	protected Report report = null;
+	/** 尚未成為完整一行的輸出. */
+	protected StringBuilder line = new StringBuilder();
+	/** 目前子問題開始的時間. */
+	protected long solve_start;
+
+	/**
+	 * 設定是否同時輸出 libsvm 原本的文字.
+	 *
+	 * @param echo 是否輸出到原本的輸出函式, 預設為 System.out
+	 */
+	public void setEcho(boolean echo) {
+		this.echo = echo;
+	}
+
+	/**
+	 * 設定 libsvm 的輸出函式, 取代 svm.svm_set_print_string_function.
+	 * 記錄中的訓練結束後還原為此設定; 直接呼叫 libsvm 的設定會在下次記錄時被取代.
+	 *
+	 * @param p 輸出函式, null 表示 libsvm 預設的 System.out
+	 */
+	public static void setPrintFunction(svm_print_interface p) {
+		synchronized (LOCK) {
+			printer = p;
+			if (active == 0)
+				svm.svm_set_print_string_function(p);
+		}
+	}
+
+	/**
+	 * 以原本的輸出函式輸出.
+	 *
+	 * @param s 輸出的文字
+	 */
+	protected static void emit(String s) {
+		svm_print_interface p = printer;
+		if (p != null)
+			p.print(s);
+		else {
+			System.out.print(s);
+			System.out.flush();
+		}
+	}
+
+	/**
+	 * 依資料量與可用的 heap 決定 kernel cache 的大小.
+	 * 整個 kernel matrix 放得下時使用 matrix 的大小, 否則使用可用 heap 的一半, 不小於 libsvm 的預設值.
+	 *
+	 * @param prob 訓練資料
+	 * @return cache_size (MB)
+	 */
+	public static double autoCacheSize(svm_problem prob) {
+		Runtime rt = Runtime.getRuntime();
+		long available = rt.maxMemory() - (rt.totalMemory() - rt.freeMemory());
+		return autoCacheSize(prob.l, available);
+	}
+
+	/**
+	 * 依資料筆數與可用的記憶體決定 kernel cache 的大小.
+	 *
+	 * @param l         資料筆數
+	 * @param available 可用的記憶體 (bytes)
+	 * @return cache_size (MB)
+	 */
+	public static double autoCacheSize(int l, long available) {
+		double matrix = kernelMatrixMB(l);
+		double half = available / 2.0 / (1 << 20);
+		return Math.ceil(Math.max(MIN_CACHE_MB, Math.min(matrix, half)));
+	}
+
+	/**
+	 * 整個 kernel matrix 的大小.
+	 *
+	 * @param l 資料筆數
+	 * @return MB
+	 */
+	public static double kernelMatrixMB(int l) {
+		return (double) QFLOAT_BYTES * l * l / (1 << 20);
+	}
+
+	/**
+	 * 訓練 model 並記錄過程. 不同 instance 可以在不同 thread 同時訓練.
+	 *
+	 * @param prob  訓練資料
+	 * @param param 參數
+	 * @return model
+	 * @throws IllegalArgumentException 參數錯誤
+	 */
+	public synchronized svm_model train(svm_problem prob, svm_parameter param) {
+		Report r = new Report(prob.l, param.cache_size);
+		long start = System.nanoTime();
+		String error = svm.svm_check_parameter(prob, param);
+		r.check_nanos = System.nanoTime() - start;
+		if (error != null)
+			throw new IllegalArgumentException(error);
+
+		svm_model model;
+		report = r;
+		line.setLength(0);
+		TrainingProfiler outer = CURRENT.get();
+		CURRENT.set(this);
+		synchronized (LOCK) {
+			if (active++ == 0)
+				svm.svm_set_print_string_function(DISPATCH);
+		}
+		try {
+			start = System.nanoTime();
+			solve_start = start;
+			model = svm.svm_train(prob, param);
+			r.train_nanos = System.nanoTime() - start;
+			if (line.length() > 0)
+				parse(line.toString());
+		} finally {
+			synchronized (LOCK) {
+				if (--active == 0)
+					svm.svm_set_print_string_function(printer);		// 還原原本的輸出函式
+			}
+			if (outer != null)
+				CURRENT.set(outer);
+			else
+				CURRENT.remove();
+		}
+		return model;
+	}
+
+	/**
+	 * 取得上次訓練的結果.
+	 *
+	 * @return 結果, 尚未訓練時為 null
+	 */
+	public Report getReport() {
+		return report;
+	}
+
+	/**
+	 * 接收 libsvm 的輸出.
+	 *
+	 * @param s 輸出的文字
+	 */
+	protected void output(String s) {
+		if (echo)
+			emit(s);
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '\n') {
+				parse(line.toString());
+				line.setLength(0);
+			} else if (c == '*')
+				report.unshrink++;		// 解到 shrinking 的停止條件後重新計算 gradient
+			else
+				line.append(c);
+		}
+	}
+
+	/**
+	 * 解析一行輸出.
+	 *
+	 * @param s 一行文字
+	 */
+	protected void parse(String s) {
+		Matcher m;
+		if ((m = ITER.matcher(s)).find()) {
+			long now = System.nanoTime();
+			Solve solve = new Solve();
+			solve.iterations = Integer.parseInt(m.group(1));
+			solve.nanos = now - solve_start;
+			solve_start = now;
+			report.solves.add(solve);
+		} else if ((m = TOTAL.matcher(s)).find())
+			report.total_sv = Integer.parseInt(m.group(1));
+		else if (s.contains("-h 0"))
+			report.shrinking_slow = true;		// 在子問題結束前輸出
+		else if (!report.solves.isEmpty()) {
+			Solve last = report.solves.get(report.solves.size() - 1);
+			if ((m = OBJ.matcher(s)).find()) {
+				last.obj = Double.parseDouble(m.group(1));
+				last.rho = Double.parseDouble(m.group(2));
+			} else if ((m = NSV.matcher(s)).find()) {
+				last.nSV = Integer.parseInt(m.group(1));
+				last.nBSV = Integer.parseInt(m.group(2));
+			}
+		}
+	}
+
+	/** 一個子問題 (一次 solver 執行) 的結果. */
+	public static class Solve {
+		protected int iterations;
+		protected int nSV;
+		protected int nBSV;
+		protected double obj;
+		protected double rho;
+		protected long nanos;
+
+		public int getIterations() {
+			return iterations;
+		}
+
+		public int getSV() {
+			return nSV;
+		}
+
+		public int getBoundedSV() {
+			return nBSV;
+		}
+
+		public double getObjective() {
+			return obj;
+		}
+
+		public double getRho() {
+			return rho;
+		}
+
+		/**
+		 * 取得所花的時間, 包含準備資料.
+		 *
+		 * @return 毫秒
+		 */
+		public double getMillis() {
+			return nanos / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("iter=%d nSV=%d nBSV=%d obj=%.6g rho=%.6g %.1fms", iterations, nSV, nBSV, obj, rho, getMillis());
+		}
+	}
+
+	/** 一次訓練的結果. */
+	public static class Report {
+		protected final int l;
+		protected final double cache_mb;
+		protected final List<Solve> solves = new ArrayList<Solve>();
+		/** 最後的 support vector 數, classification 以外的 model 為 -1. */
+		protected int total_sv = -1;
+		/** Shrinking 後重新計算 gradient 的次數. */
+		protected int unshrink = 0;
+		/** libsvm 認為不使用 shrinking 可能比較快. */
+		protected boolean shrinking_slow = false;
+		protected long check_nanos;
+		protected long train_nanos;
+		protected long save_nanos;
+
+		protected Report(int l, double cache_mb) {
+			this.l = l;
+			this.cache_mb = cache_mb;
+		}
+
+		/**
+		 * 取得各子問題的結果.
+		 *
+		 * @return 依執行順序
+		 */
+		public List<Solve> getSolves() {
+			return Collections.unmodifiableList(solves);
+		}
+
+		/**
+		 * 取得所有子問題的 iteration 數.
+		 *
+		 * @return iteration 數
+		 */
+		public long getIterations() {
+			long n = 0;
+			for (Solve s : solves)
+				n += s.iterations;
+			return n;
+		}
+
+		/**
+		 * kernel 計算次數的上限: 每個 iteration 取得兩個 column, 每個 column 最多 l 個值.
+		 * 有 cache 或 shrinking 時實際次數較少.
+		 *
+		 * @return 計算次數的上限
+		 */
+		public long getKernelEvaluationBound() {
+			return 2L * l * getIterations();
+		}
+
+		/**
+		 * Cache 可以放入的 kernel matrix 比例, 1 表示整個 matrix 都放得下, 每個值最多計算一次.
+		 *
+		 * @return 0 - 1
+		 */
+		public double getCacheCoverage() {
+			return Math.min(1, cache_mb / kernelMatrixMB(l));
+		}
+
+		public double getCacheMB() {
+			return cache_mb;
+		}
+
+		public int getTotalSV() {
+			return total_sv;
+		}
+
+		public int getUnshrinkCount() {
+			return unshrink;
+		}
+
+		/**
+		 * libsvm 是否建議關閉 shrinking (-h 0).
+		 *
+		 * @return 是否建議
+		 */
+		public boolean isShrinkingSlow() {
+			return shrinking_slow;
+		}
+
+		public double getCheckMillis() {
+			return check_nanos / 1e6;
+		}
+
+		/**
+		 * 取得 svm_train 所花的時間.
+		 *
+		 * @return 毫秒
+		 */
+		public double getTrainMillis() {
+			return train_nanos / 1e6;
+		}
+
+		/**
+		 * 取得 svm_train 中子問題以外的時間 (整理 model 等).
+		 *
+		 * @return 毫秒
+		 */
+		public double getOverheadMillis() {
+			long n = train_nanos;
+			for (Solve s : solves)
+				n -= s.nanos;
+			return n / 1e6;
+		}
+
+		/**
+		 * 取得存檔所花的時間, 由 {@link LibSVM#train(String)} 設定.
+		 *
+		 * @return 毫秒
+		 */
+		public double getSaveMillis() {
+			return save_nanos / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format("l=%d cache=%.0fMB coverage=%.1f%% solves=%d iter=%d kernel<=%d unshrink=%d%s%n",
+					l, cache_mb, getCacheCoverage() * 100, solves.size(), getIterations(), getKernelEvaluationBound(),
+					unshrink, shrinking_slow? " (-h 0 may be faster)" : ""));
+			sb.append(String.format("check=%.1fms train=%.1fms overhead=%.1fms save=%.1fms total_sv=%d%n",
+					getCheckMillis(), getTrainMillis(), getOverheadMillis(), getSaveMillis(), total_sv));
+			for (Solve s : solves)
+				sb.append("  ").append(s).append(String.format("%n"));
+			return sb.toString();
+		}
+	}
+}
@@ -11,6 +11,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Properties;
 
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
 import org.apache.tomcat.jdbc.pool.DataSource;
 import org.apache.tomcat.jdbc.pool.PoolProperties;
 
@@ -51,6 +52,9 @@ public class DbConnPool {
 
 	protected boolean fairQueue = true;
 
+	/** 連線經過的 SSH tunnel, null 表示直接連線. */
+	protected SSHTunnelSupervisor tunnel = null;
+
 	/**
 	 * 從 properties 檔載入資料庫連線資訊.
 	 * 資料庫 driver 變數名稱: driver.
@@ -111,6 +115,33 @@ public class DbConnPool {
 		return datasource.getConnection();
 	}
 
+	/**
+	 * 設定連線經過的 SSH tunnel.
+	 * Tunnel 中斷或恢復時清除 pool 中的連線, 避免取得經過舊 tunnel 的失效連線.
+	 * url 中的 port 應為 tunnel 的 localhost port.
+	 *
+	 * @param tunnel 監控中的 SSH tunnel
+	 */
+	public void setTunnel(SSHTunnelSupervisor tunnel) {
+		this.tunnel = tunnel;
+		tunnel.addListener(new SSHTunnelSupervisor.Listener() {
+			public void tunnelDown() {
+				purge();
+			}
+
+			public void tunnelRecovered(long recovery_ms) {
+				purge();
+			}
+		});
+	}
+
+	/** 清除 pool 中的連線, 使用中的連線在歸還時關閉. */
+	public void purge() {
+		ConnectionPool pool = datasource.getPool();
+		if (pool != null)
+			pool.purge();
+	}
+
 	/** 關閉連線. */
 	public void close() {
 		datasource.close();
@@ -8,7 +8,11 @@ package idea.conn;
 
 import java.io.*;
 import java.net.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
 import java.security.cert.X509Certificate;
 import java.security.GeneralSecurityException;
 
@@ -29,6 +33,16 @@ public class HttpConn {
 	protected int read_timeout = 0;
 	/** 讀入資料編碼. */
 	protected String read_encoding = "UTF-8";
+	/** HTTPS 連線使用的 TLS 設定, null 表示使用 JVM 預設值. */
+	protected SSLConfig ssl = null;
+	/** 讀完回應後是否保留連線給下次使用. */
+	protected boolean keep_alive = false;
+	/** 流量控制, null 表示不限制. */
+	protected HttpThrottle throttle = null;
+	/** GET 請求的 hedging 設定, null 表示不使用. */
+	protected HttpHedge hedge = null;
+	/** 連線統計, null 表示不記錄. */
+	protected HttpMetrics metrics = null;
 
 	/** A String constant representing "GET" type.*/
 	public final static String GET = "GET";
@@ -103,6 +117,7 @@ public class HttpConn {
 
 	/**
 	 * 忽略驗證 HTTPS，必須在 openConnection 前調用.
+	 * 此設定會改變整個 JVM 的預設值，只想影響單一 client 時請改用 {@link SSLConfig#setTrustAll(boolean)}.
 	 *
 	 * @throws GeneralSecurityException 安全性例外
 	 */
@@ -119,10 +134,110 @@ public class HttpConn {
 	 * @throws IOException 開啟連結錯誤
 	 */
 	public void openConnection(String url) throws MalformedURLException, IOException {
-		if (url.startsWith("https"))
-			con = (HttpsURLConnection) new URL(url).openConnection();
+		con = open(new URL(url));
+	}
+
+	/**
+	 * 開啟網址連結並套用 TLS 設定.
+	 *
+	 * @param url 網址
+	 * @return 尚未連線的 HttpURLConnection
+	 * @throws IOException 開啟連結錯誤
+	 */
+	protected HttpURLConnection open(URL url) throws IOException {
+		if (url.getProtocol().equals("https")) {
+			HttpsURLConnection c = (HttpsURLConnection) url.openConnection();
+			if (ssl != null) {
+				try {
+					ssl.apply(c);
+				} catch (GeneralSecurityException e) {
+					throw new IOException("SSL 設定錯誤: " + e.getMessage(), e);
+				}
+			}
+			return c;
+		}
 		else
-			con = (HttpURLConnection) new URL(url).openConnection();
+			return (HttpURLConnection) url.openConnection();
+	}
+
+	/**
+	 * 以相同的網址、方法、headers 與 timeout 建立新的連線, 用於重試.
+	 * props 必須在原連線送出前取得.
+	 *
+	 * @param src   原連線
+	 * @param props 原連線的 request headers
+	 * @return 尚未連線的 HttpURLConnection
+	 * @throws IOException 開啟連結錯誤
+	 */
+	protected HttpURLConnection copy(HttpURLConnection src, Map<String, List<String>> props) throws IOException {
+		HttpURLConnection c = open(src.getURL());
+		c.setDoOutput(src.getDoOutput());
+		c.setRequestMethod(src.getRequestMethod());
+		c.setConnectTimeout(src.getConnectTimeout());
+		c.setReadTimeout(src.getReadTimeout());
+		for (Map.Entry<String, List<String>> e : props.entrySet())
+			if (e.getKey() != null)
+				for (String v : e.getValue())
+					c.addRequestProperty(e.getKey(), v);
+		return c;
+	}
+
+	/**
+	 * 設定 HTTPS 連線使用的 TLS 設定，必須在 openConnection 前調用.
+	 * 多個 HttpConn 共用同一個 SSLConfig 即可共用 session cache.
+	 *
+	 * @param ssl TLS 設定, null 表示使用 JVM 預設值
+	 */
+	public void setSSLConfig(SSLConfig ssl) {
+		this.ssl = ssl;
+	}
+
+	/**
+	 * 取得 HTTPS 連線使用的 TLS 設定.
+	 *
+	 * @return TLS 設定
+	 */
+	public SSLConfig getSSLConfig() {
+		return ssl;
+	}
+
+	/**
+	 * 設定讀完回應後是否保留連線.
+	 * 保留的連線會回到 JDK 的 keep-alive cache，下次連到同一主機時不需重新 handshake.
+	 *
+	 * @param keep_alive 是否保留連線
+	 */
+	public void setKeepAlive(boolean keep_alive) {
+		this.keep_alive = keep_alive;
+	}
+
+	/**
+	 * 設定流量控制, 多個 HttpConn 共用同一個 HttpThrottle 以協調請求速度.
+	 * 設定後冪等方法遇到 429/503 或連線錯誤時會自動重試.
+	 *
+	 * @param throttle 流量控制, null 表示不限制
+	 */
+	public void setThrottle(HttpThrottle throttle) {
+		this.throttle = throttle;
+	}
+
+	/**
+	 * 設定 GET 請求的 hedging, 多個 HttpConn 可共用同一個 HttpHedge 以共用延遲紀錄與 hedge 額度.
+	 *
+	 * @param hedge hedging 設定, null 表示不使用
+	 */
+	public void setHedge(HttpHedge hedge) {
+		this.hedge = hedge;
+	}
+
+	/**
+	 * 設定連線統計, 多個 HttpConn 共用同一個 HttpMetrics 以彙總統計.
+	 * TLS handshake 時間需另外設給 {@link SSLConfig#setMetrics(HttpMetrics)}.
+	 *
+	 * @param metrics 連線統計, null 表示不記錄
+	 */
+	public void setMetrics(HttpMetrics metrics) {
+		this.metrics = metrics;
 	}
 
 	/**
@@ -182,11 +297,7 @@ public class HttpConn {
 	 * @throws IOException 請求錯誤
 	 */
 	public String request(String param) throws IOException {
-		OutputStream out = con.getOutputStream();	// Send request
-		out.write(param.getBytes());
-		out.close();
-
-		return request();
+		return execute(param.getBytes());
 	}
 
 	/**
@@ -196,16 +307,288 @@ public class HttpConn {
 	 * @throws IOException 請求錯誤
 	 */
 	public String request() throws IOException {
-		code = con.getResponseCode();
+		return execute(null);
+	}
+
+	/**
+	 * 送出 request 並取得回應, 有設定流量控制時依限制等待並重試.
+	 *
+	 * @param body 送出的內容, null 表示不送
+	 * @return 回應的資訊
+	 * @throws IOException 請求錯誤
+	 */
+	protected String execute(byte[] body) throws IOException {
+		if (hedge != null && body == null && GET.equals(con.getRequestMethod()))
+			return hedged();
+
+		if (throttle == null) {
+			HttpMetrics.Exchange ex = begin(con);
+			code = exchange(con, body, ex);
+			return receive(con, ex);
+		}
+
+		return retry(body, con.getRequestProperties(), 0);
+	}
+
+	/**
+	 * 依流量控制送出 request, 冪等方法遇到 429/503 或連線錯誤時重試.
+	 *
+	 * @param body  送出的內容, null 表示不送
+	 * @param props con 的 request headers, 必須在 con 送出前取得
+	 * @param first 已送出的次數, 大於 0 時以 con 的設定建立新連線
+	 * @return 回應的資訊
+	 * @throws IOException 請求錯誤
+	 */
+	protected String retry(byte[] body, Map<String, List<String>> props, int first) throws IOException {
+		HttpThrottle.HostLimiter limiter = throttle.limiter(con.getURL().getHost());
+		boolean idempotent = HttpThrottle.isIdempotent(con.getRequestMethod());
+
+		long pause = 0;		// 重試前的等待, 在歸還連線許可後才等待
+		for (int attempt = first; ; attempt++) {
+			if (attempt > 0) {
+				HttpThrottle.sleep(pause);
+				pause = 0;
+				con = copy(con, props);
+			}
+
+			limiter.acquire();
+			long start = System.nanoTime();
+			boolean success = false;
+			HttpMetrics.Exchange ex = begin(con);
+			try {
+				try {
+					code = exchange(con, body, ex);
+				} catch (IOException e) {
+					con.disconnect();
+					if (!idempotent || attempt >= throttle.getMaxRetries())
+						throw e;
+					pause = throttle.backoff(attempt);
+					continue;
+				}
+
+				if (code == 429 || code == 503) {
+					long wait = HttpThrottle.parseRetryAfter(con.getHeaderField("Retry-After"));
+					limiter.throttled((wait >= 0)? wait : throttle.backoff(attempt));
+					if (idempotent && attempt < throttle.getMaxRetries()) {
+						if (ex != null)
+							ex.completed(false);
+						con.disconnect();
+						continue;		// 下次 acquire 時會等到暫停結束
+					}
+				}
+
+				String result = receive(con, ex);
+				success = code < 500;
+				return result;
+			} finally {
+				limiter.release(System.nanoTime() - start, success);
+			}
+		}
+	}
+
+	/**
+	 * 以 hedging 送出 GET 請求.
+	 * 超過延遲時間未回應, 或第一個請求連線錯誤時, 在額度內送出第二個請求, 取先回來的結果並取消另一個.
+	 * HTTP 錯誤碼是伺服器的回應, 不會再送 hedge; 有流量控制時 429/503 依 Retry-After 暫停後重試.
+	 *
+	 * @return 回應的資訊
+	 * @throws IOException 請求錯誤
+	 */
+	protected String hedged() throws IOException {
+		String host = con.getURL().getHost();
+		Map<String, List<String>> props = con.getRequestProperties();
+		ExecutorCompletionService<Attempt> ecs = new ExecutorCompletionService<Attempt>(hedge.getExecutor());
+		List<Attempt> attempts = new ArrayList<Attempt>(2);
+		long start = System.nanoTime();
+
+		hedge.requested();
+		attempts.add(new Attempt(con, false));
+		ecs.submit(attempts.get(0));
+
+		Attempt winner = null;
+		IOException error = null;
+		try {
+			Future<Attempt> f = ecs.poll(hedge.delay(host), TimeUnit.MILLISECONDS);
+			if (f == null && hedge.tryHedge()) {		// 太慢, 送出 hedge
+				attempts.add(new Attempt(copy(con, props), true));
+				ecs.submit(attempts.get(1));
+			}
+
+			for (int pending = attempts.size(); pending > 0; pending--) {
+				if (f == null)
+					f = ecs.take();
+				try {
+					winner = f.get();
+					break;
+				} catch (ExecutionException e) {
+					error = (e.getCause() instanceof IOException)? (IOException) e.getCause() : new IOException(e.getCause());
+					if (attempts.size() == 1 && hedge.tryHedge()) {		// 第一個請求連線錯誤, 立即重試
+						attempts.add(new Attempt(copy(con, props), true));
+						ecs.submit(attempts.get(1));
+						pending++;
+					}
+				}
+				f = null;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("等待回應時被中斷");
+		} finally {
+			for (Attempt a : attempts)
+				if (a != winner)
+					a.cancel();		// 取消較慢的請求
+		}
+
+		if (winner == null)
+			throw error;
+
+		hedge.completed(host, (System.nanoTime() - start) / 1000000, winner.is_hedge);
+		if ((winner.code == 429 || winner.code == 503) && throttle != null) {
+			long wait = HttpThrottle.parseRetryAfter(winner.c.getHeaderField("Retry-After"));
+			throttle.limiter(host).throttled((wait >= 0)? wait : throttle.backoff(0));
+			if (winner.ex != null)
+				winner.ex.completed(false);
+			winner.c.disconnect();
+			if (throttle.getMaxRetries() > 0)
+				return retry(null, props, 1);		// 下次 acquire 時會等到暫停結束
+		}
+
+		con = winner.c;
+		code = winner.code;
+		if (winner.body == null)
+			return receive(con, winner.ex);		// HTTP 錯誤碼, 與沒有 hedging 時一樣由 receive 丟出例外
+		return winner.body;
+	}
+
+	/** Hedging 時的單一請求. HTTP 錯誤碼 (4xx/5xx) 視為結果, 不讀取內容, 只有連線錯誤會丟出例外. */
+	protected class Attempt implements Callable<Attempt> {
+		protected final HttpURLConnection c;
+		protected final boolean is_hedge;
+		protected int code = -1;
+		protected String body;
+		protected volatile HttpMetrics.Exchange ex;
+
+		protected Attempt(HttpURLConnection c, boolean is_hedge) {
+			this.c = c;
+			this.is_hedge = is_hedge;
+		}
 
-		BufferedReader in = new BufferedReader(new InputStreamReader(con.getInputStream(), read_encoding));		// 讀取 request
+		public Attempt call() throws IOException {
+			HttpThrottle.HostLimiter limiter = (throttle == null)? null : throttle.limiter(c.getURL().getHost());
+			if (limiter != null)
+				limiter.acquire();
+			long start = System.nanoTime();
+			boolean success = false;
+			ex = begin(c);
+			try {
+				code = exchange(c, null, ex);
+				if (code < 400)
+					body = receive(c, ex);
+				success = code < 500;
+				return this;
+			} finally {
+				if (limiter != null)
+					limiter.release(System.nanoTime() - start, success);
+			}
+		}
+
+		/** 取消請求, 關閉連線讓讀取中的 thread 結束. */
+		protected void cancel() {
+			HttpMetrics.Exchange e = ex;
+			if (e != null)
+				e.cancelled();
+			c.disconnect();
+		}
+	}
+
+	/**
+	 * 開始記錄一個請求.
+	 *
+	 * @param c 連線
+	 * @return 此請求的紀錄, 沒有設定統計時回傳 null
+	 */
+	protected HttpMetrics.Exchange begin(HttpURLConnection c) {
+		return (metrics == null)? null : metrics.begin(c.getURL().getHost(), c.getRequestMethod());
+	}
+
+	/**
+	 * 連線、送出 request 內容並取得 response code, 有統計時記錄各階段時間.
+	 * 不保留連線時送出 Connection: close.
+	 *
+	 * @param c    連線
+	 * @param body 送出的內容, null 表示不送
+	 * @param ex   此請求的紀錄, null 表示不記錄
+	 * @return response code
+	 * @throws IOException 請求錯誤
+	 */
+	protected int exchange(HttpURLConnection c, byte[] body, HttpMetrics.Exchange ex) throws IOException {
+		if (!keep_alive)		// 讀到 EOF 時 JDK 就會把連線放回 keep-alive cache, disconnect 來不及阻止
+			c.setRequestProperty("Connection", "close");
+		if (ex == null) {
+			send(c, body);
+			return c.getResponseCode();
+		}
+
+		try {
+			ex.resolve();
+			c.connect();
+			ex.connected();
+			send(c, body);
+			ex.sent((body == null)? 0 : body.length);
+			int rc = c.getResponseCode();
+			ex.firstByte(rc);
+			return rc;
+		} catch (IOException e) {
+			ex.failed();
+			throw e;
+		}
+	}
+
+	/**
+	 * 送出 request 內容.
+	 *
+	 * @param c    連線
+	 * @param body 送出的內容, null 表示不送
+	 * @throws IOException 請求錯誤
+	 */
+	protected void send(HttpURLConnection c, byte[] body) throws IOException {
+		if (body == null)
+			return;
+		OutputStream out = c.getOutputStream();	// Send request
+		out.write(body);
+		out.close();
+	}
+
+	/**
+	 * 讀取回應內容.
+	 *
+	 * @param c  已取得 response code 的連線
+	 * @param ex 此請求的紀錄, null 表示不記錄
+	 * @return 回應的資訊
+	 * @throws IOException 讀取錯誤
+	 */
+	protected String receive(HttpURLConnection c, HttpMetrics.Exchange ex) throws IOException {
 		StringBuilder sb = new StringBuilder();
-		String line;
-		while ((line = in.readLine()) != null)
-			sb.append(line);
-		in.close();
+		try {
+			InputStream is = c.getInputStream();
+			if (ex != null)
+				is = ex.count(is);
+
+			BufferedReader in = new BufferedReader(new InputStreamReader(is, read_encoding));		// 讀取 request
+			String line;
+			while ((line = in.readLine()) != null)
+				sb.append(line);
+			in.close();
+		} catch (IOException e) {
+			if (ex != null)
+				ex.failed();
+			throw e;
+		}
 
-		con.disconnect();
+		if (!keep_alive)
+			c.disconnect();
+		if (ex != null)
+			ex.completed(keep_alive);
 
 		return sb.toString();
 	}
@@ -0,0 +1,234 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.conn;
+
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * GET 請求的 hedging 設定.
+ * 請求超過延遲時間仍未回應時送出第二個相同請求，取先回來的結果並取消另一個.
+ * 延遲時間可固定，或取各主機最近延遲的百分位數 (例如 p95)；
+ * hedge 數量限制在請求數的一定比例內，避免加倍上游負載.
+ *
+ * @author Miles Chen
+ */
+public class HttpHedge {
+	/** 固定延遲時間 in milliseconds, 0 表示使用百分位數. */
+	protected long delay = 0;
+	/** 延遲時間使用的百分位數. */
+	protected double percentile = 0.95;
+	/** 樣本數不足時使用的延遲時間 in milliseconds. */
+	protected long default_delay = 100;
+	/** Hedge 數量佔請求數的比例上限. */
+	protected double max_ratio = 0.05;
+
+	/** 請求數. */
+	protected final AtomicLong requests = new AtomicLong();
+	/** Hedge 數. */
+	protected final AtomicLong hedges = new AtomicLong();
+	/** Hedge 比原請求先回來的次數. */
+	protected final AtomicLong hedge_wins = new AtomicLong();
+
+	/** 各主機最近的延遲. */
+	protected final ConcurrentHashMap<String, LatencyWindow> windows = new ConcurrentHashMap<String, LatencyWindow>();
+
+	/** 執行請求的 thread pool. */
+	protected ExecutorService executor;
+
+	/** 預設的 thread pool, 使用 daemon thread. */
+	protected static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "idea-http-hedge");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/**
+	 * Constructor.
+	 *
+	 * @param max_ratio hedge 數量佔請求數的比例上限, 例: 0.05
+	 */
+	public HttpHedge(double max_ratio) {
+		this.max_ratio = max_ratio;
+		this.executor = DEFAULT_EXECUTOR;
+	}
+
+	/**
+	 * 設定固定的延遲時間.
+	 *
+	 * @param delay 延遲時間 in milliseconds, 0 表示使用百分位數
+	 */
+	public void setDelay(long delay) {
+		this.delay = delay;
+	}
+
+	/**
+	 * 設定以最近延遲的百分位數作為延遲時間.
+	 *
+	 * @param percentile    百分位數, 例: 0.95
+	 * @param default_delay 樣本數不足時使用的延遲時間 in milliseconds
+	 */
+	public void setPercentile(double percentile, long default_delay) {
+		this.delay = 0;
+		this.percentile = percentile;
+		this.default_delay = default_delay;
+	}
+
+	/**
+	 * 設定執行請求的 thread pool.
+	 *
+	 * @param executor thread pool
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * 取得執行請求的 thread pool.
+	 *
+	 * @return thread pool
+	 */
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * 取得主機目前的 hedge 延遲時間.
+	 *
+	 * @param host 主機名稱
+	 * @return 延遲時間 in milliseconds
+	 */
+	public long delay(String host) {
+		if (delay > 0)
+			return delay;
+		long d = window(host).percentile(percentile);
+		return (d < 0)? default_delay : d;
+	}
+
+	/**
+	 * 記錄一個請求.
+	 */
+	public void requested() {
+		requests.incrementAndGet();
+	}
+
+	/**
+	 * 嘗試取得送出 hedge 的額度.
+	 *
+	 * @return 是否可以送出 hedge
+	 */
+	public boolean tryHedge() {
+		while (true) {
+			long h = hedges.get();
+			if (h + 1 > max_ratio * requests.get())
+				return false;
+			if (hedges.compareAndSet(h, h + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * 記錄完成的請求.
+	 *
+	 * @param host      主機名稱
+	 * @param millis    回應時間 in milliseconds
+	 * @param hedge_won 是否由 hedge 先回來
+	 */
+	public void completed(String host, long millis, boolean hedge_won) {
+		window(host).add(millis);
+		if (hedge_won)
+			hedge_wins.incrementAndGet();
+	}
+
+	/**
+	 * 取得請求數.
+	 *
+	 * @return 請求數
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * 取得已送出的 hedge 數.
+	 *
+	 * @return hedge 數
+	 */
+	public long getHedges() {
+		return hedges.get();
+	}
+
+	/**
+	 * 取得 hedge 比原請求先回來的次數.
+	 *
+	 * @return hedge 勝出次數
+	 */
+	public long getHedgeWins() {
+		return hedge_wins.get();
+	}
+
+	/**
+	 * 取得主機的延遲紀錄.
+	 *
+	 * @param host 主機名稱
+	 * @return 延遲紀錄
+	 */
+	protected LatencyWindow window(String host) {
+		LatencyWindow w = windows.get(host);
+		if (w == null) {
+			LatencyWindow created = new LatencyWindow(1024);
+			w = windows.putIfAbsent(host, created);
+			if (w == null)
+				w = created;
+		}
+		return w;
+	}
+
+	/** 最近 n 筆延遲的環狀紀錄, 每 64 筆重新計算一次百分位數. */
+	protected static class LatencyWindow {
+		protected final long[] samples;
+		protected int count = 0;
+		protected int pos = 0;
+		protected long cached = -1;
+		protected double cached_p = -1;
+		protected int since_sort = 0;
+
+		protected LatencyWindow(int size) {
+			samples = new long[size];
+		}
+
+		protected synchronized void add(long millis) {
+			samples[pos] = millis;
+			pos = (pos + 1) % samples.length;
+			if (count < samples.length)
+				count++;
+			since_sort++;
+		}
+
+		/**
+		 * 計算百分位數.
+		 *
+		 * @param p 百分位數
+		 * @return 延遲 in milliseconds, 樣本數不足時回傳 -1
+		 */
+		protected synchronized long percentile(double p) {
+			if (count < 20)
+				return -1;
+			if (cached < 0 || since_sort >= 64 || p != cached_p) {
+				long[] sorted = Arrays.copyOf(samples, count);
+				Arrays.sort(sorted);
+				cached = sorted[Math.min(count - 1, (int)(p * count))];
+				cached_p = p;
+				since_sort = 0;
+			}
+			return cached;
+		}
+	}
+}
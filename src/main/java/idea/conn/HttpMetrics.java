@@ -0,0 +1,534 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.conn;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.security.Security;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.*;
+
+import javax.management.*;
+
+/**
+ * HTTP 連線的統計資料.
+ * 依 (主機, 方法) 記錄 DNS、connect、time-to-first-byte、總時間的延遲直方圖，
+ * 依主機記錄 TLS handshake 時間 (需將同一個 HttpMetrics 設給 {@link SSLConfig#setMetrics(HttpMetrics)})，
+ * 並記錄送出/收到的 bytes、各 status code 次數與進行中的連線數.
+ * 紀錄只使用 atomic 操作，不會阻塞請求；可由 {@link #snapshot()} 或 JMX 取得結果.
+ * 使用 JDK keep-alive 時，重用的連線 connect 時間接近 0.
+ * DNS 時間只在 JVM 的 DNS 快取 (networkaddress.cache.ttl) 過期時查詢並記錄，快取命中的請求不計入，
+ * 因此 DNS 的樣本數少於請求數.
+ *
+ * @author Miles Chen
+ */
+public class HttpMetrics implements HttpMetricsMBean {
+	/** 各 (主機, 方法) 的統計. */
+	protected final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<String, Endpoint>();
+	/** 各主機的 TLS handshake 時間. */
+	protected final ConcurrentHashMap<String, LatencyHistogram> tls = new ConcurrentHashMap<String, LatencyHistogram>();
+	/** 各主機進行中的請求數. */
+	protected final ConcurrentHashMap<String, AtomicInteger> in_flight = new ConcurrentHashMap<String, AtomicInteger>();
+	/** 各主機 DNS 快取過期的時間 in nanoseconds. */
+	protected final ConcurrentHashMap<String, Long> resolved = new ConcurrentHashMap<String, Long>();
+	/** JVM DNS 快取的時間 in nanoseconds, 負值表示永久快取. */
+	protected final long dns_ttl = dnsCacheTtl();
+
+	/**
+	 * 開始記錄一個請求.
+	 *
+	 * @param host   主機名稱
+	 * @param method request 方法
+	 * @return 此請求的紀錄
+	 */
+	public Exchange begin(String host, String method) {
+		return new Exchange(host, endpoint(host, method));
+	}
+
+	/**
+	 * 記錄 TLS handshake 時間.
+	 *
+	 * @param host  主機名稱
+	 * @param nanos handshake 時間 in nanoseconds
+	 */
+	public void recordTls(String host, long nanos) {
+		LatencyHistogram h = tls.get(host);
+		if (h == null) {
+			LatencyHistogram created = new LatencyHistogram();
+			h = tls.putIfAbsent(host, created);
+			if (h == null)
+				h = created;
+		}
+		h.record(nanos);
+	}
+
+	/**
+	 * 取得所有 (主機, 方法) 的統計結果.
+	 *
+	 * @return key 為 "host method" 的統計結果
+	 */
+	public Map<String, Snapshot> snapshot() {
+		Map<String, Snapshot> result = new TreeMap<String, Snapshot>();
+		for (Map.Entry<String, Endpoint> e : endpoints.entrySet())
+			result.put(e.getKey(), e.getValue().snapshot());
+		return result;
+	}
+
+	/**
+	 * 將統計資料註冊到 JMX, ObjectName 為 idea.conn:type=HttpMetrics,name=...
+	 *
+	 * @param name 名稱
+	 * @throws JMException 註冊失敗
+	 */
+	public void register(String name) throws JMException {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		server.registerMBean(this, new ObjectName("idea.conn:type=HttpMetrics,name=" + ObjectName.quote(name)));
+	}
+
+	public long getRequests() {
+		long n = 0;
+		for (Endpoint e : endpoints.values())
+			n += e.requests.get();
+		return n;
+	}
+
+	public long getErrors() {
+		long n = 0;
+		for (Endpoint e : endpoints.values())
+			n += e.errors.get();
+		return n;
+	}
+
+	public long getBytesIn() {
+		long n = 0;
+		for (Endpoint e : endpoints.values())
+			n += e.bytes_in.get();
+		return n;
+	}
+
+	public long getBytesOut() {
+		long n = 0;
+		for (Endpoint e : endpoints.values())
+			n += e.bytes_out.get();
+		return n;
+	}
+
+	public int getInFlight() {
+		int n = 0;
+		for (AtomicInteger i : in_flight.values())
+			n += i.get();
+		return n;
+	}
+
+	public String[] getEndpoints() {
+		List<String> lines = new ArrayList<String>();
+		for (Map.Entry<String, Snapshot> e : snapshot().entrySet())
+			lines.add(e.getKey() + ": " + e.getValue());
+		return lines.toArray(new String[lines.size()]);
+	}
+
+	public void reset() {
+		for (Endpoint e : endpoints.values())
+			e.reset();
+		for (LatencyHistogram h : tls.values())
+			h.reset();
+	}
+
+	/**
+	 * 取得 JVM DNS 快取的時間, 未設定 networkaddress.cache.ttl 時為 JDK 預設的 30 秒.
+	 *
+	 * @return 快取時間 in nanoseconds, 負值表示永久快取
+	 */
+	protected static long dnsCacheTtl() {
+		String ttl = Security.getProperty("networkaddress.cache.ttl");
+		try {
+			long sec = (ttl == null)? 30 : Long.parseLong(ttl.trim());
+			return (sec < 0)? -1 : sec * 1000000000L;
+		} catch (NumberFormatException e) {
+			return 30 * 1000000000L;
+		}
+	}
+
+	/**
+	 * 判斷主機的 DNS 快取是否已過期, 過期時記錄下次過期的時間.
+	 *
+	 * @param host 主機名稱
+	 * @return 是否需要查詢
+	 */
+	protected boolean dnsExpired(String host) {
+		if (host.indexOf(':') >= 0 || host.matches("[0-9.]+"))
+			return false;		// IP 位址不需查詢
+		long now = System.nanoTime();
+		Long until = resolved.get(host);
+		if (until != null && (dns_ttl < 0 || until - now > 0))
+			return false;
+		resolved.put(host, now + Math.max(0, dns_ttl));
+		return true;
+	}
+
+	/**
+	 * 取得 (主機, 方法) 的統計.
+	 *
+	 * @param host   主機名稱
+	 * @param method request 方法
+	 * @return 統計
+	 */
+	protected Endpoint endpoint(String host, String method) {
+		String key = host + " " + method;
+		Endpoint e = endpoints.get(key);
+		if (e == null) {
+			Endpoint created = new Endpoint(host);
+			e = endpoints.putIfAbsent(key, created);
+			if (e == null)
+				e = created;
+		}
+		return e;
+	}
+
+	/**
+	 * 取得主機進行中的請求數 counter.
+	 *
+	 * @param host 主機名稱
+	 * @return counter
+	 */
+	protected AtomicInteger inFlight(String host) {
+		AtomicInteger i = in_flight.get(host);
+		if (i == null) {
+			AtomicInteger created = new AtomicInteger();
+			i = in_flight.putIfAbsent(host, created);
+			if (i == null)
+				i = created;
+		}
+		return i;
+	}
+
+	/** 單一 (主機, 方法) 的統計. */
+	protected class Endpoint {
+		protected final String host;
+		protected final LatencyHistogram dns = new LatencyHistogram();
+		protected final LatencyHistogram connect = new LatencyHistogram();
+		protected final LatencyHistogram ttfb = new LatencyHistogram();
+		protected final LatencyHistogram total = new LatencyHistogram();
+		protected final AtomicLong requests = new AtomicLong();
+		protected final AtomicLong errors = new AtomicLong();
+		protected final AtomicLong bytes_in = new AtomicLong();
+		protected final AtomicLong bytes_out = new AtomicLong();
+		protected final AtomicLong kept_alive = new AtomicLong();
+		/** 1xx ~ 5xx 的次數. */
+		protected final AtomicLongArray status = new AtomicLongArray(6);
+
+		protected Endpoint(String host) {
+			this.host = host;
+		}
+
+		protected void reset() {
+			dns.reset();
+			connect.reset();
+			ttfb.reset();
+			total.reset();
+			requests.set(0);
+			errors.set(0);
+			bytes_in.set(0);
+			bytes_out.set(0);
+			kept_alive.set(0);
+			for (int i = 0; i < status.length(); i++)
+				status.set(i, 0);
+		}
+
+		protected Snapshot snapshot() {
+			long[] s = new long[status.length()];
+			for (int i = 0; i < s.length; i++)
+				s[i] = status.get(i);
+			LatencyHistogram t = tls.get(host);
+			return new Snapshot(requests.get(), errors.get(), bytes_in.get(), bytes_out.get(), kept_alive.get(),
+					inFlight(host).get(), s, dns.snapshot(), connect.snapshot(),
+					(t == null)? new LatencyHistogram().snapshot() : t.snapshot(), ttfb.snapshot(), total.snapshot());
+		}
+	}
+
+	/** 單一請求的紀錄, 由 HttpConn 在各階段呼叫. */
+	public class Exchange {
+		protected final String host;
+		protected final Endpoint endpoint;
+		protected final long start = System.nanoTime();
+		protected long mark = start;
+		protected boolean responded = false;
+		/** 是否已結束, hedging 時可能由另一個 thread 取消. */
+		protected final AtomicBoolean done = new AtomicBoolean();
+
+		protected Exchange(String host, Endpoint endpoint) {
+			this.host = host;
+			this.endpoint = endpoint;
+			endpoint.requests.incrementAndGet();
+			inFlight(host).incrementAndGet();
+		}
+
+		/**
+		 * JVM 的 DNS 快取過期時解析主機名稱並記錄 DNS 時間. 結果由 JVM 快取，連線時不會再查詢一次.
+		 * 快取未過期時不查詢也不記錄, 避免把快取命中當成 DNS 時間.
+		 *
+		 * @throws IOException 無法解析主機名稱
+		 */
+		public void resolve() throws IOException {
+			if (!dnsExpired(host))
+				return;
+			try {
+				InetAddress.getAllByName(host);
+			} catch (IOException e) {
+				resolved.remove(host);
+				throw e;
+			}
+			endpoint.dns.record(lap());
+		}
+
+		/** 連線完成. */
+		public void connected() {
+			endpoint.connect.record(lap());
+		}
+
+		/**
+		 * 送出內容完成.
+		 *
+		 * @param bytes 送出的 bytes
+		 */
+		public void sent(long bytes) {
+			endpoint.bytes_out.addAndGet(bytes);
+		}
+
+		/**
+		 * 收到 response code.
+		 *
+		 * @param code response code
+		 */
+		public void firstByte(int code) {
+			endpoint.ttfb.record(lap());
+			responded = true;
+			int c = code / 100;
+			if (c >= 1 && c <= 5)
+				endpoint.status.incrementAndGet(c);
+		}
+
+		/**
+		 * 包裝回應的 InputStream 以計算收到的 bytes.
+		 *
+		 * @param in 回應的 InputStream
+		 * @return 計算 bytes 的 InputStream
+		 */
+		public InputStream count(InputStream in) {
+			return new FilterInputStream(in) {
+				@Override
+				public int read() throws IOException {
+					int b = super.read();
+					if (b >= 0)
+						endpoint.bytes_in.incrementAndGet();
+					return b;
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					int n = super.read(b, off, len);
+					if (n > 0)
+						endpoint.bytes_in.addAndGet(n);
+					return n;
+				}
+			};
+		}
+
+		/**
+		 * 請求完成.
+		 *
+		 * @param kept_alive 連線是否保留給下次使用
+		 */
+		public void completed(boolean kept_alive) {
+			if (!done.compareAndSet(false, true))
+				return;
+			endpoint.total.record(System.nanoTime() - start);
+			if (kept_alive)
+				endpoint.kept_alive.incrementAndGet();
+			inFlight(host).decrementAndGet();
+		}
+
+		/** 請求失敗. 已收到 response code 的請求 (例如 4xx) 不算連線錯誤. */
+		public void failed() {
+			if (!done.compareAndSet(false, true))
+				return;
+			if (!responded)
+				endpoint.errors.incrementAndGet();
+			endpoint.total.record(System.nanoTime() - start);
+			inFlight(host).decrementAndGet();
+		}
+
+		/** 請求被取消 (hedging 中較慢的請求), 不算錯誤也不記錄總時間. */
+		public void cancelled() {
+			if (done.compareAndSet(false, true))
+				inFlight(host).decrementAndGet();
+		}
+
+		/**
+		 * 計算與上一個階段的時間差.
+		 *
+		 * @return 時間差 in nanoseconds
+		 */
+		protected long lap() {
+			long now = System.nanoTime();
+			long d = now - mark;
+			mark = now;
+			return d;
+		}
+	}
+
+	/** 單一 (主機, 方法) 的統計結果. */
+	public static class Snapshot {
+		protected final long requests, errors, bytes_in, bytes_out, kept_alive;
+		protected final int in_flight;
+		protected final long[] status;
+		protected final LatencyHistogram.Snapshot dns, connect, tls, ttfb, total;
+
+		protected Snapshot(long requests, long errors, long bytes_in, long bytes_out, long kept_alive, int in_flight, long[] status,
+				LatencyHistogram.Snapshot dns, LatencyHistogram.Snapshot connect, LatencyHistogram.Snapshot tls,
+				LatencyHistogram.Snapshot ttfb, LatencyHistogram.Snapshot total) {
+			this.requests = requests;
+			this.errors = errors;
+			this.bytes_in = bytes_in;
+			this.bytes_out = bytes_out;
+			this.kept_alive = kept_alive;
+			this.in_flight = in_flight;
+			this.status = status;
+			this.dns = dns;
+			this.connect = connect;
+			this.tls = tls;
+			this.ttfb = ttfb;
+			this.total = total;
+		}
+
+		/**
+		 * 取得請求數.
+		 *
+		 * @return 請求數
+		 */
+		public long getRequests() {
+			return requests;
+		}
+
+		/**
+		 * 取得連線錯誤數, 已收到 response code 的請求不算.
+		 *
+		 * @return 連線錯誤數
+		 */
+		public long getErrors() {
+			return errors;
+		}
+
+		/**
+		 * 取得收到的回應內容大小.
+		 *
+		 * @return 收到的 bytes
+		 */
+		public long getBytesIn() {
+			return bytes_in;
+		}
+
+		/**
+		 * 取得送出的 request 內容大小.
+		 *
+		 * @return 送出的 bytes
+		 */
+		public long getBytesOut() {
+			return bytes_out;
+		}
+
+		/**
+		 * 取得讀完回應後將連線留給 JDK keep-alive cache 的次數.
+		 *
+		 * @return 次數
+		 */
+		public long getKeptAlive() {
+			return kept_alive;
+		}
+
+		/**
+		 * 取得該主機目前進行中的請求數, 包含其他方法的請求.
+		 *
+		 * @return 進行中的請求數
+		 */
+		public int getInFlight() {
+			return in_flight;
+		}
+
+		/**
+		 * 取得 DNS 查詢時間, 只包含 JVM 快取過期後實際查詢的請求.
+		 *
+		 * @return DNS 時間, 統計值單位為 milliseconds
+		 */
+		public LatencyHistogram.Snapshot getDns() {
+			return dns;
+		}
+
+		/**
+		 * 取得 connect 時間, HTTPS 包含 TLS handshake.
+		 *
+		 * @return connect 時間, 統計值單位為 milliseconds
+		 */
+		public LatencyHistogram.Snapshot getConnect() {
+			return connect;
+		}
+
+		/**
+		 * 取得該主機的 TLS handshake 時間, 由 {@link SSLConfig} 記錄, 不分方法.
+		 *
+		 * @return TLS handshake 時間, 統計值單位為 milliseconds
+		 */
+		public LatencyHistogram.Snapshot getTls() {
+			return tls;
+		}
+
+		/**
+		 * 取得送出請求到收到 response code 的時間 (time to first byte).
+		 *
+		 * @return TTFB, 統計值單位為 milliseconds
+		 */
+		public LatencyHistogram.Snapshot getTtfb() {
+			return ttfb;
+		}
+
+		/**
+		 * 取得請求總時間, 從開始到讀完回應.
+		 *
+		 * @return 總時間, 統計值單位為 milliseconds
+		 */
+		public LatencyHistogram.Snapshot getTotal() {
+			return total;
+		}
+
+		/**
+		 * 取得某一類 status code 的次數.
+		 *
+		 * @param c status code 類別, 1 ~ 5 (例: 4 代表 4xx)
+		 * @return 次數
+		 */
+		public long getStatusCount(int c) {
+			return (c >= 1 && c <= 5)? status[c] : 0;
+		}
+
+		/**
+		 * 取得錯誤率, 包含連線錯誤與 5xx.
+		 *
+		 * @return 錯誤率
+		 */
+		public double getErrorRate() {
+			return (requests == 0)? 0 : (double)(errors + status[5]) / requests;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("requests=%d errors=%d 2xx=%d 4xx=%d 5xx=%d in=%dB out=%dB in_flight=%d total[%s] ttfb[%s] connect[%s] tls[%s] dns[%s]",
+					requests, errors, status[2], status[4], status[5], bytes_in, bytes_out, in_flight, total, ttfb, connect, tls, dns);
+		}
+	}
+}
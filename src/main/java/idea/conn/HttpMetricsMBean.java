@@ -0,0 +1,59 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.conn;
+
+/**
+ * HttpMetrics 的 JMX 介面.
+ *
+ * @author Miles Chen
+ */
+public interface HttpMetricsMBean {
+	/**
+	 * 取得請求總數.
+	 *
+	 * @return 請求總數
+	 */
+	long getRequests();
+
+	/**
+	 * 取得連線錯誤 (沒有 response code) 總數.
+	 *
+	 * @return 錯誤總數
+	 */
+	long getErrors();
+
+	/**
+	 * 取得收到的 bytes 總數.
+	 *
+	 * @return bytes 總數
+	 */
+	long getBytesIn();
+
+	/**
+	 * 取得送出的 bytes 總數.
+	 *
+	 * @return bytes 總數
+	 */
+	long getBytesOut();
+
+	/**
+	 * 取得目前進行中的請求數.
+	 *
+	 * @return 進行中的請求數
+	 */
+	int getInFlight();
+
+	/**
+	 * 取得各主機、方法的統計摘要.
+	 *
+	 * @return 每個 (主機, 方法) 一行摘要
+	 */
+	String[] getEndpoints();
+
+	/** 歸零所有統計. */
+	void reset();
+}
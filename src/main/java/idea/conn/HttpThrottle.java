@@ -0,0 +1,299 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.conn;
+
+import java.io.InterruptedIOException;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * 對外 HTTP 呼叫的流量控制.
+ * 每個主機各自有一個 token bucket (每秒請求數) 與同時連線數上限，
+ * 收到 429/503 時依 Retry-After 暫停，並可用 AIMD 依延遲與錯誤自動調整速率.
+ * 多個 HttpConn 共用同一個 HttpThrottle 才能協調所有 thread 的請求速度.
+ *
+ * @author Miles Chen
+ */
+public class HttpThrottle {
+	/** 每秒請求數上限. */
+	protected double rate;
+	/** Token bucket 容量 (可瞬間送出的請求數). */
+	protected double burst;
+	/** 每個主機同時連線數上限. */
+	protected int max_concurrent;
+
+	/** 是否依延遲與錯誤自動調整速率. */
+	protected boolean adaptive = false;
+	/** 自動調整時的最低速率. */
+	protected double min_rate = 0.1;
+	/** 自動調整時的延遲目標 in milliseconds, 0 表示不依延遲調整. */
+	protected long latency_target = 0;
+
+	/** 冪等方法最多重試次數. */
+	protected int max_retries = 3;
+	/** 重試等待的基本時間 in milliseconds. */
+	protected long backoff = 200;
+	/** 重試等待的最長時間 in milliseconds. */
+	protected long max_backoff = 30000;
+
+	/** 各主機的 limiter. */
+	protected final ConcurrentHashMap<String, HostLimiter> limiters = new ConcurrentHashMap<String, HostLimiter>();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param rate           每秒請求數上限
+	 * @param burst          可瞬間送出的請求數
+	 * @param max_concurrent 每個主機同時連線數上限
+	 */
+	public HttpThrottle(double rate, int burst, int max_concurrent) {
+		if (rate <= 0 || burst < 1 || max_concurrent < 1)
+			throw new IllegalArgumentException("rate, burst, max_concurrent 必須大於 0");
+		this.rate = rate;
+		this.burst = burst;
+		this.max_concurrent = max_concurrent;
+	}
+
+	/**
+	 * 設定是否依延遲與錯誤自動調整速率 (AIMD).
+	 * 成功時每秒約增加 1 個請求，錯誤、被限流或超過延遲目標時速率減半，最高不超過原設定.
+	 *
+	 * @param adaptive       是否自動調整
+	 * @param min_rate       最低速率
+	 * @param latency_target 延遲目標 in milliseconds, 0 表示只依錯誤調整
+	 */
+	public void setAdaptive(boolean adaptive, double min_rate, long latency_target) {
+		this.adaptive = adaptive;
+		this.min_rate = min_rate;
+		this.latency_target = latency_target;
+	}
+
+	/**
+	 * 設定重試.
+	 *
+	 * @param max_retries 冪等方法最多重試次數
+	 * @param backoff     重試等待的基本時間 in milliseconds, 每次加倍
+	 * @param max_backoff 重試等待的最長時間 in milliseconds
+	 */
+	public void setRetry(int max_retries, long backoff, long max_backoff) {
+		this.max_retries = max_retries;
+		this.backoff = backoff;
+		this.max_backoff = max_backoff;
+	}
+
+	/**
+	 * 取得冪等方法最多重試次數.
+	 *
+	 * @return 最多重試次數
+	 */
+	public int getMaxRetries() {
+		return max_retries;
+	}
+
+	/**
+	 * 計算第幾次重試的等待時間 (exponential backoff with full jitter).
+	 *
+	 * @param attempt 第幾次重試, 從 0 開始
+	 * @return 等待時間 in milliseconds
+	 */
+	public long backoff(int attempt) {
+		long cap = Math.min(max_backoff, backoff << Math.min(attempt, 20));
+		return cap / 2 + (long)(Math.random() * (cap / 2));
+	}
+
+	/**
+	 * 取得主機的 limiter.
+	 *
+	 * @param host 主機名稱
+	 * @return 該主機的 limiter
+	 */
+	public HostLimiter limiter(String host) {
+		HostLimiter l = limiters.get(host);
+		if (l == null) {
+			HostLimiter created = new HostLimiter();
+			l = limiters.putIfAbsent(host, created);
+			if (l == null)
+				l = created;
+		}
+		return l;
+	}
+
+	/**
+	 * 取得主機目前的速率.
+	 *
+	 * @param host 主機名稱
+	 * @return 每秒請求數
+	 */
+	public double getRate(String host) {
+		return limiter(host).getRate();
+	}
+
+	/**
+	 * 判斷是否為冪等方法, 只有冪等方法會自動重試.
+	 *
+	 * @param method request 方法
+	 * @return 是否為冪等方法
+	 */
+	public static boolean isIdempotent(String method) {
+		return "GET".equals(method) || "HEAD".equals(method) || "PUT".equals(method)
+				|| "DELETE".equals(method) || "OPTIONS".equals(method) || "TRACE".equals(method);
+	}
+
+	/**
+	 * 解析 Retry-After header, 可為秒數或 HTTP-date.
+	 *
+	 * @param value header 值
+	 * @return 等待時間 in milliseconds, 無法解析時回傳 -1
+	 */
+	public static long parseRetryAfter(String value) {
+		if (value == null)
+			return -1;
+		value = value.trim();
+		try {
+			return Math.max(0, Long.parseLong(value) * 1000);
+		} catch (NumberFormatException e) {
+			SimpleDateFormat fmt = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+			try {
+				return Math.max(0, fmt.parse(value).getTime() - System.currentTimeMillis());
+			} catch (ParseException pe) {
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * 等待一段時間.
+	 *
+	 * @param ms 等待時間 in milliseconds
+	 * @throws InterruptedIOException 等待時被中斷
+	 */
+	static void sleep(long ms) throws InterruptedIOException {
+		if (ms <= 0)
+			return;
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("等待時被中斷");
+		}
+	}
+
+	/** 單一主機的 token bucket 與同時連線數限制. */
+	public class HostLimiter {
+		/** 同時連線數限制. */
+		protected final Semaphore permits = new Semaphore(max_concurrent, true);
+		/** 目前速率. */
+		protected double current_rate = rate;
+		/** 剩餘 token, 可為負值 (代表已預約的請求). */
+		protected double tokens = burst;
+		/** 上次補充 token 的時間 in nanoseconds. */
+		protected long last_refill = System.nanoTime();
+		/** 上次降速的時間 in nanoseconds. */
+		protected long last_decrease = 0;
+
+		/**
+		 * 取得送出請求的許可, 必要時等待.
+		 * 先預約 token 並等到可以送出, 再取得連線許可, 等待速率限制的 thread 不會佔用連線數.
+		 * 取得後必須呼叫 {@link #release(long, boolean)}.
+		 *
+		 * @throws InterruptedIOException 等待時被中斷
+		 */
+		public void acquire() throws InterruptedIOException {
+			sleep(reserve());
+
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("等待連線許可時被中斷");
+			}
+		}
+
+		/**
+		 * 預約一個 token.
+		 *
+		 * @return 需要等待的時間 in milliseconds
+		 */
+		protected synchronized long reserve() {
+			long now = System.nanoTime();
+			if (now > last_refill) {		// last_refill 在 Retry-After 期間會在未來
+				tokens = Math.min(burst, tokens + (now - last_refill) / 1e9 * current_rate);
+				last_refill = now;
+			}
+			tokens -= 1;
+
+			double wait = (last_refill - now) / 1e6;	// Retry-After 剩餘的暫停時間
+			if (tokens < 0)
+				wait -= tokens / current_rate * 1000;
+			return (long) Math.ceil(wait);
+		}
+
+		/**
+		 * 請求完成, 歸還連線許可並更新速率.
+		 *
+		 * @param nanos   請求花費時間 in nanoseconds
+		 * @param success 是否成功
+		 */
+		public void release(long nanos, boolean success) {
+			permits.release();
+			if (!adaptive)
+				return;
+			if (!success || (latency_target > 0 && nanos / 1000000 > latency_target))
+				decrease();
+			else
+				increase();
+		}
+
+		/**
+		 * 收到 429/503, 在指定時間內暫停送出請求.
+		 *
+		 * @param delay 暫停時間 in milliseconds
+		 */
+		public synchronized void throttled(long delay) {
+			long until = System.nanoTime() + delay * 1000000;
+			if (until > last_refill) {
+				last_refill = until;		// 暫停期間不補充 token, 避免恢復後瞬間湧入
+				tokens = Math.min(tokens, 1);
+			}
+			if (adaptive)
+				decrease();
+		}
+
+		/** 加法增加速率. */
+		protected synchronized void increase() {
+			current_rate = Math.min(rate, current_rate + 1.0 / current_rate);
+		}
+
+		/** 乘法減少速率, 同一波錯誤只減一次 (每秒最多一次). */
+		protected synchronized void decrease() {
+			long now = System.nanoTime();
+			if (last_decrease != 0 && now - last_decrease < 1000000000L)
+				return;
+			last_decrease = now;
+			current_rate = Math.max(min_rate, current_rate / 2);
+		}
+
+		/**
+		 * 取得目前速率.
+		 *
+		 * @return 每秒請求數
+		 */
+		public synchronized double getRate() {
+			return current_rate;
+		}
+
+		/**
+		 * 取得目前進行中的請求數.
+		 *
+		 * @return 進行中的請求數
+		 */
+		public int getInFlight() {
+			return max_concurrent - permits.availablePermits();
+		}
+	}
+}
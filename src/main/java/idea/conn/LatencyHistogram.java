@@ -0,0 +1,165 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.conn;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * 無鎖的延遲直方圖, 單位為 microseconds.
+ * 16 以下每個值一格，之後每個 2 的次方分成 8 格，相對誤差小於 12.5%.
+ *
+ * @author Miles Chen
+ */
+public class LatencyHistogram {
+	/** 每個 2 的次方分成幾格的位元數. */
+	protected static final int SUB_BITS = 3;
+	/** 線性區間的格數. */
+	protected static final int LINEAR = 16;
+	/** 總格數. */
+	protected static final int BUCKETS = LINEAR + (64 - 4) * (1 << SUB_BITS);
+
+	protected final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	protected final AtomicLong count = new AtomicLong();
+	protected final AtomicLong sum = new AtomicLong();
+	protected final AtomicLong max = new AtomicLong();
+
+	/**
+	 * 記錄一個值.
+	 *
+	 * @param nanos 時間 in nanoseconds
+	 */
+	public void record(long nanos) {
+		long us = Math.max(0, nanos / 1000);
+		counts.incrementAndGet(index(us));
+		count.incrementAndGet();
+		sum.addAndGet(us);
+
+		long m;
+		while (us > (m = max.get()) && !max.compareAndSet(m, us))
+			;
+	}
+
+	/** 歸零. */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++)
+			counts.set(i, 0);
+		count.set(0);
+		sum.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * 取得目前的統計結果.
+	 *
+	 * @return 統計結果
+	 */
+	public Snapshot snapshot() {
+		long[] c = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			c[i] = counts.get(i);
+			n += c[i];
+		}
+		return new Snapshot(c, n, sum.get(), max.get());
+	}
+
+	/**
+	 * 計算值所在的格子.
+	 *
+	 * @param us 值 in microseconds
+	 * @return 格子位置
+	 */
+	protected static int index(long us) {
+		if (us < LINEAR)
+			return (int) us;
+		int e = 63 - Long.numberOfLeadingZeros(us);		// e >= 4
+		int sub = (int)(us >>> (e - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+		return LINEAR + ((e - 4) << SUB_BITS) + sub;
+	}
+
+	/**
+	 * 計算格子代表的值 (格子的中間值).
+	 *
+	 * @param idx 格子位置
+	 * @return 值 in microseconds
+	 */
+	protected static long value(int idx) {
+		if (idx < LINEAR)
+			return idx;
+		int e = ((idx - LINEAR) >> SUB_BITS) + 4;
+		int sub = (idx - LINEAR) & ((1 << SUB_BITS) - 1);
+		long low = (1L << e) + ((long) sub << (e - SUB_BITS));
+		return low + (1L << (e - SUB_BITS)) / 2;
+	}
+
+	/** 直方圖的統計結果. */
+	public static class Snapshot {
+		protected final long[] counts;
+		protected final long count;
+		protected final long sum;
+		protected final long max;
+
+		protected Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		/**
+		 * 取得樣本數.
+		 *
+		 * @return 樣本數
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		/**
+		 * 取得平均值.
+		 *
+		 * @return 平均值 in milliseconds
+		 */
+		public double getMean() {
+			return (count == 0)? 0 : (double) sum / count / 1000;
+		}
+
+		/**
+		 * 取得最大值.
+		 *
+		 * @return 最大值 in milliseconds
+		 */
+		public double getMax() {
+			return max / 1000.0;
+		}
+
+		/**
+		 * 取得百分位數.
+		 *
+		 * @param p 百分位數, 例: 0.99
+		 * @return 百分位數 in milliseconds
+		 */
+		public double getPercentile(double p) {
+			if (count == 0)
+				return 0;
+			long rank = (long) Math.ceil(p * count);
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank && counts[i] > 0)
+					return Math.min(value(i), max) / 1000.0;
+			}
+			return max / 1000.0;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("n=%d mean=%.3fms p50=%.3fms p99=%.3fms max=%.3fms",
+					count, getMean(), getPercentile(0.5), getPercentile(0.99), getMax());
+		}
+	}
+}
@@ -19,6 +19,10 @@ import com.jcraft.jsch.*;
 public class SSH {
 	protected JSch jsch = null;
 	protected Session session = null;
+	/** 共用的 session 管理, null 表示每次 tunnel 都建立新的 session. */
+	protected SSHSessionManager manager = null;
+	/** 共用 session 上開啟的 localhost port. */
+	protected int assigned_port = -1;
 
 	/** SSH id. */
 	protected String user;
@@ -91,6 +95,16 @@ public class SSH {
 		this.rport = rport;
 	}
 
+	/**
+	 * 設定共用的 session 管理.
+	 * 設定後 tunnel 會共用同一主機的 session，並由管理者負責 keepalive 與自動重連.
+	 *
+	 * @param manager session 管理, null 表示每次 tunnel 都建立新的 session
+	 */
+	public void setSessionManager(SSHSessionManager manager) {
+		this.manager = manager;
+	}
+
 	/**
 	 * 開啟 tunnel.
 	 *
@@ -98,6 +112,11 @@ public class SSH {
 	 * @throws JSchException 連線錯誤
 	 */
 	public int tunnel() throws JSchException {
+		if (manager != null) {
+			assigned_port = manager.forward(user, host, port, pw, lport, rhost, rport);
+			return assigned_port;
+		}
+
 		jsch = new JSch();
 
 		session = jsch.getSession(user, host, port);
@@ -111,8 +130,14 @@ public class SSH {
 		return assinged_port;
 	}
 
-	/** 關閉連線. */
+	/** 關閉連線. 使用共用 session 時只關閉此 tunnel 的 port forwarding, session 已不存在時不會重新建立. */
 	public void close() {
+		if (manager != null && assigned_port >= 0) {
+			SSHSessionManager.ManagedSession ms = manager.find(user, host, port);
+			if (ms != null)
+				ms.removeForward(assigned_port);
+			assigned_port = -1;
+		}
 		if (session != null)
 			session.disconnect();
 	}
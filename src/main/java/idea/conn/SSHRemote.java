@@ -0,0 +1,436 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.conn;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.jcraft.jsch.*;
+
+/**
+ * 在 SSH session 上執行遠端指令與 SFTP 傳檔.
+ * 與 tunnel 共用 {@link SSHSessionManager} 的 session，不另外建立連線；
+ * 多台主機時以固定大小的 thread pool 平行處理，並記錄每台主機的時間與傳輸速率.
+ * SFTP 使用 pipelined requests (一次送出多個 read/write request 再等回應)，
+ * 高延遲的網路上不會每個 block 都等一次 round trip.
+ *
+ * @author Miles Chen
+ */
+public class SSHRemote {
+	/** 共用的 session 管理. */
+	protected final SSHSessionManager manager;
+	/** 同時處理的主機數. */
+	protected int parallelism = 8;
+	/** SFTP 同時送出的 request 數. */
+	protected int bulk_requests = 64;
+	/** 本地檔案的 buffer 大小 in bytes. */
+	protected int buffer_size = 256 * 1024;
+	/** 指令執行的 timeout in milliseconds, 0 表示不限制. */
+	protected long timeout = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param manager 共用的 session 管理
+	 */
+	public SSHRemote(SSHSessionManager manager) {
+		this.manager = manager;
+	}
+
+	/**
+	 * 設定同時處理的主機數.
+	 *
+	 * @param parallelism 同時處理的主機數
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * 設定 SFTP 傳輸參數.
+	 *
+	 * @param bulk_requests 同時送出的 request 數, 越大越能填滿高延遲的網路
+	 * @param buffer_size   本地檔案的 buffer 大小 in bytes
+	 */
+	public void setTransfer(int bulk_requests, int buffer_size) {
+		this.bulk_requests = Math.max(1, bulk_requests);
+		this.buffer_size = Math.max(8192, buffer_size);
+	}
+
+	/**
+	 * 設定指令執行的 timeout.
+	 *
+	 * @param timeout timeout in milliseconds, 0 表示不限制
+	 */
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * 取得主機的 session.
+	 *
+	 * @param ssh 主機連線資訊
+	 * @return 已連線的 session
+	 * @throws JSchException 連線錯誤
+	 */
+	protected Session session(SSH ssh) throws JSchException {
+		return manager.session(ssh.user, ssh.host, ssh.port, ssh.pw).get();
+	}
+
+	/**
+	 * 執行遠端指令.
+	 *
+	 * @param ssh     主機連線資訊
+	 * @param command 指令
+	 * @return 執行結果, exit status 與 stdout, stderr
+	 * @throws JSchException 連線錯誤或執行逾時
+	 * @throws IOException   讀取輸出錯誤
+	 */
+	public Result exec(SSH ssh, String command) throws JSchException, IOException {
+		Result r = new Result(ssh.host);
+		long start = System.nanoTime();
+		ChannelExec ch = (ChannelExec) session(ssh).openChannel("exec");
+		try {
+			ch.setCommand(command);
+			ByteArrayOutputStream err = new ByteArrayOutputStream();
+			ch.setErrStream(err);		// stderr 直接寫入, 不會因為沒人讀而卡住 stdout
+			InputStream in = ch.getInputStream();
+			ch.connect();
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[8192];
+			while (true) {		// 以 available() 輪詢, 沒有輸出的指令也能檢查 timeout
+				while (in.available() > 0) {
+					int n = in.read(buf);
+					if (n < 0)
+						break;
+					out.write(buf, 0, n);
+				}
+				if (ch.isClosed()) {	// exit status 到達後仍可能有未讀完的輸出
+					if (in.available() > 0)
+						continue;
+					break;
+				}
+				if (timeout > 0 && System.nanoTime() - start > timeout * 1000000L)
+					throw new JSchException("執行逾時: " + command);
+				try {
+					Thread.sleep(10);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new JSchException("執行中斷: " + command);
+				}
+			}
+
+			r.exit_status = ch.getExitStatus();
+			r.stdout = out.toString("UTF-8");
+			r.stderr = err.toString("UTF-8");
+			r.bytes = out.size() + err.size();
+		} finally {
+			ch.disconnect();
+		}
+		r.nanos = System.nanoTime() - start;
+		return r;
+	}
+
+	/**
+	 * 上傳檔案.
+	 *
+	 * @param ssh    主機連線資訊
+	 * @param local  本地檔案
+	 * @param remote 遠端路徑
+	 * @return 傳輸結果, 包含 bytes 與時間
+	 * @throws JSchException 連線錯誤
+	 * @throws SftpException 遠端檔案錯誤
+	 * @throws IOException   本地檔案錯誤
+	 */
+	public Result upload(SSH ssh, File local, String remote) throws JSchException, SftpException, IOException {
+		Result r = new Result(ssh.host);
+		long start = System.nanoTime();
+		ChannelSftp sftp = sftp(ssh);
+		try {
+			InputStream in = new BufferedInputStream(new FileInputStream(local), buffer_size);
+			try {
+				sftp.put(in, remote, ChannelSftp.OVERWRITE);
+				r.bytes = local.length();
+			} finally {
+				in.close();
+			}
+		} finally {
+			sftp.disconnect();		// 本地檔案錯誤時也要關閉共用 session 上的 channel
+		}
+		r.nanos = System.nanoTime() - start;
+		return r;
+	}
+
+	/**
+	 * 下載檔案.
+	 *
+	 * @param ssh    主機連線資訊
+	 * @param remote 遠端路徑
+	 * @param local  本地檔案
+	 * @return 傳輸結果, 包含 bytes 與時間
+	 * @throws JSchException 連線錯誤
+	 * @throws SftpException 遠端檔案錯誤
+	 * @throws IOException   本地檔案錯誤
+	 */
+	public Result download(SSH ssh, String remote, File local) throws JSchException, SftpException, IOException {
+		Result r = new Result(ssh.host);
+		long start = System.nanoTime();
+		ChannelSftp sftp = sftp(ssh);
+		try {
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(local), buffer_size);
+			try {
+				sftp.get(remote, out);
+				out.flush();
+				r.bytes = local.length();
+			} finally {
+				out.close();
+			}
+		} finally {
+			sftp.disconnect();
+		}
+		r.nanos = System.nanoTime() - start;
+		return r;
+	}
+
+	/**
+	 * 開啟 SFTP channel.
+	 *
+	 * @param ssh 主機連線資訊
+	 * @return 已連線的 SFTP channel
+	 * @throws JSchException 連線錯誤
+	 */
+	protected ChannelSftp sftp(SSH ssh) throws JSchException {
+		ChannelSftp sftp = (ChannelSftp) session(ssh).openChannel("sftp");
+		sftp.connect();
+		sftp.setBulkRequests(bulk_requests);
+		return sftp;
+	}
+
+	/**
+	 * 在多台主機平行執行同一個指令.
+	 *
+	 * @param hosts   主機連線資訊
+	 * @param command 指令
+	 * @return 各主機的執行結果, 順序與 hosts 相同; 失敗的主機記錄在 {@link Result#getError()}
+	 */
+	public List<Result> execAll(List<SSH> hosts, final String command) {
+		return all(hosts, new Task() {
+			public Result run(SSH ssh) throws Exception {
+				return exec(ssh, command);
+			}
+		});
+	}
+
+	/**
+	 * 將同一個檔案平行上傳到多台主機.
+	 *
+	 * @param hosts  主機連線資訊
+	 * @param local  本地檔案
+	 * @param remote 遠端路徑
+	 * @return 各主機的傳輸結果, 順序與 hosts 相同; 失敗的主機記錄在 {@link Result#getError()}
+	 */
+	public List<Result> uploadAll(List<SSH> hosts, final File local, final String remote) {
+		return all(hosts, new Task() {
+			public Result run(SSH ssh) throws Exception {
+				return upload(ssh, local, remote);
+			}
+		});
+	}
+
+	/**
+	 * 從多台主機平行下載同一路徑的檔案, 存成 dir/host 檔名.
+	 *
+	 * @param hosts  主機連線資訊
+	 * @param remote 遠端路徑
+	 * @param dir    本地目錄
+	 * @return 各主機的傳輸結果, 順序與 hosts 相同; 失敗的主機記錄在 {@link Result#getError()}
+	 */
+	public List<Result> downloadAll(List<SSH> hosts, final String remote, final File dir) {
+		return all(hosts, new Task() {
+			public Result run(SSH ssh) throws Exception {
+				return download(ssh, remote, new File(dir, ssh.host + "_" + new File(remote).getName()));
+			}
+		});
+	}
+
+	/** 對單一主機的動作. */
+	protected interface Task {
+		Result run(SSH ssh) throws Exception;
+	}
+
+	/**
+	 * 以最多 parallelism 個 thread 對所有主機執行動作.
+	 * 單一主機失敗不影響其他主機. 等待中被中斷時不再等待尚未完成的主機, 其結果記錄 InterruptedException,
+	 * 並保留 thread 的中斷狀態.
+	 *
+	 * @param hosts 主機連線資訊
+	 * @param task  動作
+	 * @return 各主機的結果, 順序與 hosts 相同
+	 */
+	protected List<Result> all(List<SSH> hosts, final Task task) {
+		List<Result> results = new ArrayList<Result>(hosts.size());
+		if (hosts.isEmpty())
+			return results;
+
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, hosts.size()), new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "idea-ssh-remote");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		try {
+			List<Future<Result>> futures = new ArrayList<Future<Result>>(hosts.size());
+			for (final SSH ssh : hosts)
+				futures.add(pool.submit(new Callable<Result>() {
+					public Result call() {
+						long start = System.nanoTime();
+						try {
+							return task.run(ssh);
+						} catch (Exception e) {
+							Result r = new Result(ssh.host);
+							r.error = e;
+							r.nanos = System.nanoTime() - start;
+							return r;
+						}
+					}
+				}));
+
+			InterruptedException interrupted = null;
+			for (int i = 0; i < futures.size(); i++) {
+				Future<Result> f = futures.get(i);
+				if (interrupted != null && !f.isDone()) {
+					Result r = new Result(hosts.get(i).host);
+					r.error = interrupted;
+					results.add(r);
+					continue;
+				}
+				try {
+					results.add(f.get());
+				} catch (InterruptedException e) {
+					interrupted = e;
+					i--;		// 重新處理這台主機, 已完成時仍取得結果
+				} catch (ExecutionException e) {
+					throw new RuntimeException(e.getCause());	// call() 不會丟出 exception
+				}
+			}
+			if (interrupted != null)
+				Thread.currentThread().interrupt();
+		} finally {
+			pool.shutdownNow();
+		}
+		return results;
+	}
+
+	/** 單一主機的執行或傳輸結果. */
+	public static class Result {
+		protected final String host;
+		protected int exit_status = -1;
+		protected String stdout = null;
+		protected String stderr = null;
+		/** 輸出或傳輸的 bytes. */
+		protected long bytes = 0;
+		/** 花費時間 in nanoseconds. */
+		protected long nanos = 0;
+		/** 失敗原因, 成功時為 null. */
+		protected Exception error = null;
+
+		protected Result(String host) {
+			this.host = host;
+		}
+
+		/**
+		 * 取得主機.
+		 *
+		 * @return 主機
+		 */
+		public String getHost() {
+			return host;
+		}
+
+		/**
+		 * 取得指令的 exit status.
+		 *
+		 * @return exit status, 不是執行指令或未完成時為 -1
+		 */
+		public int getExitStatus() {
+			return exit_status;
+		}
+
+		/**
+		 * 取得 stdout.
+		 *
+		 * @return stdout, 不是執行指令時為 null
+		 */
+		public String getStdout() {
+			return stdout;
+		}
+
+		/**
+		 * 取得 stderr.
+		 *
+		 * @return stderr, 不是執行指令時為 null
+		 */
+		public String getStderr() {
+			return stderr;
+		}
+
+		/**
+		 * 取得輸出或傳輸的 bytes.
+		 *
+		 * @return bytes
+		 */
+		public long getBytes() {
+			return bytes;
+		}
+
+		/**
+		 * 取得花費時間.
+		 *
+		 * @return 時間 in milliseconds
+		 */
+		public double getMillis() {
+			return nanos / 1e6;
+		}
+
+		/**
+		 * 取得傳輸速率.
+		 *
+		 * @return 速率 in MB/s
+		 */
+		public double getRate() {
+			return (nanos > 0)? bytes / (nanos / 1e9) / (1024 * 1024) : 0;
+		}
+
+		/**
+		 * 取得失敗原因.
+		 *
+		 * @return 失敗原因, 成功時為 null
+		 */
+		public Exception getError() {
+			return error;
+		}
+
+		/**
+		 * 是否成功. 指令必須回傳 exit status 0.
+		 *
+		 * @return 是否成功
+		 */
+		public boolean isSuccess() {
+			return error == null && (stdout == null || exit_status == 0);
+		}
+
+		@Override
+		public String toString() {
+			if (error != null)
+				return host + ": " + error;
+			return String.format("%s: exit=%d, %d bytes, %.1f ms, %.2f MB/s", host, exit_status, bytes, getMillis(), getRate());
+		}
+	}
+}
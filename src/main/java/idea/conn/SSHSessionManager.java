@@ -0,0 +1,360 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.conn;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.jcraft.jsch.*;
+
+/**
+ * 管理長時間使用的 SSH session.
+ * 每個 (user, host, port) 只建立一個 session，多個 local port forwarding 共用同一個 session；
+ * 定時送出 keepalive，session 中斷時以 exponential backoff 自動重連並重建所有 port forwarding.
+ * 可由多個 thread 共用.
+ *
+ * @author Miles Chen
+ */
+public class SSHSessionManager {
+	/** Keepalive 間隔 in milliseconds. */
+	protected int keepalive = 15000;
+	/** 幾次 keepalive 沒有回應視為中斷. */
+	protected int keepalive_count_max = 3;
+	/** Connect timeout in milliseconds. */
+	protected int connect_timeout = 30000;
+	/** 重連等待的基本時間 in milliseconds. */
+	protected long backoff = 1000;
+	/** 重連等待的最長時間 in milliseconds. */
+	protected long max_backoff = 60000;
+
+	/** 各 (user, host, port) 的 session. */
+	protected final ConcurrentHashMap<String, ManagedSession> sessions = new ConcurrentHashMap<String, ManagedSession>();
+	/** 檢查 session 狀態的 thread. */
+	protected ScheduledExecutorService monitor = null;
+
+	/**
+	 * 設定 keepalive.
+	 *
+	 * @param interval  keepalive 間隔 in milliseconds
+	 * @param count_max 幾次 keepalive 沒有回應視為中斷
+	 */
+	public void setKeepAlive(int interval, int count_max) {
+		this.keepalive = interval;
+		this.keepalive_count_max = count_max;
+	}
+
+	/**
+	 * 設定重連等待時間.
+	 *
+	 * @param backoff     基本時間 in milliseconds, 每次失敗加倍
+	 * @param max_backoff 最長時間 in milliseconds
+	 */
+	public void setBackoff(long backoff, long max_backoff) {
+		this.backoff = backoff;
+		this.max_backoff = max_backoff;
+	}
+
+	/**
+	 * 設定 connect timeout.
+	 *
+	 * @param timeout connect timeout in milliseconds
+	 */
+	public void setConnectTimeout(int timeout) {
+		this.connect_timeout = timeout;
+	}
+
+	/**
+	 * 取得 (user, host, port) 的 session, 不存在時建立 (尚未連線).
+	 *
+	 * @param user SSH id
+	 * @param host SSH server
+	 * @param port SSH port
+	 * @param pw   SSH password
+	 * @return 管理中的 session
+	 */
+	public ManagedSession session(String user, String host, int port, String pw) {
+		String key = key(user, host, port);
+		ManagedSession s = sessions.get(key);
+		if (s == null) {
+			ManagedSession created = new ManagedSession(key, user, host, port, pw);
+			s = sessions.putIfAbsent(key, created);
+			if (s == null) {
+				s = created;
+				startMonitor();
+			}
+		}
+		return s;
+	}
+
+	/**
+	 * 取得 (user, host, port) 已存在的 session, 不會建立新的 session.
+	 *
+	 * @param user SSH id
+	 * @param host SSH server
+	 * @param port SSH port
+	 * @return 管理中的 session, 不存在 (或已 {@link #close()}) 時為 null
+	 */
+	public ManagedSession find(String user, String host, int port) {
+		return sessions.get(key(user, host, port));
+	}
+
+	/**
+	 * 產生 session 的 key.
+	 *
+	 * @param user SSH id
+	 * @param host SSH server
+	 * @param port SSH port
+	 * @return key
+	 */
+	protected static String key(String user, String host, int port) {
+		return user + "@" + host + ":" + port;
+	}
+
+	/**
+	 * 在共用的 session 上開啟 local port forwarding.
+	 *
+	 * @param user  SSH id
+	 * @param host  SSH server
+	 * @param port  SSH port
+	 * @param pw    SSH password
+	 * @param lport localhost port, 0 表示自動指定
+	 * @param rhost remote host
+	 * @param rport remote port
+	 * @return 實際使用的 localhost port
+	 * @throws JSchException 連線錯誤
+	 */
+	public int forward(String user, String host, int port, String pw, int lport, String rhost, int rport) throws JSchException {
+		return session(user, host, port, pw).forwardL(lport, rhost, rport);
+	}
+
+	/** 關閉所有 session 與檢查 thread. */
+	public synchronized void close() {
+		if (monitor != null) {
+			monitor.shutdownNow();
+			monitor = null;
+		}
+		for (ManagedSession s : sessions.values())
+			s.close();
+		sessions.clear();
+	}
+
+	/** 啟動定時檢查 session 的 thread. */
+	protected synchronized void startMonitor() {
+		if (monitor != null)
+			return;
+		monitor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "idea-ssh-monitor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		monitor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				for (ManagedSession s : sessions.values())
+					s.check();
+			}
+		}, keepalive, keepalive, TimeUnit.MILLISECONDS);
+	}
+
+	/** 單一 local port forwarding 設定. */
+	protected static class Forward {
+		protected int lport;
+		protected final String rhost;
+		protected final int rport;
+		/** 使用中的數量, 歸零時才關閉. */
+		protected int refs = 1;
+
+		protected Forward(int lport, String rhost, int rport) {
+			this.lport = lport;
+			this.rhost = rhost;
+			this.rport = rport;
+		}
+	}
+
+	/** 管理中的 session, 所有操作都是 synchronized. */
+	public class ManagedSession {
+		protected final String key;
+		protected final String user;
+		protected final String host;
+		protected final int port;
+		protected final String pw;
+
+		protected Session session = null;
+		protected final List<Forward> forwards = new ArrayList<Forward>();
+		/** 是否有人使用過, 用過的 session 中斷時才自動重連. */
+		protected boolean used = false;
+		protected boolean closed = false;
+		/** 連續重連失敗次數. */
+		protected int failures = 0;
+		/** 下次可以重連的時間 in milliseconds. */
+		protected long next_attempt = 0;
+		/** 是否曾經連線成功. */
+		protected boolean connected_once = false;
+		/** 重連次數. */
+		protected int reconnects = 0;
+
+		protected ManagedSession(String key, String user, String host, int port, String pw) {
+			this.key = key;
+			this.user = user;
+			this.host = host;
+			this.port = port;
+			this.pw = pw;
+		}
+
+		/**
+		 * 取得已連線的 session, 中斷時重新連線.
+		 *
+		 * @return 已連線的 session
+		 * @throws JSchException 連線錯誤
+		 */
+		public synchronized Session get() throws JSchException {
+			if (closed)
+				throw new JSchException("session 已關閉: " + key);
+			used = true;
+			if (session == null || !session.isConnected())
+				reconnect();
+			return session;
+		}
+
+		/**
+		 * 開啟 local port forwarding, 相同設定已存在時直接回傳並增加使用數.
+		 * 每次呼叫都必須對應一次 {@link #removeForward(int)}.
+		 *
+		 * @param lport localhost port, 0 表示自動指定
+		 * @param rhost remote host
+		 * @param rport remote port
+		 * @return 實際使用的 localhost port
+		 * @throws JSchException 連線錯誤
+		 */
+		public synchronized int forwardL(int lport, String rhost, int rport) throws JSchException {
+			Session s = get();
+			for (Forward f : forwards)
+				if ((lport == 0 || f.lport == lport) && f.rhost.equals(rhost) && f.rport == rport) {
+					f.refs++;
+					return f.lport;
+				}
+
+			Forward f = new Forward(lport, rhost, rport);
+			f.lport = s.setPortForwardingL(lport, rhost, rport);
+			forwards.add(f);
+			return f.lport;
+		}
+
+		/**
+		 * 釋放 local port forwarding, 最後一個使用者釋放時才關閉.
+		 *
+		 * @param lport localhost port
+		 */
+		public synchronized void removeForward(int lport) {
+			for (Iterator<Forward> it = forwards.iterator(); it.hasNext(); ) {
+				Forward f = it.next();
+				if (f.lport == lport && --f.refs <= 0) {
+					it.remove();
+					try {
+						if (session != null && session.isConnected())
+							session.delPortForwardingL(lport);
+					} catch (JSchException e) {
+						// session 已中斷, 不需處理
+					}
+				}
+			}
+		}
+
+		/**
+		 * 重新連線並重建所有 port forwarding.
+		 * 自動指定的 port 重連後沿用原本的 port, 使用者不需改設定.
+		 *
+		 * @throws JSchException 連線錯誤
+		 */
+		public synchronized void reconnect() throws JSchException {
+			if (session != null)
+				session.disconnect();
+			session = null;
+
+			Session s = null;
+			try {
+				JSch jsch = new JSch();
+				s = jsch.getSession(user, host, port);
+				s.setPassword(pw);
+				s.setConfig("StrictHostKeyChecking", "no");
+				s.setServerAliveInterval(keepalive);
+				s.setServerAliveCountMax(keepalive_count_max);
+				s.connect(connect_timeout);
+
+				for (Forward f : forwards)
+					s.setPortForwardingL(f.lport, f.rhost, f.rport);
+
+				session = s;
+				if (connected_once)
+					reconnects++;
+				connected_once = true;
+				failures = 0;
+				next_attempt = 0;
+			} catch (JSchException e) {
+				if (s != null)
+					s.disconnect();		// 連上但 port forwarding 失敗時不留下 session
+				failures++;
+				next_attempt = System.currentTimeMillis() + Math.min(max_backoff, backoff << Math.min(failures - 1, 20));
+				throw e;
+			}
+		}
+
+		/** 由檢查 thread 呼叫, 中斷時依 backoff 重連. */
+		protected synchronized void check() {
+			if (closed || !used || (session != null && session.isConnected()))
+				return;
+			if (System.currentTimeMillis() < next_attempt)
+				return;
+			try {
+				reconnect();
+			} catch (JSchException e) {
+				// 下次檢查再試
+			}
+		}
+
+		/**
+		 * 是否已連線.
+		 *
+		 * @return 是否已連線
+		 */
+		public synchronized boolean isConnected() {
+			return session != null && session.isConnected();
+		}
+
+		/**
+		 * 取得 local port forwarding 的使用數.
+		 *
+		 * @param lport localhost port
+		 * @return 使用數, 不存在時為 0
+		 */
+		public synchronized int getForwardRefs(int lport) {
+			for (Forward f : forwards)
+				if (f.lport == lport)
+					return f.refs;
+			return 0;
+		}
+
+		/**
+		 * 取得重連次數.
+		 *
+		 * @return 重連次數
+		 */
+		public synchronized int getReconnects() {
+			return reconnects;
+		}
+
+		/** 關閉 session. */
+		public synchronized void close() {
+			closed = true;
+			forwards.clear();
+			if (session != null)
+				session.disconnect();
+			session = null;
+		}
+	}
+}
@@ -0,0 +1,297 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.conn;
+
+import java.util.concurrent.*;
+
+import com.jcraft.jsch.*;
+
+/**
+ * 監控 SSH tunnel, 中斷時重建 session 與 port forwarding.
+ * 每隔一段時間開啟一個 channel 確認 session 仍可使用 (需要伺服器回應, 單向的 keepalive 在半開的 TCP 連線上也會成功)，
+ * 失敗時在限定時間內重試，並通知 listener (例如 {@link DbConnPool}) 清除經過舊 tunnel 的連線.
+ * 偵測時間最多為檢查間隔加上 probe timeout，恢復時間記錄在 {@link #getLastRecoveryMillis()}.
+ *
+ * @author Miles Chen
+ */
+public class SSHTunnelSupervisor {
+	/** Tunnel 狀態改變的通知. */
+	public interface Listener {
+		/** Tunnel 中斷. */
+		void tunnelDown();
+
+		/**
+		 * Tunnel 已恢復.
+		 *
+		 * @param recovery_ms 從偵測到中斷到恢復的時間 in milliseconds
+		 */
+		void tunnelRecovered(long recovery_ms);
+	}
+
+	/** 監控的 tunnel 設定. */
+	protected final SSH ssh;
+	/** 共用的 session 管理. */
+	protected final SSHSessionManager manager;
+	/** Session 管理是否由此建立, 是時 {@link #stop()} 一起關閉. */
+	protected final boolean own_manager;
+	/** 檢查間隔 in milliseconds. */
+	protected long check_interval = 2000;
+	/** 重試間隔 in milliseconds. */
+	protected long retry_interval = 500;
+	/** 確認 session 時等待伺服器回應的時間 in milliseconds. */
+	protected int probe_timeout = 5000;
+
+	/** Tunnel 使用的 localhost port. */
+	protected int lport = -1;
+	/** 目前是否中斷. */
+	protected volatile boolean down = false;
+	/** 偵測到中斷的時間 in milliseconds. */
+	protected long down_since = 0;
+	/** 上次檢查正常的時間 in milliseconds. */
+	protected long last_ok = 0;
+	/** 上次檢查時的 session, 用來發現由 session 管理自動重連的情況. */
+	protected Session last_session = null;
+	/** 中斷次數. */
+	protected volatile int failures = 0;
+	/** 上次恢復時間 in milliseconds. */
+	protected volatile long last_recovery = -1;
+	/** 最長恢復時間 in milliseconds. */
+	protected volatile long max_recovery = -1;
+
+	protected final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	protected ScheduledExecutorService scheduler = null;
+
+	/**
+	 * Constructor. SSH 沒有設定 session 管理時會建立一個, 並在 {@link #stop()} 時關閉.
+	 *
+	 * @param ssh 已設定 session 與 ports 的 SSH
+	 */
+	public SSHTunnelSupervisor(SSH ssh) {
+		own_manager = (ssh.manager == null);
+		if (own_manager)
+			ssh.setSessionManager(new SSHSessionManager());
+		this.ssh = ssh;
+		this.manager = ssh.manager;
+	}
+
+	/**
+	 * 設定檢查與重試間隔.
+	 *
+	 * @param check_interval 檢查間隔 in milliseconds
+	 * @param retry_interval 中斷後的重試間隔 in milliseconds
+	 */
+	public void setInterval(long check_interval, long retry_interval) {
+		this.check_interval = check_interval;
+		this.retry_interval = retry_interval;
+	}
+
+	/**
+	 * 設定確認 session 時等待伺服器回應的時間.
+	 *
+	 * @param probe_timeout timeout in milliseconds
+	 */
+	public void setProbeTimeout(int probe_timeout) {
+		this.probe_timeout = probe_timeout;
+	}
+
+	/**
+	 * 加入狀態改變的通知.
+	 *
+	 * @param l listener
+	 */
+	public void addListener(Listener l) {
+		listeners.add(l);
+	}
+
+	/**
+	 * 移除狀態改變的通知.
+	 *
+	 * @param l listener
+	 */
+	public void removeListener(Listener l) {
+		listeners.remove(l);
+	}
+
+	/**
+	 * 開啟 tunnel 並開始監控.
+	 *
+	 * @return tunnel 使用的 localhost port
+	 * @throws JSchException 連線錯誤
+	 */
+	public synchronized int start() throws JSchException {
+		lport = ssh.tunnel();
+		last_ok = System.currentTimeMillis();
+		if (scheduler == null) {
+			final ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "idea-ssh-tunnel-" + lport);
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			scheduler = ses;		// stop() 會將 scheduler 設為 null, task 只使用 ses
+			ses.schedule(new Runnable() {
+				public void run() {
+					if (ses.isShutdown())
+						return;		// stop() 後不再重建 tunnel
+					long delay = check() ? check_interval : retry_interval;
+					try {
+						if (!ses.isShutdown())
+							ses.schedule(this, delay, TimeUnit.MILLISECONDS);
+					} catch (RejectedExecutionException e) {
+						// 已停止
+					}
+				}
+			}, check_interval, TimeUnit.MILLISECONDS);
+		}
+		return lport;
+	}
+
+	/** 停止監控並關閉 tunnel. 由此建立的 session 管理一起關閉 (session 與 keepalive thread). */
+	public synchronized void stop() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+		ssh.close();
+		if (own_manager)
+			manager.close();
+	}
+
+	/**
+	 * 檢查 tunnel, 中斷時嘗試重建.
+	 *
+	 * @return tunnel 是否可用
+	 */
+	protected boolean check() {
+		SSHSessionManager.ManagedSession ms = manager.session(ssh.user, ssh.host, ssh.port, ssh.pw);
+		if (!down && alive(ms)) {
+			Session s = current(ms);
+			if (last_session != null && s != last_session) {	// 兩次檢查之間已由 session 管理重連
+				failures++;
+				for (Listener l : listeners)
+					l.tunnelDown();
+				recovered(System.currentTimeMillis() - last_ok);
+			}
+			last_session = s;
+			last_ok = System.currentTimeMillis();
+			return true;
+		}
+
+		if (!down) {
+			down = true;
+			failures++;
+			down_since = System.currentTimeMillis();
+			for (Listener l : listeners)
+				l.tunnelDown();
+		}
+
+		try {
+			ms.get();		// 中斷時重新連線, 並重建所有 port forwarding
+			if (ms.getForwardRefs(lport) == 0)		// 已由重連重建時不再增加使用數
+				ms.forwardL(lport, ssh.rhost, ssh.rport);
+		} catch (JSchException e) {
+			return false;
+		}
+		if (!alive(ms))
+			return false;
+
+		last_session = current(ms);
+		last_ok = System.currentTimeMillis();
+		down = false;
+		recovered(last_ok - down_since);
+		return true;
+	}
+
+	/**
+	 * 記錄恢復時間並通知 listener.
+	 *
+	 * @param recovery 恢復時間 in milliseconds
+	 */
+	protected void recovered(long recovery) {
+		last_recovery = recovery;
+		max_recovery = Math.max(max_recovery, recovery);
+		for (Listener l : listeners)
+			l.tunnelRecovered(recovery);
+	}
+
+	/**
+	 * 取得目前的 session.
+	 *
+	 * @param ms 管理中的 session
+	 * @return 目前的 session
+	 */
+	protected Session current(SSHSessionManager.ManagedSession ms) {
+		synchronized (ms) {
+			return ms.session;
+		}
+	}
+
+	/**
+	 * 開啟並關閉一個 session channel 確認伺服器有回應.
+	 * 不持有 ms 的 lock 等待回應, 其他 thread 在 probe 期間仍可使用 session.
+	 *
+	 * @param ms 管理中的 session
+	 * @return session 是否可用
+	 */
+	protected boolean alive(SSHSessionManager.ManagedSession ms) {
+		Session s = current(ms);
+		if (s == null || !s.isConnected())
+			return false;
+		Channel c = null;
+		try {
+			c = s.openChannel("session");
+			c.connect(probe_timeout);		// 等待 SSH_MSG_CHANNEL_OPEN_CONFIRMATION
+			return true;
+		} catch (JSchException e) {
+			synchronized (ms) {
+				if (ms.session == s)
+					s.disconnect();		// 讓下次 get() 重新連線
+			}
+			return false;
+		} finally {
+			if (c != null)
+				c.disconnect();
+		}
+	}
+
+	/**
+	 * 目前是否中斷.
+	 *
+	 * @return 是否中斷
+	 */
+	public boolean isDown() {
+		return down;
+	}
+
+	/**
+	 * 取得中斷次數.
+	 *
+	 * @return 中斷次數
+	 */
+	public int getFailures() {
+		return failures;
+	}
+
+	/**
+	 * 取得上次從中斷到恢復的時間.
+	 *
+	 * @return 恢復時間 in milliseconds, 沒有中斷過時回傳 -1
+	 */
+	public long getLastRecoveryMillis() {
+		return last_recovery;
+	}
+
+	/**
+	 * 取得最長的恢復時間.
+	 *
+	 * @return 恢復時間 in milliseconds, 沒有中斷過時回傳 -1
+	 */
+	public long getMaxRecoveryMillis() {
+		return max_recovery;
+	}
+}
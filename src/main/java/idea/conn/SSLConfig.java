@@ -0,0 +1,339 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.conn;
+
+import java.io.*;
+import java.net.*;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.*;
+
+/**
+ * 每個 HTTP client 各自的 TLS 設定.
+ * 建立一次 SSLContext 後重複使用，讓 session cache 可以做 session resumption，
+ * 並可設定 protocols、cipher suites 以及是否忽略憑證驗證.
+ * 同一個 SSLConfig 的 socket factory 固定不變，JDK 的 keep-alive cache 才能重用連線.
+ *
+ * @author Miles Chen
+ */
+public class SSLConfig {
+	/** TLS protocol 名稱. */
+	protected String protocol = "TLS";
+	/** 啟用的 protocols, null 表示使用預設值. */
+	protected String[] protocols = null;
+	/** 啟用的 cipher suites, null 表示使用預設值. */
+	protected String[] cipher_suites = null;
+	/** Session cache 大小, 0 表示不限制. */
+	protected int session_cache_size = 1000;
+	/** Session timeout in seconds. */
+	protected int session_timeout = 86400;
+	/** 是否忽略憑證與 hostname 驗證. */
+	protected boolean trust_all = false;
+	/** 自訂的 trust store, null 表示使用 JVM 預設值. */
+	protected KeyStore trust_store = null;
+
+	/** 建立好的 SSLContext. */
+	protected SSLContext context = null;
+	/** 建立好的 socket factory. */
+	protected SSLSocketFactory factory = null;
+
+	/** 完整 handshake 次數. */
+	protected final AtomicLong full_handshakes = new AtomicLong();
+	/** Session resumption 次數. */
+	protected final AtomicLong resumed_handshakes = new AtomicLong();
+	/** Handshake 總時間 in nanoseconds. */
+	protected final AtomicLong handshake_nanos = new AtomicLong();
+	/** 記錄各主機 handshake 時間的統計, null 表示不記錄. */
+	protected HttpMetrics metrics = null;
+
+	/** 不做任何驗證的 HostnameVerifier. */
+	protected static final HostnameVerifier TRUST_ALL_HOSTS = new HostnameVerifier() {
+		public boolean verify(String urlHostName, SSLSession session) {
+			return true;
+		}
+	};
+
+	/**
+	 * 設定 TLS protocol 名稱, 例: TLS, TLSv1.2.
+	 *
+	 * @param protocol protocol 名稱
+	 */
+	public synchronized void setProtocol(String protocol) {
+		this.protocol = protocol;
+		reset();
+	}
+
+	/**
+	 * 設定啟用的 protocols, 例: {"TLSv1.2"}.
+	 *
+	 * @param protocols 啟用的 protocols, null 表示使用預設值
+	 */
+	public synchronized void setEnabledProtocols(String... protocols) {
+		this.protocols = protocols;
+		reset();
+	}
+
+	/**
+	 * 設定啟用的 cipher suites.
+	 *
+	 * @param cipher_suites 啟用的 cipher suites, null 表示使用預設值
+	 */
+	public synchronized void setEnabledCipherSuites(String... cipher_suites) {
+		this.cipher_suites = cipher_suites;
+		reset();
+	}
+
+	/**
+	 * 設定 session cache.
+	 *
+	 * @param size    session cache 大小, 0 表示不限制
+	 * @param timeout session timeout in seconds
+	 */
+	public synchronized void setSessionCache(int size, int timeout) {
+		this.session_cache_size = size;
+		this.session_timeout = timeout;
+		if (context != null) {
+			context.getClientSessionContext().setSessionCacheSize(size);
+			context.getClientSessionContext().setSessionTimeout(timeout);
+		}
+	}
+
+	/**
+	 * 設定是否忽略憑證與 hostname 驗證. 只影響使用此設定的 client.
+	 *
+	 * @param trust_all 是否忽略驗證
+	 */
+	public synchronized void setTrustAll(boolean trust_all) {
+		this.trust_all = trust_all;
+		reset();
+	}
+
+	/**
+	 * 是否忽略憑證與 hostname 驗證.
+	 *
+	 * @return 是否忽略驗證
+	 */
+	public boolean isTrustAll() {
+		return trust_all;
+	}
+
+	/**
+	 * 設定自訂的 trust store.
+	 *
+	 * @param trust_store trust store, null 表示使用 JVM 預設值
+	 */
+	public synchronized void setTrustStore(KeyStore trust_store) {
+		this.trust_store = trust_store;
+		reset();
+	}
+
+	/** 設定改變時，下次使用重新建立 SSLContext. */
+	protected void reset() {
+		context = null;
+		factory = null;
+	}
+
+	/**
+	 * 取得 SSLContext, 第一次呼叫時建立, 之後重複使用.
+	 *
+	 * @return SSLContext
+	 * @throws GeneralSecurityException 建立 SSLContext 錯誤
+	 */
+	public synchronized SSLContext getContext() throws GeneralSecurityException {
+		if (context == null) {
+			TrustManager[] tms = null;
+			if (trust_all)
+				tms = new TrustManager[] { new TrustAllManager() };
+			else if (trust_store != null) {
+				TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+				tmf.init(trust_store);
+				tms = tmf.getTrustManagers();
+			}
+
+			SSLContext sc = SSLContext.getInstance(protocol);
+			sc.init(null, tms, null);
+			sc.getClientSessionContext().setSessionCacheSize(session_cache_size);
+			sc.getClientSessionContext().setSessionTimeout(session_timeout);
+			context = sc;
+		}
+		return context;
+	}
+
+	/**
+	 * 取得 socket factory, 同一個設定永遠回傳同一個 instance.
+	 *
+	 * @return SSLSocketFactory
+	 * @throws GeneralSecurityException 建立 SSLContext 錯誤
+	 */
+	public synchronized SSLSocketFactory getSocketFactory() throws GeneralSecurityException {
+		if (factory == null)
+			factory = new ConfiguredSocketFactory(getContext().getSocketFactory());
+		return factory;
+	}
+
+	/**
+	 * 將此設定套用到連線上, 必須在連線前調用.
+	 *
+	 * @param con HTTPS 連線
+	 * @throws GeneralSecurityException 建立 SSLContext 錯誤
+	 */
+	public void apply(HttpsURLConnection con) throws GeneralSecurityException {
+		con.setSSLSocketFactory(getSocketFactory());
+		if (trust_all)
+			con.setHostnameVerifier(TRUST_ALL_HOSTS);
+	}
+
+	/**
+	 * 設定記錄各主機 handshake 時間的統計.
+	 *
+	 * @param metrics HTTP 統計, null 表示不記錄
+	 */
+	public void setMetrics(HttpMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * 取得完整 handshake 次數.
+	 *
+	 * @return 完整 handshake 次數
+	 */
+	public long getFullHandshakes() {
+		return full_handshakes.get();
+	}
+
+	/**
+	 * 取得 session resumption 次數.
+	 *
+	 * @return session resumption 次數
+	 */
+	public long getResumedHandshakes() {
+		return resumed_handshakes.get();
+	}
+
+	/**
+	 * 取得 handshake 總時間.
+	 *
+	 * @return handshake 總時間 in milliseconds
+	 */
+	public double getHandshakeMillis() {
+		return handshake_nanos.get() / 1e6;
+	}
+
+	/** 歸零 handshake 統計. */
+	public void resetStats() {
+		full_handshakes.set(0);
+		resumed_handshakes.set(0);
+		handshake_nanos.set(0);
+	}
+
+	/**
+	 * 記錄一次 handshake.
+	 *
+	 * @param session  handshake 後的 session
+	 * @param start_ms socket 建立時間 in milliseconds
+	 * @param nanos    handshake 花費時間 in nanoseconds
+	 */
+	protected void handshakeCompleted(SSLSession session, long start_ms, long nanos) {
+		handshake_nanos.addAndGet(nanos);
+		if (metrics != null)
+			metrics.recordTls(session.getPeerHost(), nanos);
+		if (session.getCreationTime() < start_ms)	// session 在這次連線前就已建立，代表是 resumption
+			resumed_handshakes.incrementAndGet();
+		else
+			full_handshakes.incrementAndGet();
+	}
+
+	/** 接受所有憑證的 TrustManager. */
+	protected static class TrustAllManager implements X509TrustManager {
+		public X509Certificate[] getAcceptedIssuers()
+		{	return new X509Certificate[0];	}
+
+		public void checkServerTrusted(X509Certificate[] certs, String authType)
+		{}
+
+		public void checkClientTrusted(X509Certificate[] certs, String authType)
+		{}
+	}
+
+	/**
+	 * 套用 protocols、cipher suites 並記錄 handshake 的 socket factory.
+	 * 不提供未連線的 createSocket(), JDK 會先建立 TCP 連線再疊上 SSL,
+	 * 因此 handshake 時間不包含 TCP connect.
+	 */
+	protected class ConfiguredSocketFactory extends SSLSocketFactory {
+		protected final SSLSocketFactory delegate;
+
+		protected ConfiguredSocketFactory(SSLSocketFactory delegate) {
+			this.delegate = delegate;
+		}
+
+		/**
+		 * 設定 socket 並掛上 handshake listener.
+		 *
+		 * @param s 新建立的 socket
+		 * @return 設定好的 socket
+		 */
+		protected Socket configure(Socket s) {
+			if (!(s instanceof SSLSocket))
+				return s;
+
+			SSLSocket ss = (SSLSocket) s;
+			if (protocols != null)
+				ss.setEnabledProtocols(protocols);
+			if (cipher_suites != null)
+				ss.setEnabledCipherSuites(cipher_suites);
+
+			final long start_ms = System.currentTimeMillis();
+			final long start = System.nanoTime();
+			ss.addHandshakeCompletedListener(new HandshakeCompletedListener() {
+				public void handshakeCompleted(HandshakeCompletedEvent event) {
+					event.getSocket().removeHandshakeCompletedListener(this);	// 只記錄第一次 handshake
+					SSLConfig.this.handshakeCompleted(event.getSession(), start_ms, System.nanoTime() - start);
+				}
+			});
+			return ss;
+		}
+
+		@Override
+		public String[] getDefaultCipherSuites() {
+			return (cipher_suites != null)? cipher_suites : delegate.getDefaultCipherSuites();
+		}
+
+		@Override
+		public String[] getSupportedCipherSuites() {
+			return delegate.getSupportedCipherSuites();
+		}
+
+		@Override
+		public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+			return configure(delegate.createSocket(s, host, port, autoClose));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return configure(delegate.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+			return configure(delegate.createSocket(host, port, localHost, localPort));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			return configure(delegate.createSocket(host, port));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+			return configure(delegate.createSocket(address, port, localAddress, localPort));
+		}
+	}
+}
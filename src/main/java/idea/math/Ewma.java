@@ -0,0 +1,94 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.math;
+
+/**
+ * 指數加權移動平均 (EWMA) 與指數加權變異數.
+ * mean = mean + alpha * (x - mean), var = (1 - alpha) * (var + alpha * (x - mean)^2), 每筆資料 O(1)，不需保存資料.
+ * 不是 thread-safe.
+ *
+ * @author Miles Chen
+ */
+public class Ewma {
+	protected final double alpha;
+	protected long count = 0;
+	protected double mean = 0;
+	protected double var = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param alpha 新資料的權重, 0 < alpha <= 1
+	 */
+	public Ewma(double alpha) {
+		if (!(alpha > 0 && alpha <= 1))
+			throw new IllegalArgumentException("alpha 必須在 (0, 1]");
+		this.alpha = alpha;
+	}
+
+	/**
+	 * 以 span (與 N 筆的簡單移動平均相當) 建立, alpha = 2 / (span + 1).
+	 *
+	 * @param span 相當的資料筆數
+	 * @return Ewma
+	 */
+	public static Ewma ofSpan(int span) {
+		return new Ewma(2.0 / (span + 1));
+	}
+
+	/**
+	 * 加入一筆資料. 第一筆資料直接作為平均.
+	 *
+	 * @param x 資料
+	 */
+	public void add(double x) {
+		if (count++ == 0) {
+			mean = x;
+			var = 0;
+			return;
+		}
+		double d = x - mean;
+		mean += alpha * d;
+		var = (1 - alpha) * (var + alpha * d * d);
+	}
+
+	/** 清除所有資料. */
+	public void clear() {
+		count = 0;
+		mean = var = 0;
+	}
+
+	public double getAlpha() {
+		return alpha;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	public double getMean() {
+		return mean;
+	}
+
+	public double getVariance() {
+		return var;
+	}
+
+	public double getStdDev() {
+		return Math.sqrt(var);
+	}
+
+	/**
+	 * 計算 x 相對於目前平均與標準差的 z-score.
+	 *
+	 * @param x 資料
+	 * @return z-score
+	 */
+	public double zScore(double x) {
+		return (x - mean) / getStdDev();
+	}
+}
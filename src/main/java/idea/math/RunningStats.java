@@ -0,0 +1,243 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.8+
+ */
+package idea.math;
+
+import java.util.function.*;
+import java.util.stream.DoubleStream;
+
+/**
+ * 逐筆累計的統計值: 筆數、平均、變異數、極值、偏態、峰度.
+ * 以 Welford 方法 (高階動差為 Terriberry 的推廣) 更新，只需讀一次資料、記憶體固定，數值穩定;
+ * 兩個 RunningStats 可以合併 (Chan / Pébay 的公式)，各 thread 分別累計後再合併.
+ * 不是 thread-safe, 每個 thread 使用自己的物件.
+ *
+ * @author Miles Chen
+ */
+public class RunningStats implements DoubleConsumer {
+	protected long n = 0;
+	protected double mean = 0;
+	/** 與平均差的 2, 3, 4 次方和. */
+	protected double m2 = 0;
+	protected double m3 = 0;
+	protected double m4 = 0;
+	protected double min = Double.POSITIVE_INFINITY;
+	protected double max = Double.NEGATIVE_INFINITY;
+
+	/**
+	 * 統計整個序列.
+	 *
+	 * @param x 序列
+	 * @return 統計值
+	 */
+	public static RunningStats of(double[] x) {
+		RunningStats s = new RunningStats();
+		s.add(x, 0, x.length);
+		return s;
+	}
+
+	/**
+	 * 統計 DoubleStream, parallel stream 時各段分別累計後合併.
+	 *
+	 * @param stream 資料
+	 * @return 統計值
+	 */
+	public static RunningStats of(DoubleStream stream) {
+		return stream.collect(new Supplier<RunningStats>() {
+			public RunningStats get() {
+				return new RunningStats();
+			}
+		}, new ObjDoubleConsumer<RunningStats>() {
+			public void accept(RunningStats s, double v) {
+				s.add(v);
+			}
+		}, new BiConsumer<RunningStats, RunningStats>() {
+			public void accept(RunningStats a, RunningStats b) {
+				a.combine(b);
+			}
+		});
+	}
+
+	/**
+	 * 加入一個值.
+	 *
+	 * @param x 值
+	 */
+	public void add(double x) {
+		long n1 = n;
+		n++;
+		double delta = x - mean;
+		double delta_n = delta / n;
+		double delta_n2 = delta_n * delta_n;
+		double term1 = delta * delta_n * n1;
+		mean += delta_n;
+		m4 += term1 * delta_n2 * ((double) n * n - 3 * n + 3) + 6 * delta_n2 * m2 - 4 * delta_n * m3;
+		m3 += term1 * delta_n * (n - 2) - 3 * delta_n * m2;
+		m2 += term1;
+		if (x < min)
+			min = x;
+		if (x > max)
+			max = x;
+	}
+
+	/**
+	 * 加入一段序列.
+	 *
+	 * @param x    序列
+	 * @param from 起點
+	 * @param to   終點 (不含)
+	 */
+	public void add(double[] x, int from, int to) {
+		for (int i = from; i < to; i++)
+			add(x[i]);
+	}
+
+	/** 與 {@link #add(double)} 相同, 可作為 DoubleConsumer 使用. */
+	public void accept(double x) {
+		add(x);
+	}
+
+	/**
+	 * 合併另一個 RunningStats 的資料.
+	 *
+	 * @param o 另一段資料的統計值, 不會被修改
+	 * @return this
+	 */
+	public RunningStats combine(RunningStats o) {
+		if (o.n == 0)
+			return this;
+		if (n == 0) {
+			n = o.n;
+			mean = o.mean;
+			m2 = o.m2;
+			m3 = o.m3;
+			m4 = o.m4;
+			min = o.min;
+			max = o.max;
+			return this;
+		}
+		double na = n, nb = o.n, nn = na + nb;
+		double delta = o.mean - mean;
+		double d2 = delta * delta, d3 = d2 * delta, d4 = d2 * d2;
+
+		double c4 = m4 + o.m4 + d4 * na * nb * (na * na - na * nb + nb * nb) / (nn * nn * nn)
+				+ 6 * d2 * (na * na * o.m2 + nb * nb * m2) / (nn * nn) + 4 * delta * (na * o.m3 - nb * m3) / nn;
+		double c3 = m3 + o.m3 + d3 * na * nb * (na - nb) / (nn * nn) + 3 * delta * (na * o.m2 - nb * m2) / nn;
+		double c2 = m2 + o.m2 + d2 * na * nb / nn;
+
+		n += o.n;
+		mean += delta * nb / nn;
+		m2 = c2;
+		m3 = c3;
+		m4 = c4;
+		min = Math.min(min, o.min);
+		max = Math.max(max, o.max);
+		return this;
+	}
+
+	/**
+	 * 複製目前的統計值.
+	 *
+	 * @return 新的 RunningStats
+	 */
+	public RunningStats copy() {
+		return new RunningStats().combine(this);
+	}
+
+	/** 清除所有資料. */
+	public void clear() {
+		n = 0;
+		mean = m2 = m3 = m4 = 0;
+		min = Double.POSITIVE_INFINITY;
+		max = Double.NEGATIVE_INFINITY;
+	}
+
+	public long getCount() {
+		return n;
+	}
+
+	/**
+	 * 取得平均值.
+	 *
+	 * @return 平均值, 沒有資料時為 0
+	 */
+	public double getMean() {
+		return mean;
+	}
+
+	public double getSum() {
+		return mean * n;
+	}
+
+	/**
+	 * 取得母體變異數.
+	 *
+	 * @return 母體變異數, 沒有資料時為 NaN
+	 */
+	public double getVariance() {
+		return m2 / n;
+	}
+
+	/**
+	 * 取得樣本變異數 (除以 n - 1).
+	 *
+	 * @return 樣本變異數, 少於兩筆時為 NaN
+	 */
+	public double getSampleVariance() {
+		return (n < 2)? Double.NaN : m2 / (n - 1);
+	}
+
+	/**
+	 * 取得母體標準差.
+	 *
+	 * @return 母體標準差
+	 */
+	public double getStdDev() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * 取得極小值.
+	 *
+	 * @return 極小值, 沒有資料時為 +inf
+	 */
+	public double getMin() {
+		return min;
+	}
+
+	/**
+	 * 取得極大值.
+	 *
+	 * @return 極大值, 沒有資料時為 -inf
+	 */
+	public double getMax() {
+		return max;
+	}
+
+	/**
+	 * 取得母體偏態 (g1).
+	 *
+	 * @return 偏態, 變異數為 0 時為 NaN
+	 */
+	public double getSkewness() {
+		return Math.sqrt((double) n) * m3 / Math.pow(m2, 1.5);
+	}
+
+	/**
+	 * 取得母體超額峰度 (g2, 常態分布為 0).
+	 *
+	 * @return 超額峰度, 變異數為 0 時為 NaN
+	 */
+	public double getKurtosis() {
+		return n * m4 / (m2 * m2) - 3;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("n=%d mean=%.6g sd=%.6g min=%.6g max=%.6g skewness=%.4f kurtosis=%.4f",
+				n, mean, getStdDev(), min, max, getSkewness(), getKurtosis());
+	}
+}
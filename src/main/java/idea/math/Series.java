@@ -2,16 +2,47 @@
  * Summary:
  * Copyright: (c) 2017. All rights reserved.
  * Licence: This software may be copied and used freely for any purpose.
- * Requires: JDK 1.6+
+ * Requires: JDK 1.8+
  */
 package idea.math;
 
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+
 /**
  * 時間序列分析相關函式.
+ * normalize、mean、variance、staDev、zScore 與 meanSquareError 在序列長度達到
+ * {@link #getParallelThreshold()} 時自動以 fork-join 平行計算, 結果與循序計算相同精度且每次一致 (與 CPU 數無關).
+ * <p>
+ * 轉換 (normalize、zScore、rolling*、ewma) 都有指定輸出的版本, 輸出可以是輸入本身 (in-place)，不需再配置同樣大小的陣列;
+ * 也可以直接處理 {@link DoubleBuffer}, 例: 以 {@link #map(String, boolean)} 開啟比 heap 大的序列檔.
+ * DoubleBuffer 的範圍為 position 至 limit, 輸出由 out 的 position 開始寫入, 兩者的 position 都不會改變.
  *
  * @author Miles Chen
  */
 public class Series {
+	/**
+	 * 取得平行計算的長度門檻.
+	 *
+	 * @return 長度門檻
+	 */
+	public static int getParallelThreshold() {
+		return SeriesKernels.parallel_threshold;
+	}
+
+	/**
+	 * 設定平行計算的長度門檻, 預設為 system property idea.math.parallelThreshold 或 262144.
+	 *
+	 * @param threshold 長度達到此值時平行計算, Integer.MAX_VALUE 為不平行計算
+	 */
+	public static void setParallelThreshold(int threshold) {
+		SeriesKernels.parallel_threshold = Math.max(1, threshold);
+	}
+
 	/**
 	 * 將序列正規化至 0 ~ 1.
 	 *
@@ -19,18 +50,44 @@ public class Series {
 	 * @return 正規化後的序列
 	 */
 	public static double[] normalize(double x[]) {
-		double ans[] = new double[x.length];
+		return normalize(x, new double[x.length]);
+	}
 
-		double max = 0;
-		for (int i = 0; i < x.length; i++)
-			if (x[i] > max)
-				max = x[i];
+	/**
+	 * 將序列正規化至 0 ~ 1, 結果存入 out.
+	 *
+	 * @param x   序列
+	 * @param out 存放結果, 長度至少為 x.length, 可與 x 相同
+	 * @return out
+	 */
+	public static double[] normalize(double x[], double out[]) {
+		double max = SeriesKernels.reduce(SeriesKernels.MAX, x, null, 0, x.length);
+
+		if (max > 0)
+			SeriesKernels.apply(x, 0, max, out);
+		else
+			Arrays.fill(out, 0, x.length, 0);
+
+		return out;
+	}
+
+	/**
+	 * 將序列正規化至 0 ~ 1, 結果存入 out.
+	 *
+	 * @param x   序列
+	 * @param out 存放結果, 可與 x 相同
+	 * @return out
+	 */
+	public static DoubleBuffer normalize(DoubleBuffer x, DoubleBuffer out) {
+		double max = SeriesKernels.max(x, 0);
 
 		if (max > 0)
-			for (int i = 0; i < x.length; i++)
-				ans[i] = x[i] / max;
+			SeriesKernels.standardize(x, 0, max, out);
+		else
+			for (int i = 0; i < x.remaining(); i++)
+				out.put(out.position() + i, 0);
 
-		return ans;
+		return out;
 	}
 
 	/**
@@ -40,28 +97,21 @@ public class Series {
 	 * @return 平均值
 	 */
 	public static double mean(double x[]) {
-		double sum = 0;
-
-		for (int i = 0; i < x.length; i++)
-			sum += x[i];
+		double sum = SeriesKernels.reduce(SeriesKernels.SUM, x, null, 0, x.length);
 
 		return (x.length <= 0)? 0 : sum / x.length;
 	}
 
 	/**
-	 * 計算序列的母體變異數.
+	 * 計算序列的母體變異數. 分區塊計算後合併, 只讀一次序列.
 	 *
 	 * @param x 欲計算的序列
 	 * @return 母體變異數
 	 */
 	public static double variance(double x[]) {
-		double avg = mean(x);
-		double sum = 0;
-
-		for (int i = 0; i < x.length; i++)
-			sum += Math.pow(x[i] - avg, 2);
+		double m[] = SeriesKernels.moments(x);
 
-		return sum / x.length;
+		return m[1] / x.length;
 	}
 
 	/**
@@ -81,14 +131,352 @@ public class Series {
 	 * @return z-score
 	 */
 	public static double[] zScore(double x[]) {
-		double avg = mean(x);
-		double sd = staDev(x);
-		double z[] = new double[x.length];
+		return zScore(x, new double[x.length]);
+	}
+
+	/**
+	 * 計算序列的 z-score, 結果存入 out.
+	 *
+	 * @param x   欲計算的序列
+	 * @param out 存放結果, 長度至少為 x.length, 可與 x 相同
+	 * @return out
+	 */
+	public static double[] zScore(double x[], double out[]) {
+		double m[] = SeriesKernels.moments(x);	// 平均與標準差只需讀一次序列
+		double sd = Math.sqrt(m[1] / x.length);
+
+		SeriesKernels.apply(x, m[0], sd, out);
+
+		return out;
+	}
+
+	/**
+	 * 計算序列的 z-score, 結果存入 out.
+	 *
+	 * @param x   欲計算的序列
+	 * @param out 存放結果, 可與 x 相同
+	 * @return out
+	 */
+	public static DoubleBuffer zScore(DoubleBuffer x, DoubleBuffer out) {
+		double m[] = SeriesKernels.moments(x);
+		double sd = Math.sqrt(m[1] / x.remaining());
+
+		SeriesKernels.standardize(x, m[0], sd, out);
+
+		return out;
+	}
+
+	/**
+	 * 計算序列的統計值: 平均、變異數、極值、偏態、峰度, 只讀一次序列.
+	 *
+	 * @param x 欲計算的序列
+	 * @return 統計值, 可繼續加入資料或與其他序列的統計值合併
+	 */
+	public static RunningStats stats(double x[]) {
+		return RunningStats.of(x);
+	}
+
+	/** 滑動視窗的統計值種類. */
+	protected static final int MEAN = 0, VARIANCE = 1, MIN = 2, MAX = 3, Z_SCORE = 4;
+
+	/**
+	 * 計算滑動視窗的平均.
+	 *
+	 * @param x 序列
+	 * @param w 視窗長度
+	 * @return 長度為 x.length - w + 1, 第 i 個為 x[i .. i + w) 的平均
+	 */
+	public static double[] rollingMean(double x[], int w) {
+		return rolling(x, w, MEAN);
+	}
+
+	/**
+	 * 計算滑動視窗的平均, 結果存入 out.
+	 *
+	 * @param x   序列
+	 * @param w   視窗長度
+	 * @param out 存放結果, 長度至少為 x.length - w + 1, 可與 x 相同
+	 * @return out
+	 */
+	public static double[] rollingMean(double x[], int w, double out[]) {
+		return rolling(x, w, MEAN, out);
+	}
+
+	/**
+	 * 計算滑動視窗的平均, 結果存入 out.
+	 *
+	 * @param x   序列
+	 * @param w   視窗長度
+	 * @param out 存放結果, 可與 x 相同
+	 * @return out
+	 */
+	public static DoubleBuffer rollingMean(DoubleBuffer x, int w, DoubleBuffer out) {
+		return rolling(x, w, MEAN, out);
+	}
+
+	/**
+	 * 計算滑動視窗的母體變異數.
+	 *
+	 * @param x 序列
+	 * @param w 視窗長度
+	 * @return 長度為 x.length - w + 1, 第 i 個為 x[i .. i + w) 的變異數
+	 */
+	public static double[] rollingVariance(double x[], int w) {
+		return rolling(x, w, VARIANCE);
+	}
+
+	/**
+	 * 計算滑動視窗的母體變異數, 結果存入 out.
+	 *
+	 * @param x   序列
+	 * @param w   視窗長度
+	 * @param out 存放結果, 長度至少為 x.length - w + 1, 可與 x 相同
+	 * @return out
+	 */
+	public static double[] rollingVariance(double x[], int w, double out[]) {
+		return rolling(x, w, VARIANCE, out);
+	}
+
+	/**
+	 * 計算滑動視窗的母體變異數, 結果存入 out.
+	 *
+	 * @param x   序列
+	 * @param w   視窗長度
+	 * @param out 存放結果, 可與 x 相同
+	 * @return out
+	 */
+	public static DoubleBuffer rollingVariance(DoubleBuffer x, int w, DoubleBuffer out) {
+		return rolling(x, w, VARIANCE, out);
+	}
+
+	/**
+	 * 計算滑動視窗的極小值.
+	 *
+	 * @param x 序列
+	 * @param w 視窗長度
+	 * @return 長度為 x.length - w + 1, 第 i 個為 x[i .. i + w) 的極小值
+	 */
+	public static double[] rollingMin(double x[], int w) {
+		return rolling(x, w, MIN);
+	}
+
+	/**
+	 * 計算滑動視窗的極小值, 結果存入 out.
+	 *
+	 * @param x   序列
+	 * @param w   視窗長度
+	 * @param out 存放結果, 長度至少為 x.length - w + 1, 可與 x 相同
+	 * @return out
+	 */
+	public static double[] rollingMin(double x[], int w, double out[]) {
+		return rolling(x, w, MIN, out);
+	}
 
-		for (int i = 0; i < x.length; i++)
-			z[i] = (x[i] - avg) / sd;
+	/**
+	 * 計算滑動視窗的極小值, 結果存入 out.
+	 *
+	 * @param x   序列
+	 * @param w   視窗長度
+	 * @param out 存放結果, 可與 x 相同
+	 * @return out
+	 */
+	public static DoubleBuffer rollingMin(DoubleBuffer x, int w, DoubleBuffer out) {
+		return rolling(x, w, MIN, out);
+	}
 
-		return z;
+	/**
+	 * 計算滑動視窗的極大值.
+	 *
+	 * @param x 序列
+	 * @param w 視窗長度
+	 * @return 長度為 x.length - w + 1, 第 i 個為 x[i .. i + w) 的極大值
+	 */
+	public static double[] rollingMax(double x[], int w) {
+		return rolling(x, w, MAX);
+	}
+
+	/**
+	 * 計算滑動視窗的極大值, 結果存入 out.
+	 *
+	 * @param x   序列
+	 * @param w   視窗長度
+	 * @param out 存放結果, 長度至少為 x.length - w + 1, 可與 x 相同
+	 * @return out
+	 */
+	public static double[] rollingMax(double x[], int w, double out[]) {
+		return rolling(x, w, MAX, out);
+	}
+
+	/**
+	 * 計算滑動視窗的極大值, 結果存入 out.
+	 *
+	 * @param x   序列
+	 * @param w   視窗長度
+	 * @param out 存放結果, 可與 x 相同
+	 * @return out
+	 */
+	public static DoubleBuffer rollingMax(DoubleBuffer x, int w, DoubleBuffer out) {
+		return rolling(x, w, MAX, out);
+	}
+
+	/**
+	 * 計算每個值相對於所在視窗 (包含自己與前 w - 1 個值) 的 z-score.
+	 *
+	 * @param x 序列
+	 * @param w 視窗長度
+	 * @return 長度為 x.length - w + 1, 第 i 個為 x[i + w - 1] 在 x[i .. i + w) 的 z-score
+	 */
+	public static double[] rollingZScore(double x[], int w) {
+		return rolling(x, w, Z_SCORE);
+	}
+
+	/**
+	 * 計算每個值相對於所在視窗 (包含自己與前 w - 1 個值) 的 z-score, 結果存入 out.
+	 *
+	 * @param x   序列
+	 * @param w   視窗長度
+	 * @param out 存放結果, 長度至少為 x.length - w + 1, 可與 x 相同
+	 * @return out
+	 */
+	public static double[] rollingZScore(double x[], int w, double out[]) {
+		return rolling(x, w, Z_SCORE, out);
+	}
+
+	/**
+	 * 計算每個值相對於所在視窗 (包含自己與前 w - 1 個值) 的 z-score, 結果存入 out.
+	 *
+	 * @param x   序列
+	 * @param w   視窗長度
+	 * @param out 存放結果, 可與 x 相同
+	 * @return out
+	 */
+	public static DoubleBuffer rollingZScore(DoubleBuffer x, int w, DoubleBuffer out) {
+		return rolling(x, w, Z_SCORE, out);
+	}
+
+	/**
+	 * 以 {@link SlidingWindow} 計算滑動視窗的統計值, 每個值 O(1).
+	 *
+	 * @param x    序列
+	 * @param w    視窗長度
+	 * @param kind 統計值種類
+	 * @return 各視窗的統計值
+	 */
+	protected static double[] rolling(double x[], int w, int kind) {
+		return rolling(x, w, kind, new double[Math.max(0, x.length - w + 1)]);
+	}
+
+	/**
+	 * 以 {@link SlidingWindow} 計算滑動視窗的統計值, 每個值 O(1).
+	 * 第 i 個結果在讀入 x[i + w - 1] 後才寫入, 位置不超過已讀入的資料, 因此 out 可與 x 相同.
+	 *
+	 * @param x    序列
+	 * @param w    視窗長度
+	 * @param kind 統計值種類
+	 * @param out  存放結果
+	 * @return out
+	 */
+	protected static double[] rolling(double x[], int w, int kind, double out[]) {
+		SlidingWindow win = new SlidingWindow(w);
+
+		for (int i = 0; i < x.length; i++) {
+			win.add(x[i]);
+			if (i >= w - 1)
+				out[i - w + 1] = value(win, kind, x[i]);
+		}
+
+		return out;
+	}
+
+	/**
+	 * 以 {@link SlidingWindow} 計算滑動視窗的統計值.
+	 *
+	 * @param x    序列
+	 * @param w    視窗長度
+	 * @param kind 統計值種類
+	 * @param out  存放結果
+	 * @return out
+	 */
+	protected static DoubleBuffer rolling(DoubleBuffer x, int w, int kind, DoubleBuffer out) {
+		SlidingWindow win = new SlidingWindow(w);
+		int from = x.position(), to = x.limit(), pos = out.position();
+
+		for (int i = from; i < to; i++) {
+			double v = x.get(i);
+			win.add(v);
+			if (i - from >= w - 1)
+				out.put(pos + i - from - w + 1, value(win, kind, v));
+		}
+
+		return out;
+	}
+
+	/**
+	 * 取得視窗的統計值.
+	 *
+	 * @param win  視窗
+	 * @param kind 統計值種類
+	 * @param x    最新加入的值, 計算 z-score 使用
+	 * @return 統計值
+	 */
+	protected static double value(SlidingWindow win, int kind, double x) {
+		switch (kind) {
+			case MEAN: return win.getMean();
+			case VARIANCE: return win.getVariance();
+			case MIN: return win.getMin();
+			case MAX: return win.getMax();
+			default: return win.zScore(x);
+		}
+	}
+
+	/**
+	 * 計算指數加權移動平均.
+	 *
+	 * @param x     序列
+	 * @param alpha 新資料的權重, 0 < alpha <= 1
+	 * @return 與 x 等長, 第 i 個為加入 x[i] 後的平均
+	 */
+	public static double[] ewma(double x[], double alpha) {
+		return ewma(x, alpha, new double[x.length]);
+	}
+
+	/**
+	 * 計算指數加權移動平均, 結果存入 out.
+	 *
+	 * @param x     序列
+	 * @param alpha 新資料的權重, 0 < alpha <= 1
+	 * @param out   存放結果, 長度至少為 x.length, 可與 x 相同
+	 * @return out
+	 */
+	public static double[] ewma(double x[], double alpha, double out[]) {
+		Ewma e = new Ewma(alpha);
+
+		for (int i = 0; i < x.length; i++) {
+			e.add(x[i]);
+			out[i] = e.getMean();
+		}
+
+		return out;
+	}
+
+	/**
+	 * 計算指數加權移動平均, 結果存入 out.
+	 *
+	 * @param x     序列
+	 * @param alpha 新資料的權重, 0 < alpha <= 1
+	 * @param out   存放結果, 可與 x 相同
+	 * @return out
+	 */
+	public static DoubleBuffer ewma(DoubleBuffer x, double alpha, DoubleBuffer out) {
+		Ewma e = new Ewma(alpha);
+		int from = x.position(), pos = out.position();
+
+		for (int i = from; i < x.limit(); i++) {
+			e.add(x.get(i));
+			out.put(pos + i - from, e.getMean());
+		}
+
+		return out;
 	}
 
 	/**
@@ -99,10 +487,7 @@ public class Series {
 	 * @return mean square error
 	 */
 	public static double meanSquareError(double[] x, double[] y) {
-		double err = 0;
-
-		for (int i = 0; i < x.length; i++)
-			err += Math.pow(x[i] - y[i], 2);
+		double err = SeriesKernels.reduce(SeriesKernels.SSE, x, y, 0, x.length);
 
 		return err / x.length;
 	}
@@ -117,4 +502,43 @@ public class Series {
 	public static double rootMeanSquareError(double[] x, double[] y) {
 		return Math.sqrt( meanSquareError(x, y) );
 	}
+
+	/**
+	 * 以 memory-mapped file 開啟序列檔 (little-endian 的 double, 沒有 header), 不複製到 heap.
+	 *
+	 * @param filename 檔名
+	 * @param writable 是否可寫入, 寫入的值由 OS 寫回檔案
+	 * @return 整個檔案的序列
+	 * @throws IOException 檔案讀取錯誤或超過 2GB
+	 */
+	public static DoubleBuffer map(String filename, boolean writable) throws IOException {
+		long count = Files.size(Paths.get(filename)) / 8;
+		if (count > Integer.MAX_VALUE / 8)
+			throw new IOException("檔案超過 2GB, 請以 map(filename, offset, count, writable) 分段處理");
+		return map(filename, 0, (int) count, writable);
+	}
+
+	/**
+	 * 以 memory-mapped file 開啟序列檔的一段. 單一 mapping 最多 2GB, 更大的檔案分段處理.
+	 * 可寫入時檔案不存在會建立, 長度不足會加長, 可作為轉換的輸出.
+	 *
+	 * @param filename 檔名
+	 * @param offset   起點, 第幾個值
+	 * @param count    值的個數
+	 * @param writable 是否可寫入
+	 * @return 序列
+	 * @throws IOException 檔案讀取錯誤或超過 2GB
+	 */
+	public static DoubleBuffer map(String filename, long offset, int count, boolean writable) throws IOException {
+		if (count > Integer.MAX_VALUE / 8)
+			throw new IOException("資料區段超過 2GB, 無法 map");
+		FileChannel ch = writable? FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+				: FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+		try {
+			return ch.map(writable? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, offset * 8, count * 8L)
+					.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		} finally {
+			ch.close();		// mapping 在 channel 關閉後仍然有效
+		}
+	}
 }
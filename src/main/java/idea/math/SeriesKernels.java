@@ -0,0 +1,400 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.8+
+ */
+package idea.math;
+
+import java.nio.DoubleBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * {@link Series} 使用的基本迴圈.
+ * 加總以 4 個獨立的累加器展開，去除相依性讓 CPU 可以同時執行 (JIT 不會自動重排浮點數加法)，
+ * 逐元素的運算保持單純的迴圈讓 JIT 自動產生 SIMD 指令; 平方以乘法計算，不使用 Math.pow.
+ * 變異數以 {@link #BLOCK} 為單位: 區塊在 L1 cache 中時計算平均與平方差和，再以 Chan 的公式合併各區塊,
+ * 只需從記憶體讀一次序列，數值與 two-pass 一樣穩定.
+ * <p>
+ * 長度達到 {@link #parallel_threshold} 的序列以 fork-join 分段計算: 固定切成不超過 {@link #LEAF} 的段落，
+ * 結果依二元樹兩兩合併 (pairwise)，誤差不隨長度線性累積. 是否分段只由長度決定 (只有一個 CPU 時同樣分段，依序執行)，
+ * 結果與 CPU 數、執行緒數及排程無關，每次相同.
+ * <p>
+ * {@link DoubleBuffer} (例: memory-mapped file) 以 {@link #BLOCK} 為單位 bulk 複製到暫存陣列後使用相同的迴圈，
+ * 讀取範圍為 position 至 limit, 不改變 buffer 的 position.
+ *
+ * @author Miles Chen
+ */
+final class SeriesKernels {
+	/** 計算變異數的區塊大小 (8KB). */
+	static final int BLOCK = 1024;
+	/** 平行計算時每段的最大長度. */
+	static final int LEAF = 1 << 15;
+	/** 長度達到此值時平行計算, 可用 system property idea.math.parallelThreshold 設定. */
+	static volatile int parallel_threshold = Integer.getInteger("idea.math.parallelThreshold", 1 << 18);
+
+	/** 歸約的種類. */
+	static final int SUM = 0, SSE = 1, MAX = 2;
+
+	private SeriesKernels() {
+	}
+
+	/**
+	 * 加總.
+	 *
+	 * @param x    序列
+	 * @param from 起點
+	 * @param to   終點 (不含)
+	 * @return 總和
+	 */
+	static double sum(double[] x, int from, int to) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = from;
+		for (int e = to - 3; i < e; i += 4) {
+			s0 += x[i];
+			s1 += x[i + 1];
+			s2 += x[i + 2];
+			s3 += x[i + 3];
+		}
+		for (; i < to; i++)
+			s0 += x[i];
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * 與 c 的差的平方和.
+	 *
+	 * @param x    序列
+	 * @param from 起點
+	 * @param to   終點 (不含)
+	 * @param c    中心
+	 * @return 平方和
+	 */
+	static double sumSquaredDiff(double[] x, int from, int to, double c) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = from;
+		for (int e = to - 3; i < e; i += 4) {
+			double d0 = x[i] - c, d1 = x[i + 1] - c, d2 = x[i + 2] - c, d3 = x[i + 3] - c;
+			s0 += d0 * d0;
+			s1 += d1 * d1;
+			s2 += d2 * d2;
+			s3 += d3 * d3;
+		}
+		for (; i < to; i++) {
+			double d = x[i] - c;
+			s0 += d * d;
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * 兩個序列差的平方和.
+	 *
+	 * @param x    序列
+	 * @param y    序列
+	 * @param from 起點
+	 * @param to   終點 (不含)
+	 * @return 平方和
+	 */
+	static double sumSquaredError(double[] x, double[] y, int from, int to) {
+		double s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+		int i = from;
+		for (int e = to - 3; i < e; i += 4) {
+			double d0 = x[i] - y[i], d1 = x[i + 1] - y[i + 1], d2 = x[i + 2] - y[i + 2], d3 = x[i + 3] - y[i + 3];
+			s0 += d0 * d0;
+			s1 += d1 * d1;
+			s2 += d2 * d2;
+			s3 += d3 * d3;
+		}
+		for (; i < to; i++) {
+			double d = x[i] - y[i];
+			s0 += d * d;
+		}
+		return (s0 + s1) + (s2 + s3);
+	}
+
+	/**
+	 * 平均與平方差和, 以區塊計算後合併.
+	 *
+	 * @param x    序列
+	 * @param from 起點
+	 * @param to   終點 (不含)
+	 * @return {平均, 平方差和}
+	 */
+	static double[] moments(double[] x, int from, int to) {
+		double mean = 0, m2 = 0;
+		long n = 0;
+		for (int b = from; b < to; b += BLOCK) {
+			int e = Math.min(to, b + BLOCK);
+			int nb = e - b;
+			double bm = sum(x, b, e) / nb;
+			double bm2 = sumSquaredDiff(x, b, e, bm);
+			double delta = bm - mean;
+			long nn = n + nb;
+			mean += delta * nb / nn;
+			m2 += bm2 + delta * delta * ((double) n * nb / nn);
+			n = nn;
+		}
+		return new double[] { mean, m2 };
+	}
+
+	/**
+	 * 極大值.
+	 *
+	 * @param x    序列
+	 * @param from 起點
+	 * @param to   終點 (不含)
+	 * @param init 初始值
+	 * @return max(init, x[from .. to))
+	 */
+	static double max(double[] x, int from, int to, double init) {
+		double m = init;
+		for (int i = from; i < to; i++)
+			if (x[i] > m)
+				m = x[i];
+		return m;
+	}
+
+	/**
+	 * out[i] = (x[i] - c) / d.
+	 *
+	 * @param x    序列
+	 * @param from 起點
+	 * @param to   終點 (不含)
+	 * @param c    中心
+	 * @param d    除數
+	 * @param out  存放結果
+	 */
+	static void standardize(double[] x, int from, int to, double c, double d, double[] out) {
+		for (int i = from; i < to; i++)
+			out[i] = (x[i] - c) / d;
+	}
+
+	/**
+	 * 極大值.
+	 *
+	 * @param x    序列
+	 * @param init 初始值
+	 * @return max(init, x)
+	 */
+	static double max(DoubleBuffer x, double init) {
+		DoubleBuffer src = x.duplicate();
+		double[] block = new double[BLOCK];
+		double m = init;
+		while (src.hasRemaining()) {
+			int len = Math.min(BLOCK, src.remaining());
+			src.get(block, 0, len);
+			m = max(block, 0, len, m);
+		}
+		return m;
+	}
+
+	/**
+	 * 平均與平方差和.
+	 *
+	 * @param x 序列
+	 * @return {平均, 平方差和}
+	 */
+	static double[] moments(DoubleBuffer x) {
+		DoubleBuffer src = x.duplicate();
+		double[] block = new double[BLOCK];
+		double mean = 0, m2 = 0;
+		long n = 0;
+		while (src.hasRemaining()) {
+			int nb = Math.min(BLOCK, src.remaining());
+			src.get(block, 0, nb);
+			double bm = sum(block, 0, nb) / nb;
+			double bm2 = sumSquaredDiff(block, 0, nb, bm);
+			double delta = bm - mean;
+			long nn = n + nb;
+			mean += delta * nb / nn;
+			m2 += bm2 + delta * delta * ((double) n * nb / nn);
+			n = nn;
+		}
+		return new double[] { mean, m2 };
+	}
+
+	/**
+	 * out[i] = (x[i] - c) / d. out 可與 x 相同.
+	 *
+	 * @param x   序列
+	 * @param c   中心
+	 * @param d   除數
+	 * @param out 存放結果, 由 position 開始寫入
+	 */
+	static void standardize(DoubleBuffer x, double c, double d, DoubleBuffer out) {
+		DoubleBuffer src = x.duplicate(), dst = out.duplicate();
+		double[] block = new double[BLOCK];
+		while (src.hasRemaining()) {
+			int len = Math.min(BLOCK, src.remaining());
+			src.get(block, 0, len);
+			standardize(block, 0, len, c, d, block);
+			dst.put(block, 0, len);
+		}
+	}
+
+	/**
+	 * 是否平行計算. 只由長度決定, 結果才不會因 CPU 數不同而改變; 每段至少 {@link #LEAF} 筆, 單一 CPU 的額外負擔很小.
+	 *
+	 * @param n 長度
+	 * @return 是否平行計算
+	 */
+	static boolean parallel(int n) {
+		return n >= parallel_threshold && n > LEAF;
+	}
+
+	/**
+	 * 執行 task. 已在 fork-join pool 中時直接執行, 否則交給 common pool.
+	 *
+	 * @param task task
+	 * @return 結果
+	 */
+	static <T> T invoke(ForkJoinTask<T> task) {
+		return ForkJoinTask.inForkJoinPool()? task.invoke() : ForkJoinPool.commonPool().invoke(task);
+	}
+
+	/**
+	 * 歸約, 長度足夠時平行計算.
+	 *
+	 * @param op   {@link #SUM}: 總和, {@link #SSE}: x 與 y 差的平方和, {@link #MAX}: 極大值 (沒有資料時為負無限大)
+	 * @param x    序列
+	 * @param y    序列, 只有 SSE 使用
+	 * @param from 起點
+	 * @param to   終點 (不含)
+	 * @return 結果
+	 */
+	static double reduce(int op, double[] x, double[] y, int from, int to) {
+		if (!parallel(to - from))
+			return reduceRange(op, x, y, from, to);
+		return invoke(new Reduce(op, x, y, from, to));
+	}
+
+	static double reduceRange(int op, double[] x, double[] y, int from, int to) {
+		switch (op) {
+			case SUM: return sum(x, from, to);
+			case SSE: return sumSquaredError(x, y, from, to);
+			default: return max(x, from, to, Double.NEGATIVE_INFINITY);
+		}
+	}
+
+	/**
+	 * 平均與平方差和, 長度足夠時平行計算.
+	 *
+	 * @param x 序列
+	 * @return {平均, 平方差和}
+	 */
+	static double[] moments(double[] x) {
+		if (!parallel(x.length))
+			return moments(x, 0, x.length);
+		return invoke(new Moments(x, 0, x.length));
+	}
+
+	/**
+	 * out[i] = (x[i] - c) / d, 長度足夠時平行計算. c 為 0 時即 x[i] / d.
+	 *
+	 * @param x   序列
+	 * @param c   中心
+	 * @param d   除數
+	 * @param out 存放結果
+	 */
+	static void apply(double[] x, double c, double d, double[] out) {
+		if (!parallel(x.length))
+			standardize(x, 0, x.length, c, d, out);
+		else
+			invoke(new Apply(x, 0, x.length, c, d, out));
+	}
+
+	/**
+	 * 平行歸約: 切成兩半, 左半 fork, 右半在目前執行緒計算.
+	 */
+	static class Reduce extends RecursiveTask<Double> {
+		private static final long serialVersionUID = 1L;
+		final int op;
+		final double[] x, y;
+		final int from, to;
+
+		Reduce(int op, double[] x, double[] y, int from, int to) {
+			this.op = op;
+			this.x = x;
+			this.y = y;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Double compute() {
+			if (to - from <= LEAF)
+				return reduceRange(op, x, y, from, to);
+			int mid = (from + to) >>> 1;
+			Reduce left = new Reduce(op, x, y, from, mid);
+			left.fork();
+			double r = new Reduce(op, x, y, mid, to).compute();
+			double l = left.join();
+			return (op == MAX)? Math.max(l, r) : l + r;
+		}
+	}
+
+	/**
+	 * 平行計算平均與平方差和, 以 Chan 的公式合併兩半.
+	 */
+	static class Moments extends RecursiveTask<double[]> {
+		private static final long serialVersionUID = 1L;
+		final double[] x;
+		final int from, to;
+
+		Moments(double[] x, int from, int to) {
+			this.x = x;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected double[] compute() {
+			if (to - from <= LEAF)
+				return moments(x, from, to);
+			int mid = (from + to) >>> 1;
+			Moments left = new Moments(x, from, mid);
+			left.fork();
+			double[] r = new Moments(x, mid, to).compute();
+			double[] l = left.join();
+			double na = mid - from, nb = to - mid, n = na + nb;
+			double delta = r[0] - l[0];
+			return new double[] { l[0] + delta * nb / n, l[1] + r[1] + delta * delta * (na * nb / n) };
+		}
+	}
+
+	/**
+	 * 平行計算 out[i] = (x[i] - c) / d.
+	 */
+	static class Apply extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		final double[] x, out;
+		final int from, to;
+		final double c, d;
+
+		Apply(double[] x, int from, int to, double c, double d, double[] out) {
+			this.x = x;
+			this.from = from;
+			this.to = to;
+			this.c = c;
+			this.d = d;
+			this.out = out;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= LEAF) {
+				standardize(x, from, to, c, d, out);
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			Apply left = new Apply(x, from, mid, c, d, out);
+			left.fork();
+			new Apply(x, mid, to, c, d, out).compute();
+			left.join();
+		}
+	}
+}
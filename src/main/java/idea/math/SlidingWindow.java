@@ -0,0 +1,224 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.6+
+ */
+package idea.math;
+
+/**
+ * 固定長度的滑動視窗: 最近 size 筆資料的平均、變異數、極值與 z-score.
+ * 資料放在 primitive 的 ring buffer，每筆資料 O(1) 更新 (平均、變異數以 Welford 方法加入新值並移除舊值，
+ * 極值以單調 deque 維護)，不需要重新計算整個視窗. 為避免長時間累積的誤差，每 {@link #RESYNC} 個視窗長度重新計算一次變異數.
+ * 視窗中有 NaN 或 ±Infinity 時平均與變異數為 NaN，這些資料離開視窗後重新計算，不會影響之後的結果.
+ * 不是 thread-safe.
+ *
+ * @author Miles Chen
+ */
+public class SlidingWindow {
+	/** 每隔多少個視窗長度重新計算變異數. */
+	public static final int RESYNC = 64;
+
+	protected final int size;
+	protected final double[] ring;
+	/** 加入的總筆數, 第 k 筆放在 ring[k % size]. */
+	protected long count = 0;
+	protected double mean = 0;
+	/** 與平均差的平方和. */
+	protected double m2 = 0;
+	/** 視窗中 NaN 或 ±Infinity 的筆數, 不為 0 時不更新 mean 與 m2. */
+	protected int non_finite = 0;
+
+	/** 極小值 deque: 資料編號, 對應的值遞增. */
+	protected final long[] min_q;
+	protected int min_head = 0, min_len = 0;
+	/** 極大值 deque: 資料編號, 對應的值遞減. */
+	protected final long[] max_q;
+	protected int max_head = 0, max_len = 0;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param size 視窗長度
+	 */
+	public SlidingWindow(int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("視窗長度必須大於 0");
+		this.size = size;
+		this.ring = new double[size];
+		this.min_q = new long[size];
+		this.max_q = new long[size];
+	}
+
+	/**
+	 * 加入一筆資料, 視窗已滿時移除最舊的一筆.
+	 *
+	 * @param x 資料
+	 */
+	public void add(double x) {
+		int pos = (int) (count % size);
+		boolean recover = count >= size && !finite(ring[pos]) && --non_finite == 0;	// 最後一筆非有限值離開視窗
+		if (!finite(x))
+			non_finite++;
+		if (non_finite > 0 || recover) {
+			// mean 與 m2 已失效, 由 resync() 重新計算
+		} else if (count < size) {
+			double d = x - mean;
+			mean += d / (count + 1);
+			m2 += d * (x - mean);
+		} else {
+			double old = ring[pos];
+			double old_mean = mean;
+			mean += (x - old) / size;
+			m2 += (x - old) * (x - mean + old - old_mean);
+			if (m2 < 0)
+				m2 = 0;
+		}
+		ring[pos] = x;
+		count++;
+
+		long expired = count - size;	// 編號小於此值的資料已離開視窗
+		while (min_len > 0 && min_q[min_head] < expired) {
+			min_head = (min_head + 1) % size;
+			min_len--;
+		}
+		while (min_len > 0 && ring[(int) (min_q[(min_head + min_len - 1) % size] % size)] >= x)
+			min_len--;
+		min_q[(min_head + min_len) % size] = count - 1;
+		min_len++;
+
+		while (max_len > 0 && max_q[max_head] < expired) {
+			max_head = (max_head + 1) % size;
+			max_len--;
+		}
+		while (max_len > 0 && ring[(int) (max_q[(max_head + max_len - 1) % size] % size)] <= x)
+			max_len--;
+		max_q[(max_head + max_len) % size] = count - 1;
+		max_len++;
+
+		if (non_finite == 0 && (recover || count % ((long) size * RESYNC) == 0))
+			resync();
+	}
+
+	/**
+	 * 是否為有限值.
+	 *
+	 * @param x 資料
+	 * @return 不是 NaN 或 ±Infinity
+	 */
+	static boolean finite(double x) {
+		return !Double.isNaN(x) && !Double.isInfinite(x);
+	}
+
+	/** 以目前視窗的資料重新計算平均與變異數. */
+	protected void resync() {
+		int n = getCount();
+		double avg = 0;
+		for (int i = 0; i < n; i++)
+			avg += ring[i];
+		avg /= n;
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			double d = ring[i] - avg;
+			sum += d * d;
+		}
+		mean = avg;
+		m2 = sum;
+	}
+
+	/** 清除所有資料. */
+	public void clear() {
+		count = 0;
+		mean = m2 = 0;
+		non_finite = 0;
+		min_head = min_len = max_head = max_len = 0;
+	}
+
+	/**
+	 * 取得視窗長度.
+	 *
+	 * @return 視窗長度
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * 取得視窗中的資料筆數.
+	 *
+	 * @return 資料筆數, 最多為視窗長度
+	 */
+	public int getCount() {
+		return (int) Math.min(count, size);
+	}
+
+	/**
+	 * 視窗是否已滿.
+	 *
+	 * @return 是否已滿
+	 */
+	public boolean isFull() {
+		return count >= size;
+	}
+
+	/**
+	 * 取得最舊的第 i 筆資料.
+	 *
+	 * @param i 0 為最舊的一筆
+	 * @return 資料
+	 */
+	public double get(int i) {
+		long first = count - getCount();
+		return ring[(int) ((first + i) % size)];
+	}
+
+	/**
+	 * 取得視窗的平均.
+	 *
+	 * @return 平均, 視窗中有非有限值時為 NaN
+	 */
+	public double getMean() {
+		return (non_finite > 0)? Double.NaN : mean;
+	}
+
+	/**
+	 * 取得視窗的母體變異數.
+	 *
+	 * @return 變異數, 沒有資料或視窗中有非有限值時為 NaN
+	 */
+	public double getVariance() {
+		return (non_finite > 0)? Double.NaN : m2 / getCount();
+	}
+
+	public double getStdDev() {
+		return Math.sqrt(getVariance());
+	}
+
+	/**
+	 * 取得視窗的極小值.
+	 *
+	 * @return 極小值, 沒有資料時為 NaN
+	 */
+	public double getMin() {
+		return (min_len == 0)? Double.NaN : ring[(int) (min_q[min_head] % size)];
+	}
+
+	/**
+	 * 取得視窗的極大值.
+	 *
+	 * @return 極大值, 沒有資料時為 NaN
+	 */
+	public double getMax() {
+		return (max_len == 0)? Double.NaN : ring[(int) (max_q[max_head] % size)];
+	}
+
+	/**
+	 * 計算 x 相對於目前視窗的 z-score.
+	 *
+	 * @param x 資料
+	 * @return z-score
+	 */
+	public double zScore(double x) {
+		return (x - getMean()) / getStdDev();
+	}
+}
@@ -28,10 +28,10 @@ public class Statistics {
 	 * @param tn true negative 數
 	 * @param fp false positive 數
 	 * @param fn false negative 數
-	 * @return accuracy
+	 * @return accuracy, 沒有資料時為 0
 	 */
 	public static double accuracy(int tp, int tn, int fp, int fn) {
-		if (tp == 0 || tn == 0 || fp == 0 || fn == 0)
+		if (tp + tn + fp + fn == 0)
 			return 0;
 		return (double)(tp + tn) / (tp + tn + fp + fn);
 	}
@@ -43,10 +43,10 @@ public class Statistics {
 	 * @param tn true negative 數
 	 * @param fp false positive 數
 	 * @param fn false negative 數
-	 * @return precision
+	 * @return precision, 沒有預測為 positive 的資料時為 0
 	 */
 	public static double precision(int tp, int tn, int fp, int fn) {
-		if (tp == 0 || fp == 0)
+		if (tp + fp == 0)
 			return 0;
 		return (double)tp / (tp + fp);
 	}
@@ -58,10 +58,10 @@ public class Statistics {
 	 * @param tn true negative 數
 	 * @param fp false positive 數
 	 * @param fn false negative 數
-	 * @return sensitivity
+	 * @return sensitivity, 沒有 positive 的資料時為 0
 	 */
 	public static double sensitivity(int tp, int tn, int fp, int fn) {
-		if (tp == 0 || fn == 0)
+		if (tp + fn == 0)
 			return 0;
 		return (double)tp / (tp + fn);
 	}
@@ -73,10 +73,10 @@ public class Statistics {
 	 * @param tn true negative 數
 	 * @param fp false positive 數
 	 * @param fn false negative 數
-	 * @return specificity
+	 * @return specificity, 沒有 negative 的資料時為 0
 	 */
 	public static double specificity(int tp, int tn, int fp, int fn) {
-		if (tn == 0 || fp == 0)
+		if (tn + fp == 0)
 			return 0;
 		return (double)tn / (tn + fp);
 	}
@@ -0,0 +1,526 @@
+/**
+ * Summary:
+ * Copyright: (c) 2017. All rights reserved.
+ * Licence: This software may be copied and used freely for any purpose.
+ * Requires: JDK 1.7+
+ */
+package idea.util;
+
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.security.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 下載網址的檔案.
+ * 先送出一次 HEAD 取得檔案大小與是否支援 Range，支援時將檔案切成多段平行下載，
+ * 各段以 FileChannel 依位置寫入；中斷後再次執行會從上次的進度繼續.
+ * 下載中的資料存在 dst_path.part，進度存在 dst_path.part.state，完成並驗證後才改名為 dst_path.
+ *
+ * @author Miles Chen
+ */
+public class Download {
+	/** 檔案來源網址. */
+	protected String url;
+	/** 目的路徑. */
+	protected String dst_path;
+
+	/** 平行下載的連線數. */
+	protected int threads = 4;
+	/** 每段最小的大小, 檔案小於兩段時不切割. */
+	protected long segment_size = 4L << 20;
+	/** 讀取 buffer 大小. */
+	protected int buffer_size = 256 << 10;
+	/** 每段連續沒有進度時的重試次數. */
+	protected int retries = 3;
+	/** Connect timeout in milliseconds. */
+	protected int connect_timeout = 0;
+	/** Read timeout in milliseconds. */
+	protected int read_timeout = 0;
+	/** Checksum 演算法, 例: MD5, SHA-256. */
+	protected String checksum_algorithm = null;
+	/** 預期的 checksum (16 進位). */
+	protected String checksum = null;
+
+	/** 是否已送出 HEAD. */
+	protected boolean head_done = false;
+	/** 檔案大小, -1 表示未知. */
+	protected long length = -1;
+	/** 是否支援 Range. */
+	protected boolean ranges = false;
+	/** Content-Disposition 中的檔案名稱. */
+	protected String file_name = null;
+	/** 用來確認檔案沒有變更的 ETag 或 Last-Modified. */
+	protected String validator = null;
+
+	/** 各段的起點、終點 (不含) 與目前進度. */
+	protected long[] seg_start, seg_end;
+	protected AtomicLong[] seg_pos;
+	/** 已下載的 bytes. */
+	protected final AtomicLong downloaded = new AtomicLong();
+	/** 下載途中發現檔案已變更, 進度不可再使用. */
+	protected volatile boolean changed = false;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param url      檔案來源網址
+	 * @param dst_path 目的路徑
+	 */
+	public Download(String url, String dst_path) {
+		this.url = url;
+		this.dst_path = dst_path;
+	}
+
+	/**
+	 * 設定平行下載的連線數與每段最小的大小.
+	 *
+	 * @param threads      連線數
+	 * @param segment_size 每段最小的大小 in bytes
+	 */
+	public void setThreads(int threads, long segment_size) {
+		this.threads = Math.max(1, threads);
+		this.segment_size = Math.max(1, segment_size);
+	}
+
+	/**
+	 * 設定每段連續沒有進度時的重試次數.
+	 *
+	 * @param retries 重試次數
+	 */
+	public void setRetries(int retries) {
+		this.retries = retries;
+	}
+
+	/**
+	 * 設定 ConnectTimeout 與 ReadTimeout.
+	 *
+	 * @param conn_timeout connect timeout
+	 * @param read_timeout read timeout
+	 */
+	public void setTimeout(int conn_timeout, int read_timeout) {
+		this.connect_timeout = conn_timeout;
+		this.read_timeout = read_timeout;
+	}
+
+	/**
+	 * 設定下載完成後驗證的 checksum.
+	 *
+	 * @param algorithm 演算法, 例: MD5, SHA-256
+	 * @param checksum  預期的 checksum (16 進位)
+	 */
+	public void setChecksum(String algorithm, String checksum) {
+		this.checksum_algorithm = algorithm;
+		this.checksum = checksum;
+	}
+
+	/**
+	 * 送出 HEAD 取得檔案資訊, 只會送出一次.
+	 *
+	 * @throws IOException 開啟 URL 錯誤
+	 */
+	public void head() throws IOException {
+		if (head_done)
+			return;
+
+		URLConnection c = open();
+		if (c instanceof HttpURLConnection)
+			((HttpURLConnection) c).setRequestMethod("HEAD");
+		try {
+			c.connect();
+			length = c.getContentLengthLong();
+			ranges = (c instanceof HttpURLConnection) && "bytes".equalsIgnoreCase(c.getHeaderField("Accept-Ranges"));
+			validator = c.getHeaderField("ETag");
+			if (validator == null)
+				validator = c.getHeaderField("Last-Modified");
+
+			String raw = c.getHeaderField("Content-Disposition");
+			if (raw != null && raw.indexOf("=") != -1)
+				file_name = raw.split("=")[1].replaceAll("\"", "");
+		} finally {
+			if (c instanceof HttpURLConnection)
+				((HttpURLConnection) c).disconnect();
+		}
+		head_done = true;
+	}
+
+	/**
+	 * 取得 Content-Disposition 中的檔案名稱.
+	 *
+	 * @return 檔案名稱, 沒有時回傳 null
+	 * @throws IOException 開啟 URL 錯誤
+	 */
+	public String getFileName() throws IOException {
+		head();
+		return file_name;
+	}
+
+	/**
+	 * 取得檔案大小.
+	 *
+	 * @return 檔案大小, -1 表示未知
+	 * @throws IOException 開啟 URL 錯誤
+	 */
+	public long getLength() throws IOException {
+		head();
+		return length;
+	}
+
+	/**
+	 * 取得已下載的 bytes (包含上次中斷前的進度).
+	 *
+	 * @return 已下載的 bytes
+	 */
+	public long getDownloaded() {
+		return downloaded.get();
+	}
+
+	/**
+	 * 開始下載, 完成後驗證長度與 checksum.
+	 *
+	 * @throws IOException 下載、寫入或驗證錯誤
+	 */
+	public void start() throws IOException {
+		File dest = new File(dst_path);
+		if (dest.getAbsoluteFile().getParentFile() != null)
+			dest.getAbsoluteFile().getParentFile().mkdirs();
+
+		head();
+		File part = new File(dst_path + ".part");
+		File state = new File(dst_path + ".part.state");
+
+		if (ranges && length > 0) {
+			if (!loadState(state) || part.length() != length) {		// 進度檔與下載中的檔案必須同時存在
+				part.delete();
+				state.delete();
+				split();
+			}
+			downloadSegments(part, state);
+		}
+		else {
+			state.delete();
+			downloadStream(part);
+		}
+
+		verify(part, state);
+		state.delete();
+		if (dest.exists() && !dest.delete())
+			throw new IOException("無法覆寫檔案: " + dst_path);
+		if (!part.renameTo(dest))
+			throw new IOException("無法改名為: " + dst_path);
+	}
+
+	/** 將檔案切成多段. */
+	protected void split() {
+		int n = (int) Math.max(1, Math.min(threads, length / segment_size));
+		long size = (length + n - 1) / n;
+
+		seg_start = new long[n];
+		seg_end = new long[n];
+		seg_pos = new AtomicLong[n];
+		for (int i = 0; i < n; i++) {
+			seg_start[i] = i * size;
+			seg_end[i] = Math.min(length, (i + 1) * size);
+			seg_pos[i] = new AtomicLong(seg_start[i]);
+		}
+		downloaded.set(0);
+	}
+
+	/**
+	 * 平行下載各段.
+	 *
+	 * @param part  下載中的檔案
+	 * @param state 進度檔
+	 * @throws IOException 下載或寫入錯誤
+	 */
+	protected void downloadSegments(File part, final File state) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(part, "rw");
+		final FileChannel ch = raf.getChannel();
+		ExecutorService pool = Executors.newFixedThreadPool(seg_start.length);
+		try {
+			raf.setLength(length);
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i = 0; i < seg_start.length; i++) {
+				final int seg = i;
+				futures.add(pool.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						downloadSegment(seg, ch, state);
+						return null;
+					}
+				}));
+			}
+
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (ExecutionException e) {
+					cancel(pool);
+					if (changed)
+						state.delete();
+					else
+						saveState(state);
+					throw (e.getCause() instanceof IOException)? (IOException) e.getCause() : new IOException(e.getCause());
+				} catch (InterruptedException e) {
+					cancel(pool);
+					saveState(state);
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("下載被中斷");
+				}
+			}
+			ch.force(false);
+		} finally {
+			pool.shutdown();
+			ch.close();
+			raf.close();
+		}
+	}
+
+	/**
+	 * 中斷其他段並等待結束, 丟出例外後不會再下載或寫入檔案與進度檔.
+	 * 沒有設定 read timeout 時最多等待 1 秒.
+	 *
+	 * @param pool 下載各段的 thread pool
+	 */
+	protected void cancel(ExecutorService pool) {
+		pool.shutdownNow();
+		try {
+			pool.awaitTermination(connect_timeout + Math.max(read_timeout, 1000), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * 下載一段, 失敗時從目前進度重試.
+	 *
+	 * @param seg   第幾段
+	 * @param ch    寫入的 FileChannel
+	 * @param state 進度檔
+	 * @throws IOException 重試後仍失敗
+	 */
+	protected void downloadSegment(int seg, FileChannel ch, File state) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(buffer_size);
+		long saved = seg_pos[seg].get();
+
+		for (int attempt = 0; seg_pos[seg].get() < seg_end[seg]; attempt++) {
+			if (Thread.currentThread().isInterrupted())
+				throw new InterruptedIOException("下載被中斷");		// 其他段已失敗, 不再重試
+			long before = seg_pos[seg].get();
+			HttpURLConnection c = (HttpURLConnection) open();
+			c.setRequestProperty("Range", "bytes=" + seg_pos[seg].get() + "-" + (seg_end[seg] - 1));
+			if (validator != null)
+				c.setRequestProperty("If-Range", validator);
+
+			try {
+				if (c.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+					changed = true;		// If-Range 不符時伺服器會回傳整個檔案
+					throw new IOException("伺服器沒有回應部分內容, 檔案可能已變更: " + c.getResponseCode());
+				}
+
+				ReadableByteChannel in = Channels.newChannel(c.getInputStream());
+				try {
+					while (seg_pos[seg].get() < seg_end[seg] && !Thread.currentThread().isInterrupted() && in.read(buf) >= 0) {
+						if (buf.hasRemaining())
+							continue;		// 累積到 buffer 滿再寫入
+						flush(buf, ch, seg);
+						if (seg_pos[seg].get() - saved >= 8 * buffer_size) {
+							saved = seg_pos[seg].get();
+							saveState(state);
+						}
+					}
+					flush(buf, ch, seg);
+				} finally {
+					in.close();
+				}
+				if (seg_pos[seg].get() < seg_end[seg])
+					throw new IOException("連線提前結束: " + seg_pos[seg].get() + " < " + seg_end[seg]);
+			} catch (IOException e) {
+				flush(buf, ch, seg);
+				if (changed)
+					throw e;
+				if (seg_pos[seg].get() > before)
+					attempt = -1;		// 有進度就重新計算重試次數
+				else if (attempt >= retries)
+					throw e;
+			} finally {
+				c.disconnect();
+			}
+		}
+		saveState(state);
+	}
+
+	/**
+	 * 將 buffer 寫入該段目前的位置.
+	 *
+	 * @param buf buffer
+	 * @param ch  寫入的 FileChannel
+	 * @param seg 第幾段
+	 * @throws IOException 寫入錯誤
+	 */
+	protected void flush(ByteBuffer buf, FileChannel ch, int seg) throws IOException {
+		buf.flip();
+		long remain = seg_end[seg] - seg_pos[seg].get();
+		if (buf.remaining() > remain)
+			buf.limit((int) remain);		// 伺服器多送的部分不寫入
+		while (buf.hasRemaining()) {
+			int n = ch.write(buf, seg_pos[seg].get());
+			seg_pos[seg].addAndGet(n);
+			downloaded.addAndGet(n);
+		}
+		buf.clear();
+	}
+
+	/**
+	 * 單一連線下載, 用於不支援 Range 或不知道大小的來源.
+	 *
+	 * @param part 下載中的檔案
+	 * @throws IOException 下載或寫入錯誤
+	 */
+	protected void downloadStream(File part) throws IOException {
+		URLConnection c = open();
+		ReadableByteChannel in = Channels.newChannel(new BufferedInputStream(c.getInputStream(), buffer_size));
+		FileOutputStream out = new FileOutputStream(part);
+		FileChannel ch = out.getChannel();
+		try {
+			long pos = 0, n;
+			while ((n = ch.transferFrom(in, pos, Long.MAX_VALUE)) > 0)
+				pos += n;
+			downloaded.set(pos);
+		} finally {
+			ch.close();
+			out.close();
+			in.close();
+			if (c instanceof HttpURLConnection)
+				((HttpURLConnection) c).disconnect();
+		}
+	}
+
+	/**
+	 * 驗證檔案長度與 checksum. Checksum 不符時刪除下載中的檔案與進度檔, 下次重新下載.
+	 *
+	 * @param part  下載完成的檔案
+	 * @param state 進度檔
+	 * @throws IOException 驗證失敗
+	 */
+	protected void verify(File part, File state) throws IOException {
+		if (length >= 0 && part.length() != length)
+			throw new IOException("檔案長度不符: " + part.length() + " != " + length);
+
+		if (checksum_algorithm == null)
+			return;
+
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance(checksum_algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+
+		FileChannel ch = new FileInputStream(part).getChannel();
+		try {
+			ByteBuffer buf = ByteBuffer.allocateDirect(buffer_size);
+			while (ch.read(buf) >= 0) {
+				buf.flip();
+				md.update(buf);
+				buf.clear();
+			}
+		} finally {
+			ch.close();
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (byte b : md.digest())
+			sb.append(String.format("%02x", b));
+		if (!sb.toString().equalsIgnoreCase(checksum)) {
+			part.delete();
+			state.delete();
+			throw new IOException("Checksum 不符: " + sb + " != " + checksum);
+		}
+	}
+
+	/**
+	 * 儲存各段進度.
+	 *
+	 * @param state 進度檔
+	 * @throws IOException 寫入錯誤
+	 */
+	protected synchronized void saveState(File state) throws IOException {
+		File tmp = new File(state.getPath() + ".tmp");
+		PrintWriter pw = new PrintWriter(new BufferedWriter(new FileWriter(tmp)));
+		pw.println(url);
+		pw.println(length);
+		pw.println((validator == null)? "" : validator);
+		for (int i = 0; i < seg_start.length; i++)
+			pw.println(seg_start[i] + "\t" + seg_end[i] + "\t" + seg_pos[i].get());
+		pw.close();
+
+		state.delete();
+		tmp.renameTo(state);
+	}
+
+	/**
+	 * 載入上次的進度, 網址、大小或 validator 不同時不使用.
+	 *
+	 * @param state 進度檔
+	 * @return 是否成功載入
+	 * @throws IOException 讀取錯誤
+	 */
+	protected boolean loadState(File state) throws IOException {
+		if (!state.exists())
+			return false;
+
+		BufferedReader br = new BufferedReader(new FileReader(state));
+		try {
+			if (!url.equals(br.readLine()) || !String.valueOf(length).equals(br.readLine()))
+				return false;
+			String v = br.readLine();
+			if (v == null || !v.equals((validator == null)? "" : validator))
+				return false;
+
+			List<long[]> segs = new ArrayList<long[]>();
+			String line;
+			while ((line = br.readLine()) != null) {
+				StringTokenizer st = new StringTokenizer(line);
+				if (st.countTokens() >= 3)
+					segs.add(new long[] { Long.parseLong(st.nextToken()), Long.parseLong(st.nextToken()), Long.parseLong(st.nextToken()) });
+			}
+			if (segs.isEmpty())
+				return false;
+
+			int n = segs.size();
+			seg_start = new long[n];
+			seg_end = new long[n];
+			seg_pos = new AtomicLong[n];
+			long done = 0;
+			for (int i = 0; i < n; i++) {
+				seg_start[i] = segs.get(i)[0];
+				seg_end[i] = segs.get(i)[1];
+				seg_pos[i] = new AtomicLong(segs.get(i)[2]);
+				done += seg_pos[i].get() - seg_start[i];
+			}
+			downloaded.set(done);
+			return true;
+		} catch (NumberFormatException e) {
+			return false;
+		} finally {
+			br.close();
+		}
+	}
+
+	/**
+	 * 開啟網址連結並設定 timeout.
+	 *
+	 * @return URLConnection
+	 * @throws IOException 開啟 URL 錯誤
+	 */
+	protected URLConnection open() throws IOException {
+		URLConnection c = new URL(url).openConnection();
+		c.setConnectTimeout(connect_timeout);
+		c.setReadTimeout(read_timeout);
+		return c;
+	}
+}
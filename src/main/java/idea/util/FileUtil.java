@@ -82,28 +82,26 @@ public class FileUtil {
 	 * @throws IOException           開啟 URL 錯誤、寫入檔案錯誤
 	 */
 	public static void copyURLtoFile(String url, String dst_path) throws MalformedURLException, IOException {
-		File dest = new File(dst_path);
-		dest.getParentFile().mkdirs();
-
-		URL src = new URL(url);
-		URLConnection url_conn = src.openConnection();
-		InputStream in = new BufferedInputStream(url_conn.getInputStream());
-
-		OutputStream out = new BufferedOutputStream(new FileOutputStream(dst_path));
-		byte[] buf = new byte[1024];	// Transfer bytes from in to out
-
-		int len;
-		while ((len = in.read(buf)) > 0)
-			out.write(buf, 0, len);
-
-		in.close();
-		out.close();
+		new Download(url, dst_path).start();
+	}
 
-//		FileUtils.copyURLToFile(src, dest);
+	/**
+	 * 以多條連線平行下載網址的檔案, 中斷後再次呼叫會從上次的進度繼續.
+	 *
+	 * @param url      檔案來源網址
+	 * @param dst_path 目的路徑
+	 * @param threads  平行下載的連線數
+	 * @throws MalformedURLException URL 格式錯誤
+	 * @throws IOException           開啟 URL 錯誤、寫入檔案錯誤、長度不符
+	 */
+	public static void copyURLtoFile(String url, String dst_path, int threads) throws MalformedURLException, IOException {
+		Download d = new Download(url, dst_path);
+		d.setThreads(threads, 4L << 20);
+		d.start();
 	}
 
 	/**
-	 * 取得 URL 的檔案名稱.
+	 * 取得 URL 的檔案名稱. 只送出 HEAD, 不會下載內容.
 	 *
 	 * @param url 檔案來源網址
 	 * @return 檔案名稱
@@ -111,15 +109,7 @@ public class FileUtil {
 	 * @throws IOException           開啟 URL 錯誤
 	 */
 	public static String getUrlFileName(String url) throws MalformedURLException, IOException {
-		URL src = new URL(url);
-		URLConnection url_conn = src.openConnection();
-		String raw = url_conn.getHeaderField("Content-Disposition");
-
-		String name = null;
-		if(raw != null && raw.indexOf("=") != -1)
-		    name = raw.split("=")[1].replaceAll("\"", "");
-
-		return name;
+		return new Download(url, null).getFileName();
 	}
 
 	/**
@@ -0,0 +1,72 @@
+/**
+ *
+ */
+package idea.classification;
+
+import static org.junit.Assert.*;
+import static idea.classification.SVMScorerTest.*;
+import org.junit.*;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import libsvm.*;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class BatchPredictorTest {
+	static svm_node[][] data(int n) {
+		Random rand = new Random(3);
+		svm_node[][] x = new svm_node[n][];
+		for (int i = 0; i < n; i++)
+			x[i] = nodes(rand.nextDouble() * 2, rand.nextDouble() * 2, rand.nextDouble() * 2);
+		return x;
+	}
+
+	@Test
+	public void testPredictMatchesScorer() {
+		svm_model m = model(svm_parameter.RBF);
+		SVMScorer scorer = new SVMScorer(m);
+		svm_node[][] x = data(500);
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			BatchPredictor p = new BatchPredictor(m, pool);
+			p.setBatch(16, 4);
+			double[] pred = p.predict(x);
+			for (int i = 0; i < x.length; i++)
+				assertEquals(scorer.predict(x[i]), pred[i], 0);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void testStreamOrder() throws InterruptedException {
+		svm_model m = model(svm_parameter.RBF);
+		SVMScorer scorer = new SVMScorer(m);
+		final svm_node[][] x = data(1000);
+		final List<Long> rows = new ArrayList<Long>();
+		final List<Double> preds = new ArrayList<Double>();
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			BatchPredictor p = new BatchPredictor(m, pool);
+			p.setBatch(7, 3);		// 最後一個 batch 不滿
+			long n = p.predict(Arrays.asList(x).iterator(), new BatchPredictor.Sink() {
+				public void accept(long row, double pred) {
+					rows.add(row);
+					preds.add(pred);
+				}
+			});
+			assertEquals(x.length, n);
+		} finally {
+			pool.shutdown();
+		}
+		assertEquals(x.length, rows.size());
+		for (int i = 0; i < x.length; i++) {
+			assertEquals(i, rows.get(i).longValue());		// 依 source 的順序輸出
+			assertEquals(scorer.predict(x[i]), preds.get(i), 0);
+		}
+	}
+}
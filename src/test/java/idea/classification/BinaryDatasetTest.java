@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package idea.classification;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class BinaryDatasetTest {
+	File bin, svm;
+
+	@Before
+	public void setUp() throws IOException {
+		bin = File.createTempFile("dataset", ".bin");
+		svm = File.createTempFile("dataset", ".svm");
+	}
+
+	@After
+	public void tearDown() {
+		bin.delete();
+		svm.delete();
+	}
+
+	static SparseDataset random(int rows) {
+		Random rand = new Random(3);
+		SparseDataset d = new SparseDataset();
+		int[] idx = new int[20];
+		double[] val = new double[20];
+		for (int i = 0; i < rows; i++) {
+			int n = rand.nextInt(idx.length);	// 包含沒有 feature 的資料, 與奇數個 int 的補齊
+			for (int k = 0; k < n; k++) {
+				idx[k] = k * 3 + 1;
+				val[k] = rand.nextGaussian() * Math.pow(10, rand.nextInt(20) - 10);
+			}
+			d.add(rand.nextInt(3) - 1 + rand.nextDouble() / 3, idx, val, n);
+		}
+		d.trim();
+		return d;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		SparseDataset d = random(500);
+		BinaryDataset.write(d, bin.getPath());
+		BinaryDataset b = new BinaryDataset(bin.getPath());
+		try {
+			assertEquals(d.size(), b.size());
+			assertEquals(d.nnz(), b.nnz());
+			assertEquals(d.getMaxIndex(), b.getMaxIndex());
+			SparseDataset c = b.toSparseDataset();
+			assertArrayEquals(d.getLabels(), c.getLabels(), 0);
+			assertArrayEquals(d.getRowStart(), c.getRowStart());
+			assertArrayEquals(d.getIndex(), c.getIndex());
+			assertArrayEquals(d.getValue(), c.getValue(), 0);
+			assertEquals(d.row(7)[2].value, b.row(7)[2].value, 0);
+		} finally {
+			b.close();
+		}
+	}
+
+	@Test
+	public void testTextConversion() throws IOException {
+		SparseDataset d = random(200);
+		BinaryDataset.write(d, bin.getPath());
+		BinaryDataset.toSVMFormat(bin.getPath(), svm.getPath());
+		BinaryDataset.fromSVMFormat(svm.getPath(), bin.getPath());
+		SparseDataset c = LibSVMReader.read(svm.getPath());
+		assertArrayEquals(d.getLabels(), c.getLabels(), 0);
+		assertArrayEquals(d.getValue(), c.getValue(), 0);
+
+		BinaryDataset b = new BinaryDataset(bin.getPath());
+		try {
+			assertArrayEquals(d.getValue(), b.toSparseDataset().getValue(), 0);
+		} finally {
+			b.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotBinary() throws IOException {
+		FileOutputStream out = new FileOutputStream(bin);
+		out.write(new byte[64]);
+		out.close();
+		new BinaryDataset(bin.getPath());
+	}
+}
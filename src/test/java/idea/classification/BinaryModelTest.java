@@ -0,0 +1,103 @@
+/**
+ *
+ */
+package idea.classification;
+
+import static org.junit.Assert.*;
+import static idea.classification.SVMScorerTest.*;
+import org.junit.*;
+
+import java.io.*;
+
+import libsvm.*;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class BinaryModelTest {
+	File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("model", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		svm_model m = model(svm_parameter.RBF);
+		m.probA = new double[] { -1.5, -2, -2.5 };
+		m.probB = new double[] { 0.1, 0.2, 0.3 };
+		new BinaryModel(m).save(file.getPath());
+		assertTrue(BinaryModel.isBinary(file.getPath()));
+
+		BinaryModel b = BinaryModel.load(file.getPath());
+		assertEquals(3, b.getSupportVectorCount());
+		assertEquals(3, b.getClassCount());
+		svm_model c = b.toModel();
+		assertEquals(svm_parameter.RBF, c.param.kernel_type);
+		assertEquals(0.5, c.param.gamma, 0);
+		assertArrayEquals(m.label, c.label);
+		assertArrayEquals(m.nSV, c.nSV);
+		assertArrayEquals(m.rho, c.rho, 0);
+		assertArrayEquals(m.probA, c.probA, 0);
+		assertArrayEquals(m.probB, c.probB, 0);
+		assertArrayEquals(m.sv_coef[1], c.sv_coef[1], 0);
+		assertEquals(m.SV[2][0].index, c.SV[2][0].index);
+		assertEquals(m.SV[2][0].value, c.SV[2][0].value, 0);
+
+		SVMScorer s = new SVMScorer(m), t = new SVMScorer(b);
+		double[] x = { 0.3, -0.2, 0.7, 0.4 };
+		double[] d1 = new double[3], d2 = new double[3];
+		assertEquals(s.predictValues(x, d1), t.predictValues(x, d2), 0);
+		assertArrayEquals(d1, d2, 0);
+	}
+
+	@Test
+	public void testRegistry() throws IOException {
+		new BinaryModel(model(svm_parameter.LINEAR)).save(file.getPath());
+
+		ModelRegistry r = new ModelRegistry();
+		SVMScorer s = r.getScorer(file.getPath());
+		assertTrue(s.isLinear());
+		assertEquals(2, s.predict(new double[] { 0, 2, 0 }), 0);
+		assertEquals(3, r.get(file.getPath()).SV.length);
+	}
+
+	@Test
+	public void testOneClass() throws IOException {
+		svm_model m = new svm_model();
+		m.param = new svm_parameter();
+		m.param.svm_type = svm_parameter.ONE_CLASS;
+		m.param.kernel_type = svm_parameter.POLY;
+		m.param.degree = 2;
+		m.nr_class = 2;
+		m.l = 2;
+		m.SV = new svm_node[][] { nodes(1, 2), nodes(0, 0, 3) };
+		m.sv_coef = new double[][] { { 0.5, 0.5 } };
+		m.rho = new double[] { 0.25 };
+		new BinaryModel(m).save(file.getPath());
+
+		svm_model c = BinaryModel.load(file.getPath()).toModel();
+		assertNull(c.label);
+		assertNull(c.nSV);
+		assertNull(c.probA);
+		assertEquals(2, c.param.degree);
+		assertEquals(3, c.SV[1][0].index);
+		assertArrayEquals(m.sv_coef[0], c.sv_coef[0], 0);
+	}
+
+	@Test(expected = IOException.class)
+	public void testTruncated() throws IOException {
+		new BinaryModel(model(svm_parameter.RBF)).save(file.getPath());
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 4);
+		raf.close();
+		BinaryModel.load(file.getPath());
+	}
+}
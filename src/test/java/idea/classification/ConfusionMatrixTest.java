@@ -0,0 +1,71 @@
+/**
+ *
+ */
+package idea.classification;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.Random;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class ConfusionMatrixTest {
+	@Test
+	public void testMultiClass() {
+		double[] actual = { 3, 1, 2, 3, 1, 2, 3, 3 };
+		double[] pred   = { 3, 1, 3, 3, 2, 2, 1, 3 };
+		ConfusionMatrix cm = ConfusionMatrix.of(actual, pred);
+		assertArrayEquals(new double[] { 1, 2, 3 }, cm.getLabels(), 0);
+		assertEquals(8, cm.getTotal());
+		assertEquals(5, cm.getCorrect());
+		assertEquals(5 / 8.0, cm.getAccuracy(), 0);
+
+		int c3 = cm.indexOf(3);
+		assertEquals(2, c3);
+		assertEquals(-1, cm.indexOf(4));
+		assertEquals(1, cm.getCount(c3, 0));
+		assertEquals(3, cm.getTP(c3));
+		assertEquals(1, cm.getFP(c3));
+		assertEquals(1, cm.getFN(c3));
+		assertEquals(3, cm.getTN(c3));
+		assertEquals(0.75, cm.getPrecision(c3), 0);
+		assertEquals(0.75, cm.getRecall(c3), 0);
+		assertEquals(0.75, cm.getSpecificity(c3), 0);
+		assertEquals(0.75, cm.getFMeasure(c3, 2), 1e-12);
+
+		// class 1: P = 1/2, R = 1/2; class 2: P = 1/2, R = 1/2
+		assertEquals((0.5 + 0.5 + 0.75) / 3, cm.getMacroPrecision(), 1e-12);
+		assertEquals(cm.getAccuracy(), cm.getMicroPrecision(), 1e-12);
+		assertEquals(cm.getAccuracy(), cm.getMicroFMeasure(1), 1e-12);
+	}
+
+	@Test
+	public void testZeroCells() {
+		ConfusionMatrix cm = ConfusionMatrix.of(new double[] { 1, 1, 1 }, new double[] { 1, 1, 1 });
+		assertEquals(1, cm.getAccuracy(), 0);		// 有 0 的格子也要正確計算
+		assertEquals(1, cm.getFMeasure(0, 1), 0);
+		assertEquals(0, cm.getSpecificity(0), 0);
+	}
+
+	@Test
+	public void testParallelSameAsSequential() {
+		Random rand = new Random(5);
+		int n = ConfusionMatrix.PARALLEL_THRESHOLD * 5 + 17;
+		double[] actual = new double[n], pred = new double[n];
+		long[][] expected = new long[7][7];
+		for (int i = 0; i < n; i++) {
+			int a = rand.nextInt(7), p = (rand.nextInt(3) == 0)? rand.nextInt(7) : a;
+			actual[i] = a - 3;
+			pred[i] = p - 3;
+			expected[a][p]++;
+		}
+		ConfusionMatrix cm = ConfusionMatrix.of(actual, pred);
+		assertArrayEquals(new double[] { -3, -2, -1, 0, 1, 2, 3 }, cm.getLabels(), 0);
+		for (int i = 0; i < 7; i++)
+			for (int j = 0; j < 7; j++)
+				assertEquals(expected[i][j], cm.getCount(i, j));
+	}
+}
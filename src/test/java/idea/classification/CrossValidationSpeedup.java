@@ -0,0 +1,95 @@
+/**
+ *
+ */
+package idea.classification;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import libsvm.*;
+
+/**
+ * 量測平行 cross validation 在 1 到 N 個 thread 的時間與加速比, 並與 svm.svm_cross_validation 比較.
+ * 不是 unit test, 需要真正的 libsvm, 以 main 執行:
+ * java -cp target/classes:target/test-classes:libsvm.jar idea.classification.CrossValidationSpeedup [資料筆數] [feature 數] [fold] [最多 thread 數]
+ * 每個 thread 數使用相同的資料與 seed, 各 fold 的分法相同, 預測結果也必須相同.
+ *
+ * @author Miles Chen
+ */
+public class CrossValidationSpeedup {
+	/** 每個 thread 數量測的次數, 取中位數. */
+	static final int REPEAT = 3;
+
+	/**
+	 * 建立兩類別的隨機資料, 兩類別的中心相差一個標準差.
+	 *
+	 * @param l    資料筆數
+	 * @param dim  feature 數
+	 * @param rand random
+	 * @return 資料
+	 */
+	static svm_problem problem(int l, int dim, Random rand) {
+		svm_problem prob = new svm_problem();
+		prob.l = l;
+		prob.y = new double[l];
+		prob.x = new svm_node[l][];
+		for (int i = 0; i < l; i++) {
+			prob.y[i] = (i % 2 == 0)? 1 : -1;
+			prob.x[i] = SVMScorerLatency.row(dim, rand);
+			for (svm_node n : prob.x[i])
+				n.value += prob.y[i] * 0.5;
+		}
+		return prob;
+	}
+
+	public static void main(String[] args) {
+		int l = (args.length > 0)? Integer.parseInt(args[0]) : 4000;
+		int dim = (args.length > 1)? Integer.parseInt(args[1]) : 50;
+		int fold = (args.length > 2)? Integer.parseInt(args[2]) : 10;
+		int cpus = Runtime.getRuntime().availableProcessors();
+		int max_threads = (args.length > 3)? Integer.parseInt(args[3]) : Math.min(fold, cpus);
+		svm.svm_set_print_string_function(new svm_print_interface() {
+			public void print(String s) {
+			}
+		});
+
+		svm_problem prob = problem(l, dim, new Random(1));
+		svm_parameter param = new LibSVM().param;
+		param.kernel_type = svm_parameter.RBF;
+		param.gamma = 1.0 / dim;
+		System.out.printf("%d rows, %d features, %d-fold, RBF, %d CPUs%n", l, dim, fold, cpus);
+
+		CrossValidation cv = new CrossValidation(prob, fold, 1);
+		ForkJoinPool warmup = new ForkJoinPool(1);
+		cv.setPool(warmup);
+		cv.run(param);		// 暖機, 讓 JIT 編譯完成
+		warmup.shutdown();
+		long start = System.nanoTime();
+		svm.svm_cross_validation(prob, param, fold, new double[l]);
+		System.out.printf("svm_cross_validation      %8.0f ms%n", (System.nanoTime() - start) / 1e6);
+
+		double[] target = null;
+		double base = 0;
+		for (int threads = 1; threads <= max_threads; threads++) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+			cv.setPool(pool);
+			double[] ms = new double[REPEAT];
+			double concurrency = 0;
+			for (int k = 0; k < REPEAT; k++) {
+				CrossValidation.Result r = cv.run(param);
+				ms[k] = r.getWallMillis();
+				concurrency += r.getFoldMillis() / r.getWallMillis() / REPEAT;		// 實際同時執行的 fold 數
+				if (target == null)
+					target = r.getTarget().clone();
+				else if (!Arrays.equals(target, r.getTarget()))
+					throw new IllegalStateException("thread 數不同時預測結果不同: " + threads);
+			}
+			pool.shutdown();
+			Arrays.sort(ms);
+			double median = ms[REPEAT / 2];
+			if (threads == 1)
+				base = median;
+			System.out.printf("CrossValidation %2d thread %8.0f ms  speedup %5.2f  concurrency %5.2f%n", threads, median, base / median, concurrency);
+		}
+	}
+}
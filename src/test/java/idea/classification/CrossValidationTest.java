@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package idea.classification;
+
+import static org.junit.Assert.*;
+import static idea.classification.SVMScorerTest.*;
+import org.junit.*;
+
+import libsvm.*;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class CrossValidationTest {
+	/** 30 筆類別 1 與 10 筆類別 2. */
+	static svm_problem problem() {
+		svm_problem prob = new svm_problem();
+		prob.l = 40;
+		prob.x = new svm_node[prob.l][];
+		prob.y = new double[prob.l];
+		for (int i = 0; i < prob.l; i++) {
+			prob.y[i] = (i % 4 == 3)? 2 : 1;
+			prob.x[i] = nodes(i, prob.y[i]);
+		}
+		return prob;
+	}
+
+	@Test
+	public void testStratifiedFolds() {
+		svm_problem prob = problem();
+		CrossValidation cv = new CrossValidation(prob, 5, 7);
+		cv.split(false);
+
+		int[] seen = new int[prob.l];
+		for (int k = 0; k < 5; k++) {
+			int[] count = new int[3];
+			for (int i : cv.test[k]) {
+				seen[i]++;
+				count[(int) prob.y[i]]++;
+			}
+			assertEquals(6, count[1]);		// 每個 fold 的類別比例與全部相同
+			assertEquals(2, count[2]);
+			assertEquals(prob.l - cv.test[k].length, cv.train[k].l);
+		}
+		for (int s : seen)
+			assertEquals(1, s);		// 每筆資料只在一個 fold 測試
+
+		CrossValidation same = new CrossValidation(prob, 5, 7);
+		same.split(false);
+		for (int k = 0; k < 5; k++)
+			assertArrayEquals(cv.test[k], same.test[k]);		// 相同的 seed 得到相同的分法
+	}
+
+	@Test
+	public void testTrainExcludesTestFold() {
+		svm_problem prob = problem();
+		CrossValidation cv = new CrossValidation(prob, 4, 1);
+		cv.split(true);
+		for (int k = 0; k < 4; k++)
+			for (int i : cv.test[k])
+				for (int j = 0; j < cv.train[k].l; j++)
+					assertNotSame(prob.x[i], cv.train[k].x[j]);
+	}
+
+	@Test
+	public void testLeaveOneOut() {
+		svm_problem prob = problem();
+		prob.l = 6;
+		CrossValidation cv = new CrossValidation(prob, 10, 0);		// 與 svm_cross_validation 相同, fold 不超過資料筆數
+		assertEquals(6, cv.fold);
+		cv.split(false);
+		for (int k = 0; k < 6; k++) {
+			assertEquals(1, cv.test[k].length);
+			assertEquals(5, cv.train[k].l);
+		}
+
+		try {
+			new CrossValidation(prob, 1, 0);
+			fail("fold 小於 2 應丟出例外");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/**
+ *
+ */
+package idea.classification;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.*;
+
+import libsvm.*;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class FeatureScalerTest {
+	static SparseDataset data() {
+		return data(new double[][] {
+			{ 1, 5, 0, 2 },
+			{ 3, 5, -4, 2 },
+			{ 0, 5, 8, 2 },
+			{ 7, 5, 0, 2 },
+			{ 2, 5, 1, 2 },
+		});
+	}
+
+	static SparseDataset data(double[][] rows) {
+		SparseDataset d = new SparseDataset();
+		int[] idx = new int[4];
+		double[] val = new double[4];
+		for (double[] r : rows) {
+			int n = 0;
+			for (int j = 0; j < r.length; j++)
+				if (r[j] != 0) {
+					idx[n] = j + 1;
+					val[n] = r[j];
+					n++;
+				}
+			d.add(0, idx, val, n);
+		}
+		d.trim();
+		return d;
+	}
+
+	@Test
+	public void testStatistics() {
+		FeatureScaler s = new FeatureScaler();
+		s.batch_size = 2;		// 強制分段後合併
+		s.fit(data());
+		assertEquals(5, s.getRows());
+		assertEquals(4, s.getDimension());
+		assertArrayEquals(new double[] { 0, 5, -4, 2 }, s.getMin(), 0);
+		assertArrayEquals(new double[] { 7, 5, 8, 2 }, s.getMax(), 0);
+		assertArrayEquals(new double[] { 2.6, 5, 1, 2 }, s.getMean(), 1e-12);
+		// 母體標準差, 沒有出現的值以 0 計入
+		assertEquals(Math.sqrt((1.6 * 1.6 + 0.4 * 0.4 + 2.6 * 2.6 + 4.4 * 4.4 + 0.6 * 0.6) / 5), s.getStd()[0], 1e-12);
+		assertEquals(Math.sqrt((1 + 25 + 49 + 1 + 0) / 5.0), s.getStd()[2], 1e-12);
+		assertEquals(0, s.getStd()[1], 0);
+	}
+
+	@Test
+	public void testScale() {
+		SparseDataset d = data(new double[][] {		// 不含負值, 0 對應到 0
+			{ 1, 5, 0, 2 },
+			{ 3, 5, 4, 2 },
+			{ 0, 5, 8, 2 },
+			{ 7, 5, 0, 2 },
+		});
+		FeatureScaler s = new FeatureScaler();
+		s.fit(d);
+		s.scale(d);
+		double[] x = new double[4];
+		d.toDense(1, x);
+		assertArrayEquals(new double[] { 3 / 7.0, 5, 0.5, 2 }, x, 1e-12);	// 固定不變的 feature 不修改
+		d.toDense(3, x);
+		assertArrayEquals(new double[] { 1, 5, 0, 2 }, x, 1e-12);
+
+		svm_node[] row = { new svm_node() };
+		row[0].index = 3;
+		row[0].value = 0;		// 有出現的 0 與沒有出現的 0 相同
+		s.scale(row);
+		assertEquals(0, row[0].value, 0);
+	}
+
+	@Test
+	public void testSparseZeroMustStayZero() {
+		FeatureScaler s = new FeatureScaler();
+		s.fit(data());
+		try {
+			s.scale(data());		// feature 3 的範圍為 [-4, 8], 有出現與沒有出現的 0 會不同
+			fail("0 不會對應到 0 時應丟出例外");
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(4 / 12.0, s.scale(3, 0), 1e-12);		// 單一值仍可正規化
+
+		s = new FeatureScaler();
+		s.fit(data().toProblem());
+		s.setRange(-1, 1);
+		svm_problem prob = data().toProblem();
+		try {
+			s.scale(prob);
+			fail("下限不為 0 時應丟出例外");
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(1, prob.x[0][0].value, 0);		// 丟出例外前不修改資料
+	}
+
+	@Test
+	public void testZScoreOnlyWithoutZeros() {
+		svm_problem prob = data().toProblem();
+		FeatureScaler s = new FeatureScaler();
+		s.fit(prob);
+		s.setMode(FeatureScaler.Z_SCORE);
+		try {
+			s.scale(prob);		// feature 1 的平均為 2.6, 0 會被平移
+			fail("z-score 會平移 sparse 資料的 0");
+		} catch (IllegalArgumentException e) {
+		}
+
+		SparseDataset d = data(new double[][] { { 1 }, { 2 }, { 3 }, { 6 } });		// 每筆都有且不為 0 的 feature
+		s = new FeatureScaler();
+		s.setMode(FeatureScaler.Z_SCORE);
+		s.fit(d);
+		s.scale(d);
+		assertEquals((6 - 3) / s.getStd()[0], d.getValue()[3], 1e-12);
+	}
+
+	@Test
+	public void testDenseWithNegatives() {
+		double[][] rows = { { -2, 5 }, { 0.5, 7 }, { 3, 9 } };		// 每筆都有出現的 feature 可以包含負值
+		svm_problem prob = data(rows).toProblem();
+		FeatureScaler s = new FeatureScaler();
+		s.fit(prob);
+		s.scale(prob);
+		assertEquals(0.5, prob.x[1][0].value, 1e-12);
+		assertEquals(0.5, prob.x[1][1].value, 1e-12);
+		assertEquals(0, prob.x[0][0].value, 1e-12);
+
+		SparseDataset d = data(rows);
+		s = new FeatureScaler();
+		s.setMode(FeatureScaler.Z_SCORE);
+		s.fit(d);
+		s.scale(d);
+		assertEquals((3 - 0.5) / s.getStd()[0], d.getValue()[4], 1e-12);
+
+		// 以極值建立時依要正規化的資料判斷
+		s = new FeatureScaler(new double[] { -2, 5 }, new double[] { 3, 9 });
+		s.scale(data(rows));
+		try {
+			s.scale(data(new double[][] { { -2, 5 }, { 0, 7 } }));
+			fail("feature 1 在第二筆沒有出現");
+		} catch (IllegalArgumentException e) {
+		}
+		svm_node[] row = SVMScorerTest.nodes(0, 7);		// 單筆資料不檢查
+		s.scale(row);
+		assertEquals(0.5, row[0].value, 1e-12);
+	}
+
+	@Test
+	public void testSaveLoad() throws IOException {
+		FeatureScaler s = new FeatureScaler();
+		s.setRange(-1, 1);
+		s.fit(data().toProblem());
+		File f = File.createTempFile("scaler", ".bin");
+		try {
+			s.save(f.getPath());
+			FeatureScaler t = FeatureScaler.load(f.getPath());
+			assertArrayEquals(s.getMin(), t.getMin(), 0);
+			assertArrayEquals(s.getMax(), t.getMax(), 0);
+			assertArrayEquals(s.getStd(), t.getStd(), 0);
+			assertEquals(s.scale(3, 2.5), t.scale(3, 2.5), 0);
+			assertEquals(-1, t.scale(1, 0), 0);
+			try {
+				t.scale(data().toProblem());		// 保留各 feature 的筆數, 仍能判斷 sparse
+				fail("下限不為 0 時應丟出例外");
+			} catch (IllegalArgumentException e) {
+			}
+
+			s = new FeatureScaler(new double[] { -2 }, new double[] { 3 });
+			s.save(f.getPath());
+			FeatureScaler.load(f.getPath()).scale(data(new double[][] { { -2 }, { 1 } }));
+
+		} finally {
+			f.delete();
+		}
+	}
+}
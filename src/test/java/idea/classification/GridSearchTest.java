@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package idea.classification;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.*;
+
+import libsvm.*;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class GridSearchTest {
+	/** 以固定函數代替 cross validation 的分數, 最高點在 log2c = 1, log2g = -1. */
+	static class FixedGridSearch extends GridSearch {
+		FixedGridSearch() {
+			super(CrossValidationTest.problem(), new svm_parameter());
+		}
+
+		@Override
+		protected void evaluate(Result r) {
+			r.score = -(r.log2c - 1) * (r.log2c - 1) - (r.log2g + 1) * (r.log2g + 1);
+			r.abandoned = r.score < -10;
+			if (!r.abandoned)
+				updateBest(r.score);
+		}
+	}
+
+	@Test
+	public void testResultOrder() {
+		GridSearch gs = new FixedGridSearch();
+		List<GridSearch.Result> results = gs.search(-3, 5, 2, -5, 3, 2);
+		assertEquals(16, results.size());
+		assertEquals(1, results.get(0).log2c, 0);
+		assertEquals(-1, results.get(0).log2g, 0);
+
+		boolean abandoned = false;
+		for (int i = 1; i < results.size(); i++) {
+			GridSearch.Result a = results.get(i - 1), b = results.get(i);
+			if (b.isAbandoned())
+				abandoned = true;
+			else {
+				assertFalse(abandoned);		// 放棄的點排在最後
+				assertTrue(a.getScore() >= b.getScore());		// 分數由高到低
+			}
+		}
+		assertTrue(abandoned);
+	}
+
+	@Test
+	public void testRefinement() {
+		GridSearch gs = new FixedGridSearch();
+		gs.setRefinement(1, 1);
+		List<GridSearch.Result> results = gs.search(-2, 4, 2, -4, 2, 2);		// 不含最高點
+		assertEquals(9 + 8, results.size());		// 在最好的點附近加入 8 個間距減半的點
+		assertEquals(1, results.get(0).log2c, 0);
+		assertEquals(-1, results.get(0).log2g, 0);
+		assertEquals(0, results.get(0).getScore(), 0);
+	}
+}
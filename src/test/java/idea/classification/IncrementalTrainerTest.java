@@ -0,0 +1,96 @@
+/**
+ *
+ */
+package idea.classification;
+
+import static org.junit.Assert.*;
+import static idea.classification.SVMScorerTest.*;
+import org.junit.*;
+
+import libsvm.*;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class IncrementalTrainerTest {
+	static svm_problem problem(double[] y, svm_node[]... x) {
+		svm_problem prob = new svm_problem();
+		prob.l = y.length;
+		prob.y = y;
+		prob.x = x;
+		return prob;
+	}
+
+	@Test
+	public void testWorkingSet() {
+		svm_model prev = model(svm_parameter.RBF);
+		// 第二個 support vector 的 label 被修改, 另外新增一筆
+		svm_problem changes = problem(new double[] { 3, 1 }, nodes(0, 1, 0), nodes(2, 0, 0));
+		svm_problem ws = IncrementalTrainer.workingSet(prev, changes, null);
+		assertEquals(4, ws.l);
+		assertArrayEquals(new double[] { 1, 3, 3, 1 }, ws.y, 0);
+		assertSame(prev.SV[0], ws.x[0]);
+		assertSame(prev.SV[2], ws.x[1]);
+		assertSame(changes.x[0], ws.x[2]);
+	}
+
+	@Test
+	public void testReplacedFeatures() {
+		svm_model prev = model(svm_parameter.RBF);
+		// 第二個 support vector 的 feature 被修改: 只給新的版本時無法找到原本的 support vector
+		svm_problem changes = problem(new double[] { 2 }, nodes(0, 1.5, 0));
+		assertEquals(4, IncrementalTrainer.workingSet(prev, changes, null).l);
+
+		svm_problem ws = IncrementalTrainer.workingSet(prev, changes, new svm_node[][] { nodes(0, 1, 0) });
+		assertEquals(3, ws.l);
+		assertArrayEquals(new double[] { 1, 3, 2 }, ws.y, 0);
+		assertSame(prev.SV[0], ws.x[0]);
+		assertSame(prev.SV[2], ws.x[1]);
+		assertSame(changes.x[0], ws.x[2]);
+
+		ws = IncrementalTrainer.workingSet(prev, problem(new double[0]), new svm_node[][] { nodes(0, 0, 1) });		// 刪除
+		assertEquals(2, ws.l);
+	}
+
+	@Test
+	public void testDriftWithoutFullData() {
+		svm_model prev = model(svm_parameter.RBF);
+		svm_problem shifted = problem(new double[] { 2, 3, 3 }, nodes(2, 0, 0), nodes(0, 2, 0), nodes(0, 0, 2));
+		svm_parameter param = new LibSVM().param;
+		param.kernel_type = svm_parameter.RBF;
+		param.gamma = 1.0 / 3;
+		IncrementalTrainer t = new IncrementalTrainer(param);
+		IncrementalTrainer.Result r = t.train(prev, shifted, null);
+		assertTrue(r.isDrifted());		// 沒有完整資料, 仍為增量訓練但需通知呼叫者
+		assertTrue(r.isIncremental());
+		assertEquals(IncrementalTrainer.workingSet(prev, shifted, null).l, r.getWorkingSetSize());
+		assertNotNull(r.getModel());
+
+		t.setDriftThreshold(1);
+		assertFalse(t.train(prev, shifted, null).isDrifted());
+	}
+
+	@Test
+	public void testDrift() {
+		svm_model prev = model(svm_parameter.RBF);
+		svm_problem same = problem(new double[] { 1, 2, 3 }, nodes(2, 0, 0), nodes(0, 2, 0), nodes(0, 0, 2));
+		svm_problem shifted = problem(new double[] { 2, 3, 3 }, nodes(2, 0, 0), nodes(0, 2, 0), nodes(0, 0, 2));
+		assertEquals(0, IncrementalTrainer.errorRate(prev, same), 0);
+		assertEquals(2 / 3.0, IncrementalTrainer.errorRate(prev, shifted), 1e-12);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidParameter() {
+		svm_parameter param = new svm_parameter();		// cache_size 與 eps 為 0
+		param.svm_type = svm_parameter.C_SVC;
+		new IncrementalTrainer(param);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRegressionNotSupported() {
+		svm_parameter param = new svm_parameter();
+		param.svm_type = svm_parameter.EPSILON_SVR;
+		new IncrementalTrainer(param);
+	}
+}
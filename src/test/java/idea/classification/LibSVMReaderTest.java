@@ -0,0 +1,59 @@
+/**
+ *
+ */
+package idea.classification;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.*;
+import java.util.Random;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class LibSVMReaderTest {
+	static LibSVMReader reader(String text) throws IOException {
+		return new LibSVMReader(new ByteArrayInputStream(text.getBytes("UTF-8")));
+	}
+
+	@Test
+	public void testParse() throws IOException {
+		LibSVMReader r = reader("+1 1:0.5 3:-2e-3\r\n\n-1\t2:1.25E+2   7:12345678901234567890\n3 1:.5");
+		SparseDataset d = r.readAll();
+		assertEquals(3, d.size());
+		assertEquals(5, d.nnz());
+		assertEquals(7, d.getMaxIndex());
+		assertArrayEquals(new double[] { 1, -1, 3 }, new double[] { d.getLabel(0), d.getLabel(1), d.getLabel(2) }, 0);
+		assertArrayEquals(new int[] { 0, 2, 4, 5 }, d.getRowStart());
+		assertArrayEquals(new int[] { 1, 3, 2, 7, 1 }, d.getIndex());
+		assertArrayEquals(new double[] { 0.5, -2e-3, 125, 12345678901234567890.0, 0.5 }, d.getValue(), 0);
+		assertEquals(-2e-3, d.toProblem().x[0][1].value, 0);
+	}
+
+	@Test
+	public void testSameAsParseDouble() throws IOException {
+		Random rand = new Random(7);
+		StringBuilder sb = new StringBuilder();
+		double[] expected = new double[2000];
+		for (int i = 0; i < expected.length; i++) {
+			String v;
+			switch (i % 4) {
+				case 0: v = Double.toString(rand.nextGaussian()); break;
+				case 1: v = String.format("%.6f", rand.nextDouble() * 1000); break;
+				case 2: v = Double.toString(rand.nextDouble() * Math.pow(10, rand.nextInt(60) - 30)); break;
+				default: v = String.valueOf(rand.nextInt(100000)); break;
+			}
+			expected[i] = Double.parseDouble(v);
+			sb.append("0 1:").append(v).append('\n');
+		}
+		SparseDataset d = reader(sb.toString()).readAll();
+		assertArrayEquals(expected, d.getValue(), 0);
+	}
+
+	@Test(expected = IOException.class)
+	public void testFormatError() throws IOException {
+		reader("1 1:0.5 2\n").readAll();
+	}
+}
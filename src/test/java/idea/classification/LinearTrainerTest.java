@@ -0,0 +1,51 @@
+/**
+ *
+ */
+package idea.classification;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.Random;
+
+import libsvm.*;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class LinearTrainerTest {
+	@Test
+	public void testSeparableThreeClasses() {
+		// 三群資料分別在 (5, 0), (0, 5), (-5, -5) 附近
+		double[][] centers = { { 5, 0 }, { 0, 5 }, { -5, -5 } };
+		Random rand = new Random(1);
+		svm_problem prob = new svm_problem();
+		prob.l = 300;
+		prob.x = new svm_node[prob.l][];
+		prob.y = new double[prob.l];
+		for (int i = 0; i < prob.l; i++) {
+			int c = i % 3;
+			prob.y[i] = c + 1;
+			prob.x[i] = SVMScorerTest.nodes(centers[c][0] + rand.nextGaussian(), centers[c][1] + rand.nextGaussian());
+		}
+
+		svm_parameter param = new svm_parameter();
+		param.C = 1;
+		LinearTrainer t = new LinearTrainer(param);
+		svm_model model = t.train(prob);
+		assertEquals(3, model.nr_class);
+		assertArrayEquals(new int[] { 1, 2, 3 }, model.label);
+		for (int iter : t.getIterations())
+			assertTrue(iter < 1000);
+
+		SVMScorer s = new SVMScorer(model);
+		assertTrue(s.isLinear());
+		int correct = 0;
+		for (int i = 0; i < prob.l; i++)
+			if (s.predict(prob.x[i]) == prob.y[i])
+				correct++;
+		assertTrue(correct >= prob.l - 3);
+		assertEquals(3, s.predict(new double[] { -6, -4 }), 0);
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ *
+ */
+package idea.classification;
+
+import static org.junit.Assert.*;
+import static idea.classification.SVMScorerTest.*;
+import org.junit.*;
+
+import java.io.*;
+
+import libsvm.*;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class ModelRegistryTest {
+	File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("model", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testReloadWhenModified() throws IOException {
+		new BinaryModel(model(svm_parameter.RBF)).save(file.getPath());
+		ModelRegistry registry = new ModelRegistry();
+		svm_model m = registry.get(file.getPath());
+		SVMScorer s = registry.getScorer(file.getPath());
+		assertEquals(svm_parameter.RBF, m.param.kernel_type);
+		assertSame(m, registry.get(file.getPath()));		// 只載入一次
+		assertSame(s, registry.getScorer(file.getPath()));
+
+		long modified = file.lastModified();
+		new BinaryModel(model(svm_parameter.LINEAR)).save(file.getPath());		// 重新訓練
+		assertTrue(file.setLastModified(modified + 2000));
+		svm_model reloaded = registry.get(file.getPath());
+		assertNotSame(m, reloaded);
+		assertEquals(svm_parameter.LINEAR, reloaded.param.kernel_type);
+		assertNotSame(s, registry.getScorer(file.getPath()));		// scorer 與 model 一起重建
+		assertEquals(1, registry.size());
+	}
+
+	@Test
+	public void testNoCheckModified() throws IOException {
+		new BinaryModel(model(svm_parameter.RBF)).save(file.getPath());
+		ModelRegistry registry = new ModelRegistry();
+		registry.setCheckModified(false);
+		svm_model m = registry.get(file.getPath());
+
+		long modified = file.lastModified();
+		new BinaryModel(model(svm_parameter.LINEAR)).save(file.getPath());
+		assertTrue(file.setLastModified(modified + 2000));
+		assertSame(m, registry.get(file.getPath()));
+
+		registry.evict(file.getPath());
+		assertEquals(svm_parameter.LINEAR, registry.get(file.getPath()).param.kernel_type);
+	}
+
+	@Test
+	public void testPrecomputedPredictor() throws IOException {
+		new BinaryModel(model(svm_parameter.PRECOMPUTED)).save(file.getPath());
+		ModelRegistry registry = new ModelRegistry();
+		try {
+			registry.getScorer(file.getPath());
+			fail("precomputed kernel 無法建立 scorer");
+		} catch (IllegalArgumentException e) {
+		}
+
+		BatchPredictor p = registry.getPredictor(file.getPath());		// 改用 svm.svm_predict
+		assertNull(p.scorer);
+		assertSame(registry.get(file.getPath()), p.model);
+
+		new BinaryModel(model(svm_parameter.RBF)).save(file.getPath());
+		registry.evict(file.getPath());
+		assertNotNull(registry.getPredictor(file.getPath()).scorer);
+	}
+}
@@ -0,0 +1,52 @@
+/**
+ *
+ */
+package idea.classification;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.Random;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class RocCurveTest {
+	@Test
+	public void testCurve() {
+		double[] actual = { 1, 1, -1, 1, -1, -1 };
+		double[] score  = { 0.9, 0.8, 0.7, 0.6, 0.6, 0.1 };
+		RocCurve roc = new RocCurve(actual, score, 1);
+		assertArrayEquals(new double[] { 0, 0, 0, 1 / 3.0, 2 / 3.0, 1 }, roc.getFPR(), 1e-12);
+		assertArrayEquals(new double[] { 0, 1 / 3.0, 2 / 3.0, 2 / 3.0, 1, 1 }, roc.getTPR(), 1e-12);
+		assertEquals(Double.POSITIVE_INFINITY, roc.getThresholds()[0], 0);
+		assertEquals(0.6, roc.getThresholds()[4], 0);		// 分數相同的兩筆為同一點
+		// 9 組 (positive, negative) 中, 7 組排序正確, 1 組同分算 0.5
+		assertEquals(7.5 / 9, roc.getAUC(), 1e-12);
+	}
+
+	@Test
+	public void testAucMatchesPairCount() {
+		Random rand = new Random(11);
+		int n = 500;
+		double[] actual = new double[n], score = new double[n];
+		for (int i = 0; i < n; i++) {
+			actual[i] = rand.nextBoolean()? 1 : 0;
+			score[i] = Math.round((rand.nextGaussian() + actual[i]) * 4) / 4.0;	// 包含很多同分
+		}
+		double pairs = 0, correct = 0;
+		for (int i = 0; i < n; i++)
+			for (int j = 0; j < n; j++)
+				if (actual[i] == 1 && actual[j] == 0) {
+					pairs++;
+					correct += (score[i] > score[j])? 1 : (score[i] == score[j])? 0.5 : 0;
+				}
+		assertEquals(correct / pairs, RocCurve.auc(actual, score, 1), 1e-12);
+	}
+
+	@Test
+	public void testSingleClass() {
+		assertTrue(Double.isNaN(RocCurve.auc(new double[] { 1, 1 }, new double[] { 0.2, 0.4 }, 1)));
+	}
+}
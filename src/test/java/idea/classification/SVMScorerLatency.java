@@ -0,0 +1,147 @@
+/**
+ *
+ */
+package idea.classification;
+
+import java.util.*;
+
+import libsvm.*;
+
+/**
+ * 量測單筆預測的延遲 (p50, p99), 比較 {@link SVMScorer} 與 svm.svm_predict.
+ * 不是 unit test, 需要真正的 libsvm 才能比較, 以 main 執行:
+ * java -cp target/classes:target/test-classes:libsvm.jar idea.classification.SVMScorerLatency [sv 數] [feature 數]
+ *
+ * @author Miles Chen
+ */
+public class SVMScorerLatency {
+	/** 每種方式量測的筆數. */
+	static final int N = 20000;
+	/** 暖機的筆數, 讓 JIT 編譯完成. */
+	static final int WARMUP = 20000;
+
+	/**
+	 * 建立隨機的兩類別 model.
+	 *
+	 * @param kernel_type kernel
+	 * @param l           support vector 數
+	 * @param dim         feature 數, 每個 support vector 約一半非 0
+	 * @param rand        random
+	 * @return model
+	 */
+	static svm_model model(int kernel_type, int l, int dim, Random rand) {
+		svm_model m = new svm_model();
+		m.param = new svm_parameter();
+		m.param.svm_type = svm_parameter.C_SVC;
+		m.param.kernel_type = kernel_type;
+		m.param.gamma = 1.0 / dim;
+		m.nr_class = 2;
+		m.l = l;
+		m.label = new int[] { 1, -1 };
+		m.nSV = new int[] { l / 2, l - l / 2 };
+		m.SV = new svm_node[l][];
+		m.sv_coef = new double[1][l];
+		for (int i = 0; i < l; i++) {
+			m.SV[i] = row(dim, rand);
+			m.sv_coef[0][i] = (i < l / 2)? rand.nextDouble() : -rand.nextDouble();
+		}
+		m.rho = new double[] { rand.nextGaussian() };
+		return m;
+	}
+
+	/**
+	 * 建立約一半非 0 的隨機資料.
+	 *
+	 * @param dim  feature 數
+	 * @param rand random
+	 * @return 資料
+	 */
+	static svm_node[] row(int dim, Random rand) {
+		List<svm_node> nodes = new ArrayList<svm_node>();
+		for (int j = 1; j <= dim; j++)
+			if (rand.nextBoolean()) {
+				svm_node n = new svm_node();
+				n.index = j;
+				n.value = rand.nextGaussian();
+				nodes.add(n);
+			}
+		return nodes.toArray(new svm_node[nodes.size()]);
+	}
+
+	/** 單筆預測. */
+	interface Predictor {
+		double predict(int i);
+	}
+
+	/**
+	 * 量測每筆預測的時間並輸出 p50, p99.
+	 *
+	 * @param name 名稱
+	 * @param n    資料筆數
+	 * @param p    預測
+	 * @return 所有預測結果的和, 避免被 JIT 省略
+	 */
+	static double measure(String name, int n, Predictor p) {
+		double sum = 0;
+		for (int i = 0; i < WARMUP; i++)
+			sum += p.predict(i % n);
+
+		long[] t = new long[N];
+		for (int i = 0; i < N; i++) {
+			long start = System.nanoTime();
+			sum += p.predict(i % n);
+			t[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(t);
+		System.out.printf("%-28s p50 = %8.2f us  p99 = %8.2f us%n", name, t[N / 2] / 1e3, t[(int) (N * 0.99)] / 1e3);
+		return sum;
+	}
+
+	public static void main(String[] args) {
+		int l = (args.length > 0)? Integer.parseInt(args[0]) : 1000;
+		int dim = (args.length > 1)? Integer.parseInt(args[1]) : 100;
+		svm.svm_set_print_string_function(new svm_print_interface() {
+			public void print(String s) {
+			}
+		});
+
+		Random rand = new Random(1);
+		final int n = 1000;
+		final svm_node[][] x = new svm_node[n][];
+		final double[][] dense = new double[n][dim];
+		for (int i = 0; i < n; i++) {
+			x[i] = row(dim, rand);
+			for (svm_node node : x[i])
+				dense[i][node.index - 1] = node.value;
+		}
+
+		System.out.printf("%d support vectors, %d features%n", l, dim);
+		double check = 0;
+		for (int kernel_type : new int[] { svm_parameter.LINEAR, svm_parameter.RBF }) {
+			final svm_model m = model(kernel_type, l, dim, rand);
+			final SVMScorer scorer = new SVMScorer(m);
+			String kernel = (kernel_type == svm_parameter.LINEAR)? "linear" : "rbf";
+
+			for (int i = 0; i < n; i++)
+				if (scorer.predict(x[i]) != svm.svm_predict(m, x[i]))
+					throw new IllegalStateException("SVMScorer 與 svm_predict 結果不同: " + kernel + " " + i);
+
+			check += measure(kernel + " svm_predict", n, new Predictor() {
+				public double predict(int i) {
+					return svm.svm_predict(m, x[i]);
+				}
+			});
+			check += measure(kernel + " SVMScorer svm_node[]", n, new Predictor() {
+				public double predict(int i) {
+					return scorer.predict(x[i]);
+				}
+			});
+			check += measure(kernel + " SVMScorer double[]", n, new Predictor() {
+				public double predict(int i) {
+					return scorer.predict(dense[i]);
+				}
+			});
+		}
+		System.out.println("(checksum " + check + ")");
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ *
+ */
+package idea.classification;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.lang.ref.WeakReference;
+import java.util.Random;
+
+import libsvm.*;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class SVMScorerTest {
+	/** 建立 sparse 資料. */
+	static svm_node[] nodes(double... x) {
+		int n = 0;
+		for (double v : x)
+			if (v != 0)
+				n++;
+		svm_node[] nodes = new svm_node[n];
+		for (int i = 0, k = 0; i < x.length; i++)
+			if (x[i] != 0) {
+				nodes[k] = new svm_node();
+				nodes[k].index = i + 1;
+				nodes[k].value = x[i];
+				k++;
+			}
+		return nodes;
+	}
+
+	/** 三類別 RBF model, 每類別一個 support vector. */
+	static svm_model model(int kernel_type) {
+		svm_model m = new svm_model();
+		m.param = new svm_parameter();
+		m.param.svm_type = svm_parameter.C_SVC;
+		m.param.kernel_type = kernel_type;
+		m.param.gamma = 0.5;
+		m.nr_class = 3;
+		m.l = 3;
+		m.label = new int[] { 1, 2, 3 };
+		m.nSV = new int[] { 1, 1, 1 };
+		m.SV = new svm_node[][] { nodes(1, 0, 0), nodes(0, 1, 0), nodes(0, 0, 1) };
+		m.sv_coef = new double[][] { { 1, -1, -1 }, { 1, 1, -1 } };
+		m.rho = new double[] { 0, 0, 0 };
+		return m;
+	}
+
+	@Test
+	public void testRbfNearestSupportVector() {
+		SVMScorer s = new SVMScorer(model(svm_parameter.RBF));
+		assertEquals(1, s.predict(new double[] { 2, 0, 0 }), 0);
+		assertEquals(2, s.predict(new double[] { 0, 2, 0 }), 0);
+		assertEquals(3, s.predict(new double[] { 0, 0, 2 }), 0);
+		assertEquals(3, s.predict(nodes(0, 0.1, 2, 5)), 0);	// 超過 support vector 的 feature
+	}
+
+	@Test
+	public void testDecisionValues() {
+		SVMScorer s = new SVMScorer(model(svm_parameter.RBF));
+		double[] x = { 0.3, -0.2, 0.7, 0.4 };
+		double[] dense = new double[s.getDecisionValueCount()];
+		double[] sparse = new double[s.getDecisionValueCount()];
+		s.predictValues(x, dense);
+		s.predictValues(nodes(x), sparse);
+
+		// 類別 1 vs 2: coef[0][0] * K(x, sv1) + coef[0][1] * K(x, sv2)
+		double k1 = Math.exp(-0.5 * (0.7 * 0.7 + 0.2 * 0.2 + 0.7 * 0.7 + 0.4 * 0.4));
+		double k2 = Math.exp(-0.5 * (0.3 * 0.3 + 1.2 * 1.2 + 0.7 * 0.7 + 0.4 * 0.4));
+		assertEquals(k1 - k2, dense[0], 1e-12);
+		assertArrayEquals(dense, sparse, 1e-12);
+	}
+
+	@Test
+	public void testLinearRegression() {
+		svm_model m = new svm_model();
+		m.param = new svm_parameter();
+		m.param.svm_type = svm_parameter.EPSILON_SVR;
+		m.param.kernel_type = svm_parameter.LINEAR;
+		m.nr_class = 2;
+		m.l = 2;
+		m.SV = new svm_node[][] { nodes(1, 2), nodes(0, 1) };
+		m.sv_coef = new double[][] { { 0.5, -1 } };
+		m.rho = new double[] { 0.25 };
+
+		SVMScorer s = new SVMScorer(m);
+		// 0.5 * (3 + 8) - 1 * 4 - 0.25
+		assertEquals(1.25, s.predict(new double[] { 3, 4 }), 1e-12);
+		double[] pred = new double[2];
+		s.predict(new svm_node[][] { nodes(3, 4), nodes(0, 0) }, pred);
+		assertArrayEquals(new double[] { 1.25, -0.25 }, pred, 1e-12);
+	}
+
+	@Test
+	public void testLinearWeightsMatchKernel() {
+		svm_model m = model(svm_parameter.LINEAR);
+		SVMScorer s = new SVMScorer(m);
+		assertTrue(s.isLinear());
+
+		svm_model p = model(svm_parameter.POLY);		// degree 1, gamma 1 的 poly 與 linear 相同, 但逐一計算 support vector
+		p.param.degree = 1;
+		p.param.gamma = 1;
+		SVMScorer k = new SVMScorer(p);
+		assertFalse(k.isLinear());
+
+		double[] x = { 0.3, -0.2, 0.7 };
+		double[] dw = new double[3], dk = new double[3];
+		assertEquals(k.predictValues(x, dk), s.predictValues(x, dw), 0);
+		assertArrayEquals(dk, dw, 1e-12);
+		assertEquals(s.predict(x), s.predict(nodes(x)), 0);
+	}
+
+	@Test
+	public void testSharedScratch() {
+		svm_model m = model(svm_parameter.RBF);
+		SVMScorer small = new SVMScorer(m);
+		double[] x = { 0.5, 1, 0.2 };
+		double[] dec = new double[3];
+		double pred = small.predictValues(nodes(x), dec);
+
+		Random rand = new Random(1);
+		SVMScorer large = new SVMScorer(SVMScorerLatency.model(svm_parameter.RBF, 50, 20, rand));
+		large.predict(SVMScorerLatency.row(20, rand));		// 加大目前 thread 的暫存陣列
+		double[] dec2 = new double[3];
+		assertEquals(pred, small.predictValues(nodes(x), dec2), 0);
+		assertArrayEquals(dec, dec2, 0);
+		assertEquals(pred, small.predict(x), 0);
+	}
+
+	@Test
+	public void testScorerCollectable() throws InterruptedException {
+		SVMScorer s = new SVMScorer(model(svm_parameter.RBF));
+		s.predict(nodes(1, 0, 0));
+		WeakReference<SVMScorer> ref = new WeakReference<SVMScorer>(s);
+		s = null;
+		for (int i = 0; i < 50 && ref.get() != null; i++) {		// thread 的暫存陣列不參考 scorer
+			System.gc();
+			Thread.sleep(20);
+		}
+		assertNull(ref.get());
+	}
+}
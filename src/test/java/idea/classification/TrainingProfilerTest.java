@@ -0,0 +1,119 @@
+/**
+ *
+ */
+package idea.classification;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.*;
+
+import libsvm.*;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class TrainingProfilerTest {
+	@Test
+	public void testParseOutput() {
+		TrainingProfiler p = new TrainingProfiler();
+		p.report = new TrainingProfiler.Report(2048, 8);
+		// libsvm 以多次呼叫輸出, 一行可能被分開
+		String[] out = {
+			".", ".", "*", ".", "\nWARNING: using -h 0 may be faster\n", "*",
+			"\noptimization finished, #iter = 3521\n", "nu = 0.41\n", "obj = -812.5, rho = 0.25\n", "nSV = 900, nBSV = 700\n",
+			"\noptimization fin", "ished, #iter = 12\n", "obj = -3.5e-2, rho = -1.5\n", "nSV = 5, nBSV = 0\n",
+			"Total nSV = 903\n",
+		};
+		for (String s : out)
+			p.output(s);
+
+		TrainingProfiler.Report r = p.getReport();
+		assertEquals(2, r.getSolves().size());
+		assertEquals(3533, r.getIterations());
+		assertEquals(2L * 2048 * 3533, r.getKernelEvaluationBound());
+		assertEquals(2, r.getUnshrinkCount());
+		assertTrue(r.isShrinkingSlow());
+		assertEquals(903, r.getTotalSV());
+		TrainingProfiler.Solve s = r.getSolves().get(1);
+		assertEquals(12, s.getIterations());
+		assertEquals(5, s.getSV());
+		assertEquals(-3.5e-2, s.getObjective(), 0);
+		assertEquals(-1.5, s.getRho(), 0);
+		assertEquals(700, r.getSolves().get(0).getBoundedSV());
+		assertEquals(0.5, r.getCacheCoverage(), 1e-12);		// 2048 * 2048 * 4 bytes = 16MB
+	}
+
+	@Test
+	public void testAutoCacheSize() {
+		assertEquals(16, TrainingProfiler.kernelMatrixMB(2048), 0);
+		assertEquals(new LibSVM().param.cache_size, TrainingProfiler.MIN_CACHE_MB, 0);		// 不小於預設值
+		assertEquals(100, TrainingProfiler.autoCacheSize(2048, 1L << 30), 0);
+		assertEquals(100, TrainingProfiler.autoCacheSize(100000, 100L << 20), 0);		// heap 不足時仍使用預設值
+		assertEquals(3907, TrainingProfiler.autoCacheSize(32000, 8L << 30), 0);		// 整個 kernel matrix
+		assertEquals(512, TrainingProfiler.autoCacheSize(100000, 1L << 30), 0);		// heap 的一半
+	}
+
+	/** 收集輸出的函式. */
+	static class Collector implements svm_print_interface {
+		final StringBuffer out = new StringBuffer();
+
+		public void print(String s) {
+			out.append(s);
+		}
+	}
+
+	@After
+	public void tearDown() {
+		TrainingProfiler.setPrintFunction(null);
+	}
+
+	@Test
+	public void testDispatchByThread() throws InterruptedException {
+		Collector c = new Collector();
+		TrainingProfiler.setPrintFunction(c);
+		TrainingProfiler p = new TrainingProfiler();
+		p.report = new TrainingProfiler.Report(10, 1);
+		TrainingProfiler.CURRENT.set(p);
+		try {
+			TrainingProfiler.DISPATCH.print("optimization finished, #iter = 5\n");
+			Thread t = new Thread() {
+				public void run() {		// 例: 同時計算的 cross validation
+					TrainingProfiler.DISPATCH.print("optimization finished, #iter = 7\n");
+				}
+			};
+			t.start();
+			t.join();
+		} finally {
+			TrainingProfiler.CURRENT.remove();
+		}
+		assertEquals(1, p.getReport().getSolves().size());
+		assertEquals(5, p.getReport().getIterations());
+		assertEquals("optimization finished, #iter = 7\n", c.out.toString());		// 交給原本的輸出函式
+	}
+
+	@Test
+	public void testEchoToPrintFunction() {
+		Collector c = new Collector();
+		TrainingProfiler.setPrintFunction(c);
+		TrainingProfiler p = new TrainingProfiler();
+		p.report = new TrainingProfiler.Report(10, 1);
+		p.setEcho(true);
+		p.output("Total nSV = 3\n");
+		assertEquals("Total nSV = 3\n", c.out.toString());
+		assertEquals(3, p.getReport().getTotalSV());
+	}
+
+	@Test
+	public void testTrainReleasesOutput() {
+		svm_parameter param = new svm_parameter();
+		param.kernel_type = svm_parameter.LINEAR;
+		param.C = 1;
+		param.eps = 1e-3;
+		param.cache_size = 1;
+		new TrainingProfiler().train(CrossValidationTest.problem(), param);
+		assertEquals(0, TrainingProfiler.active);
+		assertNull(TrainingProfiler.CURRENT.get());
+	}
+}
@@ -0,0 +1,152 @@
+/**
+ *
+ */
+package idea.conn;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class HttpHedgeTest {
+	protected HttpServer server;
+	protected final AtomicInteger hits = new AtomicInteger();
+
+	@Before
+	public void setUp() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/slow-first", new HttpHandler() {		// 第一個請求 1 秒後才回應
+			public void handle(HttpExchange t) throws IOException {
+				if (hits.incrementAndGet() == 1)
+					pause(1000);
+				reply(t, 200, "ok");
+			}
+		});
+		server.createContext("/missing", new HttpHandler() {
+			public void handle(HttpExchange t) throws IOException {
+				hits.incrementAndGet();
+				reply(t, 404, "missing");
+			}
+		});
+		server.createContext("/busy-first", new HttpHandler() {		// 第一個請求回應 503, 1 秒後再試
+			public void handle(HttpExchange t) throws IOException {
+				if (hits.incrementAndGet() == 1) {
+					t.getResponseHeaders().add("Retry-After", "1");
+					reply(t, 503, "busy");
+				} else
+					reply(t, 200, "ok");
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	static void pause(long ms) {
+		try {
+			Thread.sleep(ms);
+		} catch (InterruptedException e) {
+		}
+	}
+
+	static void reply(HttpExchange t, int code, String body) throws IOException {
+		byte[] b = body.getBytes("UTF-8");
+		t.sendResponseHeaders(code, b.length);
+		OutputStream out = t.getResponseBody();
+		out.write(b);
+		out.close();
+	}
+
+	protected HttpConn conn(String path, HttpHedge hedge) throws IOException {
+		HttpConn c = new HttpConn();
+		c.openConnection("http://127.0.0.1:" + server.getAddress().getPort() + path);
+		c.setHedge(hedge);
+		return c;
+	}
+
+	@Test
+	public void testBudget() {
+		HttpHedge hedge = new HttpHedge(0.1);
+		assertFalse(hedge.tryHedge());
+		for (int i = 0; i < 10; i++)
+			hedge.requested();
+		assertTrue(hedge.tryHedge());
+		assertFalse(hedge.tryHedge());		// 10 個請求只能有 1 個 hedge
+		for (int i = 0; i < 10; i++)
+			hedge.requested();
+		assertTrue(hedge.tryHedge());
+		assertEquals(2, hedge.getHedges());
+	}
+
+	@Test
+	public void testDelay() {
+		HttpHedge hedge = new HttpHedge(0.05);
+		hedge.setPercentile(0.95, 80);
+		for (int i = 1; i < 20; i++)
+			hedge.completed("a", i, false);
+		assertEquals(80, hedge.delay("a"));		// 樣本數不足
+		for (int i = 20; i <= 100; i++)
+			hedge.completed("a", i, false);
+		assertEquals(96, hedge.delay("a"));
+		assertEquals(80, hedge.delay("b"));
+		hedge.setDelay(30);
+		assertEquals(30, hedge.delay("a"));
+	}
+
+	@Test
+	public void testHedgeOnLatency() throws IOException {
+		HttpHedge hedge = new HttpHedge(1);
+		hedge.setDelay(100);
+		long start = System.nanoTime();
+		assertEquals("ok", conn("/slow-first", hedge).request());
+		assertTrue((System.nanoTime() - start) / 1000000 < 900);
+		assertEquals(1, hedge.getHedges());
+		assertEquals(1, hedge.getHedgeWins());
+	}
+
+	@Test
+	public void testNoHedgeOnHttpError() throws IOException {
+		HttpHedge hedge = new HttpHedge(1);
+		hedge.setDelay(500);
+		HttpConn c = conn("/missing", hedge);
+		try {
+			c.request();
+			fail("404 應丟出例外");
+		} catch (IOException e) {
+		}
+		assertEquals(404, c.getResponseCode());
+		assertEquals(0, hedge.getHedges());
+		assertEquals(1, hits.get());
+	}
+
+	@Test
+	public void testRetryAfterThrottles() throws IOException {
+		HttpHedge hedge = new HttpHedge(1);
+		hedge.setDelay(2000);
+		HttpThrottle throttle = new HttpThrottle(100, 10, 4);
+		HttpConn c = conn("/busy-first", hedge);
+		c.setThrottle(throttle);
+		long start = System.nanoTime();
+		assertEquals("ok", c.request());
+		assertTrue((System.nanoTime() - start) / 1000000 >= 900);		// 依 Retry-After 暫停
+		assertEquals(200, c.getResponseCode());
+		assertEquals(2, hits.get());
+		assertEquals(0, hedge.getHedges());
+	}
+}
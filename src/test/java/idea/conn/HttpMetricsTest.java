@@ -0,0 +1,31 @@
+/**
+ *
+ */
+package idea.conn;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class HttpMetricsTest {
+	@Test
+	public void testDnsOnlyOnCacheMiss() throws Exception {
+		HttpMetrics metrics = new HttpMetrics();
+		for (int i = 0; i < 3; i++) {
+			HttpMetrics.Exchange ex = metrics.begin("localhost", "GET");
+			ex.resolve();
+			ex.completed(false);
+		}
+		HttpMetrics.Snapshot s = metrics.snapshot().get("localhost GET");
+		assertEquals(3, s.getRequests());
+		assertEquals(1, s.getDns().getCount());		// 之後由 JVM 快取取得
+
+		HttpMetrics.Exchange ex = metrics.begin("127.0.0.1", "GET");
+		ex.resolve();
+		ex.completed(false);
+		assertEquals(0, metrics.snapshot().get("127.0.0.1 GET").getDns().getCount());
+	}
+}
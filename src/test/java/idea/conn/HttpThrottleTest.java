@@ -0,0 +1,86 @@
+/**
+ * 
+ */
+package idea.conn;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class HttpThrottleTest {
+	@Test
+	public void testParseRetryAfter() {
+		assertEquals(120000, HttpThrottle.parseRetryAfter("120"));
+		assertEquals(-1, HttpThrottle.parseRetryAfter(null));
+		assertEquals(-1, HttpThrottle.parseRetryAfter("soon"));
+		assertEquals(0, HttpThrottle.parseRetryAfter("Thu, 01 Jan 1970 00:00:00 GMT"));
+	}
+
+	@Test
+	public void testIdempotent() {
+		assertTrue(HttpThrottle.isIdempotent(HttpConn.GET));
+		assertTrue(HttpThrottle.isIdempotent(HttpConn.PUT));
+		assertFalse(HttpThrottle.isIdempotent(HttpConn.POST));
+	}
+
+	@Test
+	public void testTokenBucket() {
+		HttpThrottle throttle = new HttpThrottle(10, 2, 4);
+		HttpThrottle.HostLimiter limiter = throttle.limiter("example.com");
+
+		assertEquals(0, limiter.reserve());
+		assertEquals(0, limiter.reserve());
+		long wait = limiter.reserve();		// burst 用完, 需等約 1/10 秒
+		assertTrue(wait > 50 && wait <= 100);
+	}
+
+	@Test
+	public void testRetryAfterPausesHost() {
+		HttpThrottle throttle = new HttpThrottle(100, 10, 4);
+		HttpThrottle.HostLimiter limiter = throttle.limiter("example.com");
+
+		limiter.throttled(2000);
+		long wait = limiter.reserve();
+		assertTrue(wait > 1900 && wait <= 2000);
+		assertTrue(throttle.limiter("other.com").reserve() == 0);
+	}
+
+	@Test
+	public void testWaitDoesNotHoldPermit() throws Exception {
+		HttpThrottle throttle = new HttpThrottle(2, 1, 1);
+		final HttpThrottle.HostLimiter limiter = throttle.limiter("example.com");
+		limiter.acquire();
+		limiter.release(0, true);
+
+		Thread t = new Thread() {
+			public void run() {
+				try {
+					limiter.acquire();		// token 用完, 需等約 1/2 秒
+				} catch (Exception e) {
+				}
+			}
+		};
+		t.start();
+		Thread.sleep(200);
+		assertTrue(t.isAlive());
+		assertEquals(0, limiter.getInFlight());		// 等待 token 時不佔用連線數
+		t.join();
+		assertEquals(1, limiter.getInFlight());
+		limiter.release(0, true);
+	}
+
+	@Test
+	public void testAdaptiveDecrease() {
+		HttpThrottle throttle = new HttpThrottle(8, 1, 4);
+		throttle.setAdaptive(true, 1, 0);
+		HttpThrottle.HostLimiter limiter = throttle.limiter("example.com");
+
+		limiter.throttled(0);
+		assertEquals(4, limiter.getRate(), 1e-9);
+		limiter.increase();
+		assertEquals(4.25, limiter.getRate(), 1e-9);
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ * 
+ */
+package idea.conn;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class LatencyHistogramTest {
+	@Test
+	public void testPercentile() {
+		LatencyHistogram h = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++)
+			h.record(i * 1000000L);		// 1 ~ 1000 ms
+
+		LatencyHistogram.Snapshot s = h.snapshot();
+		assertEquals(1000, s.getCount());
+		assertEquals(500.5, s.getMean(), 1e-9);
+		assertEquals(1000, s.getMax(), 1e-9);
+		assertEquals(500, s.getPercentile(0.5), 500 * 0.125);
+		assertEquals(990, s.getPercentile(0.99), 990 * 0.125);
+	}
+
+	@Test
+	public void testIndexRoundTrip() {
+		for (long us = 0; us < 1000000; us = us * 3 / 2 + 1) {
+			long v = LatencyHistogram.value(LatencyHistogram.index(us));
+			assertEquals(us, v, Math.max(1, us * 0.125));
+		}
+	}
+
+	@Test
+	public void testReset() {
+		LatencyHistogram h = new LatencyHistogram();
+		h.record(5000);
+		h.reset();
+		assertEquals(0, h.snapshot().getCount());
+		assertEquals(0, h.snapshot().getPercentile(0.5), 0);
+	}
+}
@@ -0,0 +1,302 @@
+/**
+ *
+ */
+package idea.conn;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.common.session.ConnectionService;
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.common.session.helpers.AbstractConnectionService;
+import org.apache.sshd.server.Environment;
+import org.apache.sshd.server.ExitCallback;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.password.PasswordAuthenticator;
+import org.apache.sshd.server.channel.ChannelSession;
+import org.apache.sshd.server.command.Command;
+import org.apache.sshd.server.command.CommandFactory;
+import org.apache.sshd.server.forward.AcceptAllForwardingFilter;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class SSHRemoteTest {
+	protected SshServer sshd;
+	protected SSHSessionManager manager;
+	protected File root;
+	/** 同時執行中的指令數. */
+	protected final AtomicInteger running = new AtomicInteger();
+	/** 同時執行中的指令數最大值. */
+	protected final AtomicInteger max_running = new AtomicInteger();
+
+	@Before
+	public void setUp() throws IOException {
+		root = Files.createTempDirectory("sshd").toFile();
+		sshd = server();
+		sshd.setCommandFactory(new CommandFactory() {
+			public Command createCommand(ChannelSession channel, String command) {
+				return new Sleep(command);
+			}
+		});
+		sshd.setSubsystemFactories(Arrays.asList(new SftpSubsystemFactory()));
+		sshd.setFileSystemFactory(new VirtualFileSystemFactory(root.toPath()));
+		sshd.start();
+		manager = new SSHSessionManager();
+	}
+
+	/**
+	 * 建立本機的 SSH server, 密碼為 pw, 允許 port forwarding.
+	 *
+	 * @return 尚未啟動的 server
+	 */
+	static SshServer server() {
+		SshServer sshd = SshServer.setUpDefaultServer();
+		sshd.setHost("127.0.0.1");
+		sshd.setPort(0);
+		SimpleGeneratorHostKeyProvider keys = new SimpleGeneratorHostKeyProvider();
+		keys.setAlgorithm("RSA");		// jsch 0.1.54 不支援預設的 EC host key
+		sshd.setKeyPairProvider(keys);
+		sshd.setPasswordAuthenticator(new PasswordAuthenticator() {
+			public boolean authenticate(String username, String password, ServerSession session) {
+				return "pw".equals(password);
+			}
+		});
+		sshd.setForwardingFilter(AcceptAllForwardingFilter.INSTANCE);
+		return sshd;
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		manager.close();
+		sshd.stop(true);
+		for (File f : root.listFiles())
+			f.delete();
+		root.delete();
+	}
+
+	/**
+	 * 測試用的指令: "sleep ms text" 等待 ms 後輸出 text, text 為 fail 時 exit status 為 3.
+	 */
+	protected class Sleep implements Command, Runnable {
+		protected final String command;
+		protected OutputStream out, err;
+		protected ExitCallback callback;
+
+		protected Sleep(String command) {
+			this.command = command;
+		}
+
+		public void setInputStream(InputStream in) {
+		}
+
+		public void setOutputStream(OutputStream out) {
+			this.out = out;
+		}
+
+		public void setErrorStream(OutputStream err) {
+			this.err = err;
+		}
+
+		public void setExitCallback(ExitCallback callback) {
+			this.callback = callback;
+		}
+
+		public void start(ChannelSession channel, Environment env) {
+			new Thread(this).start();
+		}
+
+		public void destroy(ChannelSession channel) {
+		}
+
+		public void run() {
+			int n = running.incrementAndGet();
+			synchronized (max_running) {
+				max_running.set(Math.max(max_running.get(), n));
+			}
+			try {
+				String[] s = command.split(" ", 3);
+				Thread.sleep(Long.parseLong(s[1]));
+				out.write(s[2].getBytes("UTF-8"));
+				out.flush();
+				err.write("done".getBytes("UTF-8"));
+				err.flush();
+				running.decrementAndGet();
+				callback.onExit("fail".equals(s[2]) ? 3 : 0);
+			} catch (Exception e) {
+				running.decrementAndGet();
+				callback.onExit(1, e.toString());
+			}
+		}
+	}
+
+	protected SSH ssh(int port) {
+		SSH ssh = new SSH();
+		ssh.setSession("u", "127.0.0.1", port, "pw");
+		return ssh;
+	}
+
+	/**
+	 * 取得一個沒有人使用的 port.
+	 *
+	 * @return port
+	 */
+	static int closedPort() throws IOException {
+		ServerSocket s = new ServerSocket(0);
+		int port = s.getLocalPort();
+		s.close();
+		return port;
+	}
+
+	@Test
+	public void testExec() throws Exception {
+		SSHRemote remote = new SSHRemote(manager);
+		SSHRemote.Result r = remote.exec(ssh(sshd.getPort()), "sleep 10 hello");
+		assertTrue(r.isSuccess());
+		assertEquals(0, r.getExitStatus());
+		assertEquals("hello", r.getStdout());
+		assertEquals("done", r.getStderr());
+		assertEquals(9, r.getBytes());
+
+		r = remote.exec(ssh(sshd.getPort()), "sleep 10 fail");
+		assertFalse(r.isSuccess());
+		assertEquals(3, r.getExitStatus());
+	}
+
+	@Test
+	public void testUploadDownload() throws Exception {
+		byte[] data = new byte[300 << 10];
+		new Random(1).nextBytes(data);
+		File local = new File(root, "local.bin");
+		Files.write(local.toPath(), data);
+
+		SSHRemote remote = new SSHRemote(manager);
+		remote.setTransfer(4, 8192);
+		SSHRemote.Result r = remote.upload(ssh(sshd.getPort()), local, "/up.bin");
+		assertEquals(data.length, r.getBytes());
+		assertArrayEquals(data, Files.readAllBytes(new File(root, "up.bin").toPath()));
+
+		File back = new File(root, "back.bin");
+		r = remote.download(ssh(sshd.getPort()), "/up.bin", back);
+		assertEquals(data.length, r.getBytes());
+		assertArrayEquals(data, Files.readAllBytes(back.toPath()));
+	}
+
+	@Test
+	public void testFailureIsolation() throws Exception {
+		List<SSH> hosts = new ArrayList<SSH>();
+		hosts.add(ssh(sshd.getPort()));
+		hosts.add(ssh(closedPort()));		// 無法連線的主機
+		hosts.add(ssh(sshd.getPort()));
+
+		List<SSHRemote.Result> results = new SSHRemote(manager).execAll(hosts, "sleep 10 ok");
+		assertEquals(3, results.size());
+		assertTrue(results.get(0).isSuccess());
+		assertEquals("ok", results.get(0).getStdout());
+		assertFalse(results.get(1).isSuccess());
+		assertNotNull(results.get(1).getError());
+		assertTrue(results.get(2).isSuccess());
+		assertEquals("ok", results.get(2).getStdout());
+	}
+
+	@Test
+	public void testBoundedConcurrency() throws Exception {
+		List<SSH> hosts = new ArrayList<SSH>();
+		for (int i = 0; i < 6; i++)
+			hosts.add(ssh(sshd.getPort()));
+
+		SSHRemote remote = new SSHRemote(manager);
+		remote.setParallelism(2);
+		List<SSHRemote.Result> results = remote.execAll(hosts, "sleep 200 ok");
+		for (SSHRemote.Result r : results)
+			assertTrue(r.isSuccess());
+		assertEquals(2, max_running.get());		// 同時最多 2 台主機
+	}
+
+	/**
+	 * 伺服器上所有 session 開啟中的 channel 數.
+	 *
+	 * @return channel 數
+	 */
+	protected int openChannels() {
+		int n = 0;
+		for (Session session : sshd.getActiveSessions())
+			n += ((AbstractConnectionService) session.getService(ConnectionService.class)).getChannels().size();
+		return n;
+	}
+
+	@Test
+	public void testLocalFileError() throws Exception {
+		SSHRemote remote = new SSHRemote(manager);
+		remote.upload(ssh(sshd.getPort()), localFile("a.bin"), "/a.bin");
+		try {
+			remote.upload(ssh(sshd.getPort()), new File(root, "missing.bin"), "/b.bin");
+			fail("本地檔案不存在應丟出例外");
+		} catch (FileNotFoundException e) {
+		}
+		try {
+			remote.download(ssh(sshd.getPort()), "/a.bin", new File(root, "no/such/dir.bin"));
+			fail("本地檔案無法寫入應丟出例外");
+		} catch (FileNotFoundException e) {
+		}
+		for (int i = 0; i < 40 && openChannels() > 0; i++)		// channel 非同步關閉
+			Thread.sleep(50);
+		assertEquals(0, openChannels());
+	}
+
+	/**
+	 * 建立一個小的本地檔案.
+	 *
+	 * @param name 檔名
+	 * @return 檔案
+	 */
+	protected File localFile(String name) throws IOException {
+		File f = new File(root, name);
+		Files.write(f.toPath(), new byte[] { 1, 2, 3 });
+		return f;
+	}
+
+	@Test
+	public void testInterruptedKeepsOrder() throws Exception {
+		List<SSH> hosts = new ArrayList<SSH>();
+		for (int i = 0; i < 3; i++)
+			hosts.add(ssh(sshd.getPort()));
+		SSHRemote remote = new SSHRemote(manager);
+		remote.setParallelism(1);
+
+		final Thread caller = Thread.currentThread();
+		new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(300);
+				} catch (InterruptedException e) {
+				}
+				caller.interrupt();
+			}
+		}.start();
+		List<SSHRemote.Result> results = remote.execAll(hosts, "sleep 1000 ok");
+		assertTrue(Thread.interrupted());		// 保留中斷狀態
+		assertEquals(3, results.size());		// 每台主機都有結果
+		for (int i = 0; i < 3; i++)
+			assertEquals("127.0.0.1", results.get(i).getHost());
+		assertTrue(results.get(2).getError() instanceof InterruptedException);
+	}
+}
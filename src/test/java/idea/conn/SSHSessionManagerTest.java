@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package idea.conn;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import org.apache.sshd.server.SshServer;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class SSHSessionManagerTest {
+	@Test
+	public void testForwardRefCount() {
+		SSHSessionManager manager = new SSHSessionManager();
+		SSHSessionManager.ManagedSession s = manager.session("u", "127.0.0.1", 22, "pw");
+		SSHSessionManager.Forward f = new SSHSessionManager.Forward(5432, "db", 5432);
+		f.refs = 2;		// 兩個 SSH 共用同一個 tunnel
+		s.forwards.add(f);
+
+		s.removeForward(5432);
+		assertEquals(1, s.getForwardRefs(5432));		// 另一個仍在使用
+		s.removeForward(5432);
+		assertEquals(0, s.getForwardRefs(5432));
+		assertTrue(s.forwards.isEmpty());
+		manager.close();
+	}
+
+	@Test
+	public void testCloseDoesNotReconnect() {
+		SSHSessionManager manager = new SSHSessionManager();
+		SSH ssh = new SSH();
+		ssh.setSession("u", "127.0.0.1", 22, "pw");
+		ssh.setSessionManager(manager);
+		ssh.assigned_port = 5432;		// 已開啟的 tunnel
+		assertNull(manager.find("u", "127.0.0.1", 22));
+
+		manager.close();
+		ssh.close();
+		assertNull(manager.find("u", "127.0.0.1", 22));		// 不會建立新的 session
+		assertNull(manager.monitor);
+		assertEquals(-1, ssh.assigned_port);
+	}
+
+	/**
+	 * 開啟一個連上後回應 hi 的 server.
+	 *
+	 * @return server socket
+	 */
+	static ServerSocket greeter() throws IOException {
+		final ServerSocket server = new ServerSocket(0);
+		Thread t = new Thread() {
+			public void run() {
+				while (!server.isClosed()) {
+					try {
+						Socket s = server.accept();
+						OutputStream out = s.getOutputStream();
+						out.write("hi".getBytes("UTF-8"));
+						out.flush();
+						s.close();
+					} catch (IOException e) {
+						// server 已關閉
+					}
+				}
+			}
+		};
+		t.setDaemon(true);
+		t.start();
+		return server;
+	}
+
+	/**
+	 * 連線到 localhost port 並讀取回應.
+	 *
+	 * @param port localhost port
+	 * @return 回應內容
+	 */
+	static String read(int port) throws IOException {
+		Socket s = new Socket("127.0.0.1", port);
+		try {
+			s.setSoTimeout(5000);
+			InputStream in = s.getInputStream();
+			StringBuilder sb = new StringBuilder();
+			int c;
+			while ((c = in.read()) >= 0)
+				sb.append((char) c);
+			return sb.toString();
+		} finally {
+			s.close();
+		}
+	}
+
+	@Test
+	public void testSharedForward() throws Exception {
+		SshServer sshd = SSHRemoteTest.server();
+		sshd.start();
+		ServerSocket target = greeter();
+		SSHSessionManager manager = new SSHSessionManager();
+		try {
+			int a = manager.forward("u", "127.0.0.1", sshd.getPort(), "pw", 0, "127.0.0.1", target.getLocalPort());
+			int b = manager.forward("u", "127.0.0.1", sshd.getPort(), "pw", 0, "127.0.0.1", target.getLocalPort());
+			assertEquals(a, b);		// 共用同一個 port forwarding
+			SSHSessionManager.ManagedSession s = manager.session("u", "127.0.0.1", sshd.getPort(), "pw");
+			assertEquals(2, s.getForwardRefs(a));
+			assertEquals("hi", read(a));
+
+			s.removeForward(a);
+			assertEquals("hi", read(a));		// 另一個仍在使用
+			s.removeForward(a);
+			assertEquals(0, s.getForwardRefs(a));
+			boolean closed = false;
+			for (int i = 0; i < 20 && !closed; i++) {		// jsch 關閉 listen socket 時, 已在 accept 的 thread 可能還會接受一個連線
+				try {
+					read(a);
+					Thread.sleep(50);
+				} catch (IOException e) {
+					closed = true;
+				}
+			}
+			assertTrue(closed);		// 最後一個使用者釋放後關閉 port
+		} finally {
+			manager.close();
+			target.close();
+			sshd.stop(true);
+		}
+	}
+}
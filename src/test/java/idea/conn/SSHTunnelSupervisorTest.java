@@ -0,0 +1,99 @@
+/**
+ *
+ */
+package idea.conn;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.net.ServerSocket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sshd.common.session.helpers.AbstractSession;
+import org.apache.sshd.server.SshServer;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class SSHTunnelSupervisorTest {
+	@Test
+	public void testRecovery() throws Exception {
+		SshServer sshd = SSHRemoteTest.server();
+		sshd.start();
+		ServerSocket target = SSHSessionManagerTest.greeter();
+		SSH ssh = new SSH();
+		ssh.setSession("u", "127.0.0.1", sshd.getPort(), "pw");
+		ssh.setPorts(0, "127.0.0.1", target.getLocalPort());
+		ssh.setSessionManager(new SSHSessionManager());
+
+		final AtomicInteger downs = new AtomicInteger(), recoveries = new AtomicInteger();
+		SSHTunnelSupervisor supervisor = new SSHTunnelSupervisor(ssh);
+		supervisor.setInterval(60000, 100);		// 由測試呼叫 check()
+		supervisor.setProbeTimeout(2000);
+		supervisor.addListener(new SSHTunnelSupervisor.Listener() {
+			public void tunnelDown() {
+				downs.incrementAndGet();
+			}
+
+			public void tunnelRecovered(long recovery_ms) {
+				recoveries.incrementAndGet();
+			}
+		});
+		try {
+			int lport = supervisor.start();
+			assertEquals("hi", SSHSessionManagerTest.read(lport));
+			assertTrue(supervisor.check());
+			assertEquals(0, supervisor.getFailures());
+
+			for (AbstractSession s : sshd.getActiveSessions())
+				s.close(true);		// 伺服器端中斷連線
+			assertTrue(supervisor.check());
+			assertEquals(1, supervisor.getFailures());
+			assertEquals(1, downs.get());
+			assertEquals(1, recoveries.get());
+			assertTrue(supervisor.getLastRecoveryMillis() >= 0);
+			assertFalse(supervisor.isDown());
+
+			assertEquals("hi", SSHSessionManagerTest.read(lport));		// 沿用原本的 port
+			SSHSessionManager.ManagedSession ms = ssh.manager.session("u", "127.0.0.1", sshd.getPort(), "pw");
+			assertEquals(1, ms.getForwardRefs(lport));		// 恢復時不重複增加使用數
+
+			supervisor.stop();
+			assertEquals(0, ms.getForwardRefs(lport));
+			assertSame(ms, ssh.manager.find("u", "127.0.0.1", sshd.getPort()));		// 外部的 session 管理不關閉
+		} finally {
+			supervisor.stop();
+			ssh.manager.close();
+			target.close();
+			sshd.stop(true);
+		}
+	}
+
+	@Test
+	public void testOwnManagerClosed() throws Exception {
+		SshServer sshd = SSHRemoteTest.server();
+		sshd.start();
+		ServerSocket target = SSHSessionManagerTest.greeter();
+		SSH ssh = new SSH();
+		ssh.setSession("u", "127.0.0.1", sshd.getPort(), "pw");
+		ssh.setPorts(0, "127.0.0.1", target.getLocalPort());
+		SSHTunnelSupervisor supervisor = new SSHTunnelSupervisor(ssh);		// 沒有設定 session 管理
+		SSHSessionManager manager = ssh.manager;
+		try {
+			int lport = supervisor.start();
+			assertEquals("hi", SSHSessionManagerTest.read(lport));
+			SSHSessionManager.ManagedSession ms = manager.find("u", "127.0.0.1", sshd.getPort());
+			assertTrue(ms.isConnected());
+
+			supervisor.stop();
+			assertFalse(ms.isConnected());
+			assertNull(manager.find("u", "127.0.0.1", sshd.getPort()));
+			assertNull(manager.monitor);		// keepalive thread 已停止
+		} finally {
+			supervisor.stop();
+			target.close();
+			sshd.stop(true);
+		}
+	}
+}
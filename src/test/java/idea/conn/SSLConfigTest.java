@@ -0,0 +1,146 @@
+/**
+ *
+ */
+package idea.conn;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.security.KeyStore;
+import java.util.concurrent.Executors;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class SSLConfigTest {
+	protected static final char[] PASSWORD = "changeit".toCharArray();
+	/** 自簽憑證的 key store. */
+	protected static KeyStore keys;
+	protected static HttpsServer server;
+
+	@BeforeClass
+	public static void setUpClass() throws Exception {
+		keys = selfSigned();
+		KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		kmf.init(keys, PASSWORD);
+		SSLContext sc = SSLContext.getInstance("TLS");
+		sc.init(kmf.getKeyManagers(), null, null);
+
+		server = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setHttpsConfigurator(new HttpsConfigurator(sc));
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange t) throws IOException {
+				HttpHedgeTest.reply(t, 200, "ok");
+			}
+		});
+		server.start();
+	}
+
+	@AfterClass
+	public static void tearDownClass() {
+		server.stop(0);
+	}
+
+	/**
+	 * 以 keytool 建立 127.0.0.1 的自簽憑證.
+	 *
+	 * @return key store
+	 */
+	static KeyStore selfSigned() throws Exception {
+		File f = File.createTempFile("ssl", ".p12");
+		f.delete();		// keytool 不接受空檔案
+		try {
+			String keytool = new File(System.getProperty("java.home"), "bin/keytool").getPath();
+			Process p = new ProcessBuilder(keytool, "-genkeypair", "-alias", "test", "-keyalg", "RSA", "-keysize", "2048",
+					"-dname", "CN=127.0.0.1", "-ext", "SAN=ip:127.0.0.1", "-validity", "2", "-storetype", "PKCS12",
+					"-keystore", f.getPath(), "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+					.redirectErrorStream(true).start();
+			assertEquals(0, p.waitFor());
+			KeyStore ks = KeyStore.getInstance("PKCS12");
+			InputStream in = new FileInputStream(f);
+			try {
+				ks.load(in, PASSWORD);
+			} finally {
+				in.close();
+			}
+			return ks;
+		} finally {
+			f.delete();
+		}
+	}
+
+	protected String get(SSLConfig ssl) throws IOException {
+		HttpConn c = new HttpConn();
+		c.setSSLConfig(ssl);		// 必須在開啟連線前設定
+		c.openConnection("https://127.0.0.1:" + server.getAddress().getPort() + "/");
+		return c.request();
+	}
+
+	/**
+	 * 等待 handshake 記錄完成, JDK 在另一個 thread 通知 HandshakeCompletedListener.
+	 *
+	 * @param ssl TLS 設定
+	 * @param n   handshake 次數
+	 */
+	static void awaitHandshakes(SSLConfig ssl, long n) throws InterruptedException {
+		for (int i = 0; i < 100 && ssl.getFullHandshakes() + ssl.getResumedHandshakes() < n; i++)
+			Thread.sleep(20);
+	}
+
+	@Test
+	public void testSessionResumption() throws Exception {
+		SSLConfig ssl = new SSLConfig();
+		ssl.setTrustAll(true);
+		assertEquals("ok", get(ssl));
+		awaitHandshakes(ssl, 1);
+		assertEquals(1, ssl.getFullHandshakes());
+		assertEquals(0, ssl.getResumedHandshakes());
+
+		Thread.sleep(5);		// session 建立時間以 milliseconds 比較
+		assertEquals("ok", get(ssl));		// 沒有 keep-alive, 重新連線但沿用 session
+		awaitHandshakes(ssl, 2);
+		assertEquals(1, ssl.getFullHandshakes());
+		assertEquals(1, ssl.getResumedHandshakes());
+		assertTrue(ssl.getHandshakeMillis() > 0);
+	}
+
+	@Test
+	public void testTrustIsPerClient() throws Exception {
+		SSLConfig trust_all = new SSLConfig();
+		trust_all.setTrustAll(true);
+		assertEquals("ok", get(trust_all));
+
+		try {
+			get(null);		// JVM 預設值不受其他 client 的設定影響
+			fail("預設設定應拒絕自簽憑證");
+		} catch (IOException e) {
+		}
+		try {
+			get(new SSLConfig());
+			fail("預設的 SSLConfig 應拒絕自簽憑證");
+		} catch (IOException e) {
+		}
+
+		KeyStore trust = KeyStore.getInstance("PKCS12");
+		trust.load(null, null);
+		trust.setCertificateEntry("test", keys.getCertificate("test"));
+		SSLConfig custom = new SSLConfig();
+		custom.setTrustStore(trust);
+		assertEquals("ok", get(custom));
+	}
+}
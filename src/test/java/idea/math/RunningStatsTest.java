@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package idea.math;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.Random;
+import java.util.stream.DoubleStream;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class RunningStatsTest {
+	static double[] data(int n, long seed) {
+		Random rand = new Random(seed);
+		double[] x = new double[n];
+		for (int i = 0; i < n; i++)
+			x[i] = 1e6 + Math.exp(rand.nextGaussian());	// 平均很大且偏斜, 容易產生誤差
+		return x;
+	}
+
+	/** 兩次讀取的標準算法. */
+	static double[] twoPass(double[] x) {
+		double mean = 0;
+		for (double v : x)
+			mean += v;
+		mean /= x.length;
+		double m2 = 0, m3 = 0, m4 = 0;
+		for (double v : x) {
+			double d = v - mean;
+			m2 += d * d;
+			m3 += d * d * d;
+			m4 += d * d * d * d;
+		}
+		int n = x.length;
+		return new double[] { mean, m2 / n, Math.sqrt(n) * m3 / Math.pow(m2, 1.5), n * m4 / (m2 * m2) - 3 };
+	}
+
+	@Test
+	public void testMoments() {
+		double[] x = data(10000, 1);
+		double[] e = twoPass(x);
+		RunningStats s = RunningStats.of(x);
+		assertEquals(10000, s.getCount());
+		assertEquals(e[0], s.getMean(), 1e-8);
+		assertEquals(e[1], s.getVariance(), 1e-9 * e[1]);
+		assertEquals(e[2], s.getSkewness(), 1e-8);
+		assertEquals(e[3], s.getKurtosis(), 1e-7);
+		assertEquals(e[1] * 10000 / 9999, s.getSampleVariance(), 1e-9 * e[1]);
+	}
+
+	@Test
+	public void testCombine() {
+		double[] x = data(3001, 2);
+		RunningStats all = RunningStats.of(x);
+		RunningStats a = new RunningStats(), b = new RunningStats(), c = new RunningStats();
+		a.add(x, 0, 7);
+		b.add(x, 7, 2000);
+		c.add(x, 2000, x.length);
+		RunningStats m = a.combine(b).combine(c).combine(new RunningStats());
+		assertEquals(all.getCount(), m.getCount());
+		assertEquals(all.getMean(), m.getMean(), 1e-8);
+		assertEquals(all.getVariance(), m.getVariance(), 1e-9 * all.getVariance());
+		assertEquals(all.getSkewness(), m.getSkewness(), 1e-8);
+		assertEquals(all.getKurtosis(), m.getKurtosis(), 1e-7);
+		assertEquals(all.getMin(), m.getMin(), 0);
+		assertEquals(all.getMax(), m.getMax(), 0);
+
+		RunningStats p = RunningStats.of(DoubleStream.of(x).parallel());
+		assertEquals(all.getVariance(), p.getVariance(), 1e-9 * all.getVariance());
+		assertEquals(all.getKurtosis(), p.getKurtosis(), 1e-7);
+	}
+
+	@Test
+	public void testSeries() {
+		double[] x = { 2, 4, 4, 4, 5, 5, 7, 9 };
+		assertEquals(4, Series.variance(x), 1e-12);
+		assertEquals(2, Series.staDev(x), 1e-12);
+		assertArrayEquals(new double[] { -1.5, -0.5, -0.5, -0.5, 0, 0, 1, 2 }, Series.zScore(x), 1e-12);
+		assertEquals(2, Series.stats(x).getMin(), 0);
+		assertTrue(Double.isNaN(Series.variance(new double[0])));
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ *
+ */
+package idea.math;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.Random;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class SeriesKernelsTest {
+	@Test
+	public void testAgainstSimpleLoops() {
+		Random rand = new Random(3);
+		int[] lengths = { 0, 1, 3, 4, 5, 7, SeriesKernels.BLOCK - 1, SeriesKernels.BLOCK, SeriesKernels.BLOCK * 3 + 5 };
+		for (int n : lengths) {
+			double[] x = new double[n], y = new double[n];
+			for (int i = 0; i < n; i++) {
+				x[i] = rand.nextDouble() * 10;
+				y[i] = rand.nextDouble() * 10;
+			}
+			double sum = 0, max = 0, sse = 0;
+			for (int i = 0; i < n; i++) {
+				sum += x[i];
+				max = Math.max(max, x[i]);
+				sse += (x[i] - y[i]) * (x[i] - y[i]);
+			}
+			assertEquals(sum, SeriesKernels.sum(x, 0, n), 1e-9);
+			assertEquals(max, SeriesKernels.max(x, 0, n, 0), 0);
+			assertEquals(sse, SeriesKernels.sumSquaredError(x, y, 0, n), 1e-9);
+			if (n == 0)
+				continue;
+			double[] e = RunningStatsTest.twoPass(x);
+			double[] m = SeriesKernels.moments(x, 0, n);
+			assertEquals(e[0], m[0], 1e-12);
+			assertEquals(e[1], m[1] / n, 1e-12);
+			double[] norm = Series.normalize(x);
+			assertEquals(x[n - 1] / max, norm[n - 1], 0);
+		}
+	}
+
+	@Test
+	public void testLargeOffset() {
+		double[] x = RunningStatsTest.data(SeriesKernels.BLOCK * 5 + 17, 4);
+		double[] e = RunningStatsTest.twoPass(x);
+		assertEquals(e[0], Series.mean(x), 1e-8);
+		assertEquals(e[1], Series.variance(x), 1e-9 * e[1]);
+		assertEquals(Series.stats(x).getVariance(), Series.variance(x), 1e-9 * e[1]);
+		assertEquals(0, Series.mean(Series.zScore(x)), 1e-9);
+	}
+
+	@Test
+	public void testParallel() {
+		double[] x = RunningStatsTest.data(SeriesKernels.LEAF * 6 + 123, 5);
+		double[] y = RunningStatsTest.data(x.length, 6);
+		double mean = Series.mean(x), var = Series.variance(x), mse = Series.meanSquareError(x, y);
+		double[] norm = Series.normalize(x), z = Series.zScore(x);
+		int threshold = Series.getParallelThreshold();
+		try {
+			Series.setParallelThreshold(SeriesKernels.LEAF + 1);
+			assertEquals(mean, Series.mean(x), 1e-12 * mean);
+			assertEquals(var, Series.variance(x), 1e-9 * var);
+			assertEquals(mse, Series.meanSquareError(x, y), 1e-9 * mse);
+			assertArrayEquals(norm, Series.normalize(x), 0);
+			assertArrayEquals(z, Series.zScore(x), 1e-6);
+			assertTrue(SeriesKernels.parallel(x.length));		// 只由長度決定, 單一 CPU 也使用相同的分段
+			assertArrayEquals(SeriesKernels.invoke(new SeriesKernels.Moments(x, 0, x.length)), SeriesKernels.moments(x), 0);
+		} finally {
+			Series.setParallelThreshold(threshold);
+		}
+
+		// 直接執行 task, 不受 CPU 數影響
+		double[] m = SeriesKernels.invoke(new SeriesKernels.Moments(x, 0, x.length));
+		assertEquals(mean, m[0], 1e-12 * mean);
+		assertEquals(var, m[1] / x.length, 1e-9 * var);
+		assertArrayEquals(m, SeriesKernels.invoke(new SeriesKernels.Moments(x, 0, x.length)), 0);	// 與排程無關
+		assertEquals(mean * x.length, SeriesKernels.invoke(new SeriesKernels.Reduce(SeriesKernels.SUM, x, null, 0, x.length)), 1e-12 * mean * x.length);
+		assertEquals(mse * x.length, SeriesKernels.invoke(new SeriesKernels.Reduce(SeriesKernels.SSE, x, y, 0, x.length)), 1e-9 * mse * x.length);
+		double[] out = new double[x.length];
+		double max = SeriesKernels.invoke(new SeriesKernels.Reduce(SeriesKernels.MAX, x, null, 0, x.length));
+		SeriesKernels.invoke(new SeriesKernels.Apply(x, 0, x.length, 0, max, out));
+		assertArrayEquals(norm, out, 0);
+	}
+
+	@Test
+	public void testMeanSquareError() {
+		double[] x = { 1, 2, 3, 4, 5 }, y = { 2, 2, 1, 4, 8 };
+		assertEquals((1 + 0 + 4 + 0 + 9) / 5.0, Series.meanSquareError(x, y), 0);
+		assertEquals(Math.sqrt(14 / 5.0), Series.rootMeanSquareError(x, y), 0);
+	}
+}
@@ -0,0 +1,107 @@
+/**
+ *
+ */
+package idea.math;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class SeriesTest {
+	static double[] toArray(DoubleBuffer b, int n) {
+		double[] a = new double[n];
+		for (int i = 0; i < n; i++)
+			a[i] = b.get(b.position() + i);
+		return a;
+	}
+
+	@Test
+	public void testInPlace() {
+		double[] x = RunningStatsTest.data(SeriesKernels.BLOCK * 2 + 9, 7);
+		int w = 5;
+
+		double[] e = Series.normalize(x), a = x.clone();
+		assertSame(a, Series.normalize(a, a));
+		assertArrayEquals(e, a, 0);
+
+		e = Series.zScore(x);
+		a = x.clone();
+		assertArrayEquals(e, Series.zScore(a, a), 0);
+
+		e = Series.ewma(x, 0.3);
+		a = x.clone();
+		assertArrayEquals(e, Series.ewma(a, 0.3, a), 0);
+
+		double[][] expected = { Series.rollingMean(x, w), Series.rollingVariance(x, w), Series.rollingMin(x, w),
+				Series.rollingMax(x, w), Series.rollingZScore(x, w) };
+		for (int k = 0; k < expected.length; k++) {
+			a = x.clone();
+			Series.rolling(a, w, k, a);
+			for (int i = 0; i < expected[k].length; i++)
+				assertEquals(expected[k][i], a[i], 0);
+		}
+
+		assertArrayEquals(new double[] { 0, 0, 7 }, Series.normalize(new double[] { -1, -2 }, new double[] { 5, 6, 7 }), 0);
+	}
+
+	@Test
+	public void testBuffer() {
+		double[] x = RunningStatsTest.data(SeriesKernels.BLOCK * 2 + 9, 8);
+		int n = x.length, w = 4;
+		DoubleBuffer direct = ByteBuffer.allocateDirect(8 * (n + 3)).asDoubleBuffer();
+		direct.position(3);
+		direct.put(x);
+		direct.position(3);
+
+		DoubleBuffer out = DoubleBuffer.allocate(n + 1);
+		out.position(1);
+		Series.normalize(direct, out);
+		assertEquals(1, out.position());
+		assertEquals(3, direct.position());
+		assertArrayEquals(Series.normalize(x), toArray(out, n), 0);
+
+		Series.zScore(direct, out);
+		assertArrayEquals(Series.zScore(x), toArray(out, n), 1e-9);
+
+		Series.ewma(direct, 0.2, out);
+		assertArrayEquals(Series.ewma(x, 0.2), toArray(out, n), 0);
+
+		Series.rollingMax(direct, w, out);
+		assertArrayEquals(Series.rollingMax(x, w), toArray(out, n - w + 1), 0);
+
+		Series.rollingVariance(direct, w, direct);		// in-place
+		assertArrayEquals(Series.rollingVariance(x, w), toArray(direct, n - w + 1), 0);
+	}
+
+	@Test
+	public void testMap() throws Exception {
+		File in = File.createTempFile("series", ".bin"), out = File.createTempFile("series", ".out");
+		out.delete();
+		try {
+			double[] x = { 3, 1, 4, 1, 5, 9, 2, 6 };
+			DoubleBuffer w = Series.map(in.getPath(), 0, x.length, true);
+			w.put(x);
+
+			DoubleBuffer m = Series.map(in.getPath(), false);
+			assertEquals(x.length, m.remaining());
+			assertArrayEquals(x, toArray(m, x.length), 0);
+
+			Series.zScore(m, Series.map(out.getPath(), 0, x.length, true));
+			assertEquals(8 * x.length, out.length());
+			assertArrayEquals(Series.zScore(x), toArray(Series.map(out.getPath(), false), x.length), 1e-12);
+
+			DoubleBuffer tail = Series.map(in.getPath(), 5, 3, false);
+			assertArrayEquals(new double[] { 9, 2, 6 }, toArray(tail, 3), 0);
+		} finally {
+			in.delete();
+			out.delete();
+		}
+	}
+}
@@ -0,0 +1,97 @@
+/**
+ *
+ */
+package idea.math;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class SlidingWindowTest {
+	@Test
+	public void testAgainstSlices() {
+		Random rand = new Random(9);
+		double[] x = new double[SlidingWindow.RESYNC * 7 * 3 + 11];
+		for (int i = 0; i < x.length; i++)
+			x[i] = 1000 + rand.nextGaussian() * ((i / 100) % 2 == 0? 1 : 50);
+		int w = 7;
+		double[] mean = Series.rollingMean(x, w), var = Series.rollingVariance(x, w);
+		double[] min = Series.rollingMin(x, w), max = Series.rollingMax(x, w), z = Series.rollingZScore(x, w);
+		assertEquals(x.length - w + 1, mean.length);
+		for (int i = 0; i < mean.length; i++) {
+			double[] slice = Arrays.copyOfRange(x, i, i + w);
+			double[] sorted = slice.clone();
+			Arrays.sort(sorted);
+			assertEquals(Series.mean(slice), mean[i], 1e-9);
+			assertEquals(Series.variance(slice), var[i], 1e-7);
+			assertEquals(sorted[0], min[i], 0);
+			assertEquals(sorted[w - 1], max[i], 0);
+			assertEquals(Series.zScore(slice)[w - 1], z[i], 1e-6);
+		}
+	}
+
+	@Test
+	public void testStreaming() {
+		SlidingWindow win = new SlidingWindow(3);
+		assertTrue(Double.isNaN(win.getMin()));
+		win.add(5);
+		win.add(1);
+		assertFalse(win.isFull());
+		assertEquals(2, win.getCount());
+		assertEquals(3, win.getMean(), 0);
+		win.add(3);
+		win.add(4);		// 移除 5
+		assertTrue(win.isFull());
+		assertEquals(1, win.get(0), 0);
+		assertEquals(4, win.get(2), 0);
+		assertEquals(8 / 3.0, win.getMean(), 1e-12);
+		assertEquals(1, win.getMin(), 0);
+		assertEquals(4, win.getMax(), 0);
+		win.add(2);
+		win.add(2);		// 移除 1 與 3
+		assertEquals(2, win.getMin(), 0);
+		assertEquals(4, win.getMax(), 0);
+		assertTrue(Series.rollingMean(new double[] { 1, 2 }, 3).length == 0);
+	}
+
+	@Test
+	public void testNonFinite() {
+		for (double bad : new double[] { Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY }) {
+			SlidingWindow win = new SlidingWindow(3);
+			win.add(1);
+			win.add(2);
+			win.add(bad);
+			assertTrue(Double.isNaN(win.getMean()));
+			assertTrue(Double.isNaN(win.getVariance()));
+			win.add(3);
+			win.add(bad);
+			win.add(4);		// [3, bad, 4]
+			assertTrue(Double.isNaN(win.getMean()));
+			win.add(5);
+			assertTrue(Double.isNaN(win.getMean()));
+			win.add(6);		// 非有限值已離開視窗
+			assertEquals(5, win.getMean(), 0);
+			assertEquals(2 / 3.0, win.getVariance(), 1e-12);
+			win.add(8);
+			assertEquals(19 / 3.0, win.getMean(), 1e-12);
+			assertEquals(Series.variance(new double[] { 5, 6, 8 }), win.getVariance(), 1e-12);
+		}
+	}
+
+	@Test
+	public void testEwma() {
+		Ewma e = Ewma.ofSpan(3);
+		assertEquals(0.5, e.getAlpha(), 0);
+		e.add(10);
+		e.add(20);
+		assertEquals(15, e.getMean(), 0);
+		assertEquals(0.5 * (0 + 0.5 * 100), e.getVariance(), 0);
+		assertArrayEquals(new double[] { 10, 15, 12.5 }, Series.ewma(new double[] { 10, 20, 10 }, 0.5), 0);
+	}
+}
@@ -0,0 +1,158 @@
+/**
+ *
+ */
+package idea.util;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * @author Miles Chen
+ *
+ */
+public class DownloadTest {
+	protected static final byte[] DATA = new byte[64 << 10];
+	static {
+		new Random(1).nextBytes(DATA);
+	}
+
+	protected HttpServer server;
+	/** 已送出的內容 bytes. */
+	protected final AtomicLong served = new AtomicLong();
+	/** 可送出的內容 bytes, 超過後中斷連線. */
+	protected volatile long budget = Long.MAX_VALUE;
+	protected File dir;
+
+	@Before
+	public void setUp() throws IOException {
+		dir = Files.createTempDirectory("download").toFile();
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/data", new HttpHandler() {		// 支援 Range 的檔案
+			public void handle(HttpExchange t) throws IOException {
+				t.getResponseHeaders().set("Accept-Ranges", "bytes");
+				t.getResponseHeaders().set("ETag", "\"v1\"");
+				if ("HEAD".equals(t.getRequestMethod())) {
+					t.getResponseHeaders().set("Content-Length", String.valueOf(DATA.length));
+					t.sendResponseHeaders(200, -1);
+					t.close();
+					return;
+				}
+				String range = t.getRequestHeaders().getFirst("Range");
+				String[] r = range.substring("bytes=".length()).split("-");
+				int from = Integer.parseInt(r[0]), to = Integer.parseInt(r[1]) + 1;
+				if (served.get() >= budget) {
+					t.close();		// 中斷連線, 沒有回應
+					return;
+				}
+				t.sendResponseHeaders(206, to - from);
+				OutputStream out = t.getResponseBody();
+				try {
+					for (int pos = from; pos < to; pos += 1024) {
+						if (served.get() >= budget)
+							break;
+						int n = Math.min(1024, to - pos);
+						out.write(DATA, pos, n);
+						out.flush();
+						served.addAndGet(n);
+					}
+				} finally {
+					t.close();
+				}
+			}
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+		for (File f : dir.listFiles())
+			f.delete();
+		dir.delete();
+	}
+
+	protected Download download() {
+		Download d = new Download("http://127.0.0.1:" + server.getAddress().getPort() + "/data", new File(dir, "data.bin").getPath());
+		d.setThreads(4, 8 << 10);
+		d.setRetries(0);
+		d.buffer_size = 1024;
+		return d;
+	}
+
+	static String md5(byte[] b) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (byte x : MessageDigest.getInstance("MD5").digest(b))
+			sb.append(String.format("%02x", x));
+		return sb.toString();
+	}
+
+	@Test
+	public void testResume() throws Exception {
+		budget = DATA.length / 2;
+		try {
+			download().start();
+			fail("連線中斷應丟出例外");
+		} catch (IOException e) {
+		}
+		File part = new File(dir, "data.bin.part"), state = new File(dir, "data.bin.part.state");
+		assertTrue(part.exists());
+		assertTrue(state.exists());
+
+		long first = served.get();
+		budget = Long.MAX_VALUE;
+		Download d = download();
+		d.start();
+		assertArrayEquals(DATA, Files.readAllBytes(new File(dir, "data.bin").toPath()));
+		assertTrue(served.get() - first < DATA.length);		// 只下載剩下的部分
+		assertFalse(part.exists());
+		assertFalse(state.exists());
+	}
+
+	@Test
+	public void testChecksumMismatchThenRetry() throws Exception {
+		Download d = download();
+		d.setChecksum("MD5", "00000000000000000000000000000000");
+		try {
+			d.start();
+			fail("checksum 不符應丟出例外");
+		} catch (IOException e) {
+		}
+		assertFalse(new File(dir, "data.bin.part").exists());
+		assertFalse(new File(dir, "data.bin.part.state").exists());
+		assertFalse(new File(dir, "data.bin").exists());
+
+		d = download();
+		d.setChecksum("MD5", md5(DATA));
+		d.start();
+		assertArrayEquals(DATA, Files.readAllBytes(new File(dir, "data.bin").toPath()));
+	}
+
+	@Test
+	public void testMissingPartRestarts() throws Exception {
+		budget = DATA.length / 2;
+		try {
+			download().start();
+		} catch (IOException e) {
+		}
+		assertTrue(new File(dir, "data.bin.part").delete());		// 只剩進度檔
+
+		budget = Long.MAX_VALUE;
+		download().start();
+		assertArrayEquals(DATA, Files.readAllBytes(new File(dir, "data.bin").toPath()));
+	}
+}